@@ -0,0 +1,27 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+/**
+ * 末尾に数値データを追加できる{@link Column}
+ *
+ * @author smuraoka
+ */
+public interface AppendableColumn extends Column {
+
+    //@method_def_start: add
+    /**
+     * 数値データを末尾に追加する。
+     *
+     * @param value 追加する数値データ
+     */
+    public void add(double value);
+    //@method_def_end
+
+}
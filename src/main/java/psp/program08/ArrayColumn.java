@@ -0,0 +1,88 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.util.Arrays;
+
+/**
+ * 数値データをプリミティブ型の配列に保持する{@link AppendableColumn}の実装
+ *
+ * @author smuraoka
+ */
+public class ArrayColumn implements AppendableColumn {
+
+    private double[] values; //数値データ
+    private int size = 0; //数値データの件数
+
+    //@method_def_start: ArrayColumn
+    /**
+     * 空の数値データ一覧を作成する。
+     */
+    public ArrayColumn() {
+        this.values = new double[16];
+    }
+    //@method_def_end
+
+    //@method_def_start: ArrayColumn_doubleArray
+    /**
+     * 配列の内容を複製して数値データ一覧を作成する。
+     *
+     * @param values 数値データ
+     */
+    public ArrayColumn(double[] values) {
+        this.values = values.clone();
+        this.size = values.length;
+    }
+    //@method_def_end
+
+    //@method_def_start: add
+    /**
+     * 数値データを末尾に追加する。
+     *
+     * @param value 追加する数値データ
+     */
+    @Override
+    public void add(double value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+    //@method_def_end
+
+    //@method_def_start: size
+    /**
+     * 数値データの件数を取得する。
+     *
+     * @return 数値データの件数
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+    //@method_def_end
+
+    //@method_def_start: get
+    /**
+     * 位置を指定して数値データを取得する。
+     *
+     * @param index 数値データの位置（0から始まる）
+     * @return 数値データ
+     */
+    @Override
+    public double get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(
+                    "index=" + index + ": size=" + size);
+        }
+        return values[index];
+    }
+    //@method_def_end
+
+}
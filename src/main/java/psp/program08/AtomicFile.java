@@ -0,0 +1,78 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+
+/**
+ * ファイルの内容を置き換えによって書き込む。
+ *
+ * <p>
+ * 同じディレクトリの一時ファイルに書き込んだ後に置き換えるため、書き込み途中のファイルが読まれることはない。
+ * 一時ファイルは所有者だけが読み書きできる権限で作成されるため、POSIXのファイルシステムでは
+ * 置き換える前に通常のファイルと同じ{@code rw-r--r--}に設定する。
+ * スナップショットファイルとシャードの十分統計量のファイルの書き込みに使用する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class AtomicFile {
+
+    private static final String PERMISSIONS = "rw-r--r--"; //書き込んだファイルの権限
+
+    //@method_def_start: AtomicFile
+    /**
+     * インスタンスは作成しない。
+     */
+    private AtomicFile() {
+    }
+    //@method_def_end
+
+    //@method_def_start: write
+    /**
+     * バッファの残りの内容でファイルを置き換える。
+     *
+     * @param file 出力先のファイル
+     * @param buffer 書き込む内容
+     * @throws IOException ファイルの書き込みに失敗した場合
+     */
+    public static void write(File file, ByteBuffer buffer) throws IOException {
+        final Path target = file.getAbsoluteFile().toPath();
+        final Path temp = Files.createTempFile(
+                target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            if (Files.getFileStore(temp).supportsFileAttributeView(
+                    PosixFileAttributeView.class)) {
+                Files.setPosixFilePermissions(temp,
+                        PosixFilePermissions.fromString(PERMISSIONS));
+            }
+            try (FileChannel channel = FileChannel.open(
+                    temp, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    //@method_def_end
+
+}
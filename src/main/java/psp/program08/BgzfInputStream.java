@@ -0,0 +1,291 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * BGZF形式のファイルを並列に展開しながら読み込むストリーム
+ *
+ * <p>
+ * BGZFはgzipメンバーを連結した形式で、各メンバーの追加フィールド{@code "BC"}に圧縮後の大きさが
+ * 記録されている。展開せずに次のメンバーの位置がわかるため、呼び出し元のスレッドで圧縮されたブロックを
+ * 順に読み込み、展開は複数のスレッドで先行して実行する。展開した内容はファイル内の順序で返す。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class BgzfInputStream extends InputStream {
+
+    private static final int FIXED_HEADER_SIZE = 12; //追加フィールドより前のヘッダの大きさ
+    private static final int TRAILER_SIZE = 8; //CRC32と展開後の大きさ
+
+    private final InputStream in; //圧縮されたデータ
+    private final ExecutorService executor; //展開処理を実行するスレッド
+    private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>(); //展開中のブロック
+    private final int readAhead; //先行して展開するブロックの最大数
+    private boolean endOfInput; //圧縮されたデータを全て読み込んだか
+    private byte[] current = new byte[0]; //展開済みのブロック
+    private int position; //展開済みのブロック内の読み込み位置
+
+    //@method_def_start: BgzfInputStream
+    /**
+     * 圧縮されたデータと展開に使用するスレッド数を指定して作成する。
+     *
+     * @param in 圧縮されたデータ
+     * @param threads 展開に使用するスレッド数
+     */
+    public BgzfInputStream(InputStream in, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads=" + threads);
+        }
+        this.in = in;
+        this.readAhead = threads * 4;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "bgzf-inflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    //@method_def_end
+
+    //@method_def_start: read
+    /**
+     * 展開した内容を1バイト読み込む。
+     *
+     * @return 読み込んだ値、終端に達した場合は{@code -1}
+     * @throws IOException 読み込み、または展開に失敗した場合
+     */
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+    //@method_def_end
+
+    //@method_def_start: read_byteArray_int_int
+    /**
+     * 展開した内容を配列に読み込む。
+     *
+     * @param buffer 読み込み先
+     * @param offset 読み込み先の開始位置
+     * @param length 読み込む最大のバイト数
+     * @return 読み込んだバイト数、終端に達した場合は{@code -1}
+     * @throws IOException 読み込み、または展開に失敗した場合
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int count = Math.min(length, current.length - position);
+        System.arraycopy(current, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+    //@method_def_end
+
+    //@method_def_start: fill
+    /**
+     * 展開済みのブロックを読み終えていれば、次のブロックを得る。
+     *
+     * @return 読み込める内容がある場合は{@code true}
+     */
+    private boolean fill() throws IOException {
+        while (position == current.length) {
+            while (!endOfInput && pending.size() < readAhead) {
+                final byte[] block = readBlock();
+                if (block == null) {
+                    endOfInput = true;
+                } else {
+                    pending.add(executor.submit(() -> inflate(block)));
+                }
+            }
+            if (pending.isEmpty()) {
+                return false;
+            }
+            current = await(pending.poll());
+            position = 0;
+        }
+        return true;
+    }
+    //@method_def_end
+
+    //@method_def_start: readBlock
+    /**
+     * 圧縮されたブロックを1つ読み込む。
+     *
+     * @return ヘッダを除いた圧縮データと末尾の8バイト、終端に達した場合は{@code null}
+     */
+    private byte[] readBlock() throws IOException {
+        final byte[] header = new byte[FIXED_HEADER_SIZE];
+        final int first = in.read(header, 0, header.length);
+        if (first < 0) {
+            return null;
+        }
+        readFully(header, first, header.length - first);
+        if ((header[0] & 0xFF) != 0x1F || (header[1] & 0xFF) != 0x8B
+                || header[2] != 8 || (header[3] & 0x04) == 0) {
+            throw new IOException("Illegal format of BGZF block");
+        }
+        final int extraLength = readShort(header, 10);
+        final byte[] extra = new byte[extraLength];
+        readFully(extra, 0, extra.length);
+
+        //追加フィールドからブロックの大きさ（BSIZE＋1）を得る
+        int blockSize = -1;
+        for (int i = 0; i + 4 <= extra.length;) {
+            final int fieldLength = readShort(extra, i + 2);
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && fieldLength == 2
+                    && i + 6 <= extra.length) {
+                blockSize = readShort(extra, i + 4) + 1;
+            }
+            i += 4 + fieldLength;
+        }
+        final int remaining = blockSize - FIXED_HEADER_SIZE - extraLength;
+        if (blockSize < 0 || remaining < TRAILER_SIZE) {
+            throw new IOException("Illegal format of BGZF block");
+        }
+        final byte[] block = new byte[remaining];
+        readFully(block, 0, block.length);
+        return block;
+    }
+    //@method_def_end
+
+    //@method_def_start: inflate
+    /**
+     * ブロックを展開し、CRC32と大きさを検査する。
+     *
+     * @param block ヘッダを除いた圧縮データと末尾の8バイト
+     * @return 展開した内容
+     */
+    private static byte[] inflate(byte[] block) throws IOException {
+        final int trailer = block.length - TRAILER_SIZE;
+        final int expectedCrc = readInt(block, trailer);
+        final int size = readInt(block, trailer + 4);
+        final byte[] result = new byte[size];
+        final Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, 0, block.length);
+            int count = 0;
+            while (count < size) {
+                final int n = inflater.inflate(result, count, size - count);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                count += n;
+            }
+            if (count != size) {
+                throw new IOException("Broken BGZF block: size");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Broken BGZF block", e);
+        } finally {
+            inflater.end();
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(result, 0, size);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("Broken BGZF block: crc");
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: await
+    /**
+     * 展開の終了を待って結果を得る。
+     */
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while inflating BGZF block");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: readFully
+    /**
+     * 指定したバイト数を読み込む。
+     */
+    private void readFully(byte[] buffer, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            final int n = in.read(buffer, offset, length);
+            if (n < 0) {
+                throw new EOFException("Truncated BGZF block");
+            }
+            offset += n;
+            length -= n;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: readShort
+    /**
+     * リトルエンディアンの符号なし2バイト整数を読み取る。
+     */
+    private static int readShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8;
+    }
+    //@method_def_end
+
+    //@method_def_start: readInt
+    /**
+     * リトルエンディアンの4バイト整数を読み取る。
+     */
+    private static int readInt(byte[] buffer, int offset) {
+        return readShort(buffer, offset) | readShort(buffer, offset + 2) << 16;
+    }
+    //@method_def_end
+
+    //@method_def_start: close
+    /**
+     * 展開処理を停止し、圧縮されたデータを閉じる。
+     *
+     * @throws IOException 閉じられなかった場合
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        pending.clear();
+        in.close();
+    }
+    //@method_def_end
+
+}
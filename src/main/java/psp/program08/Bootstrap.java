@@ -0,0 +1,456 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ブートストラップ法による予測区間
+ *
+ * <p>
+ * 履歴データを復元抽出した標本で回帰モデルを計算し直し、見積値の予測誤差の分布から予測区間を求める。
+ * 残差の正規性を仮定しないため、工数のように分布が偏った履歴データにも使用できる。
+ * 標本は作成せず、抽出した行をその場で十分統計量（{@link SufficientStatistics}）に加算する。
+ * </p>
+ *
+ * <p>
+ * 標本ごとの乱数生成器は、指定された種から{@link SplittableRandom#split()}で標本の順に分割しておく。
+ * 標本はフォーク・ジョインプールで並列に計算するが、結果は種だけで決まり、スレッド数には依存しない。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class Bootstrap {
+
+    /**
+     * 復元抽出の方法
+     */
+    public enum Method {
+        /**
+         * 行（説明変数と目的変数の組）を復元抽出する
+         */
+        PAIRS,
+        /**
+         * 説明変数は固定し、全件の回帰モデルの残差を復元抽出して目的変数を作り直す
+         */
+        RESIDUAL
+    }
+
+    private static final int THRESHOLD = 16; //1つのタスクで計算する標本数の上限
+    private static final int MAX_ATTEMPTS = 100; //グラム行列が正則でない標本を抽出し直す回数の上限
+
+    private final Method method; //復元抽出の方法
+    private final int resamples; //標本数
+    private final double estimate; //全件の回帰モデルによる見積値
+    private final double lower; //予測区間の下限
+    private final double upper; //予測区間の上限
+    private final double[] standardErrors; //多重回帰パラメータの標準誤差
+
+    //@method_def_start: Bootstrap
+    /**
+     * 計算済みの値を指定して作成する。
+     *
+     * @param method 復元抽出の方法
+     * @param resamples 標本数
+     * @param estimate 見積値
+     * @param lower 予測区間の下限
+     * @param upper 予測区間の上限
+     * @param standardErrors 多重回帰パラメータの標準誤差
+     */
+    private Bootstrap(Method method, int resamples, double estimate,
+            double lower, double upper, double[] standardErrors) {
+        this.method = method;
+        this.resamples = resamples;
+        this.estimate = estimate;
+        this.lower = lower;
+        this.upper = upper;
+        this.standardErrors = standardErrors;
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 履歴データを復元抽出して予測区間を計算する。
+     * <p>
+     * 見積値の予測誤差は{@code δ = a0'b* - (a0'b + ε*)}とし、{@code ε*}は全件の回帰モデルの
+     * てこ比で補正して中心化した残差から抽出する。予測区間は{@code δ}の分位点を見積値から引いた範囲とする。
+     * </p>
+     *
+     * @param columns 履歴データの各列の数値データ一覧（最後の列を目的変数とする）
+     * @param statistics 全件の十分統計量
+     * @param proxySizes 見積プロキシ規模
+     * @param method 復元抽出の方法
+     * @param resamples 標本数
+     * @param seed 乱数の種
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param threads スレッド数
+     * @return 予測区間
+     * @throws IllegalArgumentException 列の数が十分統計量の次元数と一致しない場合
+     */
+    public static Bootstrap of(Column[] columns,
+            SufficientStatistics statistics, double[] proxySizes,
+            Method method, int resamples, long seed,
+            double predictionIntervalRate, int threads) {
+        final int dimension = statistics.getDimension();
+        if (columns.length != dimension
+                || proxySizes.length != dimension - 1) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "columns=" + columns.length + ": proxySizes="
+                    + proxySizes.length + ": dimension=" + dimension);
+        }
+        if (resamples <= 0) {
+            throw new IllegalArgumentException("resamples=" + resamples);
+        }
+        final Sample sample = new Sample(columns, statistics, proxySizes);
+
+        //標本の順に乱数生成器を分割する
+        final SplittableRandom root = new SplittableRandom(seed);
+        final SplittableRandom[] randoms = new SplittableRandom[resamples];
+        for (int b = 0; b < resamples; b++) {
+            randoms[b] = root.split();
+        }
+
+        final double[] errors = new double[resamples];
+        final double[] parameters = new double[resamples * dimension];
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new Resample(sample, method, randoms, errors,
+                    parameters, 0, resamples));
+        } finally {
+            pool.shutdownNow();
+        }
+
+        //予測誤差の分位点から予測区間を求める
+        Arrays.sort(errors);
+        final double alpha = (1.0 - predictionIntervalRate) / 2.0;
+        final double lowerLimit
+                = sample.estimate - quantile(errors, 1.0 - alpha);
+        final double upperLimit
+                = sample.estimate - quantile(errors, alpha);
+        return new Bootstrap(method, resamples, sample.estimate,
+                lowerLimit, upperLimit,
+                standardErrors(parameters, resamples, dimension));
+    }
+    //@method_def_end
+
+    //@method_def_start: quantile
+    /**
+     * 昇順に並べた数値の分位点を線形補間で求める。
+     *
+     * @param sorted 昇順に並べた数値
+     * @param p 確率
+     * @return 分位点
+     */
+    static double quantile(double[] sorted, double p) {
+        final double position = p * (sorted.length - 1);
+        final int index = (int) Math.floor(position);
+        if (index >= sorted.length - 1) {
+            return sorted[sorted.length - 1];
+        }
+        final double fraction = position - index;
+        return sorted[index] + fraction * (sorted[index + 1] - sorted[index]);
+    }
+    //@method_def_end
+
+    //@method_def_start: standardErrors
+    /**
+     * 標本ごとの多重回帰パラメータの標準偏差を計算する。
+     *
+     * @param parameters 標本ごとの多重回帰パラメータ（標本ごとに次元数の要素を並べる）
+     * @param resamples 標本数
+     * @param dimension 次元数
+     * @return 多重回帰パラメータの標準誤差
+     */
+    private static double[] standardErrors(double[] parameters,
+            int resamples, int dimension) {
+        final double[] result = new double[dimension];
+        if (resamples < 2) {
+            return result;
+        }
+        for (int i = 0; i < dimension; i++) {
+            double sum = 0.0;
+            for (int b = 0; b < resamples; b++) {
+                sum += parameters[b * dimension + i];
+            }
+            final double mean = sum / resamples;
+            double sumSquared = 0.0;
+            for (int b = 0; b < resamples; b++) {
+                final double delta = parameters[b * dimension + i] - mean;
+                sumSquared += delta * delta;
+            }
+            result[i] = Math.sqrt(sumSquared / (resamples - 1));
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: getMethod
+    /**
+     * 復元抽出の方法を得る。
+     *
+     * @return 復元抽出の方法
+     */
+    public Method getMethod() {
+        return method;
+    }
+    //@method_def_end
+
+    //@method_def_start: getResamples
+    /**
+     * 標本数を得る。
+     *
+     * @return 標本数
+     */
+    public int getResamples() {
+        return resamples;
+    }
+    //@method_def_end
+
+    //@method_def_start: getEstimate
+    /**
+     * 全件の回帰モデルによる見積値を得る。
+     *
+     * @return 見積値
+     */
+    public double getEstimate() {
+        return estimate;
+    }
+    //@method_def_end
+
+    //@method_def_start: getLowerPredictionInterval
+    /**
+     * 予測区間の下限（LPI）を得る。
+     *
+     * @return 予測区間の下限
+     */
+    public double getLowerPredictionInterval() {
+        return lower;
+    }
+    //@method_def_end
+
+    //@method_def_start: getUpperPredictionInterval
+    /**
+     * 予測区間の上限（UPI）を得る。
+     *
+     * @return 予測区間の上限
+     */
+    public double getUpperPredictionInterval() {
+        return upper;
+    }
+    //@method_def_end
+
+    //@method_def_start: getStandardError
+    /**
+     * 多重回帰パラメータの標準誤差（標本ごとのパラメータの標準偏差）を得る。
+     *
+     * @param index パラメータの位置（0は定数項）
+     * @return 標準誤差
+     */
+    public double getStandardError(int index) {
+        return standardErrors[index];
+    }
+    //@method_def_end
+
+    /**
+     * 復元抽出の元になる履歴データと全件の回帰モデル
+     */
+    private static final class Sample {
+
+        private final int count; //履歴データの個数
+        private final int dimension; //履歴データの次元数
+        private final double[] rows; //履歴データ（行ごとに次元数の要素を並べる）
+        private final double[] fitted; //全件の回帰モデルによる目的変数の予測値
+        private final double[] residuals; //てこ比で補正して中心化した残差
+        private final double[] proxySizes; //見積プロキシ規模
+        private final double estimate; //全件の回帰モデルによる見積値
+
+        //@method_def_start: Sample
+        /**
+         * 各列の数値データ一覧と全件の十分統計量から作成する。
+         *
+         * @param columns 履歴データの各列の数値データ一覧
+         * @param statistics 全件の十分統計量
+         * @param proxySizes 見積プロキシ規模
+         */
+        Sample(Column[] columns, SufficientStatistics statistics,
+                double[] proxySizes) {
+            this.count = columns[0].size();
+            this.dimension = columns.length;
+            this.rows = new double[count * dimension];
+            this.fitted = new double[count];
+            this.residuals = new double[count];
+            this.proxySizes = proxySizes.clone();
+            for (int i = 0; i < dimension; i++) {
+                for (int r = 0; r < count; r++) {
+                    rows[r * dimension + i] = columns[i].get(r);
+                }
+            }
+
+            final Cholesky cholesky = Cholesky.decompose(statistics.getGram());
+            final double[] b = cholesky.solve(statistics.getCrossProducts());
+            this.estimate = predict(b, proxySizes, 0);
+            final double[] design = new double[dimension];
+            final double[] work = new double[dimension];
+            design[0] = 1.0;
+            double sum = 0.0;
+            for (int r = 0; r < count; r++) {
+                final int offset = r * dimension;
+                System.arraycopy(rows, offset, design, 1, dimension - 1);
+                fitted[r] = predict(b, rows, offset);
+                final double leverage
+                        = cholesky.inverseQuadraticForm(design, work);
+                final double residual
+                        = rows[offset + dimension - 1] - fitted[r];
+                residuals[r] = leverage < 1.0
+                        ? residual / Math.sqrt(1.0 - leverage) : residual;
+                sum += residuals[r];
+            }
+            final double mean = sum / count;
+            for (int r = 0; r < count; r++) {
+                residuals[r] -= mean;
+            }
+        }
+        //@method_def_end
+
+        //@method_def_start: predict
+        /**
+         * 説明変数から目的変数を予測する。
+         *
+         * @param b 多重回帰パラメータ
+         * @param values 説明変数を含む配列
+         * @param offset 説明変数の開始位置
+         * @return 予測値
+         */
+        static double predict(double[] b, double[] values, int offset) {
+            double result = b[0];
+            for (int i = 1; i < b.length; i++) {
+                result += b[i] * values[offset + i - 1];
+            }
+            return result;
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 標本の範囲を分割して計算するタスク
+     */
+    private static final class Resample extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Sample sample; //復元抽出の元になる履歴データ
+        private final Method method; //復元抽出の方法
+        private final SplittableRandom[] randoms; //標本ごとの乱数生成器
+        private final double[] errors; //標本ごとの予測誤差
+        private final double[] parameters; //標本ごとの多重回帰パラメータ
+        private final int from; //計算する最初の標本
+        private final int to; //計算する最後の標本の次
+
+        //@method_def_start: Resample
+        /**
+         * 計算する標本の範囲を指定して作成する。
+         */
+        Resample(Sample sample, Method method, SplittableRandom[] randoms,
+                double[] errors, double[] parameters, int from, int to) {
+            this.sample = sample;
+            this.method = method;
+            this.randoms = randoms;
+            this.errors = errors;
+            this.parameters = parameters;
+            this.from = from;
+            this.to = to;
+        }
+        //@method_def_end
+
+        //@method_def_start: compute
+        /**
+         * 標本数が上限を超える場合は2つに分割し、そうでない場合は順に計算する。
+         */
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Resample(sample, method, randoms, errors,
+                        parameters, from, middle),
+                        new Resample(sample, method, randoms, errors,
+                                parameters, middle, to));
+                return;
+            }
+            final double[] row = new double[sample.dimension];
+            for (int b = from; b < to; b++) {
+                final SplittableRandom random = randoms[b];
+                final double[] solution = fit(random, row);
+                System.arraycopy(solution, 0, parameters,
+                        b * sample.dimension, sample.dimension);
+                final double noise
+                        = sample.residuals[random.nextInt(sample.count)];
+                errors[b] = Sample.predict(solution, sample.proxySizes, 0)
+                        - (sample.estimate + noise);
+            }
+        }
+        //@method_def_end
+
+        //@method_def_start: fit
+        /**
+         * 1つの標本を抽出して回帰モデルを計算する。
+         * <p>
+         * グラム行列が正定値にならない標本（同じ行ばかりが抽出された場合など）は抽出し直す。
+         * </p>
+         *
+         * @param random 標本の乱数生成器
+         * @param row 行の作業領域
+         * @return 多重回帰パラメータ
+         */
+        private double[] fit(SplittableRandom random, double[] row) {
+            final int dimension = sample.dimension;
+            final int count = sample.count;
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                final SufficientStatistics statistics
+                        = new SufficientStatistics(dimension);
+                if (method == Method.PAIRS) {
+                    //抽出された回数を重みとして各行を1度だけ加算する
+                    final int[] multiplicities = new int[count];
+                    for (int k = 0; k < count; k++) {
+                        ++multiplicities[random.nextInt(count)];
+                    }
+                    for (int r = 0; r < count; r++) {
+                        if (multiplicities[r] > 0) {
+                            System.arraycopy(sample.rows, r * dimension,
+                                    row, 0, dimension);
+                            statistics.add(row, multiplicities[r]);
+                        }
+                    }
+                } else {
+                    for (int k = 0; k < count; k++) {
+                        System.arraycopy(sample.rows, k * dimension,
+                                row, 0, dimension - 1);
+                        row[dimension - 1] = sample.fitted[k]
+                                + sample.residuals[random.nextInt(count)];
+                        statistics.add(row);
+                    }
+                }
+                try {
+                    return Cholesky.decompose(statistics.getGram())
+                            .solve(statistics.getCrossProducts());
+                } catch (IllegalArgumentException e) {
+                    //正定値でない場合は抽出し直す
+                }
+            }
+            throw new IllegalStateException(
+                    "resample is singular: attempts=" + MAX_ATTEMPTS);
+        }
+        //@method_def_end
+
+    }
+
+}
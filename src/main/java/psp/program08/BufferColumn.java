@@ -0,0 +1,89 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * {@link DoubleBuffer}を参照する{@link Column}の実装
+ *
+ * <p>
+ * メモリマップしたファイルの領域を複製せずに参照するために使用する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public class BufferColumn implements Column {
+
+    private DoubleBuffer buffer; //数値データ（解放後はnull）
+
+    //@method_def_start: BufferColumn
+    /**
+     * 参照するバッファを指定して初期化する。
+     *
+     * @param buffer 数値データを格納したバッファ
+     */
+    public BufferColumn(DoubleBuffer buffer) {
+        this.buffer = buffer;
+    }
+    //@method_def_end
+
+    //@method_def_start: size
+    /**
+     * 数値データの件数を取得する。
+     *
+     * @return 数値データの件数
+     */
+    @Override
+    public int size() {
+        return getBuffer().limit();
+    }
+    //@method_def_end
+
+    //@method_def_start: get
+    /**
+     * 位置を指定して数値データを取得する。
+     *
+     * @param index 数値データの位置（0から始まる）
+     * @return 数値データ
+     */
+    @Override
+    public double get(int index) {
+        return getBuffer().get(index);
+    }
+    //@method_def_end
+
+    //@method_def_start: close
+    /**
+     * バッファへの参照を解放する。
+     * <p>
+     * メモリマップした領域は、バッファがガベージコレクションで回収された時点でアンマップされる。
+     * </p>
+     */
+    @Override
+    public void close() {
+        buffer = null;
+    }
+    //@method_def_end
+
+    //@method_def_start: getBuffer
+    /**
+     * 解放されていないことを確認してバッファを得る。
+     *
+     * @return バッファ
+     */
+    private DoubleBuffer getBuffer() {
+        if (buffer == null) {
+            throw new IllegalStateException("column is closed");
+        }
+        return buffer;
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,206 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.util.Arrays;
+
+/**
+ * 正定値対称行列のコレスキー分解{@code A = L L'}
+ *
+ * <p>
+ * 正規方程式の係数行列（グラム行列）を一度分解しておけば、連立方程式の解や
+ * 二次形式{@code v' A^-1 v}（てこ比など）を次元数の2乗に比例する計算量で求められる。
+ * インスタンスは不変であり、複数のスレッドから同時に参照できる。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class Cholesky {
+
+    private static final double EPSILON = 1e-10; //正定値でないと判断する対角要素の相対的な大きさ
+
+    private final int dimension; //行列の次元数
+    private final double[][] lower; //下三角行列L
+
+    //@method_def_start: Cholesky
+    /**
+     * 分解済みの下三角行列を指定して作成する。
+     */
+    private Cholesky(double[][] lower) {
+        this.dimension = lower.length;
+        this.lower = lower;
+    }
+    //@method_def_end
+
+    //@method_def_start: decompose
+    /**
+     * 正定値対称行列を分解する。
+     * <p>
+     * 行列の下三角部分だけを参照する。
+     * 消去後の対角要素が元の対角要素の{@code 1e-10}倍以下になった場合は、
+     * 丸め誤差を除けば特異であるとみなす。
+     * </p>
+     *
+     * @param a 正定値対称行列
+     * @return 分解の結果
+     * @throws IllegalArgumentException 正定値でない場合、または特異に近い場合
+     */
+    public static Cholesky decompose(double[][] a) {
+        final int n = a.length;
+        final double[][] l = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            if (a[i].length != n) {
+                throw new IllegalArgumentException(
+                        "Number of element not match: row=" + i);
+            }
+            for (int j = 0; j <= i; j++) {
+                double sum = a[i][j];
+                for (int k = 0; k < j; k++) {
+                    sum -= l[i][k] * l[j][k];
+                }
+                if (i == j) {
+                    if (!(sum > EPSILON * Math.abs(a[i][i]))) {
+                        throw new IllegalArgumentException(
+                                "Matrix is not positive definite: " + i);
+                    }
+                    l[i][i] = Math.sqrt(sum);
+                } else {
+                    l[i][j] = sum / l[j][j];
+                }
+            }
+        }
+        return new Cholesky(l);
+    }
+    //@method_def_end
+
+    //@method_def_start: extend
+    /**
+     * 行列に1行1列を追加した行列の分解を、この分解を再利用して計算する。
+     * <p>
+     * 追加する行の非対角部分を{@code c}、対角要素を{@code d}とすると、
+     * {@code L y = c}を前進代入で解き、新しい対角要素を{@code sqrt(d - y'y)}とする。
+     * 計算量は次元数の2乗に比例する。
+     * </p>
+     *
+     * @param column 追加する行の非対角部分（要素数は次元数）
+     * @param diagonal 追加する行の対角要素
+     * @return 次元数が1つ多い行列の分解
+     * @throws IllegalArgumentException 追加後の行列が正定値でない場合、または特異に近い場合
+     */
+    public Cholesky extend(double[] column, double diagonal) {
+        final double[] y = forward(column, new double[dimension]);
+        double sum = diagonal;
+        for (int i = 0; i < dimension; i++) {
+            sum -= y[i] * y[i];
+        }
+        if (!(sum > EPSILON * Math.abs(diagonal))) {
+            throw new IllegalArgumentException(
+                    "Matrix is not positive definite: " + dimension);
+        }
+        final double[][] l = new double[dimension + 1][];
+        for (int i = 0; i < dimension; i++) {
+            l[i] = Arrays.copyOf(lower[i], dimension + 1);
+        }
+        l[dimension] = Arrays.copyOf(y, dimension + 1);
+        l[dimension][dimension] = Math.sqrt(sum);
+        return new Cholesky(l);
+    }
+    //@method_def_end
+
+    //@method_def_start: solve
+    /**
+     * 連立方程式{@code A x = b}を解く。
+     *
+     * @param b 右辺のベクトル
+     * @return 解
+     */
+    public double[] solve(double[] b) {
+        final double[] y = forward(b, new double[dimension]);
+        final double[] x = new double[dimension];
+        for (int i = dimension - 1; i >= 0; i--) {
+            double sum = y[i];
+            for (int k = i + 1; k < dimension; k++) {
+                sum -= lower[k][i] * x[k];
+            }
+            x[i] = sum / lower[i][i];
+        }
+        return x;
+    }
+    //@method_def_end
+
+    //@method_def_start: inverseQuadraticForm
+    /**
+     * 二次形式{@code v' A^-1 v}を計算する。
+     * <p>
+     * {@code L y = v}を前進代入で解き、{@code y'y}を返す。
+     * </p>
+     *
+     * @param v ベクトル
+     * @param work 作業領域（要素数は次元数、{@code v}と同じ配列でもよい）
+     * @return {@code v' A^-1 v}
+     */
+    public double inverseQuadraticForm(double[] v, double[] work) {
+        forward(v, work);
+        double sum = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            sum += work[i] * work[i];
+        }
+        return sum;
+    }
+    //@method_def_end
+
+    //@method_def_start: forward
+    /**
+     * 前進代入で{@code L y = v}を解く。
+     *
+     * @param v 右辺のベクトル
+     * @param y 解を格納する配列（{@code v}と同じ配列でもよい）
+     * @return {@code y}
+     */
+    double[] forward(double[] v, double[] y) {
+        if (v.length != dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "vector=" + v.length + ": dimension=" + dimension);
+        }
+        for (int i = 0; i < dimension; i++) {
+            double sum = v[i];
+            for (int k = 0; k < i; k++) {
+                sum -= lower[i][k] * y[k];
+            }
+            y[i] = sum / lower[i][i];
+        }
+        return y;
+    }
+    //@method_def_end
+
+    //@method_def_start: getLower
+    /**
+     * 下三角行列Lの要素を得る。
+     *
+     * @param i 行
+     * @param j 列
+     * @return 要素の値（{@code j > i}の場合は0）
+     */
+    public double getLower(int i, int j) {
+        return lower[i][j];
+    }
+    //@method_def_end
+
+    //@method_def_start: getDimension
+    /**
+     * 行列の次元数を得る。
+     *
+     * @return 次元数
+     */
+    public int getDimension() {
+        return dimension;
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,426 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 重複する行をまとめた履歴データ
+ *
+ * <p>
+ * 全ての列の値が一致する行を1つにまとめ、異なる行とその出現回数だけを保持する。
+ * 行は開番地法（線形探索）のハッシュ表で管理し、値はボクシングせずに追加順に1つの配列へ並べる。
+ * 値の比較は{@link Double#doubleToLongBits(double)}で行うため、{@code 0.0}と{@code -0.0}は別の行となる。
+ * 十分統計量は出現回数を行数として加算する（{@link SufficientStatistics#addRepeated(double[], long)}）ため、
+ * 全ての行を加算した場合と同じ結果になる。同じ行が多いほどメモリ使用量と集計の計算量が減る。
+ * 要素の削除はできない。スレッドセーフではない。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class CoalescedRows {
+
+    private static final int INITIAL_CAPACITY = 16; //異なる行の数の初期値
+
+    private final int dimension; //履歴データの次元数
+    private int[] slots; //ハッシュ表（追加順の位置＋1、空きは0）
+    private double[] rows; //追加順の行（行ごとに次元数の要素を並べる）
+    private long[] counts; //追加順の行の出現回数
+    private int size; //異なる行の数
+    private long total; //出現回数の合計
+
+    //@method_def_start: CoalescedRows
+    /**
+     * 履歴データの次元数を指定して、空の履歴データを作成する。
+     *
+     * @param dimension 履歴データの次元数
+     */
+    public CoalescedRows(int dimension) {
+        this.dimension = dimension;
+        this.slots = new int[INITIAL_CAPACITY * 2];
+        this.rows = new double[INITIAL_CAPACITY * dimension];
+        this.counts = new long[INITIAL_CAPACITY];
+        this.size = 0;
+        this.total = 0;
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 複数の履歴データファイルを並列に読み込み、重複する行をまとめる。
+     * <p>
+     * ファイルごとにまとめた結果を指定順に合算するため、行の順番はスレッド数に依存しない。
+     * </p>
+     *
+     * @param files 履歴データファイルの一覧
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param threads 同時に読み込むファイルの最大数
+     * @return 重複する行をまとめた履歴データ
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public static CoalescedRows of(List<File> files,
+            ColumnProjection projection, int threads) throws IOException {
+        final CoalescedRows result
+                = new CoalescedRows(projection.getDimension());
+        if (files.size() == 1 || threads <= 1) {
+            for (File file : files) {
+                result.merge(read(file, projection));
+            }
+            return result;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, files.size()));
+        try {
+            final List<Future<CoalescedRows>> futures
+                    = new ArrayList<>(files.size());
+            for (File file : files) {
+                futures.add(executor.submit(() -> read(file, projection)));
+            }
+            for (Future<CoalescedRows> future : futures) {
+                result.merge(await(future));
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: read
+    /**
+     * 1つの履歴データファイルを読み込み、重複する行をまとめる。
+     * <p>
+     * 列指向のバイナリ形式（{@link ColumnarHistoryFile}）の場合はメモリマップした各列から、
+     * それ以外の場合はタブ区切りの形式として1行ずつ追加する。
+     * </p>
+     *
+     * @param file 履歴データファイル
+     * @param projection 履歴データファイルの列と次元との対応
+     * @return 重複する行をまとめた履歴データ
+     * @throws IOException 読み込みに失敗した場合、または形式が正しくない場合
+     */
+    private static CoalescedRows read(File file, ColumnProjection projection)
+            throws IOException {
+        final int dimension = projection.getDimension();
+        final CoalescedRows result = new CoalescedRows(dimension);
+        final double[] row = new double[dimension];
+        try {
+            if (!ColumnarHistoryFile.isColumnar(file)) {
+                try (HistoryDataReader in
+                        = new HistoryDataReader(file, projection)) {
+                    while (in.next(row)) {
+                        result.add(row);
+                    }
+                }
+            } else {
+                final ColumnarHistoryFile columnar
+                        = ColumnarHistoryFile.open(file);
+                final Column[] columns = columnar.getColumns(projection);
+                columnar.verify();
+                try {
+                    final int count = columns[0].size();
+                    for (int r = 0; r < count; r++) {
+                        for (int i = 0; i < dimension; i++) {
+                            row[i] = columns[i].get(r);
+                        }
+                        result.add(row);
+                    }
+                } finally {
+                    for (Column column : columns) {
+                        column.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + ": " + file, e);
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: await
+    /**
+     * 読み込みの終了を待って結果を得る。
+     *
+     * @param future 読み込み結果
+     * @return 重複する行をまとめた履歴データ
+     * @throws IOException 読み込み中に入出力エラーが発生した場合
+     */
+    private static CoalescedRows await(Future<CoalescedRows> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while reading history data");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: add
+    /**
+     * 履歴データを1行追加する。
+     *
+     * @param row 説明変数と目的変数を並べた履歴データ
+     */
+    public void add(double[] row) {
+        add(row, 0, 1);
+    }
+    //@method_def_end
+
+    //@method_def_start: add_doubleArray_int_long
+    /**
+     * 出現回数を指定して履歴データを追加する。
+     *
+     * @param values 行を含む配列
+     * @param offset 行の開始位置
+     * @param count 出現回数（1以上）
+     */
+    private void add(double[] values, int offset, long count) {
+        if (values.length - offset < dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "row=" + (values.length - offset)
+                    + ": dimension=" + dimension);
+        }
+        final int mask = slots.length - 1;
+        int slot = hash(values, offset) & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = slots[slot] - 1;
+            if (equals(index, values, offset)) {
+                counts[index] += count;
+                total += count;
+                return;
+            }
+        }
+        append(slot, values, offset, count);
+    }
+    //@method_def_end
+
+    //@method_def_start: merge
+    /**
+     * 別の履歴データの行を出現回数とともに追加する。
+     *
+     * @param other 追加する履歴データ
+     */
+    public void merge(CoalescedRows other) {
+        if (other.dimension != dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "other=" + other.dimension + ": dimension=" + dimension);
+        }
+        for (int index = 0; index < other.size; index++) {
+            add(other.rows, index * dimension, other.counts[index]);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: equals
+    /**
+     * 追加済みの行と指定した行の全ての値がビット単位で一致するか判定する。
+     *
+     * @param index 追加済みの行の順番
+     * @param values 行を含む配列
+     * @param offset 行の開始位置
+     * @return 一致する場合は{@code true}
+     */
+    private boolean equals(int index, double[] values, int offset) {
+        final int base = index * dimension;
+        for (int i = 0; i < dimension; i++) {
+            if (Double.doubleToLongBits(rows[base + i])
+                    != Double.doubleToLongBits(values[offset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    //@method_def_end
+
+    //@method_def_start: append
+    /**
+     * 空いている位置に行を追加し、必要であればハッシュ表を拡張する。
+     *
+     * @param slot ハッシュ表の空いている位置
+     * @param values 行を含む配列
+     * @param offset 行の開始位置
+     * @param count 出現回数
+     */
+    private void append(int slot, double[] values, int offset, long count) {
+        if (size == counts.length) {
+            rows = Arrays.copyOf(rows, size * 2 * dimension);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        System.arraycopy(values, offset, rows, size * dimension, dimension);
+        counts[size] = count;
+        total += count;
+        size++;
+        slots[slot] = size;
+        //使用率が1/2を超えたらハッシュ表を2倍にする
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: rehash
+    /**
+     * ハッシュ表の大きさを変えて作り直す。
+     *
+     * @param capacity ハッシュ表の大きさ（2の累乗）
+     */
+    private void rehash(int capacity) {
+        final int[] table = new int[capacity];
+        final int mask = capacity - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hash(rows, index * dimension) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+        slots = table;
+    }
+    //@method_def_end
+
+    //@method_def_start: hash
+    /**
+     * 行のハッシュ値を計算する。
+     * <p>
+     * 各値のビット列を順に混ぜ合わせ、最後に黄金比に由来する定数を掛けて上位のビットを使用する。
+     * </p>
+     *
+     * @param values 行を含む配列
+     * @param offset 行の開始位置
+     * @return ハッシュ値
+     */
+    private int hash(double[] values, int offset) {
+        long h = 0;
+        for (int i = 0; i < dimension; i++) {
+            h = (h ^ Double.doubleToLongBits(values[offset + i]))
+                    * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        return (int) (h ^ (h >>> 32));
+    }
+    //@method_def_end
+
+    //@method_def_start: getStatistics
+    /**
+     * 出現回数を行数として十分統計量を計算する。
+     * <p>
+     * 計算量は異なる行の数に比例し、全ての行数には依存しない。
+     * </p>
+     *
+     * @return 十分統計量
+     */
+    public SufficientStatistics getStatistics() {
+        final SufficientStatistics statistics
+                = new SufficientStatistics(dimension);
+        final double[] row = new double[dimension];
+        for (int index = 0; index < size; index++) {
+            System.arraycopy(rows, index * dimension, row, 0, dimension);
+            statistics.addRepeated(row, counts[index]);
+        }
+        return statistics;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRow
+    /**
+     * 指定した順番に追加された行を得る。
+     *
+     * @param index 追加された順番（0から）
+     * @param row 行の値を格納する配列
+     */
+    public void getRow(int index, double[] row) {
+        checkIndex(index);
+        System.arraycopy(rows, index * dimension, row, 0, dimension);
+    }
+    //@method_def_end
+
+    //@method_def_start: getCount
+    /**
+     * 指定した順番に追加された行の出現回数を得る。
+     *
+     * @param index 追加された順番（0から）
+     * @return 出現回数
+     */
+    public long getCount(int index) {
+        checkIndex(index);
+        return counts[index];
+    }
+    //@method_def_end
+
+    //@method_def_start: checkIndex
+    /**
+     * 順番が範囲内か検査する。
+     *
+     * @param index 追加された順番
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                    "index=" + index + ": size=" + size);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: size
+    /**
+     * 異なる行の数を得る。
+     *
+     * @return 異なる行の数
+     */
+    public int size() {
+        return size;
+    }
+    //@method_def_end
+
+    //@method_def_start: getTotalCount
+    /**
+     * 出現回数の合計（まとめる前の行数）を得る。
+     *
+     * @return 出現回数の合計
+     */
+    public long getTotalCount() {
+        return total;
+    }
+    //@method_def_end
+
+    //@method_def_start: getDimension
+    /**
+     * 履歴データの次元数を得る。
+     *
+     * @return 履歴データの次元数
+     */
+    public int getDimension() {
+        return dimension;
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,55 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+/**
+ * 履歴データの1列分の数値データを表すインターフェース
+ *
+ * <p>
+ * {@link LinkedList}と異なり、数値データは位置を指定して参照する。
+ * 数値データの格納先（配列、メモリマップしたファイル、ヒープ外のメモリなど）は実装クラスが決定する。
+ * 使用し終わった数値データ一覧は{@link #close()}で解放する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public interface Column extends AutoCloseable {
+
+    //@method_def_start: size
+    /**
+     * 数値データの件数を取得する。
+     *
+     * @return 数値データの件数
+     */
+    public int size();
+    //@method_def_end
+
+    //@method_def_start: get
+    /**
+     * 位置を指定して数値データを取得する。
+     *
+     * @param index 数値データの位置（0から始まる）
+     * @return 数値データ
+     */
+    public double get(int index);
+    //@method_def_end
+
+    //@method_def_start: close
+    /**
+     * 数値データ一覧が保持している資源を解放する。解放した後は数値データを参照できない。
+     * <p>
+     * 既定の実装は何もしない。
+     * </p>
+     */
+    @Override
+    public default void close() {
+    }
+    //@method_def_end
+
+}
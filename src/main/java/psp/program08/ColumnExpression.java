@@ -0,0 +1,399 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+/**
+ * 数値データ一覧の要素ごとの演算
+ *
+ * <p>
+ * 各演算は結果の数値データ一覧を作成せず、元の数値データ一覧を参照するビュー（{@link Column}）を返す。
+ * 値はビューの{@link Column#get(int)}を呼び出した時点で計算されるため、
+ * {@code PSPMath.sum(product(ln(w), deviation(x)))}のように演算を組み合わせても、
+ * {@link PSPMath#sum(Column)}などで集計する1回のループで全ての演算が実行され、途中の結果は保持しない。
+ * </p>
+ *
+ * <p>
+ * ビューを閉じても元の数値データ一覧は閉じない。元の数値データ一覧を閉じた後はビューを使用しないこと。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class ColumnExpression {
+
+    //@method_def_start: ColumnExpression
+    /**
+     * インスタンスは作成しない。
+     */
+    private ColumnExpression() {
+    }
+    //@method_def_end
+
+    //@method_def_start: product
+    /**
+     * 2つの数値データ一覧の各要素の積のビューを作成する。
+     *
+     * @param xValues 数値データ一覧
+     * @param yValues 数値データ一覧
+     * @return 各要素の積のビュー
+     */
+    public static Column product(Column xValues, Column yValues) {
+        checkSize(xValues, yValues);
+        return new Product(xValues, yValues);
+    }
+    //@method_def_end
+
+    //@method_def_start: divide
+    /**
+     * 2つの数値データ一覧の各要素の商のビューを作成する。
+     *
+     * @param xValues 数値データ一覧（被除数）
+     * @param yValues 数値データ一覧（除数）
+     * @return 各要素の商のビュー
+     */
+    public static Column divide(Column xValues, Column yValues) {
+        checkSize(xValues, yValues);
+        return new Quotient(xValues, yValues);
+    }
+    //@method_def_end
+
+    //@method_def_start: ln
+    /**
+     * 数値データ一覧の各要素の自然対数のビューを作成する。
+     *
+     * @param values 数値データ一覧
+     * @return 各要素の自然対数のビュー
+     */
+    public static Column ln(Column values) {
+        return new Logarithm(values);
+    }
+    //@method_def_end
+
+    //@method_def_start: subtract
+    /**
+     * 数値データ一覧の各要素から定数を引いたビューを作成する。
+     *
+     * @param values 数値データ一覧
+     * @param constant 引く値
+     * @return 各要素から定数を引いたビュー
+     */
+    public static Column subtract(Column values, double constant) {
+        return new Difference(values, constant);
+    }
+    //@method_def_end
+
+    //@method_def_start: deviation
+    /**
+     * 数値データ一覧の各要素の平均値からの偏差のビューを作成する。
+     * <p>
+     * 平均値は最初に値を取得した時点で1度だけ計算する。
+     * </p>
+     *
+     * @param values 数値データ一覧
+     * @return 各要素の偏差のビュー
+     */
+    public static Column deviation(Column values) {
+        return new Deviation(values);
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * リンクリストの数値データを先頭から順に並べた数値データ一覧を作成する。
+     * <p>
+     * リンクリストは位置を指定した参照ができないため、数値データをプリミティブ型の配列に1度だけ複製する。
+     * 作成した数値データ一覧に値は追加できない。
+     * </p>
+     *
+     * @param list リンクリスト
+     * @return 数値データ一覧
+     */
+    public static Column of(LinkedList list) {
+        final double[] values = new double[list.getCount()];
+        Node n = list.getHeadNode();
+        for (int i = 0; n != null; i++) {
+            values[i] = n.getValue();
+            n = n.getNextNode();
+        }
+        return new Values(values);
+    }
+    //@method_def_end
+
+    //@method_def_start: toLinkedList
+    /**
+     * 数値データ一覧を同じ順番のリンクリストに変換する。
+     * <p>
+     * {@link LinkedList#add(Node)}は先頭に追加するため、最後の数値データから順に追加する。
+     * </p>
+     *
+     * @param column 数値データ一覧
+     * @return 先頭が最初の数値データとなるリンクリスト
+     */
+    public static LinkedList toLinkedList(Column column) {
+        final LinkedList list = new LinkedList();
+        for (int i = column.size() - 1; i >= 0; i--) {
+            list.add(new Node(column.get(i)));
+        }
+        return list;
+    }
+    //@method_def_end
+
+    //@method_def_start: checkSize
+    /**
+     * 2つの数値データ一覧の件数を検査する。
+     *
+     * @param xValues 数値データ一覧
+     * @param yValues 数値データ一覧
+     */
+    private static void checkSize(Column xValues, Column yValues) {
+        if (xValues.size() != yValues.size()) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "x=" + xValues.size() + ": y=" + yValues.size());
+        }
+    }
+    //@method_def_end
+
+    /**
+     * リンクリストから複製した配列の数値データ一覧
+     */
+    private static final class Values implements Column {
+
+        private final double[] values; //数値データ
+
+        //@method_def_start: Values
+        /**
+         * 配列を複製せずに参照する数値データ一覧を作成する。
+         */
+        Values(double[] values) {
+            this.values = values;
+        }
+        //@method_def_end
+
+        //@method_def_start: size
+        /**
+         * 数値データの件数を得る。
+         */
+        @Override
+        public int size() {
+            return values.length;
+        }
+        //@method_def_end
+
+        //@method_def_start: get
+        /**
+         * 位置を指定して数値データを得る。
+         */
+        @Override
+        public double get(int index) {
+            return values[index];
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 各要素の積のビュー
+     */
+    private static final class Product implements Column {
+
+        private final Column xValues; //数値データ一覧
+        private final Column yValues; //数値データ一覧
+
+        //@method_def_start: Product
+        /**
+         * 2つの数値データ一覧を参照するビューを作成する。
+         */
+        Product(Column xValues, Column yValues) {
+            this.xValues = xValues;
+            this.yValues = yValues;
+        }
+        //@method_def_end
+
+        //@method_def_start: size
+        /**
+         * 参照する数値データ一覧の件数を得る。
+         */
+        @Override
+        public int size() {
+            return xValues.size();
+        }
+        //@method_def_end
+
+        //@method_def_start: get
+        /**
+         * 参照する数値データ一覧の値から、位置を指定した要素の値を計算する。
+         */
+        @Override
+        public double get(int index) {
+            return xValues.get(index) * yValues.get(index);
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 各要素の商のビュー
+     */
+    private static final class Quotient implements Column {
+
+        private final Column xValues; //被除数の数値データ一覧
+        private final Column yValues; //除数の数値データ一覧
+
+        //@method_def_start: Quotient
+        /**
+         * 2つの数値データ一覧を参照するビューを作成する。
+         */
+        Quotient(Column xValues, Column yValues) {
+            this.xValues = xValues;
+            this.yValues = yValues;
+        }
+        //@method_def_end
+
+        //@method_def_start: size
+        /**
+         * 参照する数値データ一覧の件数を得る。
+         */
+        @Override
+        public int size() {
+            return xValues.size();
+        }
+        //@method_def_end
+
+        //@method_def_start: get
+        /**
+         * 参照する数値データ一覧の値から、位置を指定した要素の値を計算する。
+         */
+        @Override
+        public double get(int index) {
+            return xValues.get(index) / yValues.get(index);
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 各要素の自然対数のビュー
+     */
+    private static final class Logarithm implements Column {
+
+        private final Column values; //数値データ一覧
+
+        //@method_def_start: Logarithm
+        /**
+         * 数値データ一覧を参照するビューを作成する。
+         */
+        Logarithm(Column values) {
+            this.values = values;
+        }
+        //@method_def_end
+
+        //@method_def_start: size
+        /**
+         * 参照する数値データ一覧の件数を得る。
+         */
+        @Override
+        public int size() {
+            return values.size();
+        }
+        //@method_def_end
+
+        //@method_def_start: get
+        /**
+         * 参照する数値データ一覧の値から、位置を指定した要素の値を計算する。
+         */
+        @Override
+        public double get(int index) {
+            return Math.log(values.get(index));
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 各要素から定数を引いたビュー
+     */
+    private static final class Difference implements Column {
+
+        private final Column values; //数値データ一覧
+        private final double constant; //引く値
+
+        //@method_def_start: Difference
+        /**
+         * 数値データ一覧を参照するビューを作成する。
+         */
+        Difference(Column values, double constant) {
+            this.values = values;
+            this.constant = constant;
+        }
+        //@method_def_end
+
+        //@method_def_start: size
+        /**
+         * 参照する数値データ一覧の件数を得る。
+         */
+        @Override
+        public int size() {
+            return values.size();
+        }
+        //@method_def_end
+
+        //@method_def_start: get
+        /**
+         * 参照する数値データ一覧の値から、位置を指定した要素の値を計算する。
+         */
+        @Override
+        public double get(int index) {
+            return values.get(index) - constant;
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 各要素の平均値からの偏差のビュー
+     */
+    private static final class Deviation implements Column {
+
+        private final Column values; //数値データ一覧
+        private double mean = Double.NaN; //平均値（未計算の場合はNaN）
+
+        //@method_def_start: Deviation
+        /**
+         * 数値データ一覧を参照するビューを作成する。
+         */
+        Deviation(Column values) {
+            this.values = values;
+        }
+        //@method_def_end
+
+        //@method_def_start: size
+        /**
+         * 参照する数値データ一覧の件数を得る。
+         */
+        @Override
+        public int size() {
+            return values.size();
+        }
+        //@method_def_end
+
+        //@method_def_start: get
+        /**
+         * 参照する数値データ一覧の値から、位置を指定した要素の値を計算する。
+         */
+        @Override
+        public double get(int index) {
+            if (Double.isNaN(mean)) {
+                mean = PSPMath.mean(values);
+            }
+            return values.get(index) - mean;
+        }
+        //@method_def_end
+
+    }
+
+}
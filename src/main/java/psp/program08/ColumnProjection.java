@@ -0,0 +1,321 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+/**
+ * 履歴データファイルの列と履歴データの次元との対応
+ *
+ * <p>
+ * {@code psp.program8.historyDataFile.columns}にカンマ区切りで、説明変数、目的変数の順に
+ * 列の位置（0から始まる）または列名を指定する。列名を指定した場合はファイルの1行目を列名の行として扱う。
+ * 列名を使用しない場合でも、{@code psp.program8.historyDataFile.header}を{@code true}にすれば
+ * 1行目を読み飛ばす。対応を指定しない場合は、各行の列の数が次元数と一致しなければならない。
+ * 指定した場合は、指定した列より後ろの列があってもよく、使用しない列は数値に変換しない。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class ColumnProjection {
+
+    private final String[] names; //列名（位置で指定した場合はnull）
+    private final int[] indexes; //各次元に対応する列の位置（未解決の場合は-1）
+    private final boolean header; //1行目が列名の行か
+    private final boolean strict; //列の数が次元数と一致しなければならないか
+    private final int[] targets; //列の位置に対応する次元（使用しない列は-1）
+
+    //@method_def_start: ColumnProjection
+    /**
+     * 対応を指定して作成する。
+     */
+    private ColumnProjection(String[] names, int[] indexes, boolean header,
+            boolean strict) {
+        this.names = names;
+        this.indexes = indexes;
+        this.header = header;
+        this.strict = strict;
+        int fieldCount = 0;
+        for (int index : indexes) {
+            fieldCount = Math.max(fieldCount, index + 1);
+        }
+        this.targets = new int[fieldCount];
+        Arrays.fill(targets, -1);
+        for (int i = 0; i < indexes.length; i++) {
+            if (indexes[i] >= 0) {
+                if (targets[indexes[i]] >= 0) {
+                    throw new IllegalArgumentException(
+                            "Duplicated column: " + indexes[i]);
+                }
+                targets[indexes[i]] = i;
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: identity
+    /**
+     * 各行の列をそのまま次元とする対応を作成する。
+     *
+     * @param dimension 履歴データの次元数
+     * @return 対応
+     */
+    public static ColumnProjection identity(int dimension) {
+        final int[] indexes = new int[dimension];
+        for (int i = 0; i < dimension; i++) {
+            indexes[i] = i;
+        }
+        return new ColumnProjection(new String[dimension], indexes, false, true);
+    }
+    //@method_def_end
+
+    //@method_def_start: parse
+    /**
+     * 設定値から対応を作成する。
+     *
+     * @param spec カンマ区切りの列の位置または列名、未指定の場合は{@code null}
+     * @param header 1行目が列名の行か
+     * @param dimension 履歴データの次元数
+     * @return 対応
+     */
+    public static ColumnProjection parse(String spec, boolean header,
+            int dimension) {
+        if (spec == null || spec.trim().isEmpty()) {
+            final ColumnProjection identity = identity(dimension);
+            return header ? new ColumnProjection(identity.names,
+                    identity.indexes, true, true) : identity;
+        }
+        final String[] entries = spec.split(",");
+        if (entries.length != dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "columns=" + entries.length + ": dimension=" + dimension);
+        }
+        final String[] names = new String[dimension];
+        final int[] indexes = new int[dimension];
+        boolean named = false;
+        for (int i = 0; i < dimension; i++) {
+            final String entry = entries[i].trim();
+            if (entry.matches("[0-9]+")) {
+                indexes[i] = Integer.parseInt(entry);
+            } else {
+                names[i] = entry;
+                indexes[i] = -1;
+                named = true;
+            }
+        }
+        return new ColumnProjection(names, indexes, header || named, false);
+    }
+    //@method_def_end
+
+    //@method_def_start: resolve_String
+    /**
+     * 列名の行を使用して、列名で指定された列の位置を決定する。
+     *
+     * @param headerLine 列名の行（タブ区切り）
+     * @return 列の位置が決定した対応
+     * @throws IOException 指定された列名がない場合
+     */
+    public ColumnProjection resolve(String headerLine) throws IOException {
+        return resolve(headerLine == null ? new String[0]
+                : headerLine.split("\\t"));
+    }
+    //@method_def_end
+
+    //@method_def_start: resolve_StringArray
+    /**
+     * 列名の一覧を使用して、列名で指定された列の位置を決定する。
+     *
+     * @param columnNames 列名の一覧
+     * @return 列の位置が決定した対応
+     * @throws IOException 指定された列名がない場合
+     */
+    public ColumnProjection resolve(String[] columnNames) throws IOException {
+        if (isResolved()) {
+            return this;
+        }
+        final int[] resolved = indexes.clone();
+        for (int i = 0; i < resolved.length; i++) {
+            if (names[i] != null) {
+                resolved[i] = Arrays.asList(columnNames).indexOf(names[i]);
+                if (resolved[i] < 0) {
+                    throw new IOException(
+                            "Column not found in history data file: " + names[i]);
+                }
+            }
+        }
+        return new ColumnProjection(names, resolved, header, strict);
+    }
+    //@method_def_end
+
+    //@method_def_start: resolve_File
+    /**
+     * テキスト形式の履歴データファイルの1行目を使用して、列名で指定された列の位置を決定する。
+     *
+     * @param file 履歴データファイル
+     * @return 列の位置が決定した対応
+     * @throws IOException ファイルの読み込みに失敗した場合、または指定された列名がない場合
+     */
+    public ColumnProjection resolve(File file) throws IOException {
+        if (isResolved()) {
+            return this;
+        }
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(CompressedInput.open(file)))) {
+            return resolve(in.readLine());
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: isResolved
+    /**
+     * 全ての列の位置が決定しているか判定する。
+     *
+     * @return 決定している場合は{@code true}
+     */
+    public boolean isResolved() {
+        for (int index : indexes) {
+            if (index < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    //@method_def_end
+
+    //@method_def_start: isIdentity
+    /**
+     * 各行の列をそのまま次元とする対応か判定する。
+     *
+     * @return 各行の列をそのまま次元とする場合は{@code true}
+     */
+    public boolean isIdentity() {
+        return strict;
+    }
+    //@method_def_end
+
+    //@method_def_start: hasHeader
+    /**
+     * 1行目が列名の行か判定する。
+     *
+     * @return 列名の行の場合は{@code true}
+     */
+    public boolean hasHeader() {
+        return header;
+    }
+    //@method_def_end
+
+    //@method_def_start: getDimension
+    /**
+     * 履歴データの次元数を得る。
+     *
+     * @return 履歴データの次元数
+     */
+    public int getDimension() {
+        return indexes.length;
+    }
+    //@method_def_end
+
+    //@method_def_start: getIndex
+    /**
+     * 次元に対応する列の位置を得る。
+     *
+     * @param dimension 次元（0から始まる）
+     * @return 列の位置
+     */
+    public int getIndex(int dimension) {
+        return indexes[dimension];
+    }
+    //@method_def_end
+
+    //@method_def_start: getFieldCount
+    /**
+     * 各行に必要な列の数を得る。
+     *
+     * @return 使用する列のうち最も後ろの列の位置＋1
+     */
+    public int getFieldCount() {
+        return targets.length;
+    }
+    //@method_def_end
+
+    //@method_def_start: getTarget
+    /**
+     * 列に対応する次元を得る。
+     *
+     * @param field 列の位置
+     * @return 次元、使用しない列の場合は-1
+     */
+    public int getTarget(int field) {
+        return field < targets.length ? targets[field] : -1;
+    }
+    //@method_def_end
+
+    //@method_def_start: equals
+    /**
+     * 対応が等しいか判定する。
+     *
+     * @param obj 比較対象
+     * @return 等しい場合は{@code true}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ColumnProjection)) {
+            return false;
+        }
+        final ColumnProjection other = (ColumnProjection) obj;
+        return Arrays.equals(names, other.names)
+                && Arrays.equals(indexes, other.indexes)
+                && header == other.header && strict == other.strict;
+    }
+    //@method_def_end
+
+    //@method_def_start: hashCode
+    /**
+     * 対応のハッシュ値を計算する。
+     *
+     * @return ハッシュ値
+     */
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+    //@method_def_end
+
+    //@method_def_start: toString
+    /**
+     * 対応の文字列表現を得る。
+     * <p>
+     * 同じ設定値からは常に同じ文字列となる。
+     * </p>
+     *
+     * @return 対応の文字列表現
+     */
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        result.append(strict ? "identity" : "columns");
+        result.append(header ? "+header" : "").append('=');
+        for (int i = 0; i < indexes.length; i++) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(names[i] != null ? names[i] : indexes[i]);
+        }
+        return result.toString();
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,426 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 列指向のバイナリ形式の履歴データファイル
+ *
+ * <p>
+ * ファイル形式（リトルエンディアン）
+ * </p>
+ * <ol>
+ * <li>マジックナンバー{@code "PSPC"}、版数、次元数、予約領域（各4バイト）
+ * <li>行数（8バイト）
+ * <li>列名（次元数分、UTF-8のバイト数（4バイト）とバイト列）
+ * <li>各列のデータのCRC32（次元数×4バイト）
+ * <li>8バイト境界までの詰め物
+ * <li>各列のデータ（次元数×行数×8バイト、列ごとに連続）
+ * </ol>
+ *
+ * <p>
+ * 読み込み時はファイルをメモリマップし、各列を{@link BufferColumn}として複製せずに参照する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class ColumnarHistoryFile {
+
+    private static final int MAGIC = 0x43505350; //"PSPC"
+    private static final int VERSION = 1; //ファイル形式の版数
+    private static final int CHUNK = 64 * 1024; //変換時に列ごとに保持する値の個数
+
+    private final File file; //履歴データファイル
+    private final String[] names; //列名
+    private final int[] checksums; //各列のデータのCRC32
+    private final MappedByteBuffer[] buffers; //各列のデータ
+    private final long rowCount; //行数
+
+    //@method_def_start: ColumnarHistoryFile
+    /**
+     * 読み込んだ内容を指定してインスタンスを作成する。
+     */
+    private ColumnarHistoryFile(File file, String[] names, int[] checksums,
+            MappedByteBuffer[] buffers, long rowCount) {
+        this.file = file;
+        this.names = names;
+        this.checksums = checksums;
+        this.buffers = buffers;
+        this.rowCount = rowCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: main
+    /**
+     * タブ区切りの履歴データファイルを列指向のバイナリ形式に変換する。
+     * <p>
+     * コマンドライン引数の構成
+     * <ol>
+     * <li>第一引数：タブ区切りの履歴データファイル
+     * <li>第二引数：出力先のファイル
+     * <li>第三引数：履歴データの次元数
+     * <li>第四引数以降（省略可）：列名
+     * </ol>
+     *
+     * @param args コマンドライン引数
+     * @throws IOException 変換に失敗した場合
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Bad Argument Number: " + args.length);
+            System.exit(-1);
+        }
+        final int dimension = Integer.parseInt(args[2]);
+        final String[] names = args.length > 3
+                ? Arrays.copyOfRange(args, 3, args.length)
+                : defaultNames(dimension);
+        final long rows = convert(new File(args[0]), new File(args[1]), names);
+        System.out.format("Converted %d rows: %s%n", rows, args[1]);
+    }
+    //@method_def_end
+
+    //@method_def_start: defaultNames
+    /**
+     * 次元数に応じた既定の列名を得る。
+     *
+     * @param dimension 履歴データの次元数
+     * @return 列名
+     */
+    public static String[] defaultNames(int dimension) {
+        if (dimension == 4) {
+            return new String[]{"w", "x", "y", "z"};
+        }
+        final String[] names = new String[dimension];
+        for (int i = 0; i < dimension; i++) {
+            names[i] = "c" + i;
+        }
+        return names;
+    }
+    //@method_def_end
+
+    //@method_def_start: convert
+    /**
+     * タブ区切りの履歴データファイルを列指向のバイナリ形式に変換する。
+     * <p>
+     * 1回目の走査で行数を数え、2回目の走査で各列の領域に一定量ずつ書き込むため、
+     * 使用するメモリは履歴データの件数に依存しない。
+     * </p>
+     *
+     * @param source タブ区切りの履歴データファイル
+     * @param target 出力先のファイル
+     * @param names 列名（要素数は次元数）
+     * @return 変換した行数
+     * @throws IOException 変換に失敗した場合
+     */
+    public static long convert(File source, File target, String[] names)
+            throws IOException {
+        final int dimension = names.length;
+        final long rowCount = countLines(source);
+        final byte[][] encodedNames = new byte[dimension][];
+        int headerSize = 4 * Integer.BYTES + Long.BYTES;
+        for (int i = 0; i < dimension; i++) {
+            encodedNames[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            headerSize += Integer.BYTES + encodedNames[i].length;
+        }
+        final int checksumOffset = headerSize;
+        headerSize += dimension * Integer.BYTES;
+        headerSize = (headerSize + 7) & ~7;
+
+        try (FileChannel channel = FileChannel.open(target.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+                HistoryDataReader in = new HistoryDataReader(source, dimension)) {
+            //各列のデータを書き込む
+            final ByteBuffer[] chunks = new ByteBuffer[dimension];
+            final CRC32[] crcs = new CRC32[dimension];
+            final long[] positions = new long[dimension];
+            for (int i = 0; i < dimension; i++) {
+                chunks[i] = ByteBuffer.allocate(CHUNK * Double.BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                crcs[i] = new CRC32();
+                positions[i] = headerSize + (long) i * rowCount * Double.BYTES;
+            }
+            final double[] row = new double[dimension];
+            long rows = 0;
+            while (in.next(row)) {
+                ++rows;
+                for (int i = 0; i < dimension; i++) {
+                    chunks[i].putDouble(row[i]);
+                    if (!chunks[i].hasRemaining()) {
+                        positions[i] += flush(channel, chunks[i], crcs[i],
+                                positions[i]);
+                    }
+                }
+            }
+            if (rows != rowCount) {
+                throw new IOException("Illegal format of history data file");
+            }
+            for (int i = 0; i < dimension; i++) {
+                flush(channel, chunks[i], crcs[i], positions[i]);
+            }
+
+            //ヘッダを書き込む
+            final ByteBuffer header = ByteBuffer.allocate(headerSize)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(dimension);
+            header.putInt(0);
+            header.putLong(rowCount);
+            for (byte[] name : encodedNames) {
+                header.putInt(name.length);
+                header.put(name);
+            }
+            header.position(checksumOffset);
+            for (CRC32 crc : crcs) {
+                header.putInt((int) crc.getValue());
+            }
+            header.position(headerSize);
+            header.flip();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += channel.write(header, position);
+            }
+        }
+        return rowCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: flush
+    /**
+     * 列ごとに蓄積した値をファイルに書き込む。
+     *
+     * @param channel 出力先のファイル
+     * @param chunk 蓄積した値
+     * @param crc 列のデータのCRC32
+     * @param position 書き込み位置
+     * @return 書き込んだバイト数
+     */
+    private static long flush(FileChannel channel, ByteBuffer chunk,
+            CRC32 crc, long position) throws IOException {
+        chunk.flip();
+        crc.update(chunk.array(), 0, chunk.limit());
+        long written = 0;
+        while (chunk.hasRemaining()) {
+            written += channel.write(chunk, position + written);
+        }
+        chunk.clear();
+        return written;
+    }
+    //@method_def_end
+
+    //@method_def_start: countLines
+    /**
+     * ファイルの行数を数える。最終行が改行で終わっていない場合も1行と数える。
+     * 圧縮されたファイルは展開した内容の行数を数える。
+     *
+     * @param file 対象のファイル
+     * @return 行数
+     */
+    private static long countLines(File file) throws IOException {
+        try (ReadableByteChannel channel = CompressedInput.openChannel(file)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            long lines = 0;
+            byte last = '\n';
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    last = buffer.get();
+                    if (last == '\n') {
+                        ++lines;
+                    }
+                }
+                buffer.clear();
+            }
+            return last == '\n' ? lines : lines + 1;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: isColumnar
+    /**
+     * ファイルが列指向のバイナリ形式か判定する。
+     *
+     * @param file 対象のファイル
+     * @return 列指向のバイナリ形式の場合は{@code true}
+     * @throws IOException ファイルの読み込みに失敗した場合
+     */
+    public static boolean isColumnar(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                //先頭の4バイトを読み込む
+            }
+            return !buffer.hasRemaining() && buffer.getInt(0) == MAGIC;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: open
+    /**
+     * 列指向のバイナリ形式の履歴データファイルをメモリマップして開く。
+     *
+     * @param file 履歴データファイル
+     * @return 履歴データファイル
+     * @throws IOException 読み込みに失敗した場合、または形式が正しくない場合
+     */
+    public static ColumnarHistoryFile open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final MappedByteBuffer header = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, Math.min(size, 1 << 16));
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.remaining() < 4 * Integer.BYTES + Long.BYTES
+                    || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Illegal format of history data file");
+            }
+            final int dimension = header.getInt();
+            header.getInt();
+            final long rowCount = header.getLong();
+            if (dimension < 1 || rowCount < 0
+                    || rowCount * Double.BYTES > Integer.MAX_VALUE) {
+                throw new IOException("Illegal format of history data file");
+            }
+            final String[] names = new String[dimension];
+            for (int i = 0; i < dimension; i++) {
+                final byte[] name = new byte[header.getInt()];
+                header.get(name);
+                names[i] = new String(name, StandardCharsets.UTF_8);
+            }
+            final int[] checksums = new int[dimension];
+            for (int i = 0; i < dimension; i++) {
+                checksums[i] = header.getInt();
+            }
+            final long headerSize = (header.position() + 7) & ~7;
+            final long columnSize = rowCount * Double.BYTES;
+            if (size != headerSize + dimension * columnSize) {
+                throw new IOException("Illegal format of history data file");
+            }
+
+            final MappedByteBuffer[] buffers = new MappedByteBuffer[dimension];
+            for (int i = 0; i < dimension; i++) {
+                buffers[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        headerSize + i * columnSize, columnSize);
+                buffers[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new ColumnarHistoryFile(
+                    file, names, checksums, buffers, rowCount);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: verify
+    /**
+     * 各列のデータのCRC32を検査する。
+     *
+     * @throws IOException CRC32が一致しない場合
+     */
+    public void verify() throws IOException {
+        for (int i = 0; i < buffers.length; i++) {
+            final CRC32 crc = new CRC32();
+            crc.update(buffers[i].duplicate());
+            if ((int) crc.getValue() != checksums[i]) {
+                throw new IOException("Broken history data file: "
+                        + file + ": column=" + names[i]);
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: getColumn
+    /**
+     * 列を参照する数値データ一覧を得る。データは複製されない。
+     *
+     * @param index 列の位置（0から始まる）
+     * @return 数値データ一覧
+     */
+    public Column getColumn(int index) {
+        final ByteBuffer buffer = buffers[index].duplicate()
+                .order(ByteOrder.LITTLE_ENDIAN);
+        return new BufferColumn(buffer.asDoubleBuffer());
+    }
+    //@method_def_end
+
+    //@method_def_start: getColumns
+    /**
+     * 列の対応に従って、各次元の列を参照する数値データ一覧を得る。
+     * <p>
+     * 列名は変換時に指定した列名（{@link #getNames()}）と照合する。
+     * 各行の列をそのまま次元とする対応の場合は、次元数が一致しなければならない。
+     * </p>
+     *
+     * @param projection 列と次元との対応
+     * @return 各次元の数値データ一覧
+     * @throws IOException 次元数が一致しない場合、または指定された列がない場合
+     */
+    public Column[] getColumns(ColumnProjection projection) throws IOException {
+        if (projection.isIdentity()
+                && projection.getDimension() != getDimension()) {
+            throw new IOException("Illegal format of history data file");
+        }
+        final ColumnProjection resolved = projection.resolve(names);
+        final Column[] columns = new Column[resolved.getDimension()];
+        for (int i = 0; i < columns.length; i++) {
+            if (resolved.getIndex(i) >= getDimension()) {
+                throw new IOException("Illegal format of history data file");
+            }
+            columns[i] = getColumn(resolved.getIndex(i));
+        }
+        return columns;
+    }
+    //@method_def_end
+
+    //@method_def_start: getDimension
+    /**
+     * 次元数を得る。
+     *
+     * @return 次元数
+     */
+    public int getDimension() {
+        return names.length;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRowCount
+    /**
+     * 行数を得る。
+     *
+     * @return 行数
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: getNames
+    /**
+     * 列名の複製を得る。
+     *
+     * @return 列名
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,173 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 圧縮された履歴データファイルの判定と展開
+ *
+ * <p>
+ * ファイル先頭のマジックナンバーで形式を判定し、展開しながら読み込むストリームを作成する。
+ * 展開した内容を一時ファイルに書き出すことはない。
+ * </p>
+ * <ul>
+ * <li>gzip：{@link GZIPInputStream}で展開する。複数のメンバーを連結したファイルにも対応する。
+ * <li>BGZF：独立して展開できる64KB以下のgzipメンバーを並べた形式。{@link BgzfInputStream}で並列に展開する。
+ * <li>zstd：JDKに展開処理がないため、{@link ZstdInputStream}で展開する。
+ *     ブロックが前のブロックの内容を参照するため、展開は順に行う。辞書を使用するファイルには対応しない。
+ * </ul>
+ *
+ * @author smuraoka
+ */
+public final class CompressedInput {
+
+    /**
+     * 圧縮形式
+     */
+    public enum Format {
+        /**
+         * 圧縮されていない
+         */
+        NONE,
+        /**
+         * gzip
+         */
+        GZIP,
+        /**
+         * BGZF（ブロック単位のgzip）
+         */
+        BGZF,
+        /**
+         * Zstandard
+         */
+        ZSTD
+    }
+
+    private static final int HEADER_SIZE = 16; //形式の判定に使用するバイト数
+    private static final int BUFFER_SIZE = 1 << 16; //圧縮されたデータを読み込む単位
+
+    //@method_def_start: CompressedInput
+    /**
+     * インスタンスは作成しない。
+     */
+    private CompressedInput() {
+    }
+    //@method_def_end
+
+    //@method_def_start: detect
+    /**
+     * ファイルの圧縮形式を判定する。
+     *
+     * @param file 対象のファイル
+     * @return 圧縮形式
+     * @throws IOException ファイルの読み込みに失敗した場合
+     */
+    public static Format detect(File file) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                //読み込みを続ける
+            }
+        }
+        return detect(header.array(), header.position());
+    }
+    //@method_def_end
+
+    //@method_def_start: detect_byteArray
+    /**
+     * ファイル先頭のバイト列から圧縮形式を判定する。
+     *
+     * @param header ファイル先頭のバイト列
+     * @param length 有効なバイト数
+     * @return 圧縮形式
+     */
+    static Format detect(byte[] header, int length) {
+        if (length >= 4 && (header[0] & 0xFF) == 0x28
+                && (header[1] & 0xFF) == 0xB5 && (header[2] & 0xFF) == 0x2F
+                && (header[3] & 0xFF) == 0xFD) {
+            return Format.ZSTD;
+        }
+        if (length < 3 || (header[0] & 0xFF) != 0x1F
+                || (header[1] & 0xFF) != 0x8B || header[2] != 8) {
+            return Format.NONE;
+        }
+        //FEXTRAが設定され、最初の追加フィールドが"BC"であればBGZF
+        if (length >= 16 && (header[3] & 0x04) != 0
+                && header[12] == 'B' && header[13] == 'C'
+                && header[14] == 2 && header[15] == 0) {
+            return Format.BGZF;
+        }
+        return Format.GZIP;
+    }
+    //@method_def_end
+
+    //@method_def_start: open
+    /**
+     * ファイルを展開しながら読み込むストリームを作成する。
+     *
+     * @param file 対象のファイル
+     * @return 展開した内容を読み込むストリーム
+     * @throws IOException ファイルを開けなかった場合、または対応していない形式の場合
+     */
+    public static InputStream open(File file) throws IOException {
+        final Format format = detect(file);
+        switch (format) {
+            case NONE:
+                return new FileInputStream(file);
+            case GZIP:
+                return new GZIPInputStream(
+                        new FileInputStream(file), BUFFER_SIZE);
+            case BGZF:
+                return new BgzfInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BUFFER_SIZE),
+                        Runtime.getRuntime().availableProcessors());
+            case ZSTD:
+                return new ZstdInputStream(new BufferedInputStream(
+                        new FileInputStream(file), BUFFER_SIZE));
+            default:
+                throw new IOException(
+                        "Unsupported compression of history data file: "
+                        + format + ": " + file);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: openChannel
+    /**
+     * ファイルを展開しながら読み込むチャネルを作成する。
+     * <p>
+     * 圧縮されていない場合はファイルのチャネルをそのまま返す。
+     * </p>
+     *
+     * @param file 対象のファイル
+     * @return 展開した内容を読み込むチャネル
+     * @throws IOException ファイルを開けなかった場合、または対応していない形式の場合
+     */
+    public static ReadableByteChannel openChannel(File file)
+            throws IOException {
+        if (detect(file) == Format.NONE) {
+            return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+        return Channels.newChannel(open(file));
+    }
+    //@method_def_end
+
+}
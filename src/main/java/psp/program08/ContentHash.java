@@ -0,0 +1,128 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * ファイル内容のハッシュ値を計算する。
+ *
+ * <p>
+ * ファイルをメモリマップして8バイト単位で混合する非暗号学的な64ビットハッシュ。
+ * 履歴データファイルが変更されたかどうかの判定に使用する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class ContentHash {
+
+    private static final long SEED = 0x9E3779B97F4A7C15L; //初期値
+    private static final long PRIME1 = 0xC2B2AE3D27D4EB4FL; //混合用の定数
+    private static final long PRIME2 = 0x165667B19E3779F9L; //混合用の定数
+    private static final long WINDOW = 64L * 1024 * 1024; //一度にマップする大きさ
+
+    //@method_def_start: ContentHash
+    /**
+     * インスタンスは作成しない。
+     */
+    private ContentHash() {
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * ファイル内容のハッシュ値を計算する。
+     *
+     * @param file 対象のファイル
+     * @return ハッシュ値
+     * @throws IOException ファイルの読み込みに失敗した場合
+     */
+    public static long of(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            long hash = SEED ^ size;
+            for (long position = 0; position < size; position += WINDOW) {
+                final long length = Math.min(WINDOW, size - position);
+                final MappedByteBuffer buffer = channel.map(
+                        FileChannel.MapMode.READ_ONLY, position, length);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                while (buffer.remaining() >= Long.BYTES) {
+                    hash = mix(hash, buffer.getLong());
+                }
+                while (buffer.hasRemaining()) {
+                    hash = mix(hash, buffer.get() & 0xFFL);
+                }
+            }
+            return finish(hash);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: of_List
+    /**
+     * 複数のファイルの内容をまとめたハッシュ値を計算する。
+     * <p>
+     * ファイルの順序が異なる場合は異なるハッシュ値となる。
+     * </p>
+     *
+     * @param files 対象のファイルの一覧
+     * @return ハッシュ値
+     * @throws IOException ファイルの読み込みに失敗した場合
+     */
+    public static long of(List<File> files) throws IOException {
+        if (files.size() == 1) {
+            return of(files.get(0));
+        }
+        long hash = SEED ^ files.size();
+        for (File file : files) {
+            hash = mix(hash, of(file));
+        }
+        return finish(hash);
+    }
+    //@method_def_end
+
+    //@method_def_start: mix
+    /**
+     * ハッシュ値に8バイトの値を混合する。
+     *
+     * @param hash 現在のハッシュ値
+     * @param value 混合する値
+     * @return 新しいハッシュ値
+     */
+    private static long mix(long hash, long value) {
+        hash ^= Long.rotateLeft(value * PRIME1, 31) * SEED;
+        return Long.rotateLeft(hash, 27) * PRIME1 + PRIME2;
+    }
+    //@method_def_end
+
+    //@method_def_start: finish
+    /**
+     * ハッシュ値の各ビットを攪拌して最終的な値を得る。
+     *
+     * @param hash 現在のハッシュ値
+     * @return 最終的なハッシュ値
+     */
+    private static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+    //@method_def_end
+
+}
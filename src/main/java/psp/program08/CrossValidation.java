@@ -0,0 +1,434 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 1行除外交差検証（Leave-One-Out）の結果
+ *
+ * <p>
+ * 行を1つずつ除いて回帰モデルを計算し直す代わりに、全件で計算した回帰モデルの残差{@code e}と
+ * てこ比{@code h = a' (A'A)^-1 a}から、除外した場合の予測残差を{@code e / (1 - h)}で求める。
+ * てこ比はグラム行列のコレスキー分解（{@link Cholesky}）を1度だけ計算して各行で共有するため、
+ * 1行あたりの計算量は次元数の2乗に比例し、全体でも履歴データを1回読み込むのと同程度となる。
+ * 行の範囲（またはファイル）ごとに別々のスレッドで計算し、範囲の順に合算する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class CrossValidation {
+
+    private final double press; //予測残差平方和（PRESS）
+    private final double sumAbsoluteResiduals; //予測残差の絶対値の総和
+    private final double maxLeverage; //てこ比の最大値
+    private final Column residuals; //行ごとの予測残差
+
+    //@method_def_start: CrossValidation
+    /**
+     * 集計済みの値を指定して作成する。
+     *
+     * @param press 予測残差平方和
+     * @param sumAbsoluteResiduals 予測残差の絶対値の総和
+     * @param maxLeverage てこ比の最大値
+     * @param residuals 行ごとの予測残差
+     */
+    private CrossValidation(double press, double sumAbsoluteResiduals,
+            double maxLeverage, Column residuals) {
+        this.press = press;
+        this.sumAbsoluteResiduals = sumAbsoluteResiduals;
+        this.maxLeverage = maxLeverage;
+        this.residuals = residuals;
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 各列の数値データ一覧から交差検証を行う。
+     * <p>
+     * 行を{@code threads}個の連続した範囲に分けて並列に計算する。
+     * </p>
+     *
+     * @param columns 履歴データの各列の数値データ一覧（最後の列を目的変数とする）
+     * @param statistics 全件の十分統計量
+     * @param threads スレッド数
+     * @return 交差検証の結果
+     * @throws IllegalArgumentException 列の数が十分統計量の次元数と一致しない場合
+     */
+    public static CrossValidation of(Column[] columns,
+            SufficientStatistics statistics, int threads) {
+        if (columns.length != statistics.getDimension()) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "columns=" + columns.length
+                    + ": dimension=" + statistics.getDimension());
+        }
+        final Model model = new Model(statistics);
+        final int count = columns[0].size();
+        final double[] values = new double[count];
+        final int parts = Math.max(1, Math.min(threads, count / 1024));
+        final List<Callable<Partial>> tasks = new ArrayList<>(parts);
+        for (int p = 0; p < parts; p++) {
+            final int from = (int) ((long) count * p / parts);
+            final int to = (int) ((long) count * (p + 1) / parts);
+            tasks.add(() -> {
+                final Partial partial = new Partial(model);
+                final double[] row = new double[columns.length];
+                for (int r = from; r < to; r++) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = columns[i].get(r);
+                    }
+                    values[r] = partial.add(row);
+                }
+                return partial;
+            });
+        }
+        try {
+            final Partial total = run(tasks, threads);
+            return new CrossValidation(total.press, total.sumAbsolute,
+                    total.maxLeverage, new ArrayColumn(values));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: of_List_ColumnProjection_SufficientStatistics_int
+    /**
+     * 履歴データファイルを読み直して交差検証を行う。
+     * <p>
+     * ファイルごとに別々のスレッドで計算し、予測残差はファイルの指定順に連結する。
+     * 列指向のバイナリ形式のファイルはメモリマップした各列から計算する。
+     * </p>
+     *
+     * @param files 履歴データファイルの一覧
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param statistics 全件の十分統計量
+     * @param threads 同時に読み込むファイルの最大数
+     * @return 交差検証の結果
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public static CrossValidation of(List<File> files,
+            ColumnProjection projection, SufficientStatistics statistics,
+            int threads) throws IOException {
+        if (projection.getDimension() != statistics.getDimension()) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "columns=" + projection.getDimension()
+                    + ": dimension=" + statistics.getDimension());
+        }
+        final Model model = new Model(statistics);
+        final List<Callable<Partial>> tasks = new ArrayList<>(files.size());
+        for (File file : files) {
+            tasks.add(() -> validate(file, projection, model));
+        }
+        final Partial total = run(tasks, threads);
+        return new CrossValidation(total.press, total.sumAbsolute,
+                total.maxLeverage, total.residuals != null
+                        ? total.residuals : new ArrayColumn());
+    }
+    //@method_def_end
+
+    //@method_def_start: validate
+    /**
+     * 1つの履歴データファイルの各行の予測残差を計算する。
+     *
+     * @param file 履歴データファイル
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param model 全件で計算した回帰モデル
+     * @return 集計結果
+     */
+    private static Partial validate(File file, ColumnProjection projection,
+            Model model) throws IOException {
+        final Partial partial = new Partial(model);
+        final ArrayColumn values = new ArrayColumn();
+        final double[] row = new double[projection.getDimension()];
+        try {
+            if (!ColumnarHistoryFile.isColumnar(file)) {
+                try (HistoryDataReader in
+                        = new HistoryDataReader(file, projection)) {
+                    while (in.next(row)) {
+                        values.add(partial.add(row));
+                    }
+                }
+            } else {
+                final ColumnarHistoryFile columnar
+                        = ColumnarHistoryFile.open(file);
+                final Column[] columns = columnar.getColumns(projection);
+                columnar.verify();
+                try {
+                    final int count = columns[0].size();
+                    for (int r = 0; r < count; r++) {
+                        for (int i = 0; i < row.length; i++) {
+                            row[i] = columns[i].get(r);
+                        }
+                        values.add(partial.add(row));
+                    }
+                } finally {
+                    for (Column column : columns) {
+                        column.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + ": " + file, e);
+        }
+        partial.residuals = values;
+        return partial;
+    }
+    //@method_def_end
+
+    //@method_def_start: run
+    /**
+     * 範囲ごとの計算を並列に実行し、範囲の順に合算する。
+     *
+     * @param tasks 範囲ごとの計算
+     * @param threads スレッド数
+     * @return 合算した集計結果
+     */
+    private static Partial run(List<Callable<Partial>> tasks, int threads)
+            throws IOException {
+        final List<Partial> partials = new ArrayList<>(tasks.size());
+        if (tasks.size() == 1 || threads <= 1) {
+            for (Callable<Partial> task : tasks) {
+                try {
+                    partials.add(task.call());
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        } else {
+            final ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.min(threads, tasks.size()));
+            try {
+                final List<Future<Partial>> futures
+                        = new ArrayList<>(tasks.size());
+                for (Callable<Partial> task : tasks) {
+                    futures.add(executor.submit(task));
+                }
+                for (Future<Partial> future : futures) {
+                    partials.add(await(future));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        final Partial total = new Partial(null);
+        for (Partial partial : partials) {
+            total.merge(partial);
+        }
+        return total;
+    }
+    //@method_def_end
+
+    //@method_def_start: await
+    /**
+     * 計算の終了を待って結果を得る。
+     *
+     * @param future 計算結果
+     * @return 集計結果
+     * @throws IOException 計算中に入出力エラーが発生した場合
+     */
+    private static Partial await(Future<Partial> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while validating history data");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: getPress
+    /**
+     * 予測残差平方和（PRESS）を得る。
+     *
+     * @return 予測残差平方和
+     */
+    public double getPress() {
+        return press;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRootMeanSquaredError
+    /**
+     * 予測残差の二乗平均平方根を得る。
+     *
+     * @return {@code sqrt(PRESS / n)}
+     */
+    public double getRootMeanSquaredError() {
+        return Math.sqrt(press / residuals.size());
+    }
+    //@method_def_end
+
+    //@method_def_start: getMeanAbsoluteError
+    /**
+     * 予測残差の絶対値の平均を得る。
+     *
+     * @return 平均絶対誤差
+     */
+    public double getMeanAbsoluteError() {
+        return sumAbsoluteResiduals / residuals.size();
+    }
+    //@method_def_end
+
+    //@method_def_start: getMaxLeverage
+    /**
+     * てこ比の最大値を得る。
+     *
+     * @return てこ比の最大値
+     */
+    public double getMaxLeverage() {
+        return maxLeverage;
+    }
+    //@method_def_end
+
+    //@method_def_start: getResiduals
+    /**
+     * 行ごとの予測残差（その行を除いて計算した回帰モデルでの目的変数の残差）を得る。
+     *
+     * @return 予測残差の数値データ一覧
+     */
+    public Column getResiduals() {
+        return residuals;
+    }
+    //@method_def_end
+
+    //@method_def_start: getNumberOfHistoryData
+    /**
+     * 検証した履歴データの個数を得る。
+     *
+     * @return 履歴データの個数
+     */
+    public int getNumberOfHistoryData() {
+        return residuals.size();
+    }
+    //@method_def_end
+
+    /**
+     * 全件で計算した回帰パラメータとグラム行列の分解
+     */
+    private static final class Model {
+
+        private final double[] parameters; //回帰パラメータ
+        private final Cholesky cholesky; //グラム行列の分解
+
+        //@method_def_start: Model
+        /**
+         * 十分統計量から作成する。
+         *
+         * @param statistics 十分統計量
+         */
+        Model(SufficientStatistics statistics) {
+            this.parameters = statistics.solve();
+            this.cholesky = Cholesky.decompose(statistics.getGram());
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 範囲ごとの集計結果
+     */
+    private static final class Partial {
+
+        private final Model model; //全件で計算した回帰モデル（合算用の場合はnull）
+        private final double[] design; //説明変数の作業領域（先頭は定数項の1）
+        private final double[] work; //前進代入の作業領域
+        private double press; //予測残差平方和
+        private double sumAbsolute; //予測残差の絶対値の総和
+        private double maxLeverage; //てこ比の最大値
+        private ArrayColumn residuals; //予測残差（ファイルから計算した場合）
+
+        //@method_def_start: Partial
+        /**
+         * 回帰モデルを指定して作成する。
+         *
+         * @param model 全件で計算した回帰モデル
+         */
+        Partial(Model model) {
+            this.model = model;
+            final int dimension = model != null ? model.parameters.length : 0;
+            this.design = new double[dimension];
+            this.work = new double[dimension];
+            if (dimension > 0) {
+                design[0] = 1.0;
+            }
+        }
+        //@method_def_end
+
+        //@method_def_start: add
+        /**
+         * 1行の予測残差を計算して集計する。
+         *
+         * @param row 説明変数と目的変数を並べた履歴データ
+         * @return 予測残差
+         */
+        double add(double[] row) {
+            final int last = design.length - 1;
+            double fitted = model.parameters[0];
+            for (int i = 0; i < last; i++) {
+                design[i + 1] = row[i];
+                fitted += model.parameters[i + 1] * row[i];
+            }
+            final double leverage
+                    = model.cholesky.inverseQuadraticForm(design, work);
+            final double residual = (row[last] - fitted) / (1.0 - leverage);
+            press += residual * residual;
+            sumAbsolute += Math.abs(residual);
+            maxLeverage = Math.max(maxLeverage, leverage);
+            return residual;
+        }
+        //@method_def_end
+
+        //@method_def_start: merge
+        /**
+         * 別の範囲の集計結果を加算する。
+         *
+         * @param other 別の範囲の集計結果
+         */
+        void merge(Partial other) {
+            press += other.press;
+            sumAbsolute += other.sumAbsolute;
+            maxLeverage = Math.max(maxLeverage, other.maxLeverage);
+            if (other.residuals != null) {
+                if (residuals == null) {
+                    residuals = new ArrayColumn();
+                }
+                final int count = other.residuals.size();
+                for (int r = 0; r < count; r++) {
+                    residuals.add(other.residuals.get(r));
+                }
+            }
+        }
+        //@method_def_end
+
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 変換した説明変数と目的変数による回帰モデルの計算結果
+ *
+ * <p>
+ * 履歴データファイルを1行ずつ読み込み、{@link FeatureSpec}で変換した行を
+ * {@link SufficientStatistics}に加算する。変換後の列の数値データ一覧は作成しない。
+ * 見積値と予測区間は見積プロキシ規模に同じ変換を適用して計算し、目的変数を変換した場合は元の単位に戻す。
+ * </p>
+ *
+ * <p>
+ * 変換後の説明変数は互いに相関する（{@code w}と{@code w^2}など）ため、予測区間は説明変数間の
+ * 共分散を考慮したてこ比（{@link ProbeModel#exactPredictionInterval(double[])}）から計算する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class FeatureFit {
+
+    private final FeatureSpec spec; //説明変数と目的変数の変換の指定
+    private final ProbeModel model; //変換後の値による回帰モデル
+
+    //@method_def_start: FeatureFit
+    /**
+     * 計算済みの回帰モデルを指定して作成する。
+     *
+     * @param spec 説明変数と目的変数の変換の指定
+     * @param model 変換後の値による回帰モデル
+     */
+    public FeatureFit(FeatureSpec spec, ProbeModel model) {
+        if (model.getDimension() != spec.getDimension()) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "model=" + model.getDimension()
+                    + ": features=" + spec.getDimension());
+        }
+        this.spec = spec;
+        this.model = model;
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 履歴データファイルを読み込み、変換後の値による回帰モデルを計算する。
+     *
+     * @param files 履歴データファイルの一覧
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param spec 説明変数と目的変数の変換の指定
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差（百分率）
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     * @param threads 同時に読み込むファイルの最大数
+     * @return 計算結果
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合、または自然対数を計算する値が正でない場合
+     */
+    public static FeatureFit of(List<File> files, ColumnProjection projection,
+            FeatureSpec spec, double predictionIntervalRate,
+            double acceptableError, int initialNumberOfSegments,
+            int threads) throws IOException {
+        return new FeatureFit(spec, ProbeModel.fit(
+                accumulate(files, projection, spec, threads),
+                predictionIntervalRate, acceptableError,
+                initialNumberOfSegments));
+    }
+    //@method_def_end
+
+    //@method_def_start: accumulate_List
+    /**
+     * 複数の履歴データファイルを並列に読み込み、変換後の値の十分統計量を計算する。
+     *
+     * @param files 履歴データファイルの一覧
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param spec 説明変数と目的変数の変換の指定
+     * @param threads 同時に読み込むファイルの最大数
+     * @return 合算した十分統計量
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合、または自然対数を計算する値が正でない場合
+     */
+    public static SufficientStatistics accumulate(List<File> files,
+            ColumnProjection projection, FeatureSpec spec, int threads)
+            throws IOException {
+        final SufficientStatistics result
+                = new SufficientStatistics(spec.getDimension());
+        if (files.size() == 1 || threads <= 1) {
+            for (File file : files) {
+                result.merge(accumulate(file, projection, spec));
+            }
+            return result;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, files.size()));
+        try {
+            final List<Future<SufficientStatistics>> futures
+                    = new ArrayList<>(files.size());
+            for (File file : files) {
+                futures.add(executor.submit(
+                        () -> accumulate(file, projection, spec)));
+            }
+            for (Future<SufficientStatistics> future : futures) {
+                result.merge(await(future));
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: accumulate_File
+    /**
+     * 1つの履歴データファイルを読み込み、変換後の値の十分統計量を計算する。
+     * <p>
+     * 列指向のバイナリ形式（{@link ColumnarHistoryFile}）の場合はメモリマップした各列から、
+     * それ以外の場合はタブ区切りの形式として1行ずつ変換して加算する。
+     * </p>
+     *
+     * @param file 履歴データファイル
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param spec 説明変数と目的変数の変換の指定
+     * @return 十分統計量
+     * @throws IOException 読み込みに失敗した場合、形式が正しくない場合、または自然対数を計算する値が正でない場合
+     */
+    private static SufficientStatistics accumulate(File file,
+            ColumnProjection projection, FeatureSpec spec) throws IOException {
+        final int dimension = projection.getDimension();
+        final SufficientStatistics statistics
+                = new SufficientStatistics(spec.getDimension());
+        final double[] raw = new double[dimension];
+        final double[] row = new double[spec.getDimension()];
+        try {
+            if (!ColumnarHistoryFile.isColumnar(file)) {
+                try (HistoryDataReader in
+                        = new HistoryDataReader(file, projection)) {
+                    while (in.next(raw)) {
+                        spec.expand(raw, row);
+                        statistics.add(row);
+                    }
+                }
+            } else {
+                final ColumnarHistoryFile columnar
+                        = ColumnarHistoryFile.open(file);
+                final Column[] columns = columnar.getColumns(projection);
+                columnar.verify();
+                try {
+                    final int count = columns[0].size();
+                    for (int r = 0; r < count; r++) {
+                        for (int i = 0; i < dimension; i++) {
+                            raw[i] = columns[i].get(r);
+                        }
+                        spec.expand(raw, row);
+                        statistics.add(row);
+                    }
+                } finally {
+                    for (Column column : columns) {
+                        column.close();
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + ": " + file, e);
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + ": " + file, e);
+        }
+        return statistics;
+    }
+    //@method_def_end
+
+    //@method_def_start: await
+    /**
+     * 読み込みの終了を待って結果を得る。
+     *
+     * @param future 読み込み結果
+     * @return 十分統計量
+     * @throws IOException 読み込み中に入出力エラーが発生した場合
+     */
+    private static SufficientStatistics await(
+            Future<SufficientStatistics> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while reading history data");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: features
+    /**
+     * 見積プロキシ規模を変換後の説明変数に変換する。
+     *
+     * @param sizes 見積プロキシ規模
+     * @return 変換後の説明変数
+     */
+    private double[] features(double[] sizes) {
+        if (sizes.length != spec.getRawDimension() - 1) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "sizes=" + sizes.length
+                    + ": dimension=" + spec.getRawDimension());
+        }
+        final double[] features = new double[spec.getDimension() - 1];
+        spec.expandFeatures(sizes, features);
+        return features;
+    }
+    //@method_def_end
+
+    //@method_def_start: estimate
+    /**
+     * 見積プロキシ規模から見積値を計算する。
+     *
+     * @param sizes 見積プロキシ規模
+     * @return 元の単位の見積値
+     */
+    public double estimate(double[] sizes) {
+        return spec.inverse(model.estimate(features(sizes)));
+    }
+    //@method_def_end
+
+    //@method_def_start: lowerPredictionInterval
+    /**
+     * 見積プロキシ規模に対する予測区間の下限を計算する。
+     *
+     * @param sizes 見積プロキシ規模
+     * @return 元の単位の予測区間の下限
+     * @throws IllegalStateException 偏差積和行列が正定値でない場合
+     */
+    public double lowerPredictionInterval(double[] sizes) {
+        final double[] features = features(sizes);
+        return spec.inverse(model.estimate(features)
+                - model.exactPredictionInterval(features));
+    }
+    //@method_def_end
+
+    //@method_def_start: upperPredictionInterval
+    /**
+     * 見積プロキシ規模に対する予測区間の上限を計算する。
+     *
+     * @param sizes 見積プロキシ規模
+     * @return 元の単位の予測区間の上限
+     * @throws IllegalStateException 偏差積和行列が正定値でない場合
+     */
+    public double upperPredictionInterval(double[] sizes) {
+        final double[] features = features(sizes);
+        return spec.inverse(model.estimate(features)
+                + model.exactPredictionInterval(features));
+    }
+    //@method_def_end
+
+    //@method_def_start: getSpec
+    /**
+     * 説明変数と目的変数の変換の指定を得る。
+     *
+     * @return 変換の指定
+     */
+    public FeatureSpec getSpec() {
+        return spec;
+    }
+    //@method_def_end
+
+    //@method_def_start: getModel
+    /**
+     * 変換後の値による回帰モデルを得る。
+     *
+     * @return 回帰モデル
+     */
+    public ProbeModel getModel() {
+        return model;
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,271 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 説明変数と目的変数の変換の指定
+ *
+ * <p>
+ * {@code psp.program8.features}にカンマ区切りで回帰モデルの項を指定する。各項は{@code *}で区切った
+ * 因子の積で、因子は履歴データの説明変数{@code w}、{@code x}、{@code y}、そのべき乗（{@code w^2}）、
+ * または自然対数（{@code ln(w)}）とする。{@code psp.program8.target}に{@code ln(z)}を指定した場合は
+ * 目的変数の自然対数を回帰する。
+ * </p>
+ *
+ * <p>
+ * 変換は履歴データの1行ごとに{@link #expand(double[], double[])}で計算するため、
+ * 変換後の列の数値データ一覧は作成しない。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class FeatureSpec {
+
+    private static final String[] NAMES = {"w", "x", "y"}; //説明変数の名前
+    private static final String TARGET = "z"; //目的変数の名前
+    private static final Pattern LN = Pattern.compile("ln\\((\\w+)\\)");
+    private static final Pattern POWER = Pattern.compile("(\\w+)\\^([0-9]+)");
+
+    private final int dimension; //履歴データの次元数
+    private final int[][] variables; //項ごとの因子の説明変数の位置
+    private final int[][] exponents; //項ごとの因子の指数（自然対数の場合は0）
+    private final boolean logTarget; //目的変数の自然対数を回帰するか
+
+    //@method_def_start: FeatureSpec
+    /**
+     * 解析済みの項を指定して作成する。
+     */
+    private FeatureSpec(int dimension, int[][] variables, int[][] exponents,
+            boolean logTarget) {
+        this.dimension = dimension;
+        this.variables = variables;
+        this.exponents = exponents;
+        this.logTarget = logTarget;
+    }
+    //@method_def_end
+
+    //@method_def_start: parse
+    /**
+     * 設定値から変換の指定を作成する。
+     *
+     * @param features カンマ区切りの項、未指定の場合は{@code null}（説明変数をそのまま使用する）
+     * @param target 目的変数（{@code z}または{@code ln(z)}）、未指定の場合は{@code null}
+     * @param dimension 履歴データの次元数
+     * @return 変換の指定
+     * @throws IllegalArgumentException 項または目的変数の形式が正しくない場合
+     */
+    public static FeatureSpec parse(String features, String target,
+            int dimension) {
+        if (dimension - 1 > NAMES.length) {
+            throw new IllegalArgumentException("dimension=" + dimension);
+        }
+        final String[] terms;
+        if (features == null || features.trim().isEmpty()) {
+            terms = new String[dimension - 1];
+            System.arraycopy(NAMES, 0, terms, 0, terms.length);
+        } else {
+            terms = features.split(",");
+        }
+        final int[][] variables = new int[terms.length][];
+        final int[][] exponents = new int[terms.length][];
+        for (int t = 0; t < terms.length; t++) {
+            final String[] factors = terms[t].split("\\*");
+            variables[t] = new int[factors.length];
+            exponents[t] = new int[factors.length];
+            for (int f = 0; f < factors.length; f++) {
+                final String factor = factors[f].trim();
+                final Matcher ln = LN.matcher(factor);
+                final Matcher power = POWER.matcher(factor);
+                if (ln.matches()) {
+                    variables[t][f] = indexOf(ln.group(1), dimension);
+                    exponents[t][f] = 0;
+                } else if (power.matches()) {
+                    variables[t][f] = indexOf(power.group(1), dimension);
+                    exponents[t][f] = Integer.parseInt(power.group(2));
+                    if (exponents[t][f] == 0) {
+                        throw new IllegalArgumentException(
+                                "feature=" + terms[t].trim());
+                    }
+                } else {
+                    variables[t][f] = indexOf(factor, dimension);
+                    exponents[t][f] = 1;
+                }
+            }
+        }
+        final String targetLiteral = target == null ? TARGET
+                : target.replaceAll("\\s", "");
+        if (!targetLiteral.equals(TARGET)
+                && !targetLiteral.equals("ln(" + TARGET + ")")) {
+            throw new IllegalArgumentException("target=" + target);
+        }
+        return new FeatureSpec(dimension, variables, exponents,
+                !targetLiteral.equals(TARGET));
+    }
+    //@method_def_end
+
+    //@method_def_start: indexOf
+    /**
+     * 説明変数の名前から位置を得る。
+     *
+     * @param name 説明変数の名前
+     * @param dimension 履歴データの次元数
+     * @return 説明変数の位置
+     * @throws IllegalArgumentException 名前が説明変数でない場合
+     */
+    private static int indexOf(String name, int dimension) {
+        for (int i = 0; i < dimension - 1; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown variable: " + name);
+    }
+    //@method_def_end
+
+    //@method_def_start: expand
+    /**
+     * 履歴データの1行を変換後の説明変数と目的変数に変換する。
+     *
+     * @param raw 履歴データの1行（説明変数、目的変数の順）
+     * @param row 変換後の値を格納する配列（要素数は{@link #getDimension()}）
+     * @throws IllegalArgumentException 自然対数を計算する値が正でない場合
+     */
+    public void expand(double[] raw, double[] row) {
+        expandFeatures(raw, row);
+        final double z = raw[dimension - 1];
+        row[variables.length] = logTarget ? ln(TARGET, z) : z;
+    }
+    //@method_def_end
+
+    //@method_def_start: expandFeatures
+    /**
+     * 見積プロキシ規模または履歴データの1行の説明変数を変換する。
+     *
+     * @param sizes 説明変数の値（後ろに目的変数があってもよい）
+     * @param features 変換後の説明変数を格納する配列
+     * @throws IllegalArgumentException 自然対数を計算する値が正でない場合
+     */
+    public void expandFeatures(double[] sizes, double[] features) {
+        for (int t = 0; t < variables.length; t++) {
+            double value = 1.0;
+            for (int f = 0; f < variables[t].length; f++) {
+                final double v = sizes[variables[t][f]];
+                final int exponent = exponents[t][f];
+                if (exponent == 0) {
+                    value *= ln(NAMES[variables[t][f]], v);
+                } else {
+                    for (int k = 0; k < exponent; k++) {
+                        value *= v;
+                    }
+                }
+            }
+            features[t] = value;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: ln
+    /**
+     * 自然対数を計算する。
+     *
+     * @param name 変数の名前
+     * @param value 値
+     * @return 自然対数
+     * @throws IllegalArgumentException 値が正でない場合
+     */
+    private static double ln(String name, double value) {
+        if (!(value > 0.0)) {
+            throw new IllegalArgumentException(
+                    "ln of non-positive value: " + name + "=" + value);
+        }
+        return Math.log(value);
+    }
+    //@method_def_end
+
+    //@method_def_start: inverse
+    /**
+     * 変換後の目的変数の値を元の単位に戻す。
+     * <p>
+     * 目的変数の自然対数を回帰した場合の逆変換は指数関数となり、見積値は中央値の推定値となる。
+     * 逆変換は単調増加であるため、予測区間の両端もそれぞれ逆変換すればよい。
+     * </p>
+     *
+     * @param value 変換後の目的変数の値
+     * @return 元の単位の値
+     */
+    public double inverse(double value) {
+        return logTarget ? Math.exp(value) : value;
+    }
+    //@method_def_end
+
+    //@method_def_start: getDimension
+    /**
+     * 変換後の次元数（項の数＋1）を得る。
+     *
+     * @return 変換後の次元数
+     */
+    public int getDimension() {
+        return variables.length + 1;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRawDimension
+    /**
+     * 変換前の履歴データの次元数を得る。
+     *
+     * @return 履歴データの次元数
+     */
+    public int getRawDimension() {
+        return dimension;
+    }
+    //@method_def_end
+
+    //@method_def_start: isLogTarget
+    /**
+     * 目的変数の自然対数を回帰するか判定する。
+     *
+     * @return 自然対数を回帰する場合は{@code true}
+     */
+    public boolean isLogTarget() {
+        return logTarget;
+    }
+    //@method_def_end
+
+    //@method_def_start: toString
+    /**
+     * 回帰モデルの式の文字列表現を得る。
+     *
+     * @return 「目的変数 ~ 項, 項, ...」の形式の文字列
+     */
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        result.append(logTarget ? "ln(" + TARGET + ")" : TARGET).append(" ~ ");
+        for (int t = 0; t < variables.length; t++) {
+            if (t > 0) {
+                result.append(", ");
+            }
+            for (int f = 0; f < variables[t].length; f++) {
+                if (f > 0) {
+                    result.append('*');
+                }
+                final String name = NAMES[variables[t][f]];
+                final int exponent = exponents[t][f];
+                result.append(exponent == 0 ? "ln(" + name + ")"
+                        : exponent == 1 ? name : name + "^" + exponent);
+            }
+        }
+        return result.toString();
+    }
+    //@method_def_end
+
+}
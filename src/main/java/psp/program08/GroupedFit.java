@@ -0,0 +1,485 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * グループ（チームや開発者など）ごとの回帰モデルの計算結果
+ *
+ * <p>
+ * 履歴データファイルを1度だけ読み込み、グループの列の値（整数）をキーとする{@link LongHashMap}で
+ * 行をグループごとの{@link SufficientStatistics}に振り分ける。読み込み後に全てのグループの
+ * 回帰モデルを並列に計算し、グループごとの見積値と予測区間を保持する。
+ * グループごとに保持するのは十分統計量と計算結果の数値だけであり、{@link ProbeDataSet}は作成しない。
+ * </p>
+ *
+ * <p>
+ * 予測区間の積分範囲は自由度だけで決まるため、全てのグループに現れる自由度ごとに1度だけ計算する。
+ * 自由度が1未満のグループ（行数が次元数以下のグループ）と、説明変数が線形従属で
+ * 正規方程式が解けないグループの見積値と予測区間はNaNとする。1つのグループが解けなくても
+ * 他のグループの計算は続ける。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class GroupedFit {
+
+    private static final int THRESHOLD = 256; //1つのタスクで順に計算するグループの最大数
+
+    private final LongHashMap<SufficientStatistics> statistics; //グループごとの十分統計量
+    private final double[] estimates; //グループごとの見積値
+    private final double[] predictionIntervals; //グループごとの予測区間
+
+    //@method_def_start: GroupedFit
+    /**
+     * 計算済みの値を指定して作成する。
+     *
+     * @param statistics グループごとの十分統計量
+     * @param estimates グループごとの見積値
+     * @param predictionIntervals グループごとの予測区間
+     */
+    private GroupedFit(LongHashMap<SufficientStatistics> statistics,
+            double[] estimates, double[] predictionIntervals) {
+        this.statistics = statistics;
+        this.estimates = estimates;
+        this.predictionIntervals = predictionIntervals;
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 履歴データファイルを読み込み、グループごとの回帰モデルを計算する。
+     *
+     * @param files 履歴データファイルの一覧
+     * @param projection 説明変数、目的変数、グループの順に並べた列と次元との対応
+     * @param proxySizes 見積プロキシ規模
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差（百分率）
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     * @param threads スレッド数
+     * @return グループごとの計算結果
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合、またはグループの値が整数でない場合
+     */
+    public static GroupedFit of(List<File> files, ColumnProjection projection,
+            double[] proxySizes, double predictionIntervalRate,
+            double acceptableError, int initialNumberOfSegments,
+            int threads) throws IOException {
+        return fit(accumulate(files, projection, threads), proxySizes,
+                predictionIntervalRate, acceptableError,
+                initialNumberOfSegments, threads);
+    }
+    //@method_def_end
+
+    //@method_def_start: accumulate_List
+    /**
+     * 複数の履歴データファイルを並列に読み込み、グループごとの十分統計量を計算する。
+     * <p>
+     * ファイルごとに別々の対応表に加算し、全てのファイルを読み込んだ後にファイルの指定順に合算する。
+     * グループの順番は最初に現れた順となる。
+     * </p>
+     *
+     * @param files 履歴データファイルの一覧
+     * @param projection 説明変数、目的変数、グループの順に並べた列と次元との対応
+     * @param threads 同時に読み込むファイルの最大数
+     * @return グループの値から十分統計量への対応表
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合、またはグループの値が整数でない場合
+     */
+    public static LongHashMap<SufficientStatistics> accumulate(
+            List<File> files, ColumnProjection projection, int threads)
+            throws IOException {
+        final LongHashMap<SufficientStatistics> result = new LongHashMap<>();
+        if (files.size() == 1 || threads <= 1) {
+            for (File file : files) {
+                merge(result, accumulate(file, projection));
+            }
+            return result;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, files.size()));
+        try {
+            final List<Future<LongHashMap<SufficientStatistics>>> futures
+                    = new ArrayList<>(files.size());
+            for (File file : files) {
+                futures.add(executor.submit(
+                        () -> accumulate(file, projection)));
+            }
+            for (Future<LongHashMap<SufficientStatistics>> future : futures) {
+                merge(result, await(future));
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: accumulate_File
+    /**
+     * 1つの履歴データファイルを読み込み、グループごとの十分統計量を計算する。
+     * <p>
+     * 列指向のバイナリ形式（{@link ColumnarHistoryFile}）の場合はメモリマップした各列から、
+     * それ以外の場合はタブ区切りの形式として1行ずつ加算する。
+     * </p>
+     *
+     * @param file 履歴データファイル
+     * @param projection 説明変数、目的変数、グループの順に並べた列と次元との対応
+     * @return グループの値から十分統計量への対応表
+     * @throws IOException 読み込みに失敗した場合、または形式が正しくない場合
+     */
+    private static LongHashMap<SufficientStatistics> accumulate(File file,
+            ColumnProjection projection) throws IOException {
+        final int dimension = projection.getDimension() - 1;
+        final LongHashMap<SufficientStatistics> result = new LongHashMap<>();
+        final double[] projected = new double[dimension + 1];
+        final double[] row = new double[dimension];
+        try {
+            if (!ColumnarHistoryFile.isColumnar(file)) {
+                try (HistoryDataReader in
+                        = new HistoryDataReader(file, projection)) {
+                    while (in.next(projected)) {
+                        System.arraycopy(projected, 0, row, 0, dimension);
+                        result.computeIfAbsent(toGroup(projected[dimension]),
+                                group -> new SufficientStatistics(dimension))
+                                .add(row);
+                    }
+                }
+            } else {
+                final ColumnarHistoryFile columnar
+                        = ColumnarHistoryFile.open(file);
+                final Column[] columns = columnar.getColumns(projection);
+                columnar.verify();
+                try {
+                    final int count = columns[0].size();
+                    for (int r = 0; r < count; r++) {
+                        for (int i = 0; i < dimension; i++) {
+                            row[i] = columns[i].get(r);
+                        }
+                        result.computeIfAbsent(
+                                toGroup(columns[dimension].get(r)),
+                                group -> new SufficientStatistics(dimension))
+                                .add(row);
+                    }
+                } finally {
+                    for (Column column : columns) {
+                        column.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + ": " + file, e);
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: toGroup
+    /**
+     * グループの列の値をキーに変換する。
+     *
+     * @param value グループの列の値
+     * @return グループのキー
+     * @throws IOException 値が整数でない場合
+     */
+    private static long toGroup(double value) throws IOException {
+        final long group = (long) value;
+        if (group != value) {
+            throw new IOException("Illegal format of history data file");
+        }
+        return group;
+    }
+    //@method_def_end
+
+    //@method_def_start: merge
+    /**
+     * グループごとの十分統計量を合算する。
+     *
+     * @param total 合算先の対応表
+     * @param partial 加算する対応表（合算後は参照しないこと）
+     */
+    private static void merge(LongHashMap<SufficientStatistics> total,
+            LongHashMap<SufficientStatistics> partial) {
+        for (int i = 0; i < partial.size(); i++) {
+            final SufficientStatistics statistics = partial.getValue(i);
+            final SufficientStatistics previous
+                    = total.get(partial.getKey(i));
+            if (previous == null) {
+                total.put(partial.getKey(i), statistics);
+            } else {
+                previous.merge(statistics);
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: await
+    /**
+     * 読み込みの終了を待って結果を得る。
+     *
+     * @param future 読み込み結果
+     * @return グループごとの十分統計量
+     * @throws IOException 読み込み中に入出力エラーが発生した場合
+     */
+    private static LongHashMap<SufficientStatistics> await(
+            Future<LongHashMap<SufficientStatistics>> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while reading history data");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: fit
+    /**
+     * グループごとの十分統計量から、全てのグループの回帰モデルを並列に計算する。
+     * <p>
+     * 先に全てのグループの自由度を集めて重複を除き、自由度ごとの積分範囲を並列に計算しておく。
+     * 各グループの回帰モデルはこの値を参照するだけで、数値積分を繰り返さない。
+     * </p>
+     *
+     * @param statistics グループの値から十分統計量への対応表
+     * @param proxySizes 見積プロキシ規模
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差（百分率）
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     * @param threads スレッド数
+     * @return グループごとの計算結果
+     */
+    public static GroupedFit fit(LongHashMap<SufficientStatistics> statistics,
+            double[] proxySizes, double predictionIntervalRate,
+            double acceptableError, int initialNumberOfSegments,
+            int threads) {
+        final int size = statistics.size();
+
+        //自由度の一覧（重複なし、昇順）
+        final int[] all = new int[size];
+        int count = 0;
+        for (int g = 0; g < size; g++) {
+            final int degreeOfFreedom = degreeOfFreedom(statistics.getValue(g));
+            if (degreeOfFreedom > 0) {
+                all[count++] = degreeOfFreedom;
+            }
+        }
+        Arrays.sort(all, 0, count);
+        int distinct = 0;
+        for (int k = 0; k < count; k++) {
+            if (distinct == 0 || all[k] != all[distinct - 1]) {
+                all[distinct++] = all[k];
+            }
+        }
+        final int[] degreesOfFreedom = Arrays.copyOf(all, distinct);
+        final double[] xs = new double[distinct];
+        final double[] estimates = new double[size];
+        final double[] predictionIntervals = new double[size];
+
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            //自由度ごとの積分範囲
+            pool.invoke(new Range(0, distinct, 1, k -> {
+                xs[k] = PSPMath.calculateXForPredictionInterval(
+                        predictionIntervalRate, degreesOfFreedom[k],
+                        acceptableError, initialNumberOfSegments);
+            }));
+            //グループごとの回帰モデル
+            pool.invoke(new Range(0, size, THRESHOLD, g -> {
+                final SufficientStatistics group = statistics.getValue(g);
+                if (degreeOfFreedom(group) <= 0) {
+                    estimates[g] = Double.NaN;
+                    predictionIntervals[g] = Double.NaN;
+                    return;
+                }
+                final ProbeModel model;
+                try {
+                    model = ProbeModel.fit(group, predictionIntervalRate,
+                            degreeOfFreedom -> xs[Arrays.binarySearch(
+                                    degreesOfFreedom, degreeOfFreedom)]);
+                } catch (RuntimeException e) {
+                    //説明変数が線形従属のグループは正規方程式が解けないため計算しない
+                    estimates[g] = Double.NaN;
+                    predictionIntervals[g] = Double.NaN;
+                    return;
+                }
+                estimates[g] = model.estimate(proxySizes);
+                predictionIntervals[g] = model.predictionInterval(proxySizes);
+            }));
+        } finally {
+            pool.shutdownNow();
+        }
+        return new GroupedFit(statistics, estimates, predictionIntervals);
+    }
+    //@method_def_end
+
+    //@method_def_start: degreeOfFreedom
+    /**
+     * 十分統計量から回帰モデルを計算した場合の自由度を得る。
+     *
+     * @param statistics 十分統計量
+     * @return 自由度
+     */
+    private static int degreeOfFreedom(SufficientStatistics statistics) {
+        return (int) Math.floor(statistics.getEffectiveCount())
+                - statistics.getDimension();
+    }
+    //@method_def_end
+
+    //@method_def_start: size
+    /**
+     * グループの数を得る。
+     *
+     * @return グループの数
+     */
+    public int size() {
+        return statistics.size();
+    }
+    //@method_def_end
+
+    //@method_def_start: indexOf
+    /**
+     * グループの順番を得る。
+     *
+     * @param group グループの値
+     * @return グループの順番（0から）、グループがない場合は-1
+     */
+    public int indexOf(long group) {
+        return statistics.indexOf(group);
+    }
+    //@method_def_end
+
+    //@method_def_start: getGroup
+    /**
+     * グループの値を得る。
+     *
+     * @param index グループの順番
+     * @return グループの値
+     */
+    public long getGroup(int index) {
+        return statistics.getKey(index);
+    }
+    //@method_def_end
+
+    //@method_def_start: getStatistics
+    /**
+     * グループの十分統計量を得る。
+     *
+     * @param index グループの順番
+     * @return 十分統計量
+     */
+    public SufficientStatistics getStatistics(int index) {
+        return statistics.getValue(index);
+    }
+    //@method_def_end
+
+    //@method_def_start: getNumberOfHistoryData
+    /**
+     * グループの履歴データの個数を得る。
+     *
+     * @param index グループの順番
+     * @return 履歴データの個数
+     */
+    public long getNumberOfHistoryData(int index) {
+        return statistics.getValue(index).getRowCount();
+    }
+    //@method_def_end
+
+    //@method_def_start: getEstimate
+    /**
+     * グループの回帰モデルによる見積値を得る。
+     *
+     * @param index グループの順番
+     * @return 見積値、自由度が1未満の場合または正規方程式が解けない場合はNaN
+     */
+    public double getEstimate(int index) {
+        return estimates[index];
+    }
+    //@method_def_end
+
+    //@method_def_start: getPredictionInterval
+    /**
+     * グループの回帰モデルによる予測区間を得る。
+     *
+     * @param index グループの順番
+     * @return 予測区間、自由度が1未満の場合または正規方程式が解けない場合はNaN
+     */
+    public double getPredictionInterval(int index) {
+        return predictionIntervals[index];
+    }
+    //@method_def_end
+
+    /**
+     * 順番の範囲を分割して処理するタスク
+     */
+    private static final class Range extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from; //処理する最初の順番
+        private final int to; //処理する最後の順番の次
+        private final int threshold; //1つのタスクで順に処理する最大数
+        private final IntConsumer action; //1つの順番に対する処理
+
+        //@method_def_start: Range
+        /**
+         * 処理する範囲を指定して作成する。
+         */
+        Range(int from, int to, int threshold, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+            this.action = action;
+        }
+        //@method_def_end
+
+        //@method_def_start: compute
+        /**
+         * 範囲の大きさが上限を超える場合は2つに分割し、そうでない場合は順に処理する。
+         */
+        @Override
+        protected void compute() {
+            if (to - from > threshold) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Range(from, middle, threshold, action),
+                        new Range(middle, to, threshold, action));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                action.accept(i);
+            }
+        }
+        //@method_def_end
+
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * タブ区切りの履歴データファイルを1行ずつ読み込む。
+ * <p>
+ * 圧縮されたファイルは{@link CompressedInput}で展開しながら読み込む。
+ * 列の対応（{@link ColumnProjection}）を指定した場合は、使用する列だけを数値に変換する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public class HistoryDataReader implements Closeable {
+
+    private final BufferedReader in; //履歴データファイル
+    private final int dimension; //履歴データの次元数
+    private final ColumnProjection projection; //履歴データファイルの列と次元との対応
+
+    //@method_def_start: HistoryDataReader
+    /**
+     * 履歴データファイルを開く。
+     *
+     * @param file 履歴データファイル
+     * @param dimension 履歴データの次元数
+     * @throws IOException ファイルを開けなかった場合
+     */
+    public HistoryDataReader(File file, int dimension) throws IOException {
+        this(file, ColumnProjection.identity(dimension));
+    }
+    //@method_def_end
+
+    //@method_def_start: HistoryDataReader_File_ColumnProjection
+    /**
+     * 列の対応を指定して履歴データファイルを開く。
+     * <p>
+     * 1行目が列名の行の場合は、列名の行を読み込んで列名で指定された列の位置を決定する。
+     * </p>
+     *
+     * @param file 履歴データファイル
+     * @param projection 履歴データファイルの列と次元との対応
+     * @throws IOException ファイルを開けなかった場合、または指定された列名がない場合
+     */
+    public HistoryDataReader(File file, ColumnProjection projection)
+            throws IOException {
+        this.in = new BufferedReader(
+                new InputStreamReader(CompressedInput.open(file)));
+        this.dimension = projection.getDimension();
+        try {
+            this.projection = projection.hasHeader()
+                    ? projection.resolve(in.readLine()) : projection;
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: next
+    /**
+     * 次の1行を読み込む。
+     *
+     * @param row 読み込んだ値を格納する配列（要素数は次元数）
+     * @return 読み込んだ場合は{@code true}、ファイルの終端に達した場合は{@code false}
+     * @throws IOException 読み込みに失敗した場合、または形式が正しくない場合
+     */
+    public boolean next(double[] row) throws IOException {
+        final String line = in.readLine();
+        if (line == null) {
+            return false;
+        }
+        parse(line, projection, row);
+        return true;
+    }
+    //@method_def_end
+
+    //@method_def_start: skip
+    /**
+     * 数値に変換せずに最大で{@code lines}行を読み飛ばす。
+     *
+     * @param lines 読み飛ばす行数
+     * @return 読み飛ばした行数、ファイルの終端に達した場合は{@code lines}未満
+     * @throws IOException 読み込みに失敗した場合
+     */
+    public long skip(long lines) throws IOException {
+        long count = 0;
+        while (count < lines && in.readLine() != null) {
+            ++count;
+        }
+        return count;
+    }
+    //@method_def_end
+
+    //@method_def_start: parse
+    /**
+     * 1行を数値に変換する。
+     *
+     * @param line 履歴データファイルの1行（改行を含まない）
+     * @param projection 列の位置が決定した、履歴データファイルの列と次元との対応
+     * @param row 変換した値を格納する配列（要素数は次元数）
+     * @throws IOException 形式が正しくない場合
+     */
+    static void parse(String line, ColumnProjection projection, double[] row)
+            throws IOException {
+        if (!projection.isIdentity()) {
+            project(line, projection, row);
+            return;
+        }
+        final int dimension = projection.getDimension();
+        final String[] values = line.split("\\t");
+        if (values.length != dimension) {
+            throw new IOException("Illegal format of history data file");
+        }
+        for (int i = 0; i < dimension; i++) {
+            row[i] = Double.parseDouble(values[i]);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: project
+    /**
+     * 1行から使用する列だけを数値に変換する。
+     *
+     * @param line 読み込んだ行
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param row 変換した値を格納する配列
+     * @throws IOException 列の数が足りない場合
+     */
+    private static void project(String line, ColumnProjection projection,
+            double[] row) throws IOException {
+        final int fieldCount = projection.getFieldCount();
+        int field = 0;
+        int start = 0;
+        while (field < fieldCount) {
+            int end = line.indexOf('\t', start);
+            if (end < 0) {
+                end = line.length();
+            }
+            final int target = projection.getTarget(field);
+            if (target >= 0) {
+                row[target] = Double.parseDouble(line.substring(start, end));
+            }
+            ++field;
+            if (end == line.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+        if (field < fieldCount) {
+            throw new IOException("Illegal format of history data file");
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: read
+    /**
+     * 最大で{@code rows.length}行を読み込む。
+     *
+     * @param rows 読み込んだ値を格納する配列（各要素の要素数は次元数）
+     * @return 読み込んだ行数、ファイルの終端に達した場合は{@code rows.length}未満
+     * @throws IOException 読み込みに失敗した場合、または形式が正しくない場合
+     */
+    public int read(double[][] rows) throws IOException {
+        int count = 0;
+        while (count < rows.length && next(rows[count])) {
+            ++count;
+        }
+        return count;
+    }
+    //@method_def_end
+
+    //@method_def_start: getDimension
+    /**
+     * 履歴データの次元数を得る。
+     *
+     * @return 履歴データの次元数
+     */
+    public int getDimension() {
+        return dimension;
+    }
+    //@method_def_end
+
+    //@method_def_start: close
+    /**
+     * 履歴データファイルを閉じる。
+     *
+     * @throws IOException ファイルを閉じられなかった場合
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,483 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 追記される履歴データファイルを監視し、追記された行だけを読み込んで回帰モデルを更新する。
+ *
+ * <p>
+ * 読み込み済みの位置（バイト単位）と十分統計量を保持し、ファイルが大きくなった場合は
+ * その位置から後ろの行だけを数値に変換して十分統計量に加算する。改行で終わっていない最後の行は
+ * 書き込み途中とみなし、改行が追記されるか、続けて2回確認してもファイルの大きさが変わらなくなるまで
+ * 読み込まない。これにより、最後の行まで数える{@link ProbeDataSet}と同じ履歴データになる。
+ * 改行で終わっていないまま読み込んだ行に続きが追記された場合は、先頭から読み込み直す。
+ * </p>
+ *
+ * <p>
+ * ファイルが読み込み済みの位置より小さくなった場合、または読み込み済みの範囲の先頭と末尾
+ * （それぞれ最大{@value #FINGERPRINT_SIZE}バイト）の内容が変わった場合は、
+ * 書き換えられたものとみなして先頭から読み込み直す。
+ * 圧縮されたファイルと列形式のファイルには対応しない。
+ * </p>
+ *
+ * <p>
+ * 回帰モデルを更新するたびに、登録された処理に新しい回帰モデルを通知する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class HistoryFileFollower implements Closeable {
+
+    /**
+     * 読み込み済みの範囲の内容を比較するバイト数
+     */
+    public static final int FINGERPRINT_SIZE = 4096;
+
+    private static final int BLOCK_SIZE = 1 << 16; //追記された部分を読み込む単位
+
+    private final File file; //履歴データファイル
+    private final ColumnProjection projection; //履歴データファイルの列と次元との対応
+    private final double predictionIntervalRate; //予測区間の大きさの値
+    private final double acceptableError; //許容誤差
+    private final int initialNumberOfSegments; //積分範囲の初期分割数
+    //回帰モデルの更新を通知する処理
+    private final List<Consumer<ProbeModel>> listeners
+            = new CopyOnWriteArrayList<>();
+    private SufficientStatistics statistics; //読み込み済みの行の十分統計量
+    private ColumnProjection resolved; //列の位置が決定した対応（列名の行を読み込む前はnull）
+    private long offset; //読み込み済みの位置
+    private long pendingSize; //改行で終わっていない行が残っていた時のファイルの大きさ（残っていない場合は-1）
+    private boolean unterminated; //最後に読み込んだ行が改行で終わっていないか
+    private long headChecksum; //読み込み済みの範囲の先頭のCRC32
+    private long tailChecksum; //読み込み済みの範囲の末尾のCRC32
+    private long rebuildCount; //先頭から読み込み直した回数
+    private volatile ProbeModel model; //最新の回帰モデル
+    private volatile boolean closed; //監視を終了したか
+
+    //@method_def_start: HistoryFileFollower
+    /**
+     * 監視する履歴データファイルと回帰モデルの計算条件を指定して作成する。
+     *
+     * @param file 履歴データファイル
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差（百分率）
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     */
+    public HistoryFileFollower(File file, ColumnProjection projection,
+            double predictionIntervalRate, double acceptableError,
+            int initialNumberOfSegments) {
+        this.file = file;
+        this.projection = projection;
+        this.predictionIntervalRate = predictionIntervalRate;
+        this.acceptableError = acceptableError;
+        this.initialNumberOfSegments = initialNumberOfSegments;
+        reset();
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * Probe計算用データセットの設定値から作成する。
+     * <p>
+     * 履歴データファイルの指定を展開したファイルが1つだけの場合に、そのファイルを監視する。
+     * </p>
+     *
+     * @param data Probe計算用データセット
+     * @return 履歴データファイルの監視処理
+     * @throws IOException 履歴データファイルの指定を展開できなかった場合
+     * @throws IllegalArgumentException 複数の履歴データファイル、一部の履歴データ、重み、
+     * または重複する行をまとめる指定がある場合
+     */
+    public static HistoryFileFollower of(ProbeDataSet data) throws IOException {
+        final List<File> files = data.getHistoryDataFiles();
+        if (files.size() != 1) {
+            throw new IllegalArgumentException(
+                    "watch requires a single history data file: "
+                    + data.getHistoryDataFile());
+        }
+        if (!data.supportsFollowing()) {
+            throw new IllegalArgumentException("watch cannot be combined "
+                    + "with window, sample, weights or coalesce");
+        }
+        return new HistoryFileFollower(files.get(0),
+                data.getColumnProjection(), data.getPredictionIntervalRate(),
+                data.getAcceptableError(), data.getInitialNumberOfSegments());
+    }
+    //@method_def_end
+
+    //@method_def_start: addListener
+    /**
+     * 回帰モデルの更新を通知する処理を登録する。
+     * <p>
+     * 通知は{@link #poll()}を呼び出したスレッドで行われる。
+     * </p>
+     *
+     * @param listener 新しい回帰モデルを受け取る処理
+     */
+    public void addListener(Consumer<ProbeModel> listener) {
+        listeners.add(listener);
+    }
+    //@method_def_end
+
+    //@method_def_start: poll
+    /**
+     * 履歴データファイルを確認し、追記された行を読み込む。
+     * <p>
+     * 行を読み込んだ場合、または先頭から読み込み直した場合は回帰モデルを計算し直して通知する。
+     * 履歴データの個数が次元数以下の場合は回帰モデルを計算しない。
+     * </p>
+     *
+     * @return 回帰モデルを更新した場合は{@code true}
+     * @throws IOException 読み込みに失敗した場合、または形式が正しくない場合
+     */
+    public synchronized boolean poll() throws IOException {
+        if (!file.isFile()) {
+            //ファイルが置き換えられている途中の場合は、次の確認を待つ
+            return false;
+        }
+        boolean rebuilt = false;
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (offset > 0 && (size < offset
+                    || headChecksum != checksum(channel, 0)
+                    || tailChecksum != checksum(channel,
+                            Math.max(0, offset - FINGERPRINT_SIZE))
+                    || isContinued(channel, size))) {
+                reset();
+                ++rebuildCount;
+                rebuilt = true;
+            }
+            if (offset == 0 && size > 0) {
+                checkFormat();
+            }
+            final long skipped = skipLineEnd(channel, size);
+            long consumed = consume(channel, size, false);
+            if (offset < size && size == pendingSize) {
+                //大きさが前回の確認から変わっていなければ、改行で終わっていない行も読み込む
+                try {
+                    consumed += consume(channel, size, true);
+                    unterminated = true;
+                } catch (IOException | IllegalArgumentException e) {
+                    //数値に変換できない場合は書き込み途中とみなし、次の確認を待つ
+                }
+            }
+            pendingSize = offset < size ? size : -1;
+            if (skipped + consumed > 0) {
+                headChecksum = checksum(channel, 0);
+                tailChecksum = checksum(channel,
+                        Math.max(0, offset - FINGERPRINT_SIZE));
+            }
+            if (consumed == 0 && !rebuilt) {
+                return false;
+            }
+        }
+        return publish();
+    }
+    //@method_def_end
+
+    //@method_def_start: watch
+    /**
+     * {@link #close()}が呼ばれるまで履歴データファイルを監視する。
+     * <p>
+     * ファイルを含むディレクトリの変更をファイルシステムの監視機能で待ち、
+     * 変更の通知があった場合と、通知がないまま{@code intervalMillis}ミリ秒が経過した場合に
+     * {@link #poll()}を呼び出す。監視機能が変更を通知しないファイルシステムでも、
+     * 一定間隔の確認で追記を検出する。
+     * </p>
+     *
+     * @param intervalMillis 通知がない場合に確認する間隔（ミリ秒）
+     * @throws IOException 読み込みに失敗した場合、または形式が正しくない場合
+     * @throws InterruptedException 監視中に割り込まれた場合
+     */
+    public void watch(long intervalMillis)
+            throws IOException, InterruptedException {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException(
+                    "intervalMillis=" + intervalMillis);
+        }
+        final Path directory = file.getAbsoluteFile().getParentFile().toPath();
+        try (WatchService service
+                = directory.getFileSystem().newWatchService()) {
+            directory.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            poll();
+            while (!closed) {
+                final WatchKey key
+                        = service.poll(intervalMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                if (!closed) {
+                    poll();
+                }
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: consume
+    /**
+     * 読み込み済みの位置から改行で終わる行を全て読み込み、十分統計量に加算する。
+     * <p>
+     * {@code terminate}が{@code true}の場合は、ファイルの末尾を改行とみなして
+     * 改行で終わっていない最後の行も読み込む。
+     * 途中で形式の誤りが見つかった場合は、読み込み済みの位置も十分統計量も変更しない。
+     * </p>
+     *
+     * @return 読み込んだバイト数
+     */
+    private long consume(FileChannel channel, long size, boolean terminate)
+            throws IOException {
+        final SufficientStatistics delta
+                = new SufficientStatistics(projection.getDimension());
+        final double[] row = new double[projection.getDimension()];
+        final Charset charset = Charset.defaultCharset();
+        ColumnProjection current = resolved;
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        long position = offset;
+        while (position < size) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), size - position));
+            while (buffer.hasRemaining()
+                    && channel.read(buffer, position + buffer.position()) > 0) {
+                //読み込みを続ける
+            }
+            final byte[] bytes = buffer.array();
+            final int length = buffer.position();
+            final boolean last = terminate && position + length == size;
+            int start = 0;
+            for (int i = 0; i < length || last && i == length && i > start;
+                    i++) {
+                if (i < length && bytes[i] != '\n') {
+                    continue;
+                }
+                final int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+                final String line = new String(bytes, start, end - start, charset);
+                if (current == null) {
+                    current = projection.resolve(line);
+                } else {
+                    HistoryDataReader.parse(line, current, row);
+                    delta.add(row);
+                }
+                start = Math.min(i + 1, length);
+            }
+            if (start == 0) {
+                if (length < buffer.capacity()) {
+                    //書き込み途中の行
+                    break;
+                }
+                //1行がブロックより長い場合はブロックを大きくする
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                continue;
+            }
+            position += start;
+        }
+        final long consumed = position - offset;
+        statistics.merge(delta);
+        resolved = current;
+        offset = position;
+        return consumed;
+    }
+    //@method_def_end
+
+    //@method_def_start: isContinued
+    /**
+     * 改行で終わっていないまま読み込んだ行に、改行以外の続きが追記されたか判定する。
+     */
+    private boolean isContinued(FileChannel channel, long size)
+            throws IOException {
+        if (!unterminated || size <= offset) {
+            return false;
+        }
+        final byte next = readByte(channel, offset);
+        return next != '\n' && next != '\r';
+    }
+    //@method_def_end
+
+    //@method_def_start: skipLineEnd
+    /**
+     * 改行で終わっていないまま読み込んだ行に追記された改行を読み飛ばす。
+     *
+     * @return 読み飛ばしたバイト数
+     */
+    private long skipLineEnd(FileChannel channel, long size)
+            throws IOException {
+        final long start = offset;
+        while (unterminated && offset < size) {
+            final byte next = readByte(channel, offset);
+            if (next != '\n' && next != '\r') {
+                break;
+            }
+            ++offset;
+            unterminated = next != '\n';
+        }
+        return offset - start;
+    }
+    //@method_def_end
+
+    //@method_def_start: readByte
+    /**
+     * 指定した位置の1バイトを読み込む。
+     */
+    private static byte readByte(FileChannel channel, long position)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(1);
+        if (channel.read(buffer, position) <= 0) {
+            throw new IOException("Unexpected end of history data file");
+        }
+        return buffer.get(0);
+    }
+    //@method_def_end
+
+    //@method_def_start: publish
+    /**
+     * 十分統計量から回帰モデルを計算し、登録された処理に通知する。
+     *
+     * @return 回帰モデルを更新した場合は{@code true}
+     */
+    private boolean publish() {
+        if (statistics.getCount() <= statistics.getDimension()) {
+            model = null;
+            return false;
+        }
+        final ProbeModel fitted = ProbeModel.fit(statistics,
+                predictionIntervalRate, acceptableError,
+                initialNumberOfSegments);
+        model = fitted;
+        for (Consumer<ProbeModel> listener : listeners) {
+            listener.accept(fitted);
+        }
+        return true;
+    }
+    //@method_def_end
+
+    //@method_def_start: reset
+    /**
+     * 読み込み済みの位置と十分統計量を初期状態に戻す。
+     */
+    private void reset() {
+        statistics = new SufficientStatistics(projection.getDimension());
+        resolved = projection.hasHeader() ? null : projection;
+        offset = 0;
+        pendingSize = -1;
+        unterminated = false;
+        headChecksum = 0;
+        tailChecksum = 0;
+    }
+    //@method_def_end
+
+    //@method_def_start: checkFormat
+    /**
+     * 追記された行だけを読み込める形式か検査する。
+     */
+    private void checkFormat() throws IOException {
+        if (CompressedInput.detect(file) != CompressedInput.Format.NONE
+                || ColumnarHistoryFile.isColumnar(file)) {
+            throw new IOException(
+                    "Unsupported format of history data file to follow: "
+                    + file);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: checksum
+    /**
+     * 読み込み済みの範囲のうち、指定した位置から最大{@value #FINGERPRINT_SIZE}バイトのCRC32を計算する。
+     */
+    private long checksum(FileChannel channel, long from) throws IOException {
+        final int length = (int) Math.min(FINGERPRINT_SIZE, offset - from);
+        final ByteBuffer buffer = ByteBuffer.allocate(Math.max(0, length));
+        while (buffer.hasRemaining()
+                && channel.read(buffer, from + buffer.position()) > 0) {
+            //読み込みを続ける
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        return crc.getValue();
+    }
+    //@method_def_end
+
+    //@method_def_start: getModel
+    /**
+     * 最新の回帰モデルを得る。
+     *
+     * @return 回帰モデル、まだ計算していない場合は{@code null}
+     */
+    public ProbeModel getModel() {
+        return model;
+    }
+    //@method_def_end
+
+    //@method_def_start: getStatistics
+    /**
+     * 読み込み済みの行の十分統計量の複製を得る。
+     *
+     * @return 十分統計量
+     */
+    public synchronized SufficientStatistics getStatistics() {
+        return statistics.copy();
+    }
+    //@method_def_end
+
+    //@method_def_start: getOffset
+    /**
+     * 読み込み済みの位置を得る。
+     *
+     * @return 読み込み済みのバイト数
+     */
+    public synchronized long getOffset() {
+        return offset;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRebuildCount
+    /**
+     * ファイルが書き換えられたため先頭から読み込み直した回数を得る。
+     *
+     * @return 読み込み直した回数
+     */
+    public synchronized long getRebuildCount() {
+        return rebuildCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: close
+    /**
+     * 監視を終了する。
+     * <p>
+     * {@link #watch(long)}は遅くとも確認の間隔が経過した後に終了する。
+     * </p>
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+    //@method_def_end
+
+}
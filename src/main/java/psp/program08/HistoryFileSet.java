@@ -0,0 +1,260 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 複数の履歴データファイルの集合
+ *
+ * <p>
+ * {@code psp.program8.historyDataFile}にはファイルのほか、カンマ区切りの一覧、
+ * ワイルドカード（{@code *}、{@code ?}、{@code [...]}、{@code {...}}）を含むパス、
+ * またはディレクトリを指定できる。ディレクトリの場合は直下の通常のファイルをすべて対象とする。
+ * </p>
+ *
+ * <p>
+ * 各ファイルは別々のスレッドで読み込まれ、スレッドごとの{@link SufficientStatistics}に加算される。
+ * 全てのファイルを読み込んだ後に、ファイルの指定順に合算する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class HistoryFileSet {
+
+    //@method_def_start: HistoryFileSet
+    /**
+     * インスタンスは作成しない。
+     */
+    private HistoryFileSet() {
+    }
+    //@method_def_end
+
+    //@method_def_start: resolve
+    /**
+     * 履歴データファイルの指定を、対象となるファイルの一覧に展開する。
+     * <p>
+     * ワイルドカードとディレクトリから展開したファイルは名前順に並べる。
+     * ワイルドカードはファイル名の部分にだけ使用できる。
+     * </p>
+     *
+     * @param spec 履歴データファイルの指定
+     * @return 履歴データファイルの一覧
+     * @throws IOException ディレクトリの読み込みに失敗した場合、または対象となるファイルがない場合
+     */
+    public static List<File> resolve(String spec) throws IOException {
+        final List<File> files = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            final String path = entry.trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+            final File file = new File(path);
+            if (file.isDirectory()) {
+                files.addAll(list(file.toPath(), "*"));
+            } else if (isGlob(file.getName())) {
+                final File parent = file.getAbsoluteFile().getParentFile();
+                files.addAll(list(parent.toPath(), file.getName()));
+            } else {
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No history data file: " + spec);
+        }
+        return files;
+    }
+    //@method_def_end
+
+    //@method_def_start: isGlob
+    /**
+     * ファイル名にワイルドカードが含まれているか判定する。
+     *
+     * @param name ファイル名
+     * @return ワイルドカードが含まれている場合は{@code true}
+     */
+    private static boolean isGlob(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            switch (name.charAt(i)) {
+                case '*':
+                case '?':
+                case '[':
+                case '{':
+                    return true;
+                default:
+                    break;
+            }
+        }
+        return false;
+    }
+    //@method_def_end
+
+    //@method_def_start: list
+    /**
+     * ディレクトリ直下の通常のファイルのうち、パターンに一致するものを名前順に得る。
+     *
+     * @param directory ディレクトリ
+     * @param glob ファイル名のパターン
+     * @return ファイルの一覧
+     * @throws IOException ディレクトリの読み込みに失敗した場合
+     */
+    private static List<File> list(Path directory, String glob)
+            throws IOException {
+        final List<File> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream
+                = Files.newDirectoryStream(directory, glob)) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path)) {
+                    files.add(path.toFile());
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+    //@method_def_end
+
+    //@method_def_start: accumulate_List
+    /**
+     * 複数の履歴データファイルを並列に読み込み、十分統計量を計算する。
+     * <p>
+     * いずれかのファイルの読み込みに失敗した場合は、そのファイルの名前を付けた例外を送出する。
+     * </p>
+     *
+     * @param files 履歴データファイルの一覧
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param chunkSize 読み込み単位の行数
+     * @param threads 同時に読み込むファイルの最大数
+     * @return 合算した十分統計量
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public static SufficientStatistics accumulate(List<File> files,
+            ColumnProjection projection, int chunkSize, int threads)
+            throws IOException {
+        final int dimension = projection.getDimension();
+        if (files.size() == 1 || threads <= 1) {
+            final SufficientStatistics result
+                    = new SufficientStatistics(dimension);
+            for (File file : files) {
+                result.merge(accumulate(file, projection, chunkSize));
+            }
+            return result;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, files.size()));
+        try {
+            final List<Future<SufficientStatistics>> futures
+                    = new ArrayList<>(files.size());
+            for (File file : files) {
+                futures.add(executor.submit(
+                        () -> accumulate(file, projection, chunkSize)));
+            }
+            final SufficientStatistics result
+                    = new SufficientStatistics(dimension);
+            for (Future<SufficientStatistics> future : futures) {
+                result.merge(await(future));
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: accumulate_File
+    /**
+     * 1つの履歴データファイルを読み込み、十分統計量を計算する。
+     * <p>
+     * 列指向のバイナリ形式（{@link ColumnarHistoryFile}）の場合は、列の対応とチェックサムを検査した後に
+     * メモリマップした各列から加算する。それ以外の場合はタブ区切りの形式として一定の行数ずつ読み込む。
+     * </p>
+     *
+     * @param file 履歴データファイル
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param chunkSize 読み込み単位の行数
+     * @return 十分統計量
+     * @throws IOException 読み込みに失敗した場合、または形式が正しくない場合
+     */
+    public static SufficientStatistics accumulate(File file,
+            ColumnProjection projection, int chunkSize) throws IOException {
+        final int dimension = projection.getDimension();
+        try {
+            if (!ColumnarHistoryFile.isColumnar(file)) {
+                return StreamingFit.accumulate(file, projection, chunkSize);
+            }
+            final ColumnarHistoryFile columnar = ColumnarHistoryFile.open(file);
+            final Column[] columns = columnar.getColumns(projection);
+            columnar.verify();
+            try {
+                final SufficientStatistics statistics
+                        = new SufficientStatistics(dimension);
+                final double[] row = new double[dimension];
+                final int count = columns[0].size();
+                for (int r = 0; r < count; r++) {
+                    for (int i = 0; i < dimension; i++) {
+                        row[i] = columns[i].get(r);
+                    }
+                    statistics.add(row);
+                }
+                return statistics;
+            } finally {
+                for (Column column : columns) {
+                    column.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + ": " + file, e);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: await
+    /**
+     * 読み込みの終了を待って結果を得る。
+     *
+     * @param future 読み込み結果
+     * @return 十分統計量
+     * @throws IOException 読み込み中に入出力エラーが発生した場合
+     */
+    private static SufficientStatistics await(
+            Future<SufficientStatistics> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while reading history data");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,244 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/**
+ * {@code long}型のキーから値への対応表
+ *
+ * <p>
+ * キーをボクシングせずに開番地法（線形探索）のハッシュ表で管理する。
+ * キーと値は追加された順に別々の配列へ格納し、ハッシュ表にはその位置だけを保持するため、
+ * {@link #getKey(int)}と{@link #getValue(int)}で追加順に参照できる。
+ * 要素の削除はできない。スレッドセーフではない。
+ * </p>
+ *
+ * @param <V> 値の型
+ * @author smuraoka
+ */
+public final class LongHashMap<V> {
+
+    private static final int INITIAL_CAPACITY = 16; //要素数の初期値
+
+    private int[] slots; //ハッシュ表（追加順の位置＋1、空きは0）
+    private long[] keys; //追加順のキー
+    private Object[] values; //追加順の値
+    private int size; //要素数
+
+    //@method_def_start: LongHashMap
+    /**
+     * 空の対応表を作成する。
+     */
+    public LongHashMap() {
+        this.slots = new int[INITIAL_CAPACITY * 2];
+        this.keys = new long[INITIAL_CAPACITY];
+        this.values = new Object[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+    //@method_def_end
+
+    //@method_def_start: get
+    /**
+     * キーに対応する値を得る。
+     *
+     * @param key キー
+     * @return 値、キーがない場合は{@code null}
+     */
+    public V get(long key) {
+        final int index = indexOf(key);
+        return index < 0 ? null : getValue(index);
+    }
+    //@method_def_end
+
+    //@method_def_start: indexOf
+    /**
+     * キーが追加された順番を得る。
+     *
+     * @param key キー
+     * @return 追加された順番（0から）、キーがない場合は-1
+     */
+    public int indexOf(long key) {
+        final int mask = slots.length - 1;
+        for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+            final int position = slots[slot];
+            if (position == 0) {
+                return -1;
+            }
+            if (keys[position - 1] == key) {
+                return position - 1;
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: put
+    /**
+     * キーに値を対応させる。
+     * <p>
+     * キーが既にある場合は、追加された順番を変えずに値だけを置き換える。
+     * </p>
+     *
+     * @param key キー
+     * @param value 値
+     * @return 置き換える前の値、キーがなかった場合は{@code null}
+     */
+    public V put(long key, V value) {
+        final int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = slots[slot] - 1;
+            if (keys[index] == key) {
+                final V previous = getValue(index);
+                values[index] = value;
+                return previous;
+            }
+        }
+        append(slot, key, value);
+        return null;
+    }
+    //@method_def_end
+
+    //@method_def_start: computeIfAbsent
+    /**
+     * キーに対応する値を得る。キーがない場合は値を作成して追加する。
+     *
+     * @param key キー
+     * @param factory キーから値を作成する関数
+     * @return キーに対応する値
+     */
+    public V computeIfAbsent(long key, LongFunction<? extends V> factory) {
+        final int mask = slots.length - 1;
+        int slot = hash(key) & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            final int index = slots[slot] - 1;
+            if (keys[index] == key) {
+                return getValue(index);
+            }
+        }
+        final V value = factory.apply(key);
+        append(slot, key, value);
+        return value;
+    }
+    //@method_def_end
+
+    //@method_def_start: append
+    /**
+     * 空いている位置に要素を追加し、必要であればハッシュ表を拡張する。
+     *
+     * @param slot ハッシュ表の空いている位置
+     * @param key キー
+     * @param value 値
+     */
+    private void append(int slot, long key, V value) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        slots[slot] = size;
+        //使用率が1/2を超えたらハッシュ表を2倍にする
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: rehash
+    /**
+     * ハッシュ表の大きさを変えて作り直す。
+     *
+     * @param capacity ハッシュ表の大きさ（2の累乗）
+     */
+    private void rehash(int capacity) {
+        final int[] table = new int[capacity];
+        final int mask = capacity - 1;
+        for (int index = 0; index < size; index++) {
+            int slot = hash(keys[index]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = index + 1;
+        }
+        slots = table;
+    }
+    //@method_def_end
+
+    //@method_def_start: hash
+    /**
+     * キーのハッシュ値を計算する。
+     * <p>
+     * 連番のキーが隣接した位置に集まらないよう、黄金比に由来する定数を掛けて上位のビットを使用する。
+     * </p>
+     *
+     * @param key キー
+     * @return ハッシュ値
+     */
+    private static int hash(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+    //@method_def_end
+
+    //@method_def_start: getKey
+    /**
+     * 指定した順番に追加されたキーを得る。
+     *
+     * @param index 追加された順番（0から）
+     * @return キー
+     */
+    public long getKey(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+    //@method_def_end
+
+    //@method_def_start: getValue
+    /**
+     * 指定した順番に追加された値を得る。
+     *
+     * @param index 追加された順番（0から）
+     * @return 値
+     */
+    @SuppressWarnings("unchecked")
+    public V getValue(int index) {
+        checkIndex(index);
+        return (V) values[index];
+    }
+    //@method_def_end
+
+    //@method_def_start: checkIndex
+    /**
+     * 順番が範囲内か検査する。
+     *
+     * @param index 追加された順番
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(
+                    "index=" + index + ": size=" + size);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: size
+    /**
+     * 要素数を得る。
+     *
+     * @return 要素数
+     */
+    public int size() {
+        return size;
+    }
+    //@method_def_end
+
+}
@@ -11,6 +11,7 @@ package psp.program08;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.RoundingMode;
 import java.text.DecimalFormat;
 import java.util.Properties;
@@ -49,11 +50,92 @@ public class Main {
         final Properties config = loadProperty(configFile);
         config.setProperty("psp.program8.configurationFile", args[0]);
 
+        //監視が指定されていれば、履歴データファイルへの追記を待ち続ける。
+        if (Boolean.parseBoolean(config.getProperty("psp.program8.watch"))) {
+            watch(config);
+            return;
+        }
+
         //Probe計算用データを作成
-        final ProbeDataSet data = new ProbeDataSet(config);
+        try (ProbeDataSet data = new ProbeDataSet(config)) {
+
+            //スナップショットが指定されていれば、計算結果の復元を試みる。
+            final String snapshotPath = data.supportsSnapshot()
+                    ? config.getProperty("psp.program8.snapshotFile") : null;
+            final boolean restored = snapshotPath != null
+                    && data.restoreSnapshot(new File(snapshotPath));
+
+            //結果を表示する。
+            printResult(data);
+            if (Boolean.parseBoolean(
+                    config.getProperty("psp.program8.crossValidation"))) {
+                printCrossValidation(data.getCrossValidation());
+            }
+            if (data.getBootstrap() != null) {
+                printBootstrap(data.getBootstrap());
+            }
+            if (data.getSubsetSelection() != null) {
+                printSubsetSelection(data.getSubsetSelection(),
+                        data.getSubsetCriterion());
+            }
+            if (data.getGroupedFit() != null) {
+                printGroupedFit(data.getGroupedFit());
+            }
+            if (data.getFeatureFit() != null) {
+                printFeatureFit(data.getFeatureFit(),
+                        data.getEstimatedProxySizes());
+            }
+            if (data.getRobustFit() != null) {
+                printRobustFit(data.getRobustFit());
+            }
+            if (data.getSampledFit() != null) {
+                printSampledFit(data.getSampledFit());
+            }
+            if (data.getPipelineReport() != null) {
+                System.err.print(data.getPipelineReport());
+            }
+            if (data.getRobustFit() != null) {
+                System.err.print(data.getRobustFit().getReport());
+            }
+
+            //復元できなかった場合は、次回の実行のために計算結果を保存する。
+            if (snapshotPath != null && !restored) {
+                data.saveSnapshot(new File(snapshotPath));
+            }
+        }
+    }
+    //@method_def_end
 
-        //結果を表示する。
-        printResult(data);
+    //@method_def_start: watch
+    /**
+     * 履歴データファイルを監視し、回帰モデルが更新されるたびに結果を表示する。
+     * <p>
+     * {@code psp.program8.watch.interval}（ミリ秒、既定値は1000）ごとにも追記を確認する。
+     * 終了するにはプロセスを停止する。
+     * 監視できない設定値（{@link ProbeDataSet#supportsFollowing()}）の場合は、
+     * 全件を重みなしで計算した結果を表示しないように監視を始める前に中止する。
+     * </p>
+     *
+     * @param config 設定値が記録されているプロパティオブジェクト
+     */
+    private static void watch(Properties config) throws IOException {
+        final long interval = Long.parseLong(
+                config.getProperty("psp.program8.watch.interval", "1000"));
+        try (ProbeDataSet settings = new ProbeDataSet(config);
+                HistoryFileFollower follower = HistoryFileFollower.of(settings)) {
+            follower.addListener(model -> {
+                //読み込み済みの十分統計量から結果を表示する
+                try (ProbeDataSet data = new ProbeDataSet(config)) {
+                    data.setStatistics(follower.getStatistics());
+                    printResult(data);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            follower.watch(interval);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
     //@method_def_end
 
@@ -64,7 +146,7 @@ public class Main {
      * @param file プロパティファイル
      * @return プログラム設定
      */
-    private static Properties loadProperty(File file) throws IOException {
+    static Properties loadProperty(File file) throws IOException {
         final Properties prop = new Properties();
         try (FileInputStream in = new FileInputStream(file)) {
             prop.load(in);
@@ -79,7 +161,7 @@ public class Main {
      *
      * @param data Probe計算用データセット
      */
-    private static void printResult(ProbeDataSet data) throws IOException {
+    static void printResult(ProbeDataSet data) throws IOException {
 
         //小数点数の四捨五入ををするために使用する
         final DecimalFormat df1 = new DecimalFormat("0.0");
@@ -126,4 +208,232 @@ public class Main {
     }
     //@method_def_end
 
+    //@method_def_start: printCrossValidation
+    /**
+     * 1行除外交差検証の結果を画面に表示する。
+     *
+     * @param validation 交差検証の結果
+     */
+    static void printCrossValidation(CrossValidation validation) {
+
+        //小数点数の四捨五入ををするために使用する
+        final DecimalFormat df4 = new DecimalFormat("0.0000");
+        df4.setRoundingMode(RoundingMode.HALF_UP);
+
+        //計算結果の出力
+        System.out.println("Leave-One-Out Cross Validation:");
+        System.out.format("    PRESS: %s%n", df4.format(validation.getPress()));
+        System.out.format("    RMSE, MAE: %s, %s%n",
+                df4.format(validation.getRootMeanSquaredError()),
+                df4.format(validation.getMeanAbsoluteError()));
+        System.out.format("    Max Leverage: %s%n",
+                df4.format(validation.getMaxLeverage()));
+        System.out.println("================================================");
+        System.out.println();
+    }
+    //@method_def_end
+
+    //@method_def_start: printBootstrap
+    /**
+     * ブートストラップ法による予測区間を画面に表示する。
+     *
+     * @param bootstrap ブートストラップ法による予測区間
+     */
+    static void printBootstrap(Bootstrap bootstrap) {
+
+        //小数点数の四捨五入ををするために使用する
+        final DecimalFormat df1 = new DecimalFormat("0.0");
+        df1.setRoundingMode(RoundingMode.HALF_UP);
+        final DecimalFormat df4 = new DecimalFormat("0.0000");
+        df4.setRoundingMode(RoundingMode.HALF_UP);
+
+        //計算結果の出力
+        System.out.format("Bootstrap (%s, %d resamples):%n",
+                bootstrap.getMethod(), bootstrap.getResamples());
+        System.out.println("    Standard Errors (B0, B1, B2, B3):");
+        System.out.format("        %s, %s, %s, %s%n",
+                df4.format(bootstrap.getStandardError(0)),
+                df4.format(bootstrap.getStandardError(1)),
+                df4.format(bootstrap.getStandardError(2)),
+                df4.format(bootstrap.getStandardError(3)));
+        System.out.println("    Prediction Intervals (LPI, UPI):");
+        System.out.format("        %s, %s%n",
+                df1.format(bootstrap.getLowerPredictionInterval()),
+                df1.format(bootstrap.getUpperPredictionInterval()));
+        System.out.println("================================================");
+        System.out.println();
+    }
+    //@method_def_end
+
+    //@method_def_start: printSubsetSelection
+    /**
+     * 説明変数の組み合わせを基準の良い順に画面に表示する。
+     *
+     * @param selection 組み合わせの比較結果
+     * @param criterion 順位付けの基準
+     */
+    static void printSubsetSelection(SubsetSelection selection,
+            SubsetSelection.Criterion criterion) {
+
+        //小数点数の四捨五入ををするために使用する
+        final DecimalFormat df4 = new DecimalFormat("0.0000");
+        df4.setRoundingMode(RoundingMode.HALF_UP);
+        final String[] names = {"w", "x", "y"};
+
+        //計算結果の出力
+        System.out.format("Predictor Subsets (by %s):%n", criterion);
+        for (SubsetSelection.Subset subset : selection.rank(criterion)) {
+            final StringBuilder predictors = new StringBuilder();
+            for (int index : subset.getPredictors()) {
+                if (predictors.length() > 0) {
+                    predictors.append(", ");
+                }
+                predictors.append(index < names.length
+                        ? names[index] : String.valueOf(index));
+            }
+            System.out.format("    %s: Adjusted R^2: %s, AIC: %s, PRESS: %s%n",
+                    predictors,
+                    df4.format(subset.getAdjustedRSquared()),
+                    df4.format(subset.getAic()),
+                    Double.isNaN(subset.getPress())
+                    ? "-" : df4.format(subset.getPress()));
+        }
+        System.out.println("================================================");
+        System.out.println();
+    }
+    //@method_def_end
+
+    //@method_def_start: printFeatureFit
+    /**
+     * 変換した説明変数と目的変数による回帰モデルの見積値と予測区間を画面に表示する。
+     *
+     * @param fit 変換した説明変数と目的変数による計算結果
+     * @param proxySizes 見積プロキシ規模
+     */
+    static void printFeatureFit(FeatureFit fit, double[] proxySizes) {
+
+        //小数点数の四捨五入ををするために使用する
+        final DecimalFormat df1 = new DecimalFormat("0.0");
+        df1.setRoundingMode(RoundingMode.HALF_UP);
+        final DecimalFormat df4 = new DecimalFormat("0.0000");
+        df4.setRoundingMode(RoundingMode.HALF_UP);
+
+        //計算結果の出力
+        System.out.format("Feature Model (%s):%n", fit.getSpec());
+        final StringBuilder parameters = new StringBuilder();
+        for (double b : fit.getModel().getRegressionParameters()) {
+            parameters.append(parameters.length() == 0 ? "    " : ", ")
+                    .append(df4.format(b));
+        }
+        System.out.println(parameters);
+        System.out.format("    Projected Hours: %s%n",
+                df1.format(fit.estimate(proxySizes)));
+        System.out.format("    Prediction Intervals (LPI, UPI): %s, %s%n",
+                df1.format(fit.lowerPredictionInterval(proxySizes)),
+                df1.format(fit.upperPredictionInterval(proxySizes)));
+        System.out.println("================================================");
+        System.out.println();
+    }
+    //@method_def_end
+
+    //@method_def_start: printRobustFit
+    /**
+     * ロバスト回帰の反復の結果を画面に表示する。
+     * <p>
+     * 多重回帰パラメータと予測区間は{@link #printResult(ProbeDataSet)}で表示される。
+     * </p>
+     *
+     * @param fit ロバスト回帰の結果
+     */
+    static void printRobustFit(RobustFit fit) {
+
+        //小数点数の四捨五入ををするために使用する
+        final DecimalFormat df4 = new DecimalFormat("0.0000");
+        df4.setRoundingMode(RoundingMode.HALF_UP);
+
+        //計算結果の出力
+        System.out.format("Robust Regression (%s):%n", fit.getWeight());
+        System.out.format("    Iterations: %d (%s)%n", fit.getIterations(),
+                fit.isConverged() ? "converged" : "not converged");
+        System.out.format("    Scale (MAD): %s%n", df4.format(fit.getScale()));
+        System.out.format("    Effective Number of History Data: %s%n",
+                df4.format(fit.getStatistics().getEffectiveCount()));
+        System.out.println("================================================");
+        System.out.println();
+    }
+    //@method_def_end
+
+    //@method_def_start: printSampledFit
+    /**
+     * 無作為標本による近似の回帰モデルの誤差を画面に表示する。
+     * <p>
+     * 多重回帰パラメータと予測区間は{@link #printResult(ProbeDataSet)}で表示される。
+     * </p>
+     *
+     * @param fit 無作為標本による計算結果
+     */
+    static void printSampledFit(SampledFit fit) {
+
+        //小数点数の四捨五入ををするために使用する
+        final DecimalFormat df1 = new DecimalFormat("0.0");
+        df1.setRoundingMode(RoundingMode.HALF_UP);
+        final DecimalFormat df4 = new DecimalFormat("0.0000");
+        df4.setRoundingMode(RoundingMode.HALF_UP);
+
+        //計算結果の出力
+        final ReservoirSample sample = fit.getSample();
+        System.out.format("Sample (%d of %d rows, %d strata, %d resamples):%n",
+                sample.getSampleSize(), sample.getTotalPopulation(),
+                sample.getNumberOfStrata(), fit.getResamples());
+        System.out.println("    Standard Errors (B0, B1, B2, B3):");
+        System.out.format("        %s, %s, %s, %s%n",
+                df4.format(fit.getStandardError(0)),
+                df4.format(fit.getStandardError(1)),
+                df4.format(fit.getStandardError(2)),
+                df4.format(fit.getStandardError(3)));
+        System.out.format("    Projected Hours Standard Error: %s%n",
+                df1.format(fit.getEstimateError()));
+        System.out.format("    Prediction Interval Standard Error: %s%n",
+                df1.format(fit.getIntervalError()));
+        System.out.println("================================================");
+        System.out.println();
+    }
+    //@method_def_end
+
+    //@method_def_start: printGroupedFit
+    /**
+     * グループごとの見積値と予測区間を、グループが最初に現れた順に画面に表示する。
+     *
+     * @param fit グループごとの計算結果
+     */
+    static void printGroupedFit(GroupedFit fit) {
+
+        //小数点数の四捨五入ををするために使用する
+        final DecimalFormat df1 = new DecimalFormat("0.0");
+        df1.setRoundingMode(RoundingMode.HALF_UP);
+
+        //計算結果の出力
+        System.out.format("Groups (%d):%n", fit.size());
+        for (int g = 0; g < fit.size(); g++) {
+            final double estimate = fit.getEstimate(g);
+            final double interval = fit.getPredictionInterval(g);
+            if (Double.isNaN(estimate)) {
+                //行数が足りているのに計算できない場合は説明変数が線形従属
+                final long count = fit.getNumberOfHistoryData(g);
+                System.out.format("    %d: N: %d, %s%n", fit.getGroup(g), count,
+                        count > fit.getStatistics(g).getDimension()
+                                ? "collinear history data"
+                                : "too few history data");
+                continue;
+            }
+            System.out.format("    %d: N: %d, Estimate: %s, LPI: %s, UPI: %s%n",
+                    fit.getGroup(g), fit.getNumberOfHistoryData(g),
+                    df1.format(estimate), df1.format(estimate - interval),
+                    df1.format(estimate + interval));
+        }
+        System.out.println("================================================");
+        System.out.println();
+    }
+    //@method_def_end
+
 }
@@ -0,0 +1,202 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * 数値データをヒープ外のメモリに保持する{@link AppendableColumn}の実装
+ *
+ * <p>
+ * 数値データは一時ファイルをメモリマップした領域（セグメント）に分割して格納する。
+ * ヒープにはセグメントへの参照だけが置かれるため、履歴データの件数が増えてもヒープの使用量と
+ * ガベージコレクションの走査対象はほとんど増えない。ダイレクトバッファと異なり
+ * {@code -XX:MaxDirectMemorySize}の上限を受けず、ページはOSが必要に応じてファイルに書き出す。
+ * </p>
+ *
+ * <p>
+ * 最初のセグメントは小さな大きさでマップし、満杯になるたびに2倍の大きさでマップし直す。
+ * 一時ファイルの同じ位置をマップし直すため、格納済みの数値データを複写する必要はない。
+ * 2番目以降のセグメントは最大の大きさでマップする。
+ * </p>
+ *
+ * <p>
+ * {@link #close()}を呼び出すと一時ファイルを閉じて削除し、以降は数値データを参照できなくなる。
+ * マップした領域自体は、バッファがガベージコレクションで回収された時点でOSに返却される。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public class OffHeapColumn implements AppendableColumn {
+
+    private static final int SEGMENT_SHIFT = 20; //セグメントの最大の大きさ（2の累乗）
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT; //セグメント内の値の最大個数
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1; //セグメント内の位置の算出用
+    private static final int INITIAL_CAPACITY = 1 << 10; //最初にマップする値の個数
+
+    private final Path directory; //一時ファイルを作成するディレクトリ（nullの場合は既定の一時ディレクトリ）
+    private Path file; //一時ファイル（最初に追加するまではnull）
+    private FileChannel channel; //一時ファイルのチャネル（最初に追加するまで、または解放後はnull）
+    private DoubleBuffer[] segments = new DoubleBuffer[0]; //セグメント（解放後はnull）
+    private int capacity = 0; //最後のセグメントに格納できる値の個数
+    private int size = 0; //数値データの件数
+
+    //@method_def_start: OffHeapColumn
+    /**
+     * 既定の一時ディレクトリに一時ファイルを作成する空の数値データ一覧を作成する。
+     */
+    public OffHeapColumn() {
+        this(null);
+    }
+    //@method_def_end
+
+    //@method_def_start: OffHeapColumn_Path
+    /**
+     * 一時ファイルを作成するディレクトリを指定して空の数値データ一覧を作成する。
+     * 一時ファイルは最初に数値データを追加した時点で作成する。
+     *
+     * @param directory 一時ファイルを作成するディレクトリ（nullの場合は既定の一時ディレクトリ）
+     */
+    public OffHeapColumn(Path directory) {
+        this.directory = directory;
+    }
+    //@method_def_end
+
+    //@method_def_start: add
+    /**
+     * 数値データを末尾に追加する。
+     *
+     * @param value 追加する数値データ
+     * @throws UncheckedIOException 一時ファイルの作成またはメモリマップに失敗した場合
+     */
+    @Override
+    public void add(double value) {
+        final DoubleBuffer[] current = getSegments();
+        final int segment = size >>> SEGMENT_SHIFT;
+        final int offset = size & SEGMENT_MASK;
+        if (segment == current.length) {
+            segments = Arrays.copyOf(current, current.length + 1);
+            map(segment, segment == 0 ? INITIAL_CAPACITY : SEGMENT_SIZE);
+        } else if (offset == capacity) {
+            map(segment, capacity * 2);
+        }
+        segments[segment].put(offset, value);
+        ++size;
+    }
+    //@method_def_end
+
+    //@method_def_start: map
+    /**
+     * 一時ファイルのセグメントの位置を、指定した大きさでメモリマップする。
+     * <p>
+     * 一時ファイルがなければ作成する。ファイルはマップした範囲まで自動的に拡張される。
+     * </p>
+     *
+     * @param segment セグメントの番号
+     * @param capacity セグメントに格納する値の個数
+     */
+    private void map(int segment, int capacity) {
+        try {
+            if (channel == null) {
+                file = directory == null
+                        ? Files.createTempFile("psp-column", ".bin")
+                        : Files.createTempFile(directory, "psp-column", ".bin");
+                channel = FileChannel.open(file, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            segments[segment] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    (long) segment * SEGMENT_SIZE * Double.BYTES,
+                    (long) capacity * Double.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asDoubleBuffer();
+            this.capacity = capacity;
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "cannot map off-heap column: " + file, e);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: size
+    /**
+     * 数値データの件数を取得する。
+     *
+     * @return 数値データの件数
+     */
+    @Override
+    public int size() {
+        getSegments();
+        return size;
+    }
+    //@method_def_end
+
+    //@method_def_start: get
+    /**
+     * 位置を指定して数値データを取得する。
+     *
+     * @param index 数値データの位置（0から始まる）
+     * @return 数値データ
+     */
+    @Override
+    public double get(int index) {
+        final DoubleBuffer[] current = getSegments();
+        if (index >= size) {
+            throw new IndexOutOfBoundsException(
+                    "index=" + index + ": size=" + size);
+        }
+        return current[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+    }
+    //@method_def_end
+
+    //@method_def_start: close
+    /**
+     * 一時ファイルを閉じて削除し、セグメントへの参照を解放する。2回目以降の呼び出しは何もしない。
+     */
+    @Override
+    public void close() {
+        segments = null;
+        size = 0;
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            //マップした領域が残っているため削除できない環境では終了時に削除する
+            file.toFile().deleteOnExit();
+        } finally {
+            channel = null;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: getSegments
+    /**
+     * 解放されていないことを確認してセグメントを得る。
+     *
+     * @return セグメント
+     */
+    private DoubleBuffer[] getSegments() {
+        if (segments == null) {
+            throw new IllegalStateException("column is closed");
+        }
+        return segments;
+    }
+    //@method_def_end
+
+}
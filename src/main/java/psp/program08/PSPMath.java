@@ -79,76 +79,68 @@ public class PSPMath {
     //@method_def_start: product
     /**
      * 2つの数値データ一覧の各要素の積の数値データ一覧を作成する。
+     * <p>
+     * 要素ごとの計算は{@link ColumnExpression#product(Column, Column)}で行い、結果は入力と同じ順番となる。
+     * 集計だけが必要な場合はリンクリストを作成せず、{@link ColumnExpression}のビューを直接集計すること。
+     * </p>
      *
      * @param xValues 数値データ一覧
      * @param yValues 数値データ一覧
      * @return 各要素の積の数値データ一覧
      */
     public static LinkedList product(LinkedList xValues, LinkedList yValues) {
-        if (xValues.getCount() != yValues.getCount()) {
-            throw new IllegalArgumentException("Number of element not match: "
-                    + "x=" + xValues.getCount() + ": y=" + yValues.getCount());
-        }
-
-        Node xValue = xValues.getHeadNode();
-        Node yValue = yValues.getHeadNode();
-        LinkedList xyValues = new LinkedList();
-        while (xValue != null && yValue != null) {
-            Node xyValue = new Node(xValue.getValue() * yValue.getValue());
-            xyValues.add(xyValue);
-            xValue = xValue.getNextNode();
-            yValue = yValue.getNextNode();
-        }
-
-        return xyValues;
+        checkCount(xValues, yValues);
+        return ColumnExpression.toLinkedList(ColumnExpression.product(
+                ColumnExpression.of(xValues), ColumnExpression.of(yValues)));
     }
     //@method_def_end
 
     //@method_def_start: divide
     /**
      * 2つの数値データ一覧の各要素の商の一覧を作成する。
+     * <p>
+     * 要素ごとの計算は{@link ColumnExpression#divide(Column, Column)}で行い、結果は入力と同じ順番となる。
+     * </p>
      *
      * @param xValues 数値データ一覧
      * @param yValues 数値データ一覧
      * @return 各要素の商の数値データ一覧
      */
     public static LinkedList divide(LinkedList xValues, LinkedList yValues) {
-        if (xValues.getCount() != yValues.getCount()) {
-            throw new IllegalArgumentException("Number of element not match: "
-                    + "x=" + xValues.getCount() + ": y=" + yValues.getCount());
-        }
-
-        Node xValue = xValues.getHeadNode();
-        Node yValue = yValues.getHeadNode();
-        final LinkedList resultValues = new LinkedList();
-        while (xValue != null && yValue != null) {
-            Node resultValue = new Node(xValue.getValue() / yValue.getValue());
-            resultValues.add(resultValue);
-            xValue = xValue.getNextNode();
-            yValue = yValue.getNextNode();
-        }
-
-        return resultValues;
+        checkCount(xValues, yValues);
+        return ColumnExpression.toLinkedList(ColumnExpression.divide(
+                ColumnExpression.of(xValues), ColumnExpression.of(yValues)));
     }
     //@method_def_end
 
     //@method_def_start: ln
     /**
      * 数値データ一覧の各要素の自然対数値の一覧を作成する。
+     * <p>
+     * 要素ごとの計算は{@link ColumnExpression#ln(Column)}で行い、結果は入力と同じ順番となる。
+     * </p>
      *
      * @param values 数値データ一覧
      * @return 各要素の自然対数値の数値データ一覧
      */
     public static LinkedList ln(LinkedList values) {
-        Node value = values.getHeadNode();
-        final LinkedList resultValues = new LinkedList();
-        while (value != null) {
-            Node resultValue = new Node(Math.log(value.getValue()));
-            resultValues.add(resultValue);
-            value = value.getNextNode();
-        }
+        return ColumnExpression.toLinkedList(
+                ColumnExpression.ln(ColumnExpression.of(values)));
+    }
+    //@method_def_end
 
-        return resultValues;
+    //@method_def_start: checkCount
+    /**
+     * 2つの数値データ一覧の件数を検査する。
+     *
+     * @param xValues 数値データ一覧
+     * @param yValues 数値データ一覧
+     */
+    private static void checkCount(LinkedList xValues, LinkedList yValues) {
+        if (xValues.getCount() != yValues.getCount()) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "x=" + xValues.getCount() + ": y=" + yValues.getCount());
+        }
     }
     //@method_def_end
 
@@ -184,11 +176,27 @@ public class PSPMath {
      * @return 結果
      */
     public static double gamma(double x) {
+        return Math.exp(lnGamma(x));
+    }
+    //@method_def_end
+
+    //@method_def_start: lnGamma
+    /**
+     * ガンマ関数の自然対数
+     * <p>
+     * ガンマ関数の値は{@code x}が170程度を超えるとdoubleの範囲を超えるため、
+     * 比を計算する場合はこの関数の差を使用する。
+     * </p>
+     *
+     * @param x 関数に代入する値
+     * @return 結果
+     */
+    public static double lnGamma(double x) {
         double tmp = (x - 0.5) * Math.log(x + 4.5) - (x + 4.5);
         double ser = 1.0 + 76.18009173 / (x + 0) - 86.50532033 / (x + 1)
                 + 24.01409822 / (x + 2) - 1.231739516 / (x + 3)
                 + 0.00120858003 / (x + 4) - 0.00000536382 / (x + 5);
-        return Math.exp(tmp + Math.log(ser * Math.sqrt(2 * Math.PI)));
+        return tmp + Math.log(ser * Math.sqrt(2 * Math.PI));
     }
     //@method_def_end
 
@@ -244,11 +252,28 @@ public class PSPMath {
      */
     public static Double calculateXForPredictionInterval(ProbeDataSet data)
             throws IOException {
-        final double target = data.getPredictionIntervalRate() / 2.0;
-        final int degreeOfFreedom
-                = data.getNumberOfHistoryData() - data.getDimension();
-        final double error = data.getAcceptableError() / 100.0;
-        final int segments = data.getInitialNumberOfSegments();
+        final int degreeOfFreedom = (int) Math.floor(
+                data.getEffectiveNumberOfHistoryData()) - data.getDimension();
+        return calculateXForPredictionInterval(data.getPredictionIntervalRate(),
+                degreeOfFreedom, data.getAcceptableError(),
+                data.getInitialNumberOfSegments());
+    }
+    //@method_def_end
+
+    //@method_def_start: calculateXForPredictionInterval_double_int_double_int
+    /**
+     * 予測区間の計算に使用する積分範囲xの値を計算する
+     *
+     * @param rate 予測区間の大きさの値
+     * @param degreeOfFreedom t分布の自由度
+     * @param acceptableError 許容誤差（百分率）
+     * @param segments 積分範囲の初期分割数
+     * @return 予測区間の計算に使用するxの値
+     */
+    public static Double calculateXForPredictionInterval(double rate,
+            int degreeOfFreedom, double acceptableError, int segments) {
+        final double target = rate / 2.0;
+        final double error = acceptableError / 100.0;
         final IntegrationRangeResolver resolver = new IntegrationRangeResolver(
                 target, degreeOfFreedom, error, segments);
         resolver.resolve();
@@ -268,7 +293,7 @@ public class PSPMath {
             ProbeDataSet data) throws IOException {
         final double sum = data.getSumForSigma();
         final double degreeOfFreedom
-                = data.getNumberOfHistoryData() - data.getDimension();
+                = data.getEffectiveNumberOfHistoryData() - data.getDimension();
         return Math.sqrt(sum / degreeOfFreedom);
     }
     //@method_def_end
@@ -276,6 +301,10 @@ public class PSPMath {
     //@method_def_start: calculateSumForSigma
     /**
      * 予測区間の計算に使用する標準偏差で用いる総和を計算する
+     * <p>
+     * 重み付き最小二乗法の場合は、重み付きの十分統計量から残差平方和を計算するため
+     * （{@link ProbeDataSet#setStatistics(SufficientStatistics)}）、この処理は使用しない。
+     * </p>
      *
      * @param data Probe計算用データセット
      * @return 予測区間の計算に使用する標準偏差で用いる総和
@@ -284,10 +313,10 @@ public class PSPMath {
     public static Double calculateSumForSigma(ProbeDataSet data)
             throws IOException {
         //数値一覧の取得
-        final LinkedList wValues = data.getW();
-        final LinkedList xValues = data.getX();
-        final LinkedList yValues = data.getY();
-        final LinkedList zValues = data.getZ();
+        final Column wValues = data.getHistoryColumn(0);
+        final Column xValues = data.getHistoryColumn(1);
+        final Column yValues = data.getHistoryColumn(2);
+        final Column zValues = data.getHistoryColumn(3);
 
         //多重回帰パラメータの取得
         final double b0 = data.getRegressionParameters()[0];
@@ -297,21 +326,14 @@ public class PSPMath {
 
         //総和の計算処理
         double sum = 0.0;
-        Node wValue = wValues.getHeadNode();
-        Node xValue = xValues.getHeadNode();
-        Node yValue = yValues.getHeadNode();
-        Node zValue = zValues.getHeadNode();
-        while (wValue != null && xValue != null
-                && yValue != null && zValue != null) {
-            final double w = wValue.getValue();
-            final double x = xValue.getValue();
-            final double y = yValue.getValue();
-            final double z = zValue.getValue();
-            sum += Math.pow(z - b0 - (b1 * w) - (b2 * x) - (b3 * y), 2);
-            wValue = wValue.getNextNode();
-            xValue = xValue.getNextNode();
-            yValue = yValue.getNextNode();
-            zValue = zValue.getNextNode();
+        final int count = zValues.size();
+        for (int i = 0; i < count; i++) {
+            final double w = wValues.get(i);
+            final double x = xValues.get(i);
+            final double y = yValues.get(i);
+            final double z = zValues.get(i);
+            final double residual = z - b0 - (b1 * w) - (b2 * x) - (b3 * y);
+            sum += residual * residual;
         }
 
         return sum;
@@ -321,6 +343,10 @@ public class PSPMath {
     //@method_def_start: calculateThirdTermForPredictionInterval
     /**
      * 予測区間の計算に使用する3番目の項を計算する
+     * <p>
+     * 説明変数ごとの項を加算するため、説明変数間の共分散は考慮しない。
+     * 共分散を考慮する場合は{@link ProbeModel#leverage(double[])}を使用する。
+     * </p>
      *
      * @param data Probe計算用データセット
      * @return 予測区間の計算に使用する3番目の項
@@ -328,7 +354,8 @@ public class PSPMath {
      */
     public static Double calculateThirdTermForPredictionInterval(
             ProbeDataSet data) throws IOException {
-        final double numberOfHistoryData = data.getNumberOfHistoryData();
+        final double numberOfHistoryData
+                = data.getEffectiveNumberOfHistoryData();
         final double w = data.getEstimatedProxySizes()[0];
         final double x = data.getEstimatedProxySizes()[1];
         final double y = data.getEstimatedProxySizes()[2];
@@ -429,4 +456,80 @@ public class PSPMath {
     }
     //@method_def_end
 
+    //@method_def_start: sum_Column
+    /**
+     * 数値データ一覧の合計値を計算する。
+     *
+     * @param column 数値データ一覧
+     * @return 数値データ一覧の合計値
+     */
+    public static Double sum(Column column) {
+        double sum = 0.0;
+        final int count = column.size();
+        for (int i = 0; i < count; i++) {
+            sum += column.get(i);
+        }
+        return sum;
+    }
+    //@method_def_end
+
+    //@method_def_start: mean_Column
+    /**
+     * 数値データ一覧の平均値を計算する。
+     *
+     * @param column 数値データ一覧
+     * @return 数値データ一覧の平均値
+     */
+    public static Double mean(Column column) {
+        if (column.size() == 0) {
+            throw new IllegalArgumentException("number of data is 0");
+        }
+        return PSPMath.sum(column) / column.size();
+    }
+    //@method_def_end
+
+    //@method_def_start: sumProduct
+    /**
+     * 2つの数値データ一覧の各要素の積の総和を計算する。
+     * <p>
+     * 積の数値データ一覧は作成しない。
+     * </p>
+     *
+     * @param xValues 数値データ一覧
+     * @param yValues 数値データ一覧
+     * @return 各要素の積の総和
+     */
+    public static Double sumProduct(Column xValues, Column yValues) {
+        if (xValues.size() != yValues.size()) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "x=" + xValues.size() + ": y=" + yValues.size());
+        }
+        double sum = 0.0;
+        final int count = xValues.size();
+        for (int i = 0; i < count; i++) {
+            sum += xValues.get(i) * yValues.get(i);
+        }
+        return sum;
+    }
+    //@method_def_end
+
+    //@method_def_start: sumSquaredDeviation_Column
+    /**
+     * 偏差の平方和を求める処理
+     *
+     * @param column 数値一覧
+     * @param mean 数値一覧の平均値
+     * @return 数値一覧の偏差の平方和
+     */
+    public static Double sumSquaredDeviation(Column column, double mean) {
+        double sum = 0.0;
+        final int count = column.size();
+        for (int i = 0; i < count; i++) {
+            final double deviation = column.get(i) - mean;
+            sum += deviation * deviation;
+        }
+        return sum;
+    }
+    //@method_def_end
+
 }
@@ -0,0 +1,205 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+/**
+ * 履歴データの一部（シャード）から計算した十分統計量を記録するファイル
+ *
+ * <p>
+ * 履歴データを複数のファイルに分割して別々のマシンで処理する場合に、各シャードの十分統計量だけを
+ * 転送して合算する。十分統計量の合算は結合的であり、合算した結果から計算した回帰モデルは
+ * すべての履歴データを連結して計算した場合と同じになる。
+ * </p>
+ *
+ * <p>
+ * ファイル形式（リトルエンディアン）
+ * </p>
+ * <ol>
+ * <li>マジックナンバー{@code "PSPP"}、版数（各4バイト）
+ * <li>十分統計量（{@link SufficientStatistics#writeTo(ByteBuffer)}）
+ * <li>ここまでのCRC32（4バイト）
+ * </ol>
+ *
+ * @author smuraoka
+ */
+public final class PartialStatisticsFile {
+
+    private static final int MAGIC = 0x50505350; //"PSPP"
+    private static final int VERSION = 2; //ファイル形式の版数
+
+    //@method_def_start: PartialStatisticsFile
+    /**
+     * インスタンスは作成しない。
+     */
+    private PartialStatisticsFile() {
+    }
+    //@method_def_end
+
+    //@method_def_start: main
+    /**
+     * シャードの十分統計量の計算、または合算を実行する。
+     * <p>
+     * コマンドライン引数の構成
+     * <ol>
+     * <li>第一引数：{@code compute}または{@code merge}
+     * <li>第二引数：プログラムの設定値が記述されたプロパティファイル
+     * <li>第三引数以降：{@code compute}の場合は出力先のファイル、
+     * {@code merge}の場合は合算するファイル（1つ以上）
+     * </ol>
+     * {@code compute}はプロパティファイルの履歴データファイルから十分統計量を計算して書き込む。
+     * {@code merge}は指定されたファイルの十分統計量を合算し、プロパティファイルの見積プロキシ規模に対する
+     * 計算結果を{@link Main}と同じ形式で表示する。
+     * </p>
+     *
+     * @param args コマンドライン引数
+     * @throws IOException ファイルの読み込み、または書き込みに失敗した場合
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Bad Argument Number: " + args.length);
+            System.exit(-1);
+        }
+        final Properties config = Main.loadProperty(new File(args[1]));
+        config.setProperty("psp.program8.configurationFile", args[1]);
+
+        switch (args[0]) {
+            case "compute":
+                try (ProbeDataSet data = new ProbeDataSet(config)) {
+                    final SufficientStatistics statistics = data.getStatistics();
+                    write(new File(args[2]), statistics);
+                    System.out.format("Computed %d rows: %s%n",
+                            statistics.getRowCount(), args[2]);
+                }
+                break;
+            case "merge":
+                final File[] files = new File[args.length - 2];
+                for (int i = 0; i < files.length; i++) {
+                    files[i] = new File(args[i + 2]);
+                }
+                //履歴データファイルは表示にだけ使用するため、未指定なら最初のファイルとする
+                if (config.getProperty("psp.program8.historyDataFile") == null) {
+                    config.setProperty("psp.program8.historyDataFile", args[2]);
+                }
+                try (ProbeDataSet data = new ProbeDataSet(config)) {
+                    data.setStatistics(merge(files));
+                    Main.printResult(data);
+                }
+                break;
+            default:
+                System.err.println("Bad Command: " + args[0]);
+                System.exit(-1);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: write
+    /**
+     * 十分統計量をファイルに書き込む。
+     * <p>
+     * {@link AtomicFile}で置き換えるため、書き込み途中のファイルが読まれることはない。
+     * </p>
+     *
+     * @param file 出力先のファイル
+     * @param statistics 十分統計量
+     * @throws IOException ファイルの書き込みに失敗した場合
+     */
+    public static void write(File file, SufficientStatistics statistics)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                getSerializedSize(statistics.getDimension()))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        statistics.writeTo(buffer);
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        AtomicFile.write(file, buffer);
+    }
+    //@method_def_end
+
+    //@method_def_start: read
+    /**
+     * ファイルから十分統計量を読み込む。
+     *
+     * @param file 読み込むファイル
+     * @return 十分統計量
+     * @throws IOException ファイルの読み込みに失敗した場合、または形式が正しくない場合
+     */
+    public static SufficientStatistics read(File file) throws IOException {
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        final ByteBuffer buffer
+                = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < 3 * Integer.BYTES
+                || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Illegal format of statistics file: " + file);
+        }
+        final int dimension = buffer.getInt(buffer.position());
+        if (dimension < 2 || bytes.length != getSerializedSize(dimension)) {
+            throw new IOException("Illegal format of statistics file: " + file);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - Integer.BYTES);
+        if ((int) crc.getValue() != buffer.getInt(bytes.length - Integer.BYTES)) {
+            throw new IOException("Broken statistics file: " + file);
+        }
+        return SufficientStatistics.readFrom(buffer);
+    }
+    //@method_def_end
+
+    //@method_def_start: merge
+    /**
+     * 複数のファイルの十分統計量を合算する。
+     *
+     * @param files 合算するファイル（1つ以上）
+     * @return 合算した十分統計量
+     * @throws IOException ファイルの読み込みに失敗した場合、または次元数が一致しない場合
+     */
+    public static SufficientStatistics merge(File... files) throws IOException {
+        if (files.length == 0) {
+            throw new IllegalArgumentException("no statistics file");
+        }
+        final SufficientStatistics result = read(files[0]);
+        for (int i = 1; i < files.length; i++) {
+            final SufficientStatistics other = read(files[i]);
+            if (other.getDimension() != result.getDimension()) {
+                throw new IOException("Number of element not match: "
+                        + files[i] + ": dimension=" + other.getDimension());
+            }
+            result.merge(other);
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: getSerializedSize
+    /**
+     * ファイルの大きさを得る。
+     *
+     * @param dimension 履歴データの次元数
+     * @return ファイルの大きさ
+     */
+    private static int getSerializedSize(int dimension) {
+        return 2 * Integer.BYTES
+                + SufficientStatistics.getSerializedSize(dimension)
+                + Integer.BYTES;
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,653 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * タブ区切りの履歴データファイルを読み込み、解析、加算の段階に分けて並行に処理する。
+ *
+ * <p>
+ * 読み込みスレッドはファイルを一定の大きさのブロックに分けて読み込み、行の途中で切れた部分は次のブロックに
+ * 繰り越す。解析スレッドはブロックをバイト列のまま行と列に分けて数値に変換し、加算スレッド（呼び出し元）は
+ * 変換した行を{@link SufficientStatistics}に加算する。段階の間は容量が固定された{@link RingBuffer}で
+ * つなぎ、後段が遅れた場合は前段が待機する。
+ * </p>
+ *
+ * <p>
+ * 列の対応（{@link ColumnProjection}）を指定した場合、使用しない列はタブを探して読み飛ばすだけで数値に変換せず、
+ * 使用する最後の列より後ろは改行まで読み飛ばす。
+ * </p>
+ *
+ * <p>
+ * 解析スレッドが複数の場合、行を加算する順序はファイル内の順序と一致しないため、
+ * 結果は丸め誤差の範囲で{@link StreamingFit}と異なる場合がある。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class PipelinedHistoryReader {
+
+    /**
+     * 既定のブロックの大きさ
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private static final int QUEUE_CAPACITY = 16; //段階の間のキューの容量
+    private static final long PARK_NANOS = 20_000L; //キューが空または満杯の場合に待機する時間
+    private static final Block END_OF_BLOCKS = new Block(new byte[0], 0);
+    private static final Batch END_OF_BATCHES = new Batch(new double[0], 0);
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final int dimension; //履歴データの次元数
+    private final ColumnProjection projection; //履歴データファイルの列と次元との対応
+    private final int parsers; //解析スレッドの数
+    private final int blockSize; //ブロックの大きさ
+    private final Stage readStage = new Stage(); //読み込み段階の計測値
+    private final Stage parseStage = new Stage(); //解析段階の計測値
+    private final Stage accumulateStage = new Stage(); //加算段階の計測値
+    private final LongAdder wallNanos = new LongAdder(); //全体の経過時間
+
+    //@method_def_start: PipelinedHistoryReader
+    /**
+     * 各段階の構成を指定して作成する。
+     *
+     * @param dimension 履歴データの次元数
+     * @param parsers 解析スレッドの数
+     * @param blockSize ブロックの大きさ
+     */
+    public PipelinedHistoryReader(int dimension, int parsers, int blockSize) {
+        this(ColumnProjection.identity(dimension), parsers, blockSize);
+    }
+    //@method_def_end
+
+    //@method_def_start: PipelinedHistoryReader_ColumnProjection_int_int
+    /**
+     * 列の対応と各段階の構成を指定して作成する。
+     *
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param parsers 解析スレッドの数
+     * @param blockSize ブロックの大きさ
+     */
+    public PipelinedHistoryReader(ColumnProjection projection, int parsers,
+            int blockSize) {
+        if (parsers < 1 || blockSize < 1) {
+            throw new IllegalArgumentException(
+                    "parsers=" + parsers + ": blockSize=" + blockSize);
+        }
+        this.dimension = projection.getDimension();
+        this.projection = projection;
+        this.parsers = parsers;
+        this.blockSize = blockSize;
+    }
+    //@method_def_end
+
+    //@method_def_start: accumulate
+    /**
+     * 履歴データファイルを読み込み、十分統計量を計算する。
+     * <p>
+     * 各段階の計測値は呼び出しごとに累積され、{@link #getReport()}で得られる。
+     * </p>
+     *
+     * @param file 履歴データファイル
+     * @return 十分統計量
+     * @throws IOException 読み込みに失敗した場合、または形式が正しくない場合
+     */
+    public SufficientStatistics accumulate(File file) throws IOException {
+        final long start = System.nanoTime();
+        final ColumnProjection resolved = projection.resolve(file);
+        final RingBuffer<Block> blocks = new RingBuffer<>(QUEUE_CAPACITY);
+        final RingBuffer<Batch> batches = new RingBuffer<>(QUEUE_CAPACITY);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        final Thread[] threads = new Thread[parsers + 1];
+        threads[0] = new Thread(() -> {
+            try {
+                read(file, blocks, failure);
+            } catch (IOException | RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                for (int i = 0; i < parsers; i++) {
+                    put(blocks, END_OF_BLOCKS, failure, readStage);
+                }
+            }
+        }, "history-reader");
+        for (int i = 1; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    parse(blocks, batches, failure, resolved);
+                } catch (IOException | RuntimeException | Error e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    put(batches, END_OF_BATCHES, failure, parseStage);
+                }
+            }, "history-parser-" + i);
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        final SufficientStatistics statistics
+                = new SufficientStatistics(dimension);
+        try {
+            fold(batches, statistics, failure);
+        } finally {
+            join(threads, failure);
+            wallNanos.add(System.nanoTime() - start);
+        }
+
+        final Throwable cause = failure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return statistics;
+    }
+    //@method_def_end
+
+    //@method_def_start: read
+    /**
+     * 読み込み段階の処理
+     * <p>
+     * 各ブロックは改行で終わるように区切り、最後の改行より後ろの部分は次のブロックの先頭に繰り越す。
+     * ブロックに改行が含まれない場合は、ブロックを拡張して読み込みを続ける。
+     * 圧縮されたファイルは{@link CompressedInput}で展開しながら読み込む。
+     * 1行目が列名の行の場合は、最初のブロックから取り除く。
+     * </p>
+     */
+    private void read(File file, RingBuffer<Block> blocks,
+            AtomicReference<Throwable> failure) throws IOException {
+        try (ReadableByteChannel channel = CompressedInput.openChannel(file)) {
+            byte[] buffer = new byte[blockSize];
+            int length = 0;
+            boolean endOfFile = false;
+            boolean header = projection.hasHeader();
+            while (!endOfFile) {
+                final long begin = System.nanoTime();
+                final ByteBuffer target
+                        = ByteBuffer.wrap(buffer, length, buffer.length - length);
+                while (target.hasRemaining()) {
+                    if (channel.read(target) < 0) {
+                        endOfFile = true;
+                        break;
+                    }
+                }
+                final int read = target.position() - length;
+                length = target.position();
+
+                if (header) {
+                    int lineEnd = 0;
+                    while (lineEnd < length && buffer[lineEnd] != '\n') {
+                        ++lineEnd;
+                    }
+                    if (lineEnd == length && !endOfFile) {
+                        //列名の行がブロックより長い
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        readStage.record(read, 0, System.nanoTime() - begin);
+                        continue;
+                    }
+                    final int skip = Math.min(lineEnd + 1, length);
+                    System.arraycopy(buffer, skip, buffer, 0, length - skip);
+                    length -= skip;
+                    header = false;
+                }
+
+                int end = length;
+                if (!endOfFile) {
+                    while (end > 0 && buffer[end - 1] != '\n') {
+                        --end;
+                    }
+                    if (end == 0) {
+                        //1行がブロックより長い
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                        readStage.record(read, 0, System.nanoTime() - begin);
+                        continue;
+                    }
+                }
+                final byte[] next = new byte[buffer.length];
+                System.arraycopy(buffer, end, next, 0, length - end);
+                readStage.record(read, 0, System.nanoTime() - begin);
+
+                if (end > 0 && !put(blocks, new Block(buffer, end),
+                        failure, readStage)) {
+                    return;
+                }
+                buffer = next;
+                length -= end;
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: parse
+    /**
+     * 解析段階の処理
+     */
+    private void parse(RingBuffer<Block> blocks, RingBuffer<Batch> batches,
+            AtomicReference<Throwable> failure, ColumnProjection resolved)
+            throws IOException {
+        while (true) {
+            final Block block = take(blocks, failure, parseStage);
+            if (block == null || block == END_OF_BLOCKS) {
+                return;
+            }
+            final long begin = System.nanoTime();
+            final Batch batch = resolved.isIdentity()
+                    ? parse(block) : parse(block, resolved);
+            parseStage.record(block.length, batch.rows,
+                    System.nanoTime() - begin);
+            if (!put(batches, batch, failure, parseStage)) {
+                return;
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: parse_Block
+    /**
+     * ブロックを行と列に分けて数値に変換する。
+     * <p>
+     * {@link HistoryDataReader}と同じく、行末の空の列は無視し、列の数が次元数と異なる行は形式の誤りとする。
+     * </p>
+     *
+     * @param block ブロック
+     * @return 変換した行
+     * @throws IOException 形式が正しくない場合
+     */
+    private Batch parse(Block block) throws IOException {
+        final byte[] data = block.data;
+        double[] values = new double[dimension * 1024];
+        int rows = 0;
+        int position = 0;
+        while (position < block.length) {
+            int lineEnd = position;
+            while (lineEnd < block.length && data[lineEnd] != '\n') {
+                ++lineEnd;
+            }
+            int contentEnd = lineEnd;
+            if (contentEnd > position && data[contentEnd - 1] == '\r') {
+                --contentEnd;
+            }
+            while (contentEnd > position && data[contentEnd - 1] == '\t') {
+                --contentEnd;
+            }
+            if (contentEnd == position && dimension != 1) {
+                throw new IOException("Illegal format of history data file");
+            }
+            if (values.length < (rows + 1) * dimension) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+
+            final int offset = rows * dimension;
+            int field = 0;
+            int fieldStart = position;
+            for (int i = position; i <= contentEnd; i++) {
+                if (i == contentEnd || data[i] == '\t') {
+                    if (field == dimension) {
+                        throw new IOException(
+                                "Illegal format of history data file");
+                    }
+                    values[offset + field] = parseDouble(data, fieldStart, i);
+                    ++field;
+                    fieldStart = i + 1;
+                }
+            }
+            if (field != dimension) {
+                throw new IOException("Illegal format of history data file");
+            }
+            ++rows;
+            position = lineEnd + 1;
+        }
+        return new Batch(values, rows);
+    }
+    //@method_def_end
+
+    //@method_def_start: parse_Block_ColumnProjection
+    /**
+     * ブロックを行と列に分け、使用する列だけを数値に変換する。
+     * <p>
+     * 各行には{@link ColumnProjection#getFieldCount()}個以上の列がなければならない。
+     * </p>
+     *
+     * @param block ブロック
+     * @param resolved 列の位置が決定した対応
+     * @return 変換した行
+     * @throws IOException 形式が正しくない場合
+     */
+    private Batch parse(Block block, ColumnProjection resolved)
+            throws IOException {
+        final byte[] data = block.data;
+        final int fieldCount = resolved.getFieldCount();
+        double[] values = new double[dimension * 1024];
+        int rows = 0;
+        int position = 0;
+        while (position < block.length) {
+            if (values.length < (rows + 1) * dimension) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            final int offset = rows * dimension;
+            int field = 0;
+            int fieldStart = position;
+            int i = position;
+            while (field < fieldCount) {
+                while (i < block.length && data[i] != '\t' && data[i] != '\n') {
+                    ++i;
+                }
+                final int target = resolved.getTarget(field);
+                if (target >= 0) {
+                    int fieldEnd = i;
+                    if (fieldEnd > fieldStart && data[fieldEnd - 1] == '\r') {
+                        --fieldEnd;
+                    }
+                    values[offset + target] = parseDouble(data, fieldStart, fieldEnd);
+                }
+                ++field;
+                if (i == block.length || data[i] == '\n') {
+                    break;
+                }
+                fieldStart = ++i;
+            }
+            if (field < fieldCount) {
+                throw new IOException("Illegal format of history data file");
+            }
+            //残りの列は読み飛ばす
+            while (i < block.length && data[i] != '\n') {
+                ++i;
+            }
+            ++rows;
+            position = i + 1;
+        }
+        return new Batch(values, rows);
+    }
+    //@method_def_end
+
+    //@method_def_start: parseDouble
+    /**
+     * バイト列の数値を変換する。
+     * <p>
+     * 有効桁数が15桁以下で指数表記を含まない10進数は、整数として読み取った後に10のべき乗で割る。
+     * 両方の値がdoubleで正確に表現できるため、結果は{@link Double#parseDouble(String)}と一致する。
+     * それ以外の表記は{@link Double#parseDouble(String)}で変換する。
+     * </p>
+     *
+     * @param data バイト列
+     * @param from 開始位置
+     * @param to 終了位置（この位置を含まない）
+     * @return 変換した値
+     */
+    static double parseDouble(byte[] data, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            ++i;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int scale = 0;
+        boolean digit = false;
+        boolean point = false;
+        for (; i < to; i++) {
+            final byte b = data[i];
+            if (b >= '0' && b <= '9') {
+                digit = true;
+                if (mantissa != 0 || b != '0') {
+                    ++significantDigits;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (point) {
+                    ++scale;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i != to || !digit || significantDigits > 15
+                || scale >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(new String(
+                    data, from, to - from, StandardCharsets.ISO_8859_1));
+        }
+        final double value = mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+    //@method_def_end
+
+    //@method_def_start: fold
+    /**
+     * 加算段階の処理
+     */
+    private void fold(RingBuffer<Batch> batches,
+            SufficientStatistics statistics,
+            AtomicReference<Throwable> failure) {
+        final double[] row = new double[dimension];
+        int finished = 0;
+        while (finished < parsers) {
+            final Batch batch = take(batches, failure, accumulateStage);
+            if (batch == null) {
+                return;
+            }
+            if (batch == END_OF_BATCHES) {
+                ++finished;
+                continue;
+            }
+            final long begin = System.nanoTime();
+            for (int r = 0; r < batch.rows; r++) {
+                System.arraycopy(batch.values, r * dimension, row, 0, dimension);
+                statistics.add(row);
+            }
+            accumulateStage.record(0, batch.rows, System.nanoTime() - begin);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: put
+    /**
+     * キューに空きができるまで待機して要素を追加する。
+     *
+     * @return 追加した場合は{@code true}、他の段階で失敗した場合は{@code false}
+     */
+    private static <E> boolean put(RingBuffer<E> queue, E element,
+            AtomicReference<Throwable> failure, Stage stage) {
+        if (queue.offer(element)) {
+            return true;
+        }
+        final long begin = System.nanoTime();
+        try {
+            while (!queue.offer(element)) {
+                if (failure.get() != null) {
+                    return false;
+                }
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            return true;
+        } finally {
+            stage.waitNanos.add(System.nanoTime() - begin);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: take
+    /**
+     * キューに要素が追加されるまで待機して取り出す。
+     *
+     * @return 取り出した要素、他の段階で失敗した場合は{@code null}
+     */
+    private static <E> E take(RingBuffer<E> queue,
+            AtomicReference<Throwable> failure, Stage stage) {
+        E element = queue.poll();
+        if (element != null) {
+            return element;
+        }
+        final long begin = System.nanoTime();
+        try {
+            while ((element = queue.poll()) == null) {
+                if (failure.get() != null) {
+                    return null;
+                }
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            return element;
+        } finally {
+            stage.waitNanos.add(System.nanoTime() - begin);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: join
+    /**
+     * 全てのスレッドの終了を待機する。
+     */
+    private static void join(Thread[] threads,
+            AtomicReference<Throwable> failure) {
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, new InterruptedIOException(
+                        "interrupted while reading history data"));
+                for (Thread other : threads) {
+                    other.interrupt();
+                }
+                return;
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: getReport
+    /**
+     * 各段階の処理量と処理速度を得る。
+     * <p>
+     * 処理時間は待機時間を除いた時間であり、解析段階は全ての解析スレッドの合計となる。
+     * 処理時間が全体の経過時間に最も近い段階が、全体の処理速度を制限している。
+     * </p>
+     *
+     * @return 各段階の処理量と処理速度
+     */
+    public String getReport() {
+        final double wall = wallNanos.sum() / 1.0e9;
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(
+                "Pipeline (parsers=%d, block=%d KB): %.3f s%n",
+                parsers, blockSize / 1024, wall));
+        report.append(readStage.format("read", 1, true));
+        report.append(parseStage.format("parse", parsers, true));
+        report.append(accumulateStage.format("accumulate", 1, false));
+        return report.toString();
+    }
+    //@method_def_end
+
+    /**
+     * 段階の計測値
+     */
+    private static final class Stage {
+
+        private final LongAdder bytes = new LongAdder(); //処理したバイト数
+        private final LongAdder rows = new LongAdder(); //処理した行数
+        private final LongAdder busyNanos = new LongAdder(); //処理時間
+        private final LongAdder waitNanos = new LongAdder(); //待機時間
+
+        //@method_def_start: record
+        /**
+         * 処理量と処理時間を記録する。
+         */
+        private void record(long bytes, long rows, long nanos) {
+            this.bytes.add(bytes);
+            this.rows.add(rows);
+            this.busyNanos.add(nanos);
+        }
+        //@method_def_end
+
+        //@method_def_start: format
+        /**
+         * 計測値を1行の文字列にする。
+         */
+        private String format(String name, int threads, boolean byBytes) {
+            final double busy = busyNanos.sum() / 1.0e9;
+            final double wait = waitNanos.sum() / 1.0e9;
+            final double perThread = busy / threads;
+            final String amount;
+            final String rate;
+            if (byBytes) {
+                final double megaBytes = bytes.sum() / (1024.0 * 1024.0);
+                amount = String.format("%.1f MB", megaBytes);
+                rate = String.format("%.1f MB/s",
+                        perThread > 0 ? megaBytes / perThread : 0.0);
+            } else {
+                amount = String.format("%d rows", rows.sum());
+                rate = String.format("%.0f rows/s",
+                        perThread > 0 ? rows.sum() / perThread : 0.0);
+            }
+            return String.format("    %-10s x%d: %s in %.3f s (%s), waited %.3f s%n",
+                    name, threads, amount, perThread, rate, wait / threads);
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 改行で終わるように区切ったファイルの一部
+     */
+    private static final class Block {
+
+        private final byte[] data; //ファイルの内容
+        private final int length; //有効なバイト数
+
+        //@method_def_start: Block
+        /**
+         * ファイルの内容と有効なバイト数を指定して作成する。
+         */
+        Block(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 数値に変換した行の並び
+     */
+    private static final class Batch {
+
+        private final double[] values; //行ごとに次元数分の値を並べた配列
+        private final int rows; //行数
+
+        //@method_def_start: Batch
+        /**
+         * 値と行数を指定して作成する。
+         */
+        Batch(double[] values, int rows) {
+            this.values = values;
+            this.rows = rows;
+        }
+        //@method_def_end
+
+    }
+
+}
@@ -8,28 +8,76 @@ Description: 「追加」、「再利用」、「修正」規模と履歴デー
  */
 package psp.program08;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
 
 /**
  * Probe計算用データセット
  *
+ * <p>
+ * 使用し終わったデータセットは{@link #close()}で履歴データの数値データ一覧を解放する。
+ * </p>
+ *
  * @author smuraoka
  */
-public class ProbeDataSet {
+public class ProbeDataSet implements AutoCloseable {
 
     private final Properties properties; //設定値を保持しているプロパティオブジェクト
     private final File propertyFile; //設定値が記録されたファイル
     private final File historyDataFile; //履歴データが記録されたファイル
+    private List<File> historyDataFiles; //履歴データファイルの指定を展開したファイルの一覧
+    private final int threads; //履歴データファイルを同時に読み込むスレッド数
     private final int dimension; //履歴データの次元数
+    private final ColumnProjection projection; //履歴データファイルの列と次元との対応
+    private final boolean offHeap; //履歴データをヒープ外のメモリに保持するか
+    private final boolean coalesce; //重複する行をまとめて読み込むか
+    private CoalescedRows coalescedRows; //重複する行をまとめた履歴データ
+    private final boolean streaming; //履歴データを保持せずに十分統計量だけを計算するか
+    private final int chunkSize; //履歴データを保持しない場合の読み込み単位の行数
+    private final boolean pipelined; //読み込み、解析、加算を段階に分けて並行に処理するか
+    private final int parsers; //段階に分けて処理する場合の解析スレッドの数
+    private final int blockSize; //段階に分けて処理する場合の読み込み単位のバイト数
+    private String pipelineReport; //段階に分けて処理した場合の各段階の処理速度
+    private final int windowSize; //直近の何件の履歴データを使用するか（0の場合は全件）
+    private final double decay; //行を追加するたびに既存の行の重みに掛ける値
+    private final ColumnProjection weightProjection; //重みの列を含む対応（重みの列がない場合はnull）
+    private final RobustFit.Weight robustWeight; //ロバスト回帰の重みの関数（使用しない場合はnull）
+    private final int robustMaxIterations; //ロバスト回帰の最大の反復回数
+    private final double robustTolerance; //ロバスト回帰の収束の判定に用いる相対誤差
+    private RobustFit robustFit; //ロバスト回帰の結果
+    private final ColumnProjection groupProjection; //グループの列を含む対応（グループの列がない場合はnull）
+    private LongHashMap<SufficientStatistics> groupStatistics; //全体の計算で読み込んだグループごとの十分統計量
+    private GroupedFit groupedFit; //グループごとの回帰モデルの計算結果
+    private final FeatureSpec featureSpec; //説明変数と目的変数の変換の指定（変換しない場合はnull）
+    private FeatureFit featureFit; //変換した説明変数と目的変数による回帰モデルの計算結果
+    private final int sampleSize; //層ごとの無作為標本の件数（0の場合は全件）
+    private final ColumnProjection stratumProjection; //層の列を含む対応（層ごとに抽出しない場合はnull）
+    private final int sampleResamples; //無作為標本のブートストラップ法の標本数
+    private final long sampleSeed; //無作為標本の乱数の種
+    private ReservoirSample sample; //無作為標本
+    private SampledFit sampledFit; //無作為標本による近似の回帰モデルとその誤差
     private LinkedList w; //履歴データwの数値一覧
     private LinkedList x; //履歴データxの数値一覧
     private LinkedList y; //履歴データyの数値一覧
     private LinkedList z; //履歴データzの数値一覧
+    private Column[] historyColumns; //履歴データの各列の数値データ一覧
     private Integer numberOfHistoryData; //履歴データの個数
+    private Double effectiveNumberOfHistoryData; //有効サンプルサイズ（重みがない場合はnull）
+    private SufficientStatistics statistics; //履歴データの十分統計量
+    private CrossValidation crossValidation; //1行除外交差検証の結果
+    private final Bootstrap.Method bootstrapMethod; //ブートストラップ法の復元抽出の方法（使用しない場合はnull）
+    private final int bootstrapResamples; //ブートストラップ法の標本数
+    private final long bootstrapSeed; //ブートストラップ法の乱数の種
+    private Bootstrap bootstrap; //ブートストラップ法による予測区間
+    private final boolean exactLeverage; //予測区間の3番目の項で説明変数間の共分散を考慮するか
+    private final TallSkinnyQR.Solver solver; //多重回帰パラメータの計算方法
+    private TallSkinnyQR tallSkinnyQR; //QR分解の結果（正規方程式で計算した場合はnull）
+    private ProbeModel model; //計算結果から作成した回帰モデル
+    private final SubsetSelection.Criterion subsetCriterion; //説明変数の組み合わせを比較する基準（比較しない場合はnull）
+    private SubsetSelection subsetSelection; //説明変数の組み合わせの比較結果
 
     private Double[] regressionParameters; //多重回帰パラメータ
     private final double[] estimatedProxySizes; //見積プロキシ規模
@@ -95,6 +143,68 @@ public class ProbeDataSet {
                 = config.getProperty("psp.program8.historyDataFile");
         final String dimensionLiteral
                 = config.getProperty("psp.program8.historyDataFile.dimension");
+        final String columnsLiteral
+                = config.getProperty("psp.program8.historyDataFile.columns");
+        final String headerLiteral
+                = config.getProperty("psp.program8.historyDataFile.header");
+        final String threadsLiteral = config.getProperty(
+                "psp.program8.historyDataFile.threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors()));
+        final String offHeapLiteral
+                = config.getProperty("psp.program8.historyDataFile.offHeap");
+        final String coalesceLiteral
+                = config.getProperty("psp.program8.historyDataFile.coalesce");
+        final String streamingLiteral
+                = config.getProperty("psp.program8.streaming");
+        final String chunkSizeLiteral = config.getProperty(
+                "psp.program8.streaming.chunkSize",
+                String.valueOf(StreamingFit.DEFAULT_CHUNK_SIZE));
+        final String pipelinedLiteral
+                = config.getProperty("psp.program8.pipeline");
+        final String parsersLiteral = config.getProperty(
+                "psp.program8.pipeline.parsers", String.valueOf(Math.max(1,
+                        Runtime.getRuntime().availableProcessors() - 2)));
+        final String blockSizeLiteral = config.getProperty(
+                "psp.program8.pipeline.blockSize",
+                String.valueOf(PipelinedHistoryReader.DEFAULT_BLOCK_SIZE));
+        final String windowSizeLiteral
+                = config.getProperty("psp.program8.window", "0");
+        final String decayLiteral
+                = config.getProperty("psp.program8.decay", "1.0");
+        final String weightColumnLiteral = config.getProperty(
+                "psp.program8.historyDataFile.weightColumn");
+        final String robustLiteral
+                = config.getProperty("psp.program8.robust");
+        final String robustMaxIterationsLiteral = config.getProperty(
+                "psp.program8.robust.maxIterations", "50");
+        final String robustToleranceLiteral = config.getProperty(
+                "psp.program8.robust.tolerance", "0.000001");
+        final String groupColumnLiteral = config.getProperty(
+                "psp.program8.historyDataFile.groupColumn");
+        final String featuresLiteral
+                = config.getProperty("psp.program8.features");
+        final String targetLiteral
+                = config.getProperty("psp.program8.target");
+        final String sampleLiteral
+                = config.getProperty("psp.program8.sample", "0");
+        final String stratumColumnLiteral = config.getProperty(
+                "psp.program8.sample.stratifyColumn");
+        final String sampleResamplesLiteral = config.getProperty(
+                "psp.program8.sample.resamples", "200");
+        final String sampleSeedLiteral
+                = config.getProperty("psp.program8.sample.seed", "0");
+        final String bootstrapLiteral
+                = config.getProperty("psp.program8.bootstrap");
+        final String bootstrapResamplesLiteral = config.getProperty(
+                "psp.program8.bootstrap.resamples", "1000");
+        final String bootstrapSeedLiteral
+                = config.getProperty("psp.program8.bootstrap.seed", "0");
+        final String subsetCriterionLiteral
+                = config.getProperty("psp.program8.subsetSelection");
+        final String leverageLiteral = config.getProperty(
+                "psp.program8.predictionInterval.leverage", "diagonal");
+        final String solverLiteral
+                = config.getProperty("psp.program8.solver", "auto");
         final String predictionIntervalRateLiteral
                 = config.getProperty("psp.program8.predictionIntervalRate");
         final String initialNumberOfSegmentsLiteral
@@ -110,6 +220,83 @@ public class ProbeDataSet {
         this.propertyFile = new File(propertyFilePath);
         this.historyDataFile = new File(historyDataFilePath);
         this.dimension = Integer.parseInt(dimensionLiteral);
+        this.projection = ColumnProjection.parse(columnsLiteral,
+                Boolean.parseBoolean(headerLiteral), dimension);
+        this.threads = Integer.parseInt(threadsLiteral);
+        this.offHeap = Boolean.parseBoolean(offHeapLiteral);
+        this.coalesce = Boolean.parseBoolean(coalesceLiteral);
+        this.streaming = Boolean.parseBoolean(streamingLiteral);
+        this.chunkSize = Integer.parseInt(chunkSizeLiteral);
+        this.pipelined = Boolean.parseBoolean(pipelinedLiteral);
+        this.parsers = Integer.parseInt(parsersLiteral);
+        this.blockSize = Integer.parseInt(blockSizeLiteral);
+        this.windowSize = Integer.parseInt(windowSizeLiteral);
+        this.decay = Double.parseDouble(decayLiteral);
+        //説明変数と目的変数の列の後ろに重みまたはグループの列を加える
+        this.weightProjection = weightColumnLiteral == null ? null
+                : appendColumn(columnsLiteral, weightColumnLiteral,
+                        Boolean.parseBoolean(headerLiteral), dimension);
+        this.groupProjection = groupColumnLiteral == null ? null
+                : appendColumn(columnsLiteral, groupColumnLiteral,
+                        Boolean.parseBoolean(headerLiteral), dimension);
+        this.stratumProjection = stratumColumnLiteral == null ? null
+                : appendColumn(columnsLiteral, stratumColumnLiteral,
+                        Boolean.parseBoolean(headerLiteral), dimension);
+        this.sampleSize = Integer.parseInt(sampleLiteral);
+        this.sampleResamples = Integer.parseInt(sampleResamplesLiteral);
+        this.sampleSeed = Long.parseLong(sampleSeedLiteral);
+        this.featureSpec = featuresLiteral == null && targetLiteral == null
+                ? null : FeatureSpec.parse(featuresLiteral, targetLiteral,
+                        dimension);
+        this.robustWeight = robustLiteral == null ? null
+                : RobustFit.Weight.valueOf(
+                        robustLiteral.trim().toUpperCase(Locale.ROOT));
+        this.robustMaxIterations
+                = Integer.parseInt(robustMaxIterationsLiteral);
+        this.robustTolerance = Double.parseDouble(robustToleranceLiteral);
+        if (robustWeight != null && (windowSize > 0
+                || weightProjection != null || decay != 1.0)) {
+            throw new IllegalArgumentException("robust regression "
+                    + "cannot be combined with window or weights");
+        }
+        if (windowSize > 0 && isWeighted()) {
+            throw new IllegalArgumentException(
+                    "window and weights cannot be combined");
+        }
+        if (sampleSize > 0 && (windowSize > 0 || isWeighted())) {
+            throw new IllegalArgumentException(
+                    "sample cannot be combined with window or weights");
+        }
+        if (coalesce && (isPartial() || isWeighted())) {
+            throw new IllegalArgumentException("coalesce cannot be "
+                    + "combined with window, sample or weights");
+        }
+        this.solver = TallSkinnyQR.Solver.valueOf(
+                solverLiteral.trim().toUpperCase(Locale.ROOT));
+        if (solver == TallSkinnyQR.Solver.QR
+                && (isPartial() || isWeighted())) {
+            throw new IllegalArgumentException(
+                    "qr solver cannot be combined with window, sample or weights");
+        }
+        this.bootstrapMethod = bootstrapLiteral == null ? null
+                : Bootstrap.Method.valueOf(
+                        bootstrapLiteral.trim().toUpperCase(Locale.ROOT));
+        this.bootstrapResamples = Integer.parseInt(bootstrapResamplesLiteral);
+        this.bootstrapSeed = Long.parseLong(bootstrapSeedLiteral);
+        this.subsetCriterion = subsetCriterionLiteral == null ? null
+                : SubsetSelection.Criterion.valueOf(
+                        subsetCriterionLiteral.trim().toUpperCase(Locale.ROOT));
+        switch (leverageLiteral.trim()) {
+            case "diagonal":
+                this.exactLeverage = false;
+                break;
+            case "exact":
+                this.exactLeverage = true;
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "leverage=" + leverageLiteral);
+        }
         this.predictionIntervalRate
                 = Double.parseDouble(predictionIntervalRateLiteral);
         this.initialNumberOfSegments
@@ -118,6 +305,28 @@ public class ProbeDataSet {
     }
     //@method_def_end
 
+    //@method_def_start: appendColumn
+    /**
+     * 説明変数と目的変数の列の後ろに1つの列を加えた対応を作成する
+     *
+     * @param columnsLiteral 説明変数と目的変数の列の指定（各行の列をそのまま次元とする場合は{@code null}）
+     * @param columnLiteral 加える列の指定
+     * @param header 1行目が列名の行か
+     * @param dimension 履歴データの次元数
+     * @return 次元数が1つ多い対応
+     */
+    private static ColumnProjection appendColumn(String columnsLiteral,
+            String columnLiteral, boolean header, int dimension) {
+        final StringBuilder spec = new StringBuilder();
+        for (int i = 0; i < dimension; i++) {
+            spec.append(columnsLiteral == null ? String.valueOf(i)
+                    : columnsLiteral.split(",")[i].trim()).append(',');
+        }
+        spec.append(columnLiteral.trim());
+        return ColumnProjection.parse(spec.toString(), header, dimension + 1);
+    }
+    //@method_def_end
+
     //@method_def_start: getW
     /**
      * 履歴データwの数値データ一覧を返す
@@ -127,7 +336,7 @@ public class ProbeDataSet {
      */
     public LinkedList getW() throws IOException {
         if (w == null) {
-            loadHistoryData();
+            w = ColumnExpression.toLinkedList(getHistoryColumn(0));
         }
         return w;
     }
@@ -142,7 +351,7 @@ public class ProbeDataSet {
      */
     public LinkedList getX() throws IOException {
         if (x == null) {
-            loadHistoryData();
+            x = ColumnExpression.toLinkedList(getHistoryColumn(1));
         }
         return x;
     }
@@ -157,7 +366,7 @@ public class ProbeDataSet {
      */
     public LinkedList getY() throws IOException {
         if (y == null) {
-            loadHistoryData();
+            y = ColumnExpression.toLinkedList(getHistoryColumn(2));
         }
         return y;
     }
@@ -172,7 +381,7 @@ public class ProbeDataSet {
      */
     public LinkedList getZ() throws IOException {
         if (z == null) {
-            loadHistoryData();
+            z = ColumnExpression.toLinkedList(getHistoryColumn(3));
         }
         return z;
     }
@@ -187,7 +396,9 @@ public class ProbeDataSet {
      */
     public LinkedList getProductWW() throws IOException {
         if (productWW == null) {
-            productWW = PSPMath.product(getW(), getW());
+            productWW = ColumnExpression.toLinkedList(
+                    ColumnExpression.product(getHistoryColumn(0),
+                            getHistoryColumn(0)));
         }
         return productWW;
     }
@@ -202,7 +413,9 @@ public class ProbeDataSet {
      */
     public LinkedList getProductWX() throws IOException {
         if (productWX == null) {
-            productWX = PSPMath.product(getW(), getX());
+            productWX = ColumnExpression.toLinkedList(
+                    ColumnExpression.product(getHistoryColumn(0),
+                            getHistoryColumn(1)));
         }
         return productWX;
     }
@@ -217,7 +430,9 @@ public class ProbeDataSet {
      */
     public LinkedList getProductWY() throws IOException {
         if (productWY == null) {
-            productWY = PSPMath.product(getW(), getY());
+            productWY = ColumnExpression.toLinkedList(
+                    ColumnExpression.product(getHistoryColumn(0),
+                            getHistoryColumn(2)));
         }
         return productWY;
     }
@@ -232,7 +447,9 @@ public class ProbeDataSet {
      */
     public LinkedList getProductWZ() throws IOException {
         if (productWZ == null) {
-            productWZ = PSPMath.product(getW(), getZ());
+            productWZ = ColumnExpression.toLinkedList(
+                    ColumnExpression.product(getHistoryColumn(0),
+                            getHistoryColumn(3)));
         }
         return productWZ;
     }
@@ -247,7 +464,9 @@ public class ProbeDataSet {
      */
     public LinkedList getProductXX() throws IOException {
         if (productXX == null) {
-            productXX = PSPMath.product(getX(), getX());
+            productXX = ColumnExpression.toLinkedList(
+                    ColumnExpression.product(getHistoryColumn(1),
+                            getHistoryColumn(1)));
         }
         return productXX;
     }
@@ -262,7 +481,9 @@ public class ProbeDataSet {
      */
     public LinkedList getProductXY() throws IOException {
         if (productXY == null) {
-            productXY = PSPMath.product(getX(), getY());
+            productXY = ColumnExpression.toLinkedList(
+                    ColumnExpression.product(getHistoryColumn(1),
+                            getHistoryColumn(2)));
         }
         return productXY;
     }
@@ -277,7 +498,9 @@ public class ProbeDataSet {
      */
     public LinkedList getProductXZ() throws IOException {
         if (productXZ == null) {
-            productXZ = PSPMath.product(getX(), getZ());
+            productXZ = ColumnExpression.toLinkedList(
+                    ColumnExpression.product(getHistoryColumn(1),
+                            getHistoryColumn(3)));
         }
         return productXZ;
     }
@@ -292,7 +515,9 @@ public class ProbeDataSet {
      */
     public LinkedList getProductYY() throws IOException {
         if (productYY == null) {
-            productYY = PSPMath.product(getY(), getY());
+            productYY = ColumnExpression.toLinkedList(
+                    ColumnExpression.product(getHistoryColumn(2),
+                            getHistoryColumn(2)));
         }
         return productYY;
     }
@@ -307,7 +532,9 @@ public class ProbeDataSet {
      */
     public LinkedList getProductYZ() throws IOException {
         if (productYZ == null) {
-            productYZ = PSPMath.product(getY(), getZ());
+            productYZ = ColumnExpression.toLinkedList(
+                    ColumnExpression.product(getHistoryColumn(2),
+                            getHistoryColumn(3)));
         }
         return productYZ;
     }
@@ -322,7 +549,7 @@ public class ProbeDataSet {
      */
     public Double getSumW() throws IOException {
         if (sumW == null) {
-            sumW = PSPMath.sum(getW());
+            sumW = PSPMath.sum(getHistoryColumn(0));
         }
         return sumW;
     }
@@ -337,7 +564,7 @@ public class ProbeDataSet {
      */
     public Double getSumX() throws IOException {
         if (sumX == null) {
-            sumX = PSPMath.sum(getX());
+            sumX = PSPMath.sum(getHistoryColumn(1));
         }
         return sumX;
     }
@@ -352,7 +579,7 @@ public class ProbeDataSet {
      */
     public Double getSumY() throws IOException {
         if (sumY == null) {
-            sumY = PSPMath.sum(getY());
+            sumY = PSPMath.sum(getHistoryColumn(2));
         }
         return sumY;
     }
@@ -367,7 +594,7 @@ public class ProbeDataSet {
      */
     public Double getSumZ() throws IOException {
         if (sumZ == null) {
-            sumZ = PSPMath.sum(getZ());
+            sumZ = PSPMath.sum(getHistoryColumn(3));
         }
         return sumZ;
     }
@@ -382,7 +609,8 @@ public class ProbeDataSet {
      */
     public Double getSumProductWW() throws IOException {
         if (sumProductWW == null) {
-            sumProductWW = PSPMath.sum(getProductWW());
+            sumProductWW = PSPMath.sumProduct(
+                    getHistoryColumn(0), getHistoryColumn(0));
         }
         return sumProductWW;
     }
@@ -397,7 +625,8 @@ public class ProbeDataSet {
      */
     public Double getSumProductWX() throws IOException {
         if (sumProductWX == null) {
-            sumProductWX = PSPMath.sum(getProductWX());
+            sumProductWX = PSPMath.sumProduct(
+                    getHistoryColumn(0), getHistoryColumn(1));
         }
         return sumProductWX;
     }
@@ -412,7 +641,8 @@ public class ProbeDataSet {
      */
     public Double getSumProductWY() throws IOException {
         if (sumProductWY == null) {
-            sumProductWY = PSPMath.sum(getProductWY());
+            sumProductWY = PSPMath.sumProduct(
+                    getHistoryColumn(0), getHistoryColumn(2));
         }
         return sumProductWY;
     }
@@ -427,7 +657,8 @@ public class ProbeDataSet {
      */
     public Double getSumProductWZ() throws IOException {
         if (sumProductWZ == null) {
-            sumProductWZ = PSPMath.sum(getProductWZ());
+            sumProductWZ = PSPMath.sumProduct(
+                    getHistoryColumn(0), getHistoryColumn(3));
         }
         return sumProductWZ;
     }
@@ -442,7 +673,8 @@ public class ProbeDataSet {
      */
     public Double getSumProductXX() throws IOException {
         if (sumProductXX == null) {
-            sumProductXX = PSPMath.sum(getProductXX());
+            sumProductXX = PSPMath.sumProduct(
+                    getHistoryColumn(1), getHistoryColumn(1));
         }
         return sumProductXX;
     }
@@ -457,7 +689,8 @@ public class ProbeDataSet {
      */
     public Double getSumProductXY() throws IOException {
         if (sumProductXY == null) {
-            sumProductXY = PSPMath.sum(getProductXY());
+            sumProductXY = PSPMath.sumProduct(
+                    getHistoryColumn(1), getHistoryColumn(2));
         }
         return sumProductXY;
     }
@@ -472,7 +705,8 @@ public class ProbeDataSet {
      */
     public Double getSumProductXZ() throws IOException {
         if (sumProductXZ == null) {
-            sumProductXZ = PSPMath.sum(getProductXZ());
+            sumProductXZ = PSPMath.sumProduct(
+                    getHistoryColumn(1), getHistoryColumn(3));
         }
         return sumProductXZ;
     }
@@ -487,7 +721,8 @@ public class ProbeDataSet {
      */
     public Double getSumProductYY() throws IOException {
         if (sumProductYY == null) {
-            sumProductYY = PSPMath.sum(getProductYY());
+            sumProductYY = PSPMath.sumProduct(
+                    getHistoryColumn(2), getHistoryColumn(2));
         }
         return sumProductYY;
     }
@@ -502,7 +737,8 @@ public class ProbeDataSet {
      */
     public Double getSumProductYZ() throws IOException {
         if (sumProductYZ == null) {
-            sumProductYZ = PSPMath.sum(getProductYZ());
+            sumProductYZ = PSPMath.sumProduct(
+                    getHistoryColumn(2), getHistoryColumn(3));
         }
         return sumProductYZ;
     }
@@ -517,7 +753,7 @@ public class ProbeDataSet {
      */
     public Double getMeanW() throws IOException {
         if (meanW == null) {
-            meanW = PSPMath.mean(getW());
+            meanW = PSPMath.mean(getHistoryColumn(0));
         }
         return meanW;
     }
@@ -532,7 +768,7 @@ public class ProbeDataSet {
      */
     public Double getMeanX() throws IOException {
         if (meanX == null) {
-            meanX = PSPMath.mean(getX());
+            meanX = PSPMath.mean(getHistoryColumn(1));
         }
         return meanX;
     }
@@ -547,7 +783,7 @@ public class ProbeDataSet {
      */
     public Double getMeanY() throws IOException {
         if (meanY == null) {
-            meanY = PSPMath.mean(getY());
+            meanY = PSPMath.mean(getHistoryColumn(2));
         }
         return meanY;
     }
@@ -564,6 +800,24 @@ public class ProbeDataSet {
     }
     //@method_def_end
 
+    //@method_def_start: getHistoryDataFiles
+    /**
+     * 履歴データファイルの指定を展開したファイルの一覧を得る
+     * <p>
+     * 指定の形式は{@link HistoryFileSet#resolve(String)}を参照。
+     * </p>
+     *
+     * @return 履歴データファイルの一覧
+     * @throws java.io.IOException ディレクトリの読み込みに失敗した場合、または対象となるファイルがない場合
+     */
+    public List<File> getHistoryDataFiles() throws IOException {
+        if (historyDataFiles == null) {
+            historyDataFiles = HistoryFileSet.resolve(historyDataFile.getPath());
+        }
+        return historyDataFiles;
+    }
+    //@method_def_end
+
     //@method_def_start: getNumberOfHistoryData
     /**
      * 履歴データの個数を得る
@@ -573,60 +827,773 @@ public class ProbeDataSet {
      */
     public Integer getNumberOfHistoryData() throws IOException {
         if (numberOfHistoryData == null) {
-            loadHistoryData();
+            if (windowSize > 0) {
+                loadWindowStatistics();
+            } else if (sampleSize > 0) {
+                loadSampleStatistics();
+            } else if (robustWeight != null) {
+                loadRobustStatistics();
+            } else if (isWeighted()) {
+                loadWeightedStatistics();
+            } else if (coalesce) {
+                loadCoalescedStatistics();
+            } else if (groupProjection != null) {
+                loadGroupedStatistics();
+            } else if (streaming || pipelined || getHistoryDataFiles().size() > 1) {
+                loadHistoryStatistics();
+            } else {
+                loadHistoryData();
+            }
         }
         return numberOfHistoryData;
     }
     //@method_def_end
 
+    //@method_def_start: getEffectiveNumberOfHistoryData
+    /**
+     * 有効サンプルサイズを得る
+     * <p>
+     * 重みがない場合は履歴データの個数と一致する。
+     * </p>
+     *
+     * @return 有効サンプルサイズ
+     * @throws java.io.IOException 履歴データの読み込みに失敗した場合
+     */
+    public Double getEffectiveNumberOfHistoryData() throws IOException {
+        final Integer count = getNumberOfHistoryData();
+        return effectiveNumberOfHistoryData != null
+                ? effectiveNumberOfHistoryData : count.doubleValue();
+    }
+    //@method_def_end
+
+    //@method_def_start: loadHistoryStatistics
+    /**
+     * 履歴データファイルを一定の行数ずつ読み込み、十分統計量だけを計算する処理
+     * <p>
+     * {@code psp.program8.streaming}が{@code true}の場合、
+     * または複数の履歴データファイルが指定された場合に使用する。
+     * 複数のファイルは{@code psp.program8.historyDataFile.threads}個までのスレッドで並列に読み込む。
+     * {@code psp.program8.pipeline}が{@code true}の場合は、タブ区切りのファイルを
+     * {@link PipelinedHistoryReader}で1つずつ読み込む。
+     * 十分統計量から計算できる値はすべて設定されるため、履歴データの数値データ一覧は保持しない。
+     * </p>
+     */
+    private void loadHistoryStatistics() throws IOException {
+        if (!pipelined) {
+            setHistoryStatistics(HistoryFileSet.accumulate(
+                    getHistoryDataFiles(), projection, chunkSize, threads));
+            return;
+        }
+        final PipelinedHistoryReader reader
+                = new PipelinedHistoryReader(projection, parsers, blockSize);
+        final SufficientStatistics total
+                = new SufficientStatistics(getDimension());
+        for (File file : getHistoryDataFiles()) {
+            if (ColumnarHistoryFile.isColumnar(file)) {
+                total.merge(HistoryFileSet.accumulate(
+                        file, projection, chunkSize));
+            } else {
+                total.merge(reader.accumulate(file));
+            }
+        }
+        pipelineReport = reader.getReport();
+        setHistoryStatistics(total);
+    }
+    //@method_def_end
+
+    //@method_def_start: loadCoalescedStatistics
+    /**
+     * 重複する行をまとめて十分統計量を計算する処理
+     * <p>
+     * {@code psp.program8.historyDataFile.coalesce}が{@code true}の場合に使用する。
+     * 全ての列の値が一致する行を{@link CoalescedRows}で1つにまとめ、出現回数を行数として加算するため、
+     * 全ての行を保持した場合と同じ結果になる。保持するのは異なる行だけで、履歴データの数値データ一覧は作成しない。
+     * 複数のファイルは{@code psp.program8.historyDataFile.threads}個までのスレッドで並列に読み込む。
+     * </p>
+     */
+    private void loadCoalescedStatistics() throws IOException {
+        coalescedRows = CoalescedRows.of(getHistoryDataFiles(), projection,
+                threads);
+        setHistoryStatistics(coalescedRows.getStatistics());
+    }
+    //@method_def_end
+
+    //@method_def_start: loadGroupedStatistics
+    /**
+     * グループごとの十分統計量を計算し、それらを合算した十分統計量を設定する処理
+     * <p>
+     * {@code psp.program8.historyDataFile.groupColumn}を指定した場合に使用する。
+     * 履歴データファイルを{@link GroupedFit#accumulate(List, ColumnProjection, int)}で1度だけ読み込み、
+     * 全てのグループの十分統計量を合算して全体の回帰モデルを計算する。グループごとの十分統計量は
+     * {@link #getGroupedFit()}で再利用するため、グループごとの計算でファイルを読み直すことはない。
+     * </p>
+     */
+    private void loadGroupedStatistics() throws IOException {
+        groupStatistics = GroupedFit.accumulate(getHistoryDataFiles(),
+                groupProjection, threads);
+        final SufficientStatistics total
+                = new SufficientStatistics(getDimension());
+        for (int g = 0; g < groupStatistics.size(); g++) {
+            total.merge(groupStatistics.getValue(g));
+        }
+        setHistoryStatistics(total);
+    }
+    //@method_def_end
+
+    //@method_def_start: getCoalescedRows
+    /**
+     * 重複する行をまとめた履歴データを得る
+     *
+     * @return 重複する行をまとめた履歴データ、まとめない場合は{@code null}
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public CoalescedRows getCoalescedRows() throws IOException {
+        getNumberOfHistoryData();
+        return coalescedRows;
+    }
+    //@method_def_end
+
+    //@method_def_start: setHistoryStatistics
+    /**
+     * 履歴データファイルから計算した十分統計量を設定する処理
+     * <p>
+     * 正規方程式の条件数が悪い場合（{@link #requiresQR(SufficientStatistics)}）は、
+     * 履歴データファイルを読み直してQR分解で多重回帰パラメータと標準偏差で用いる総和を計算する。
+     * </p>
+     *
+     * @param statistics 十分統計量
+     */
+    private void setHistoryStatistics(SufficientStatistics statistics)
+            throws IOException {
+        if (!requiresQR(statistics)) {
+            setStatistics(statistics);
+            return;
+        }
+        applyStatistics(statistics);
+        tallSkinnyQR = TallSkinnyQR.of(getHistoryDataFiles(), projection,
+                threads);
+        regressionParameters = box(tallSkinnyQR.solve());
+        sumForSigma = tallSkinnyQR.getResidualSumOfSquares();
+    }
+    //@method_def_end
+
+    //@method_def_start: requiresQR
+    /**
+     * 正規方程式の代わりにQR分解で多重回帰パラメータを計算するか判定する
+     * <p>
+     * {@code psp.program8.solver}が{@code qr}の場合は常に、{@code auto}（既定値）の場合は
+     * グラム行列から推定した条件数が{@link TallSkinnyQR#CONDITION_LIMIT}を超える場合に使用する。
+     * 直近の履歴データまたは無作為標本だけを使用する場合と重み付きの場合は使用しない。
+     * </p>
+     *
+     * @param statistics 十分統計量
+     * @return QR分解を使用する場合は{@code true}
+     */
+    private boolean requiresQR(SufficientStatistics statistics) {
+        switch (solver) {
+            case QR:
+                return true;
+            case AUTO:
+                return !isPartial() && !isWeighted()
+                        && !(statistics.estimateConditionNumber()
+                        <= TallSkinnyQR.CONDITION_LIMIT);
+            default:
+                return false;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: getTallSkinnyQR
+    /**
+     * 多重回帰パラメータの計算に使用したQR分解の結果を得る
+     *
+     * @return QR分解の結果、正規方程式で計算した場合は{@code null}
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public TallSkinnyQR getTallSkinnyQR() throws IOException {
+        getRegressionParameters();
+        return tallSkinnyQR;
+    }
+    //@method_def_end
+
+    //@method_def_start: loadWindowStatistics
+    /**
+     * 履歴データファイルの末尾から{@code psp.program8.window}件の履歴データだけで十分統計量を計算する処理
+     * <p>
+     * 履歴データファイルには古いものから順に記録されているものとし、複数のファイルは指定順に連結する。
+     * 読み込んだ行は{@link SlidingWindowFit}に追加し、保持する件数を超えた古い行は十分統計量から取り除く。
+     * </p>
+     */
+    private void loadWindowStatistics() throws IOException {
+        final SlidingWindowFit window = new SlidingWindowFit(windowSize,
+                getDimension(), predictionIntervalRate, acceptableError,
+                initialNumberOfSegments);
+        window.addAll(getHistoryDataFiles(), projection);
+        setStatistics(window.getStatistics());
+    }
+    //@method_def_end
+
+    //@method_def_start: loadWeightedStatistics
+    /**
+     * 重み付き最小二乗法のための十分統計量を計算する処理
+     * <p>
+     * {@code psp.program8.historyDataFile.weightColumn}を指定した場合は、その列の値を行の重みとする。
+     * {@code psp.program8.decay}に1未満の値を指定した場合は、履歴データファイルの行を読み込むたびに
+     * それまでの行の重みにその値を掛ける（後ろの行ほど新しいものとする）。
+     * 十分統計量は{@link WeightedFit}で行ごとに更新する。
+     * </p>
+     */
+    private void loadWeightedStatistics() throws IOException {
+        final WeightedFit fit = new WeightedFit(getDimension(), decay);
+        fit.addAll(getHistoryDataFiles(),
+                weightProjection != null ? weightProjection : projection);
+        setStatistics(fit.getStatistics());
+    }
+    //@method_def_end
+
+    //@method_def_start: loadRobustStatistics
+    /**
+     * ロバスト回帰の最後の反復の重み付きの十分統計量を計算する処理
+     * <p>
+     * {@code psp.program8.robust}に重みの関数（{@code huber}または{@code tukey}）を指定した場合に使用する。
+     * 反復ごとに各列を走査するため、履歴データを保持しない設定でも各列の数値データ一覧を読み込む。
+     * 反復は{@code psp.program8.robust.maxIterations}回まで、多重回帰パラメータの相対的な変化が
+     * {@code psp.program8.robust.tolerance}以下になるまで繰り返す。
+     * </p>
+     */
+    private void loadRobustStatistics() throws IOException {
+        final Column[] columns = new Column[getDimension()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = getHistoryColumn(i);
+        }
+        robustFit = RobustFit.of(columns, robustWeight, robustMaxIterations,
+                robustTolerance, threads);
+        setStatistics(robustFit.getStatistics());
+    }
+    //@method_def_end
+
+    //@method_def_start: getRobustFit
+    /**
+     * ロバスト回帰の結果を得る
+     *
+     * @return ロバスト回帰の結果、使用しない場合は{@code null}
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public RobustFit getRobustFit() throws IOException {
+        getNumberOfHistoryData();
+        return robustFit;
+    }
+    //@method_def_end
+
+    //@method_def_start: loadSampleStatistics
+    /**
+     * 履歴データファイルの無作為標本だけで十分統計量を計算する処理
+     * <p>
+     * {@code psp.program8.sample}に1以上の件数を指定した場合に使用する。履歴データファイルを1度だけ
+     * 読み込み、{@link ReservoirSample}で指定した件数の行を抽出する。標本に入らない行は数値に変換しない。
+     * {@code psp.program8.sample.stratifyColumn}に層の列（整数の値を持つ列）を指定した場合は層ごとに
+     * 指定した件数を抽出し、層の行数に比例する重みを付ける。結果は{@code psp.program8.sample.seed}だけで決まる。
+     * </p>
+     */
+    private void loadSampleStatistics() throws IOException {
+        sample = ReservoirSample.of(getHistoryDataFiles(),
+                stratumProjection != null ? stratumProjection : projection,
+                stratumProjection != null, sampleSize, sampleSeed, threads);
+        setStatistics(sample.getStatistics());
+    }
+    //@method_def_end
+
+    //@method_def_start: getSampledFit
+    /**
+     * 無作為標本による近似の回帰モデルとその誤差を得る
+     * <p>
+     * 標本を{@code psp.program8.sample.resamples}回復元抽出し、多重回帰パラメータ、見積値、
+     * 及び予測区間の幅の標準誤差を{@code psp.program8.historyDataFile.threads}個までのスレッドで計算する。
+     * 計算量は標本の件数だけで決まる。
+     * </p>
+     *
+     * @return 計算結果、無作為標本を使用しない場合は{@code null}
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public SampledFit getSampledFit() throws IOException {
+        if (sampledFit == null && sampleSize > 0) {
+            getNumberOfHistoryData();
+            sampledFit = SampledFit.of(sample, estimatedProxySizes,
+                    predictionIntervalRate, acceptableError,
+                    initialNumberOfSegments, exactLeverage, sampleResamples,
+                    sampleSeed, threads);
+        }
+        return sampledFit;
+    }
+    //@method_def_end
+
+    //@method_def_start: isPartial
+    /**
+     * 履歴データの一部だけを使用するか判定する
+     *
+     * @return 直近の履歴データまたは無作為標本だけを使用する場合は{@code true}
+     */
+    private boolean isPartial() {
+        return windowSize > 0 || sampleSize > 0;
+    }
+    //@method_def_end
+
+    //@method_def_start: isWeighted
+    /**
+     * 重み付き最小二乗法を使用するか判定する
+     *
+     * @return 行の重み、減衰率、またはロバスト回帰が指定されている場合は{@code true}
+     */
+    public boolean isWeighted() {
+        return weightProjection != null || decay != 1.0
+                || robustWeight != null;
+    }
+    //@method_def_end
+
+    //@method_def_start: supportsSnapshot
+    /**
+     * 計算結果をスナップショットファイルに保存、復元できるか判定する
+     * <p>
+     * スナップショットは全件を重みなしで使用する単一の履歴データファイルにだけ対応する。
+     * </p>
+     *
+     * @return 保存、復元できる場合は{@code true}
+     * @throws java.io.IOException 履歴データファイルの指定を展開できなかった場合
+     */
+    public boolean supportsSnapshot() throws IOException {
+        return getHistoryDataFiles().size() == 1 && !isPartial()
+                && !isWeighted();
+    }
+    //@method_def_end
+
+    //@method_def_start: supportsFollowing
+    /**
+     * 履歴データファイルへの追記を{@link HistoryFileFollower}で監視できるか判定する
+     * <p>
+     * 監視は全件を重みなしで使用する単一の履歴データファイルにだけ対応する。
+     * 重複する行をまとめる指定にも対応しない。
+     * </p>
+     *
+     * @return 監視できる場合は{@code true}
+     * @throws java.io.IOException 履歴データファイルの指定を展開できなかった場合
+     */
+    public boolean supportsFollowing() throws IOException {
+        return getHistoryDataFiles().size() == 1 && !isPartial()
+                && !isWeighted() && !coalesce;
+    }
+    //@method_def_end
+
+    //@method_def_start: getWindowSize
+    /**
+     * 使用する直近の履歴データの件数を得る
+     *
+     * @return 使用する件数、全件を使用する場合は0
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+    //@method_def_end
+
+    //@method_def_start: getPipelineReport
+    /**
+     * 段階に分けて履歴データを読み込んだ場合の各段階の処理速度を得る
+     *
+     * @return 各段階の処理速度、段階に分けて読み込んでいない場合は{@code null}
+     */
+    public String getPipelineReport() {
+        return pipelineReport;
+    }
+    //@method_def_end
+
+    //@method_def_start: getCrossValidation
+    /**
+     * 1行除外交差検証（Leave-One-Out）の結果を得る
+     * <p>
+     * 履歴データを保持している場合は各列の数値データ一覧から、
+     * 保持していない場合は履歴データファイルを読み直して計算する。
+     * どちらの場合も{@code psp.program8.historyDataFile.threads}個までのスレッドで並列に計算する。
+     * </p>
+     *
+     * @return 交差検証の結果
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     * @throws IllegalStateException 直近の履歴データまたは無作為標本だけを使用する場合、または重み付きの場合
+     */
+    public CrossValidation getCrossValidation() throws IOException {
+        if (crossValidation == null) {
+            if (isPartial() || isWeighted()) {
+                throw new IllegalStateException(
+                        "cross validation requires an unweighted full fit");
+            }
+            if (streaming || pipelined || getHistoryDataFiles().size() > 1) {
+                crossValidation = CrossValidation.of(getHistoryDataFiles(),
+                        projection, getStatistics(), threads);
+            } else {
+                final Column[] columns = new Column[getDimension()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = getHistoryColumn(i);
+                }
+                crossValidation = CrossValidation.of(
+                        columns, getStatistics(), threads);
+            }
+        }
+        return crossValidation;
+    }
+    //@method_def_end
+
+    //@method_def_start: getBootstrap
+    /**
+     * ブートストラップ法による予測区間を得る
+     * <p>
+     * {@code psp.program8.bootstrap}に復元抽出の方法（{@code pairs}または{@code residual}）を指定した場合に、
+     * {@code psp.program8.bootstrap.resamples}個の標本を{@code psp.program8.historyDataFile.threads}個までの
+     * スレッドで計算する。結果は{@code psp.program8.bootstrap.seed}だけで決まる。
+     * 行を無作為に参照するため、履歴データを保持しない設定でも各列の数値データ一覧を読み込む。
+     * </p>
+     *
+     * @return 予測区間、ブートストラップ法を使用しない場合は{@code null}
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     * @throws IllegalStateException 直近の履歴データまたは無作為標本だけを使用する場合、または重み付きの場合
+     */
+    public Bootstrap getBootstrap() throws IOException {
+        if (bootstrap == null && bootstrapMethod != null) {
+            if (isPartial() || isWeighted()) {
+                throw new IllegalStateException(
+                        "bootstrap requires an unweighted full fit");
+            }
+            final SufficientStatistics total = getStatistics();
+            final Column[] columns = new Column[getDimension()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = getHistoryColumn(i);
+            }
+            bootstrap = Bootstrap.of(columns, total, estimatedProxySizes,
+                    bootstrapMethod, bootstrapResamples, bootstrapSeed,
+                    predictionIntervalRate, threads);
+        }
+        return bootstrap;
+    }
+    //@method_def_end
+
+    //@method_def_start: getSubsetSelection
+    /**
+     * 説明変数の全ての組み合わせの回帰モデルの比較結果を得る
+     * <p>
+     * {@code psp.program8.subsetSelection}に基準（{@code adjusted_r_squared}、{@code aic}、
+     * または{@code press}）を指定した場合に計算する。組み合わせはこのデータセットの十分統計量だけから
+     * 計算するため、{@code press}以外では履歴データファイルを読み直さない。
+     * {@code press}の場合は各列の数値データ一覧を1度だけ走査する。
+     * </p>
+     *
+     * @return 組み合わせの比較結果、比較しない場合は{@code null}
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     * @throws IllegalStateException 直近の履歴データまたは無作為標本だけを使用する場合、または重み付きの場合
+     */
+    public SubsetSelection getSubsetSelection() throws IOException {
+        if (subsetSelection == null && subsetCriterion != null) {
+            if (isPartial() || isWeighted()) {
+                throw new IllegalStateException(
+                        "subset selection requires an unweighted full fit");
+            }
+            if (subsetCriterion == SubsetSelection.Criterion.PRESS) {
+                final SufficientStatistics total = getStatistics();
+                final Column[] columns = new Column[getDimension()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = getHistoryColumn(i);
+                }
+                subsetSelection = SubsetSelection.of(total, columns, threads);
+            } else {
+                subsetSelection = SubsetSelection.of(getStatistics(), threads);
+            }
+        }
+        return subsetSelection;
+    }
+    //@method_def_end
+
+    //@method_def_start: getGroupedFit
+    /**
+     * グループごとの回帰モデルの計算結果を得る
+     * <p>
+     * {@code psp.program8.historyDataFile.groupColumn}にグループの列（整数の値を持つ列）を指定した場合に、
+     * 全体の計算で読み込んだグループごとの十分統計量から、全てのグループの見積値と予測区間を
+     * {@code psp.program8.historyDataFile.threads}個までのスレッドで計算する。
+     * 重複する行をまとめる場合だけは、履歴データファイルを読み直してグループごとの十分統計量を計算する。
+     * </p>
+     *
+     * @return グループごとの計算結果、グループの列を指定しない場合は{@code null}
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     * @throws IllegalStateException 直近の履歴データまたは無作為標本だけを使用する場合、または重み付きの場合
+     */
+    public GroupedFit getGroupedFit() throws IOException {
+        if (groupedFit == null && groupProjection != null) {
+            if (isPartial() || isWeighted()) {
+                throw new IllegalStateException(
+                        "grouped fit requires an unweighted full fit");
+            }
+            getNumberOfHistoryData();
+            if (groupStatistics == null) {
+                groupStatistics = GroupedFit.accumulate(getHistoryDataFiles(),
+                        groupProjection, threads);
+            }
+            groupedFit = GroupedFit.fit(groupStatistics, estimatedProxySizes,
+                    predictionIntervalRate, acceptableError,
+                    initialNumberOfSegments, threads);
+        }
+        return groupedFit;
+    }
+    //@method_def_end
+
+    //@method_def_start: getFeatureFit
+    /**
+     * 変換した説明変数と目的変数による回帰モデルの計算結果を得る
+     * <p>
+     * {@code psp.program8.features}または{@code psp.program8.target}を指定した場合に、
+     * 履歴データファイルを1度だけ読み直して1行ごとに変換した値の十分統計量を計算する。
+     * 変換の指定の形式は{@link FeatureSpec}を参照。
+     * </p>
+     *
+     * @return 計算結果、変換を指定しない場合は{@code null}
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合、または自然対数を計算する値が正でない場合
+     * @throws IllegalStateException 直近の履歴データまたは無作為標本だけを使用する場合、または重み付きの場合
+     */
+    public FeatureFit getFeatureFit() throws IOException {
+        if (featureFit == null && featureSpec != null) {
+            if (isPartial() || isWeighted()) {
+                throw new IllegalStateException(
+                        "feature fit requires an unweighted full fit");
+            }
+            featureFit = FeatureFit.of(getHistoryDataFiles(), projection,
+                    featureSpec, predictionIntervalRate, acceptableError,
+                    initialNumberOfSegments, threads);
+        }
+        return featureFit;
+    }
+    //@method_def_end
+
+    //@method_def_start: getSubsetCriterion
+    /**
+     * 説明変数の組み合わせを比較する基準を得る
+     *
+     * @return 比較する基準、比較しない場合は{@code null}
+     */
+    public SubsetSelection.Criterion getSubsetCriterion() {
+        return subsetCriterion;
+    }
+    //@method_def_end
+
+    //@method_def_start: getHistoryColumn
+    /**
+     * 履歴データの列の数値データ一覧を返す
+     * <p>
+     * 列の構成
+     * <ol>
+     * <li> w
+     * <li> x
+     * <li> y
+     * <li> z
+     * </ol>
+     *
+     * @param index 列の位置（0から始まる）
+     * @return 履歴データの列の数値データ一覧
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public Column getHistoryColumn(int index) throws IOException {
+        if (historyColumns == null) {
+            loadHistoryData();
+        }
+        return historyColumns[index];
+    }
+    //@method_def_end
+
     //@method_def_start: loadHistoryData
     /**
      * 履歴データファイルよりデータを読み込む処理
+     * <p>
+     * 複数の履歴データファイルが指定された場合は、指定順に連結する。
+     * </p>
      */
     private void loadHistoryData() throws IOException {
-        //履歴データファイルの読込
-        final LinkedList wValues = new LinkedList();
-        final LinkedList xValues = new LinkedList();
-        final LinkedList yValues = new LinkedList();
-        final LinkedList zValues = new LinkedList();;
-        try (BufferedReader in
-                = new BufferedReader(new FileReader(getHistoryDataFile()))) {
-            String line = in.readLine();
-            while (line != null) {
-                final String[] values = line.split("\\t");
-                if (values.length != getDimension()) {
-                    throw new IOException(
-                            "Illegal format of history data file");
+        final List<File> files = getHistoryDataFiles();
+        final Column[] columns = files.size() == 1
+                ? loadHistoryData(files.get(0))
+                : concatenateHistoryData(files);
+
+        //値の設定
+        historyColumns = columns;
+        numberOfHistoryData = columns[0].size();
+    }
+    //@method_def_end
+
+    //@method_def_start: loadHistoryData_File
+    /**
+     * 1つの履歴データファイルよりデータを読み込む処理
+     * <p>
+     * 履歴データファイルが列指向のバイナリ形式（{@link ColumnarHistoryFile}）の場合は、
+     * ファイルをメモリマップして各列を複製せずに参照する。それ以外の場合はタブ区切りの形式として読み込む。
+     * </p>
+     *
+     * @param file 履歴データファイル
+     * @return 履歴データの各列の数値データ一覧
+     */
+    private Column[] loadHistoryData(File file) throws IOException {
+        final Column[] columns;
+        if (ColumnarHistoryFile.isColumnar(file)) {
+            columns = loadColumnarHistoryData(file);
+        } else {
+            columns = loadTextHistoryData(file);
+        }
+
+        //チェック
+        for (Column column : columns) {
+            if (column.size() != columns[0].size()) {
+                closeColumns(columns);
+                throw new IllegalStateException("bat history data: "
+                        + file + ": w=" + columns[0].size()
+                        + ": x=" + columns[1].size()
+                        + ": y=" + columns[2].size()
+                        + ": z=" + columns[3].size());
+            }
+        }
+        return columns;
+    }
+    //@method_def_end
+
+    //@method_def_start: concatenateHistoryData
+    /**
+     * 複数の履歴データファイルよりデータを読み込み、指定順に連結する処理
+     *
+     * @param files 履歴データファイルの一覧
+     * @return 履歴データの各列の数値データ一覧
+     */
+    private Column[] concatenateHistoryData(List<File> files)
+            throws IOException {
+        final AppendableColumn[] columns = newColumns();
+        try {
+            for (File file : files) {
+                final Column[] part = loadHistoryData(file);
+                try {
+                    final int count = part[0].size();
+                    for (int i = 0; i < columns.length; i++) {
+                        for (int r = 0; r < count; r++) {
+                            columns[i].add(part[i].get(r));
+                        }
+                    }
+                } finally {
+                    closeColumns(part);
                 }
-                final Node wValue = new Node(Double.parseDouble(values[0]));
-                final Node xValue = new Node(Double.parseDouble(values[1]));
-                final Node yValue = new Node(Double.parseDouble(values[2]));
-                final Node zValue = new Node(Double.parseDouble(values[3]));
-                wValues.add(wValue);
-                xValues.add(xValue);
-                yValues.add(yValue);
-                zValues.add(zValue);
-                line = in.readLine();
             }
+        } catch (IOException | RuntimeException e) {
+            closeColumns(columns);
+            throw e;
         }
+        return columns;
+    }
+    //@method_def_end
 
-        //チェック
-        if ((wValues.getCount() != xValues.getCount())
-                || (wValues.getCount() != yValues.getCount())
-                || (wValues.getCount() != zValues.getCount())) {
-            throw new IllegalStateException("bat history data: "
-                    + "w=" + wValues.getCount()
-                    + ": x=" + xValues.getCount()
-                    + ": y=" + yValues.getCount()
-                    + ": z=" + zValues.getCount());
+    //@method_def_start: newColumns
+    /**
+     * 追加可能な空の数値データ一覧を次元数分作成する。
+     * <p>
+     * {@code psp.program8.historyDataFile.offHeap}が{@code true}の場合は、
+     * 数値データをヒープ外のメモリ（{@link OffHeapColumn}）に保持する。
+     * </p>
+     *
+     * @return 数値データ一覧
+     */
+    private AppendableColumn[] newColumns() {
+        final AppendableColumn[] columns = new AppendableColumn[getDimension()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = offHeap ? new OffHeapColumn() : new ArrayColumn();
         }
+        return columns;
+    }
+    //@method_def_end
 
-        //値の設定
-        w = wValues;
-        x = xValues;
-        y = yValues;
-        z = zValues;
-        numberOfHistoryData = xValues.getCount();
+    //@method_def_start: loadTextHistoryData
+    /**
+     * タブ区切りの履歴データファイルよりデータを読み込む処理
+     *
+     * @param file 履歴データファイル
+     * @return 履歴データの各列の数値データ一覧
+     */
+    private Column[] loadTextHistoryData(File file) throws IOException {
+        final AppendableColumn[] columns = newColumns();
+        try (HistoryDataReader in
+                = new HistoryDataReader(file, projection)) {
+            final double[] row = new double[getDimension()];
+            while (in.next(row)) {
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i].add(row[i]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            closeColumns(columns);
+            throw e;
+        }
+        return columns;
+    }
+    //@method_def_end
+
+    //@method_def_start: loadColumnarHistoryData
+    /**
+     * 列指向のバイナリ形式の履歴データファイルよりデータを読み込む処理
+     *
+     * @param historyFile 履歴データファイル
+     * @return 履歴データの各列の数値データ一覧
+     */
+    private Column[] loadColumnarHistoryData(File historyFile)
+            throws IOException {
+        final ColumnarHistoryFile file
+                = ColumnarHistoryFile.open(historyFile);
+        final Column[] columns = file.getColumns(projection);
+        file.verify();
+        return columns;
+    }
+    //@method_def_end
+
+    //@method_def_start: close
+    /**
+     * 履歴データの数値データ一覧を解放する。
+     * <p>
+     * 解放した後に履歴データの数値データ一覧が必要になった場合は、履歴データファイルを再度読み込む。
+     * 計算済みの値は解放されない。
+     * </p>
+     */
+    @Override
+    public void close() {
+        if (historyColumns != null) {
+            closeColumns(historyColumns);
+            historyColumns = null;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: closeColumns
+    /**
+     * 数値データ一覧を解放する。
+     *
+     * @param columns 数値データ一覧
+     */
+    private static void closeColumns(Column[] columns) {
+        for (Column column : columns) {
+            if (column != null) {
+                column.close();
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: box
+    /**
+     * プリミティブ型の配列をラッパー型の配列に変換する。
+     *
+     * @param values プリミティブ型の配列
+     * @return ラッパー型の配列
+     */
+    private static Double[] box(double[] values) {
+        final Double[] result = new Double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i];
+        }
+        return result;
     }
     //@method_def_end
 
@@ -749,19 +1716,44 @@ public class ProbeDataSet {
     //@method_def_start: getThirdTermForPredictionInterval
     /**
      * 予測区間の計算に使用する3番目の項を得る
+     * <p>
+     * {@code psp.program8.predictionInterval.leverage}が{@code exact}の場合は、
+     * 説明変数間の共分散を考慮したてこ比（{@link ProbeModel#leverage(double[])}）から計算する。
+     * 既定値の{@code diagonal}の場合は説明変数ごとの項の和（{@link PSPMath}）とする。
+     * </p>
      *
      * @return 予測区間の計算に使用する3番目の項
      * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
      */
     public Double getThirdTermForPredictionInterval() throws IOException {
         if (thirdTermForPredictionInterval == null) {
-            thirdTermForPredictionInterval
-                    = PSPMath.calculateThirdTermForPredictionInterval(this);
+            thirdTermForPredictionInterval = exactLeverage
+                    ? Math.sqrt(1.0 + getModel().leverage(estimatedProxySizes))
+                    : PSPMath.calculateThirdTermForPredictionInterval(this);
         }
         return thirdTermForPredictionInterval;
     }
     //@method_def_end
 
+    //@method_def_start: getModel
+    /**
+     * 計算結果から作成した回帰モデルを得る
+     * <p>
+     * 回帰モデルは説明変数の偏差積和行列の分解を保持するため、見積プロキシ規模を変えて
+     * てこ比や予測区間を繰り返し計算する場合は、このデータセットの値を計算し直す必要がない。
+     * </p>
+     *
+     * @return 回帰モデル
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public ProbeModel getModel() throws IOException {
+        if (model == null) {
+            model = ProbeModel.of(this);
+        }
+        return model;
+    }
+    //@method_def_end
+
     //@method_def_start: getProperties
     /**
      * 設定値を保持しているプロパティを得る
@@ -800,6 +1792,19 @@ public class ProbeDataSet {
      * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
      */
     public Double[] getRegressionParameters() throws IOException {
+        if (regressionParameters == null) {
+            //十分統計量だけを計算する場合は、読み込み時に設定される
+            getNumberOfHistoryData();
+        }
+        if (regressionParameters == null && requiresQR(getStatistics())) {
+            //正規方程式の条件数が悪いため、各列から直接QR分解する
+            final Column[] columns = new Column[getDimension()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = getHistoryColumn(i);
+            }
+            tallSkinnyQR = TallSkinnyQR.of(columns, threads);
+            regressionParameters = box(tallSkinnyQR.solve());
+        }
         if (regressionParameters == null) {
             final int dim = getDimension();
             //行列Aの初期化
@@ -858,6 +1863,180 @@ public class ProbeDataSet {
     }
     //@method_def_end
 
+    //@method_def_start: getColumnProjection
+    /**
+     * 履歴データファイルの列と次元との対応を得る
+     *
+     * @return 履歴データファイルの列と次元との対応
+     */
+    public ColumnProjection getColumnProjection() {
+        return projection;
+    }
+    //@method_def_end
+
+    //@method_def_start: getSolver
+    /**
+     * 多重回帰パラメータの計算方法を得る
+     *
+     * @return 多重回帰パラメータの計算方法
+     */
+    public TallSkinnyQR.Solver getSolver() {
+        return solver;
+    }
+    //@method_def_end
+
+    //@method_def_start: getStatistics
+    /**
+     * 履歴データの十分統計量を得る
+     *
+     * @return 十分統計量
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public SufficientStatistics getStatistics() throws IOException {
+        if (statistics != null) {
+            return statistics;
+        }
+        final double[][] gram = new double[][]{
+            {getNumberOfHistoryData(), getSumW(), getSumX(), getSumY()},
+            {getSumW(), getSumProductWW(), getSumProductWX(), getSumProductWY()},
+            {getSumX(), getSumProductWX(), getSumProductXX(), getSumProductXY()},
+            {getSumY(), getSumProductWY(), getSumProductXY(), getSumProductYY()}
+        };
+        final double[] crossProducts = new double[]{
+            getSumZ(), getSumProductWZ(), getSumProductXZ(), getSumProductYZ()
+        };
+        final double sumSquaredZ = PSPMath.sumProduct(
+                getHistoryColumn(3), getHistoryColumn(3));
+        statistics = new SufficientStatistics(gram, crossProducts, sumSquaredZ);
+        return statistics;
+    }
+    //@method_def_end
+
+    //@method_def_start: setStatistics
+    /**
+     * 履歴データの代わりに十分統計量を設定する。
+     * <p>
+     * 多重回帰パラメータと標準偏差で用いる総和も十分統計量から計算するため、
+     * 以降の計算で履歴データファイルは読み込まれない。
+     * 複数の履歴データファイルの十分統計量を合算した場合は、それらを連結した履歴データと同じ結果になる。
+     * 重み付きの十分統計量の場合、標準偏差で用いる総和は重み付きの残差平方和を
+     * 有効サンプルサイズに換算した値とする。
+     * </p>
+     *
+     * @param statistics 十分統計量
+     */
+    public void setStatistics(SufficientStatistics statistics) {
+        applyStatistics(statistics);
+        final double[] parameters = statistics.solve();
+        regressionParameters = box(parameters);
+        sumForSigma = statistics.residualSumOfSquares(parameters)
+                * getEffectiveScale(statistics);
+    }
+    //@method_def_end
+
+    //@method_def_start: applyStatistics
+    /**
+     * 十分統計量から計算できる値を設定する。
+     * <p>
+     * 設定した値は履歴データの各数値一覧から計算した値の代わりに使用されるため、
+     * 以降の計算で履歴データファイルを読み込む必要がなくなる。
+     * 重み付きの十分統計量の場合、偏差平方和は重みの総和が有効サンプルサイズと等しくなるように換算する。
+     * </p>
+     *
+     * @param statistics 十分統計量
+     */
+    private void applyStatistics(SufficientStatistics statistics) {
+        if (statistics.getDimension() != getDimension()) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "statistics=" + statistics.getDimension()
+                    + ": dimension=" + getDimension());
+        }
+        this.statistics = statistics;
+        numberOfHistoryData = (int) statistics.getRowCount();
+        effectiveNumberOfHistoryData = statistics.getEffectiveCount();
+        final double scale = getEffectiveScale(statistics);
+        sumW = statistics.getGram(0, 1);
+        sumX = statistics.getGram(0, 2);
+        sumY = statistics.getGram(0, 3);
+        sumZ = statistics.getCrossProduct(0);
+        sumProductWW = statistics.getGram(1, 1);
+        sumProductWX = statistics.getGram(1, 2);
+        sumProductWY = statistics.getGram(1, 3);
+        sumProductXX = statistics.getGram(2, 2);
+        sumProductXY = statistics.getGram(2, 3);
+        sumProductYY = statistics.getGram(3, 3);
+        sumProductWZ = statistics.getCrossProduct(1);
+        sumProductXZ = statistics.getCrossProduct(2);
+        sumProductYZ = statistics.getCrossProduct(3);
+        meanW = statistics.getMean(0);
+        meanX = statistics.getMean(1);
+        meanY = statistics.getMean(2);
+        sumSquaredDeviationW = statistics.getSumSquaredDeviation(0) * scale;
+        sumSquaredDeviationX = statistics.getSumSquaredDeviation(1) * scale;
+        sumSquaredDeviationY = statistics.getSumSquaredDeviation(2) * scale;
+    }
+    //@method_def_end
+
+    //@method_def_start: getEffectiveScale
+    /**
+     * 重みの総和を有効サンプルサイズに換算する係数を得る。重みがない場合は1となる。
+     *
+     * @param statistics 十分統計量
+     * @return 有効サンプルサイズ÷重みの総和
+     */
+    private static double getEffectiveScale(SufficientStatistics statistics) {
+        return statistics.getEffectiveCount() / statistics.getCount();
+    }
+    //@method_def_end
+
+    //@method_def_start: restoreSnapshot
+    /**
+     * スナップショットファイルから計算結果を復元する。
+     * <p>
+     * スナップショットが現在の設定値と履歴データファイルに対応している場合に限り復元する。
+     * 復元した場合、履歴データファイルの読み込みと積分範囲の探索処理は実行されない。
+     * </p>
+     *
+     * @param snapshotFile スナップショットファイル
+     * @return 復元した場合は{@code true}
+     * @throws java.io.IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public boolean restoreSnapshot(File snapshotFile) throws IOException {
+        if (!snapshotFile.isFile()) {
+            return false;
+        }
+        final ProbeModelSnapshot snapshot;
+        try {
+            snapshot = ProbeModelSnapshot.read(snapshotFile);
+        } catch (IOException | IllegalArgumentException e) {
+            //壊れたスナップショットは使用せずに再計算する
+            return false;
+        }
+        if (!snapshot.matches(this)) {
+            return false;
+        }
+
+        applyStatistics(snapshot.getStatistics());
+        regressionParameters = box(snapshot.getRegressionParameters());
+        sumForSigma = snapshot.getSumForSigma();
+        sigmaForPredictionInterval = snapshot.getSigma();
+        xForPredictionInterval = snapshot.getxForPredictionInterval();
+        return true;
+    }
+    //@method_def_end
+
+    //@method_def_start: saveSnapshot
+    /**
+     * 計算結果をスナップショットファイルに保存する。
+     *
+     * @param snapshotFile スナップショットファイル
+     * @throws java.io.IOException 履歴データファイルの読み込み、またはスナップショットファイルの書き込みに失敗した場合
+     */
+    public void saveSnapshot(File snapshotFile) throws IOException {
+        ProbeModelSnapshot.write(snapshotFile, this);
+    }
+    //@method_def_end
+
     //@method_def_start: getSumSquaredDeviationW
     /**
      * 予測区間の計算に使用する3番目の項で用いるwの偏差平方の総和を得る
@@ -868,7 +2047,8 @@ public class ProbeDataSet {
     public Double getSumSquaredDeviationW() throws IOException {
         if (sumSquaredDeviationW == null) {
             sumSquaredDeviationW
-                    = PSPMath.sumSquaredDeviation(getW(), getMeanW());
+                    = PSPMath.sumSquaredDeviation(
+                            getHistoryColumn(0), getMeanW());
         }
         return sumSquaredDeviationW;
     }
@@ -884,7 +2064,8 @@ public class ProbeDataSet {
     public Double getSumSquaredDeviationX() throws IOException {
         if (sumSquaredDeviationX == null) {
             sumSquaredDeviationX
-                    = PSPMath.sumSquaredDeviation(getX(), getMeanX());
+                    = PSPMath.sumSquaredDeviation(
+                            getHistoryColumn(1), getMeanX());
         }
         return sumSquaredDeviationX;
     }
@@ -900,7 +2081,8 @@ public class ProbeDataSet {
     public Double getSumSquaredDeviationY() throws IOException {
         if (sumSquaredDeviationY == null) {
             sumSquaredDeviationY
-                    = PSPMath.sumSquaredDeviation(getY(), getMeanY());
+                    = PSPMath.sumSquaredDeviation(
+                            getHistoryColumn(2), getMeanY());
         }
         return sumSquaredDeviationY;
     }
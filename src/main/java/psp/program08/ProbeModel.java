@@ -0,0 +1,581 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * 履歴データから計算された回帰モデル
+ *
+ * <p>
+ * {@link ProbeDataSet}から多重回帰パラメータや予測区間の計算に必要な値を取り出して保持する。
+ * インスタンスは不変であり、複数のスレッドから同時に参照できる。
+ * </p>
+ *
+ * <p>
+ * 説明変数の偏差積和行列のコレスキー分解を作成時に1度だけ計算して保持する。
+ * てこ比（{@link #leverage(double[])}）は前進代入だけで求められるため、
+ * 多数の見積プロキシ規模を評価する場合でも1回あたりの計算量は次元数の2乗に比例する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class ProbeModel {
+
+    private final int dimension; //履歴データの次元数
+    private final int numberOfHistoryData; //履歴データの個数
+    private final double effectiveNumberOfHistoryData; //有効サンプルサイズ
+    private final double[] regressionParameters; //多重回帰パラメータ
+    private final double[] means; //説明変数の平均値
+    private final double[] sumSquaredDeviations; //説明変数の偏差平方和
+    private final double sumForSigma; //標準偏差の計算に用いる総和
+    private final double sigma; //予測区間の計算に使用する標準偏差
+    private final double xForPredictionInterval; //予測区間の計算に使用する積分範囲
+    private final double predictionIntervalRate; //予測区間の大きさの値
+    private final Cholesky deviationFactor; //説明変数の偏差積和行列の分解（正定値でない場合はnull）
+    private final double[] standardErrors; //多重回帰パラメータの標準誤差
+
+    //@method_def_start: ProbeModel
+    /**
+     * 計算済みの値を指定してインスタンスを作成する。
+     *
+     * @param dimension 履歴データの次元数
+     * @param numberOfHistoryData 履歴データの個数
+     * @param regressionParameters 多重回帰パラメータ
+     * @param means 説明変数の平均値
+     * @param sumSquaredDeviations 説明変数の偏差平方和
+     * @param sumForSigma 標準偏差の計算に用いる総和
+     * @param sigma 予測区間の計算に使用する標準偏差
+     * @param xForPredictionInterval 予測区間の計算に使用する積分範囲
+     * @param predictionIntervalRate 予測区間の大きさの値
+     */
+    public ProbeModel(int dimension, int numberOfHistoryData,
+            double[] regressionParameters, double[] means,
+            double[] sumSquaredDeviations, double sumForSigma, double sigma,
+            double xForPredictionInterval, double predictionIntervalRate) {
+        this(dimension, numberOfHistoryData, numberOfHistoryData,
+                regressionParameters, means, sumSquaredDeviations, sumForSigma,
+                sigma, xForPredictionInterval, predictionIntervalRate);
+    }
+    //@method_def_end
+
+    //@method_def_start: ProbeModel_int_int_double_doubleArray_doubleArray_doubleArray_double_double_double_double
+    /**
+     * 重み付きの履歴データから計算した値を指定してインスタンスを作成する。
+     * <p>
+     * 偏差平方和と標準偏差の計算に用いる総和は、重みの総和が有効サンプルサイズと等しくなるように
+     * 換算した値を指定する。説明変数の偏差積和は0とみなす。
+     * </p>
+     *
+     * @param dimension 履歴データの次元数
+     * @param numberOfHistoryData 履歴データの個数
+     * @param effectiveNumberOfHistoryData 有効サンプルサイズ
+     * @param regressionParameters 多重回帰パラメータ
+     * @param means 説明変数の平均値
+     * @param sumSquaredDeviations 説明変数の偏差平方和
+     * @param sumForSigma 標準偏差の計算に用いる総和
+     * @param sigma 予測区間の計算に使用する標準偏差
+     * @param xForPredictionInterval 予測区間の計算に使用する積分範囲
+     * @param predictionIntervalRate 予測区間の大きさの値
+     */
+    public ProbeModel(int dimension, int numberOfHistoryData,
+            double effectiveNumberOfHistoryData,
+            double[] regressionParameters, double[] means,
+            double[] sumSquaredDeviations, double sumForSigma, double sigma,
+            double xForPredictionInterval, double predictionIntervalRate) {
+        this(dimension, numberOfHistoryData, effectiveNumberOfHistoryData,
+                regressionParameters, means, sumSquaredDeviations, null,
+                sumForSigma, sigma, xForPredictionInterval,
+                predictionIntervalRate);
+    }
+    //@method_def_end
+
+    //@method_def_start: ProbeModel_int_int_double_doubleArray_doubleArray_doubleArray_doubleArrayArray_double_double_double_double
+    /**
+     * 説明変数の偏差積和行列を含めて計算済みの値を指定してインスタンスを作成する。
+     * <p>
+     * 偏差積和行列の対角要素は{@code sumSquaredDeviations}と一致させる。
+     * {@code null}の場合は対角要素だけの行列（説明変数間の共分散を無視する）とみなす。
+     * 行列が正定値でない場合、てこ比と標準誤差は計算できない。
+     * </p>
+     *
+     * @param dimension 履歴データの次元数
+     * @param numberOfHistoryData 履歴データの個数
+     * @param effectiveNumberOfHistoryData 有効サンプルサイズ
+     * @param regressionParameters 多重回帰パラメータ
+     * @param means 説明変数の平均値
+     * @param sumSquaredDeviations 説明変数の偏差平方和
+     * @param sumCrossDeviations 説明変数の偏差積和行列（{@code null}可）
+     * @param sumForSigma 標準偏差の計算に用いる総和
+     * @param sigma 予測区間の計算に使用する標準偏差
+     * @param xForPredictionInterval 予測区間の計算に使用する積分範囲
+     * @param predictionIntervalRate 予測区間の大きさの値
+     */
+    public ProbeModel(int dimension, int numberOfHistoryData,
+            double effectiveNumberOfHistoryData,
+            double[] regressionParameters, double[] means,
+            double[] sumSquaredDeviations, double[][] sumCrossDeviations,
+            double sumForSigma, double sigma, double xForPredictionInterval,
+            double predictionIntervalRate) {
+        if (regressionParameters.length != dimension
+                || means.length != dimension - 1
+                || sumSquaredDeviations.length != dimension - 1
+                || (sumCrossDeviations != null
+                && sumCrossDeviations.length != dimension - 1)) {
+            throw new IllegalArgumentException(
+                    "Number of element not match: dimension=" + dimension);
+        }
+        this.dimension = dimension;
+        this.numberOfHistoryData = numberOfHistoryData;
+        this.effectiveNumberOfHistoryData = effectiveNumberOfHistoryData;
+        this.regressionParameters = regressionParameters.clone();
+        this.means = means.clone();
+        this.sumSquaredDeviations = sumSquaredDeviations.clone();
+        this.sumForSigma = sumForSigma;
+        this.sigma = sigma;
+        this.xForPredictionInterval = xForPredictionInterval;
+        this.predictionIntervalRate = predictionIntervalRate;
+        this.deviationFactor = factor(sumCrossDeviations != null
+                ? sumCrossDeviations : diagonal(sumSquaredDeviations));
+        this.standardErrors = standardErrors();
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * Probe計算用データセットの計算結果から回帰モデルを作成する。
+     *
+     * @param data Probe計算用データセット
+     * @return 回帰モデル
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public static ProbeModel of(ProbeDataSet data) throws IOException {
+        final Double[] parameters = data.getRegressionParameters();
+        final double[] b = new double[parameters.length];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = parameters[i];
+        }
+        final double[] means = new double[]{
+            data.getMeanW(), data.getMeanX(), data.getMeanY()
+        };
+        final double[] ssd = new double[]{
+            data.getSumSquaredDeviationW(),
+            data.getSumSquaredDeviationX(),
+            data.getSumSquaredDeviationY()
+        };
+        final SufficientStatistics statistics = data.getStatistics();
+        return new ProbeModel(data.getDimension(),
+                data.getNumberOfHistoryData(),
+                data.getEffectiveNumberOfHistoryData(), b, means, ssd,
+                sumCrossDeviations(statistics, ssd,
+                        data.getEffectiveNumberOfHistoryData()
+                        / statistics.getCount()),
+                data.getSumForSigma(), data.getSigmaForPredictionInterval(),
+                data.getxForPredictionInterval(),
+                data.getPredictionIntervalRate());
+    }
+    //@method_def_end
+
+    //@method_def_start: fit
+    /**
+     * 十分統計量から回帰モデルを計算する。
+     * <p>
+     * 重み付きの十分統計量の場合は、履歴データの個数の代わりに有効サンプルサイズを用いて
+     * 自由度、標準偏差、及び予測区間を計算する。重みの総和が有効サンプルサイズと等しくなるように
+     * 偏差平方和と残差平方和を換算するため、重みがない場合は従来の計算と一致する。
+     * </p>
+     *
+     * @param statistics 十分統計量
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差（百分率）
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     * @return 回帰モデル
+     */
+    public static ProbeModel fit(SufficientStatistics statistics,
+            double predictionIntervalRate, double acceptableError,
+            int initialNumberOfSegments) {
+        return fit(statistics, predictionIntervalRate,
+                degreeOfFreedom -> PSPMath.calculateXForPredictionInterval(
+                        predictionIntervalRate, degreeOfFreedom,
+                        acceptableError, initialNumberOfSegments));
+    }
+    //@method_def_end
+
+    //@method_def_start: fit_SufficientStatistics_double_IntToDoubleFunction
+    /**
+     * 十分統計量から回帰モデルを計算する。
+     * <p>
+     * 予測区間の積分範囲は自由度だけで決まるため、多数のモデルを計算する場合は
+     * 自由度ごとに1度だけ計算した値を返す関数を指定すれば数値積分を繰り返さずに済む。
+     * </p>
+     *
+     * @param statistics 十分統計量
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param xForDegreeOfFreedom 自由度から予測区間の計算に使用する積分範囲を得る関数
+     * @return 回帰モデル
+     * @throws IllegalArgumentException 自由度が1未満の場合
+     */
+    public static ProbeModel fit(SufficientStatistics statistics,
+            double predictionIntervalRate,
+            IntToDoubleFunction xForDegreeOfFreedom) {
+        final int dimension = statistics.getDimension();
+        final int numberOfHistoryData = (int) statistics.getRowCount();
+        final double effective = statistics.getEffectiveCount();
+        final int degreeOfFreedom = (int) Math.floor(effective) - dimension;
+        if (degreeOfFreedom <= 0) {
+            throw new IllegalArgumentException(
+                    "number of data is too small: " + effective);
+        }
+        //重みの総和を有効サンプルサイズに換算する係数（重みがない場合は1）
+        final double scale = effective / statistics.getCount();
+        final double[] b = statistics.solve();
+        final double[] means = new double[dimension - 1];
+        final double[] ssd = new double[dimension - 1];
+        for (int i = 0; i < means.length; i++) {
+            means[i] = statistics.getMean(i);
+            ssd[i] = statistics.getSumSquaredDeviation(i) * scale;
+        }
+        final double sumForSigma = statistics.residualSumOfSquares(b) * scale;
+        final double sigma
+                = Math.sqrt(sumForSigma / (effective - dimension));
+        final double x = xForDegreeOfFreedom.applyAsDouble(degreeOfFreedom);
+        return new ProbeModel(dimension, numberOfHistoryData, effective, b,
+                means, ssd, sumCrossDeviations(statistics, ssd, scale),
+                sumForSigma, sigma, x, predictionIntervalRate);
+    }
+    //@method_def_end
+
+    //@method_def_start: sumCrossDeviations
+    /**
+     * 十分統計量から説明変数の偏差積和行列を作成する。
+     * <p>
+     * 対角要素には換算済みの偏差平方和をそのまま使用する。
+     * </p>
+     *
+     * @param statistics 十分統計量
+     * @param ssd 換算済みの説明変数の偏差平方和
+     * @param scale 重みの総和を有効サンプルサイズに換算する係数
+     * @return 偏差積和行列
+     */
+    private static double[][] sumCrossDeviations(
+            SufficientStatistics statistics, double[] ssd, double scale) {
+        final double[][] result = new double[ssd.length][ssd.length];
+        for (int i = 0; i < ssd.length; i++) {
+            result[i][i] = ssd[i];
+            for (int j = 0; j < i; j++) {
+                result[i][j] = statistics.getSumCrossDeviation(i, j) * scale;
+                result[j][i] = result[i][j];
+            }
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: diagonal
+    /**
+     * 偏差平方和だけを対角要素に持つ行列を作成する。
+     *
+     * @param ssd 説明変数の偏差平方和
+     * @return 対角行列
+     */
+    private static double[][] diagonal(double[] ssd) {
+        final double[][] result = new double[ssd.length][ssd.length];
+        for (int i = 0; i < ssd.length; i++) {
+            result[i][i] = ssd[i];
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: factor
+    /**
+     * 偏差積和行列をコレスキー分解する。
+     *
+     * @param matrix 偏差積和行列
+     * @return 分解の結果、正定値でない場合は{@code null}
+     */
+    private static Cholesky factor(double[][] matrix) {
+        try {
+            return Cholesky.decompose(matrix);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: standardErrors
+    /**
+     * 多重回帰パラメータの標準誤差を計算する。
+     * <p>
+     * 説明変数の偏差積和行列を{@code S}とすると、傾きの分散は{@code σ^2 [S^-1]_ii}、
+     * 定数項の分散は{@code σ^2 (1/n + m' S^-1 m)}（{@code m}は説明変数の平均値）となる。
+     * </p>
+     *
+     * @return 標準誤差、偏差積和行列が正定値でない場合は全てNaN
+     */
+    private double[] standardErrors() {
+        final double[] result = new double[dimension];
+        if (deviationFactor == null) {
+            Arrays.fill(result, Double.NaN);
+            return result;
+        }
+        final double[] work = new double[dimension - 1];
+        result[0] = sigma * Math.sqrt((1.0 / effectiveNumberOfHistoryData)
+                + deviationFactor.inverseQuadraticForm(means, work));
+        final double[] unit = new double[dimension - 1];
+        for (int i = 0; i < unit.length; i++) {
+            unit[i] = 1.0;
+            result[i + 1] = sigma * Math.sqrt(
+                    deviationFactor.inverseQuadraticForm(unit, work));
+            unit[i] = 0.0;
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: estimate
+    /**
+     * 見積プロキシ規模から改善された見積値を計算する。
+     *
+     * @param sizes 見積プロキシ規模
+     * @return 改善された見積値
+     */
+    public double estimate(double[] sizes) {
+        checkSizes(sizes);
+        double result = regressionParameters[0];
+        for (int i = 0; i < sizes.length; i++) {
+            result += regressionParameters[i + 1] * sizes[i];
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: predictionInterval
+    /**
+     * 見積プロキシ規模に対する予測区間を計算する。
+     *
+     * @param sizes 見積プロキシ規模
+     * @return 予測区間
+     */
+    public double predictionInterval(double[] sizes) {
+        checkSizes(sizes);
+        double term = 1.0 + (1.0 / effectiveNumberOfHistoryData);
+        for (int i = 0; i < sizes.length; i++) {
+            term += Math.pow(sizes[i] - means[i], 2) / sumSquaredDeviations[i];
+        }
+        return xForPredictionInterval * sigma * Math.sqrt(term);
+    }
+    //@method_def_end
+
+    //@method_def_start: leverage
+    /**
+     * 見積プロキシ規模のてこ比を計算する。
+     * <p>
+     * 説明変数の偏差積和行列を{@code S}、平均値を{@code m}とすると
+     * {@code 1/n + (x0 - m)' S^-1 (x0 - m)}となり、{@code x0' (X'X)^-1 x0}と一致する。
+     * 説明変数間の共分散も考慮するため、{@link #predictionInterval(double[])}の
+     * 説明変数ごとの項の和とは説明変数が無相関の場合を除いて異なる。
+     * </p>
+     *
+     * @param sizes 見積プロキシ規模
+     * @return てこ比
+     * @throws IllegalStateException 偏差積和行列が正定値でない場合
+     */
+    public double leverage(double[] sizes) {
+        checkSizes(sizes);
+        if (deviationFactor == null) {
+            throw new IllegalStateException(
+                    "sum of cross deviations is not positive definite");
+        }
+        final double[] deviations = new double[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            deviations[i] = sizes[i] - means[i];
+        }
+        return (1.0 / effectiveNumberOfHistoryData)
+                + deviationFactor.inverseQuadraticForm(deviations, deviations);
+    }
+    //@method_def_end
+
+    //@method_def_start: exactPredictionInterval
+    /**
+     * 説明変数間の共分散を考慮したてこ比で予測区間を計算する。
+     *
+     * @param sizes 見積プロキシ規模
+     * @return 予測区間
+     * @throws IllegalStateException 偏差積和行列が正定値でない場合
+     */
+    public double exactPredictionInterval(double[] sizes) {
+        return xForPredictionInterval * sigma
+                * Math.sqrt(1.0 + leverage(sizes));
+    }
+    //@method_def_end
+
+    //@method_def_start: checkSizes
+    /**
+     * 見積プロキシ規模の要素数を検査する。
+     *
+     * @param sizes 見積プロキシ規模
+     */
+    private void checkSizes(double[] sizes) {
+        if (sizes.length != dimension - 1) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "sizes=" + sizes.length + ": dimension=" + dimension);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: getEstimatedSize
+    /**
+     * このインスタンスが使用するメモリの概算値を得る。
+     * <p>
+     * オブジェクトヘッダ16バイト、参照8バイトとして、保持している配列を含めて見積もる。
+     * </p>
+     *
+     * @return メモリ使用量の概算値（バイト）
+     */
+    public long getEstimatedSize() {
+        final long header = 16L;
+        final long fields
+                = (2L * Integer.BYTES) + (6L * Double.BYTES) + (5L * 8);
+        final long arrays = 4 * header + Double.BYTES * (long) (
+                regressionParameters.length + means.length
+                + sumSquaredDeviations.length + standardErrors.length);
+        final int p = dimension - 1;
+        final long factor = deviationFactor == null ? 0L
+                : header + Integer.BYTES + 8 + header + 8L * p
+                + p * (header + (long) Double.BYTES * p);
+        return header + fields + arrays + factor;
+    }
+    //@method_def_end
+
+    //@method_def_start: getDimension
+    /**
+     * 履歴データの次元数を得る
+     *
+     * @return 履歴データの次元数
+     */
+    public int getDimension() {
+        return dimension;
+    }
+    //@method_def_end
+
+    //@method_def_start: getNumberOfHistoryData
+    /**
+     * 履歴データの個数を得る
+     *
+     * @return 履歴データの個数
+     */
+    public int getNumberOfHistoryData() {
+        return numberOfHistoryData;
+    }
+    //@method_def_end
+
+    //@method_def_start: getEffectiveNumberOfHistoryData
+    /**
+     * 有効サンプルサイズを得る。
+     *
+     * @return 有効サンプルサイズ、重みがない場合は履歴データの個数
+     */
+    public double getEffectiveNumberOfHistoryData() {
+        return effectiveNumberOfHistoryData;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRegressionParameters
+    /**
+     * 多重回帰パラメータの複製を得る
+     *
+     * @return 多重回帰パラメータ
+     */
+    public double[] getRegressionParameters() {
+        return regressionParameters.clone();
+    }
+    //@method_def_end
+
+    //@method_def_start: getMeans
+    /**
+     * 説明変数の平均値の複製を得る
+     *
+     * @return 説明変数の平均値
+     */
+    public double[] getMeans() {
+        return means.clone();
+    }
+    //@method_def_end
+
+    //@method_def_start: getSumSquaredDeviations
+    /**
+     * 説明変数の偏差平方和の複製を得る
+     *
+     * @return 説明変数の偏差平方和
+     */
+    public double[] getSumSquaredDeviations() {
+        return sumSquaredDeviations.clone();
+    }
+    //@method_def_end
+
+    //@method_def_start: getStandardError
+    /**
+     * 多重回帰パラメータの標準誤差を得る
+     *
+     * @param index パラメータの位置（0は定数項）
+     * @return 標準誤差、説明変数の偏差積和行列が正定値でない場合はNaN
+     */
+    public double getStandardError(int index) {
+        return standardErrors[index];
+    }
+    //@method_def_end
+
+    //@method_def_start: getSumForSigma
+    /**
+     * 予測区間の計算に使用する標準偏差で用いる総和を得る
+     *
+     * @return 標準偏差で用いる総和
+     */
+    public double getSumForSigma() {
+        return sumForSigma;
+    }
+    //@method_def_end
+
+    //@method_def_start: getSigma
+    /**
+     * 予測区間の計算に使用する標準偏差を得る
+     *
+     * @return 予測区間の計算に使用する標準偏差
+     */
+    public double getSigma() {
+        return sigma;
+    }
+    //@method_def_end
+
+    //@method_def_start: getxForPredictionInterval
+    /**
+     * 予測区間の計算に使用する積分範囲xの値を得る
+     *
+     * @return 予測区間の計算に使用するxの値
+     */
+    public double getxForPredictionInterval() {
+        return xForPredictionInterval;
+    }
+    //@method_def_end
+
+    //@method_def_start: getPredictionIntervalRate
+    /**
+     * 予測区間の大きさを得る
+     *
+     * @return 予測区間の大きさ
+     */
+    public double getPredictionIntervalRate() {
+        return predictionIntervalRate;
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,304 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 計算済みの回帰モデルを保持するキャッシュ
+ *
+ * <p>
+ * 回帰モデルは{@link ProbeModelKey}と履歴データファイルの内容のハッシュ値({@link ContentHash})
+ * の組で識別される。履歴データファイルの内容が変わった場合は、古い回帰モデルを破棄して再計算する。
+ * ハッシュ値の計算はファイル全体を読むため、登録時のファイルの大きさと更新日時を記録しておき、
+ * これらが変わった場合だけハッシュ値を計算し直す。内容が同じであれば更新日時だけを記録し直す。
+ * 保持している回帰モデルのメモリ使用量の概算値の合計が上限を超えた場合は、
+ * 最も長い間参照されていない回帰モデルから破棄する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public class ProbeModelCache {
+
+    private final long maxBytes; //メモリ使用量の上限（バイト）
+    private final ProbeModelCoalescer fitter; //回帰モデルの計算処理
+    //参照順に並べた回帰モデルの一覧
+    private final LinkedHashMap<ProbeModelKey, Entry> entries
+            = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentBytes = 0; //現在のメモリ使用量の概算値
+    private long hitCount = 0; //キャッシュから回帰モデルを返した回数
+    private long missCount = 0; //回帰モデルを計算した回数
+    private long evictionCount = 0; //上限を超えたため破棄した回数
+    private long invalidationCount = 0; //ファイルが変更されたため破棄した回数
+    private long hashCount = 0; //履歴データファイルの内容のハッシュ値を計算した回数
+
+    //@method_def_start: ProbeModelCache
+    /**
+     * メモリ使用量の上限を指定してキャッシュを作成する。
+     *
+     * @param maxBytes メモリ使用量の上限（バイト）
+     * @param fitter キャッシュに存在しない場合に回帰モデルを計算する処理
+     */
+    public ProbeModelCache(long maxBytes, ProbeModelCoalescer fitter) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes=" + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.fitter = fitter;
+    }
+    //@method_def_end
+
+    //@method_def_start: get
+    /**
+     * 設定値に対応する回帰モデルを得る。
+     * <p>
+     * キャッシュに存在しない場合、または履歴データファイルの内容が変更されている場合は、
+     * 回帰モデルを計算してキャッシュに登録する。登録時とファイルの大きさと更新日時が同じであれば、
+     * 内容のハッシュ値を計算せずにキャッシュの回帰モデルを返す。
+     * </p>
+     *
+     * @param config 設定値が記録されているプロパティオブジェクト
+     * @return 回帰モデル
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public ProbeModel get(Properties config) throws IOException {
+        final ProbeModelKey key = ProbeModelKey.of(config);
+        final List<File> files = HistoryFileSet.resolve(
+                key.getHistoryDataFile().getPath());
+        final long[] stamp = stamp(files);
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry != null && Arrays.equals(entry.stamp, stamp)) {
+                ++hitCount;
+                return entry.model;
+            }
+            ++hashCount;
+        }
+
+        final long contentHash = ContentHash.of(files);
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (entry != null && entry.contentHash == contentHash) {
+                //内容が変わっていなければ大きさと更新日時だけを記録し直す
+                entry.stamp = stamp;
+                ++hitCount;
+                return entry.model;
+            }
+            if (entry != null) {
+                remove(key);
+                ++invalidationCount;
+            }
+            ++missCount;
+        }
+
+        final ProbeModel model = fitter.fit(config);
+        put(key, new Entry(stamp, contentHash, model));
+        return model;
+    }
+    //@method_def_end
+
+    //@method_def_start: stamp
+    /**
+     * ファイルの大きさと更新日時を並べた値を得る。
+     *
+     * @param files 対象のファイルの一覧
+     * @return ファイルごとの大きさと更新日時を交互に並べた配列
+     */
+    private static long[] stamp(List<File> files) {
+        final long[] stamp = new long[files.size() * 2];
+        for (int i = 0; i < files.size(); i++) {
+            stamp[2 * i] = files.get(i).length();
+            stamp[2 * i + 1] = files.get(i).lastModified();
+        }
+        return stamp;
+    }
+    //@method_def_end
+
+    //@method_def_start: put
+    /**
+     * 回帰モデルを登録し、上限を超えた分を破棄する。
+     *
+     * @param key 回帰モデルを識別するキー
+     * @param entry 登録する回帰モデル
+     */
+    private synchronized void put(ProbeModelKey key, Entry entry) {
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        remove(key);
+        entries.put(key, entry);
+        currentBytes += entry.bytes;
+
+        final Iterator<Map.Entry<ProbeModelKey, Entry>> eldest
+                = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            final Entry e = eldest.next().getValue();
+            eldest.remove();
+            currentBytes -= e.bytes;
+            ++evictionCount;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: remove
+    /**
+     * 回帰モデルをキャッシュから取り除く。
+     *
+     * @param key 回帰モデルを識別するキー
+     */
+    private void remove(ProbeModelKey key) {
+        final Entry removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.bytes;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: invalidate
+    /**
+     * 回帰モデルをキャッシュから破棄する。
+     *
+     * @param config 設定値が記録されているプロパティオブジェクト
+     * @throws IOException 履歴データファイルのパスを正規化できなかった場合
+     */
+    public void invalidate(Properties config) throws IOException {
+        final ProbeModelKey key = ProbeModelKey.of(config);
+        synchronized (this) {
+            if (entries.containsKey(key)) {
+                remove(key);
+                ++invalidationCount;
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: size
+    /**
+     * 保持している回帰モデルの数を得る。
+     *
+     * @return 保持している回帰モデルの数
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+    //@method_def_end
+
+    //@method_def_start: getCurrentBytes
+    /**
+     * 保持している回帰モデルのメモリ使用量の概算値を得る。
+     *
+     * @return メモリ使用量の概算値（バイト）
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+    //@method_def_end
+
+    //@method_def_start: getMaxBytes
+    /**
+     * メモリ使用量の上限を得る。
+     *
+     * @return メモリ使用量の上限（バイト）
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    //@method_def_end
+
+    //@method_def_start: getHitCount
+    /**
+     * キャッシュから回帰モデルを返した回数を得る。
+     *
+     * @return キャッシュから回帰モデルを返した回数
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: getMissCount
+    /**
+     * キャッシュに存在せず回帰モデルを計算した回数を得る。
+     *
+     * @return 回帰モデルを計算した回数
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: getEvictionCount
+    /**
+     * メモリ使用量の上限を超えたため回帰モデルを破棄した回数を得る。
+     *
+     * @return 上限を超えたため破棄した回数
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: getInvalidationCount
+    /**
+     * 履歴データファイルの変更などにより回帰モデルを破棄した回数を得る。
+     *
+     * @return 変更により破棄した回数
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidationCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: getHashCount
+    /**
+     * 履歴データファイルの内容のハッシュ値を計算した回数を得る。
+     *
+     * @return ハッシュ値を計算した回数
+     */
+    public synchronized long getHashCount() {
+        return hashCount;
+    }
+    //@method_def_end
+
+    /**
+     * キャッシュに登録された回帰モデル
+     */
+    private static final class Entry {
+
+        private long[] stamp; //履歴データファイルの大きさと更新日時
+        private final long contentHash; //計算時の履歴データファイルのハッシュ値
+        private final ProbeModel model; //回帰モデル
+        private final long bytes; //メモリ使用量の概算値
+
+        //@method_def_start: Entry
+        /**
+         * 登録内容を指定して初期化する。
+         *
+         * @param stamp 履歴データファイルの大きさと更新日時
+         * @param contentHash 計算時の履歴データファイルのハッシュ値
+         * @param model 回帰モデル
+         */
+        private Entry(long[] stamp, long contentHash, ProbeModel model) {
+            this.stamp = stamp;
+            this.contentHash = contentHash;
+            this.model = model;
+            this.bytes = model.getEstimatedSize();
+        }
+        //@method_def_end
+
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 同一の回帰モデルの計算要求をまとめる。
+ *
+ * <p>
+ * 同じ{@link ProbeModelKey}に対する計算要求が同時に発生した場合、最初の要求を出したスレッドだけが
+ * {@link ProbeDataSet}を作成して回帰モデルを計算し、他のスレッドはその結果を待って同じ
+ * {@link ProbeModel}を受け取る。計算が終了したキーは登録を解除するため、結果は保持しない。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public class ProbeModelCoalescer {
+
+    //計算中の回帰モデル
+    private final ConcurrentMap<ProbeModelKey, CompletableFuture<ProbeModel>> inFlight
+            = new ConcurrentHashMap<>();
+    private final AtomicLong executedCount = new AtomicLong(); //実際に計算した回数
+    private final AtomicLong coalescedCount = new AtomicLong(); //計算結果を共有した回数
+
+    //@method_def_start: fit
+    /**
+     * 設定値に従って回帰モデルを計算する。
+     * <p>
+     * 同じキーの計算が実行中であれば、その計算の終了を待って結果を返す。
+     * </p>
+     *
+     * @param config 設定値が記録されているプロパティオブジェクト
+     * @return 回帰モデル
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public ProbeModel fit(Properties config) throws IOException {
+        final ProbeModelKey key = ProbeModelKey.of(config);
+        final CompletableFuture<ProbeModel> future = new CompletableFuture<>();
+        final CompletableFuture<ProbeModel> running
+                = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            coalescedCount.incrementAndGet();
+            return await(running);
+        }
+
+        executedCount.incrementAndGet();
+        try {
+            future.complete(compute(config));
+        } catch (IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+        } finally {
+            inFlight.remove(key, future);
+        }
+        return await(future);
+    }
+    //@method_def_end
+
+    //@method_def_start: compute
+    /**
+     * 回帰モデルを計算する。
+     * <p>
+     * 回帰モデルは計算済みの値だけを保持するため、計算後は履歴データの数値データ一覧を解放する。
+     * </p>
+     *
+     * @param config 設定値が記録されているプロパティオブジェクト
+     * @return 回帰モデル
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    protected ProbeModel compute(Properties config) throws IOException {
+        try (ProbeDataSet data = new ProbeDataSet(config)) {
+            return ProbeModel.of(data);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: await
+    /**
+     * 計算の終了を待って結果を得る。
+     *
+     * @param future 計算結果
+     * @return 回帰モデル
+     * @throws IOException 計算中に入出力エラーが発生した場合
+     */
+    private static ProbeModel await(CompletableFuture<ProbeModel> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while waiting for model");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: getExecutedCount
+    /**
+     * 実際に回帰モデルを計算した回数を得る。
+     *
+     * @return 実際に計算した回数
+     */
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+    //@method_def_end
+
+    //@method_def_start: getCoalescedCount
+    /**
+     * 実行中の計算結果を共有した回数を得る。
+     *
+     * @return 計算結果を共有した回数
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,230 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * 回帰モデルを識別するキー
+ *
+ * <p>
+ * 正規化した履歴データファイルのパスと、回帰モデルの計算結果に影響する設定値で構成される。
+ * 見積プロキシ規模は回帰モデルに影響しないため、キーには含めない。
+ * 無作為標本の復元抽出の回数も、標本誤差の推定だけに影響するため含めない。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class ProbeModelKey {
+
+    private final File historyDataFile; //正規化した履歴データファイル
+    private final int dimension; //履歴データの次元数
+    private final double predictionIntervalRate; //予測区間の大きさの値
+    private final double acceptableError; //許容誤差
+    private final int initialNumberOfSegments; //積分範囲の初期分割数
+    private final ColumnProjection projection; //履歴データファイルの列と次元との対応
+    private final int windowSize; //使用する直近の履歴データの件数（0の場合は全件）
+    private final double decay; //行を追加するたびに既存の行の重みに掛ける値
+    private final String weightColumn; //行の重みの列（重みがない場合はnull）
+    private final TallSkinnyQR.Solver solver; //多重回帰パラメータの計算方法
+    private final RobustFit.Weight robustWeight; //ロバスト回帰の重み関数（使用しない場合はnull）
+    private final int robustMaxIterations; //ロバスト回帰の最大反復回数
+    private final double robustTolerance; //ロバスト回帰の収束判定値
+    private final int sampleSize; //無作為標本の件数（0の場合は全件）
+    private final String stratumColumn; //層の列（層別しない場合はnull）
+    private final long sampleSeed; //無作為標本の抽出に使用する乱数の種
+
+    //@method_def_start: ProbeModelKey
+    /**
+     * キーを構成する値を指定してインスタンスを作成する。
+     *
+     * @param historyDataFile 正規化した履歴データファイル
+     * @param dimension 履歴データの次元数
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param windowSize 使用する直近の履歴データの件数（0の場合は全件）
+     * @param decay 行を追加するたびに既存の行の重みに掛ける値
+     * @param weightColumn 行の重みの列（重みがない場合は{@code null}）
+     * @param solver 多重回帰パラメータの計算方法
+     * @param robustWeight ロバスト回帰の重み関数（使用しない場合は{@code null}）
+     * @param robustMaxIterations ロバスト回帰の最大反復回数
+     * @param robustTolerance ロバスト回帰の収束判定値
+     * @param sampleSize 無作為標本の件数（0の場合は全件）
+     * @param stratumColumn 層の列（層別しない場合は{@code null}）
+     * @param sampleSeed 無作為標本の抽出に使用する乱数の種
+     */
+    public ProbeModelKey(File historyDataFile, int dimension,
+            double predictionIntervalRate, double acceptableError,
+            int initialNumberOfSegments, ColumnProjection projection,
+            int windowSize, double decay, String weightColumn,
+            TallSkinnyQR.Solver solver, RobustFit.Weight robustWeight,
+            int robustMaxIterations, double robustTolerance, int sampleSize,
+            String stratumColumn, long sampleSeed) {
+        this.historyDataFile = historyDataFile;
+        this.dimension = dimension;
+        this.predictionIntervalRate = predictionIntervalRate;
+        this.acceptableError = acceptableError;
+        this.initialNumberOfSegments = initialNumberOfSegments;
+        this.projection = projection;
+        this.windowSize = windowSize;
+        this.decay = decay;
+        this.weightColumn = weightColumn;
+        this.solver = solver;
+        this.robustWeight = robustWeight;
+        this.robustMaxIterations = robustMaxIterations;
+        this.robustTolerance = robustTolerance;
+        this.sampleSize = sampleSize;
+        this.stratumColumn = stratumColumn;
+        this.sampleSeed = sampleSeed;
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 設定値からキーを作成する。
+     *
+     * @param config 設定値が記録されているプロパティオブジェクト
+     * @return 回帰モデルを識別するキー
+     * @throws IOException 履歴データファイルのパスを正規化できなかった場合
+     */
+    public static ProbeModelKey of(Properties config) throws IOException {
+        final File file = new File(
+                config.getProperty("psp.program8.historyDataFile"));
+        final int dimension = Integer.parseInt(config.getProperty(
+                "psp.program8.historyDataFile.dimension"));
+        final String robust = config.getProperty("psp.program8.robust");
+        return new ProbeModelKey(file.getCanonicalFile(), dimension,
+                Double.parseDouble(config.getProperty(
+                        "psp.program8.predictionIntervalRate")),
+                Double.parseDouble(config.getProperty(
+                        "psp.program8.acceptableError")),
+                Integer.parseInt(config.getProperty(
+                        "psp.program8.initialNumberOfSegment")),
+                ColumnProjection.parse(
+                        config.getProperty("psp.program8.historyDataFile.columns"),
+                        Boolean.parseBoolean(config.getProperty(
+                                "psp.program8.historyDataFile.header")),
+                        dimension),
+                Integer.parseInt(config.getProperty("psp.program8.window", "0")),
+                Double.parseDouble(config.getProperty("psp.program8.decay", "1.0")),
+                config.getProperty("psp.program8.historyDataFile.weightColumn"),
+                TallSkinnyQR.Solver.valueOf(config.getProperty(
+                        "psp.program8.solver", "auto")
+                        .trim().toUpperCase(Locale.ROOT)),
+                robust == null ? null : RobustFit.Weight.valueOf(
+                        robust.trim().toUpperCase(Locale.ROOT)),
+                Integer.parseInt(config.getProperty(
+                        "psp.program8.robust.maxIterations", "50")),
+                Double.parseDouble(config.getProperty(
+                        "psp.program8.robust.tolerance", "0.000001")),
+                Integer.parseInt(config.getProperty(
+                        "psp.program8.sample", "0")),
+                config.getProperty("psp.program8.sample.stratifyColumn"),
+                Long.parseLong(config.getProperty(
+                        "psp.program8.sample.seed", "0")));
+    }
+    //@method_def_end
+
+    //@method_def_start: getHistoryDataFile
+    /**
+     * 正規化した履歴データファイルを得る
+     *
+     * @return 正規化した履歴データファイル
+     */
+    public File getHistoryDataFile() {
+        return historyDataFile;
+    }
+    //@method_def_end
+
+    //@method_def_start: equals
+    /**
+     * キーが等しいか判定する。
+     *
+     * @param obj 比較対象
+     * @return 等しい場合は{@code true}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ProbeModelKey)) {
+            return false;
+        }
+        final ProbeModelKey other = (ProbeModelKey) obj;
+        return historyDataFile.equals(other.historyDataFile)
+                && dimension == other.dimension
+                && Double.compare(predictionIntervalRate,
+                        other.predictionIntervalRate) == 0
+                && Double.compare(acceptableError, other.acceptableError) == 0
+                && initialNumberOfSegments == other.initialNumberOfSegments
+                && projection.equals(other.projection)
+                && windowSize == other.windowSize
+                && Double.compare(decay, other.decay) == 0
+                && Objects.equals(weightColumn, other.weightColumn)
+                && solver == other.solver
+                && robustWeight == other.robustWeight
+                && robustMaxIterations == other.robustMaxIterations
+                && Double.compare(robustTolerance, other.robustTolerance) == 0
+                && sampleSize == other.sampleSize
+                && Objects.equals(stratumColumn, other.stratumColumn)
+                && sampleSeed == other.sampleSeed;
+    }
+    //@method_def_end
+
+    //@method_def_start: hashCode
+    /**
+     * キーのハッシュ値を計算する。
+     *
+     * @return ハッシュ値
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(historyDataFile, dimension, predictionIntervalRate,
+                acceptableError, initialNumberOfSegments, projection,
+                windowSize, decay, weightColumn, solver, robustWeight,
+                robustMaxIterations, robustTolerance, sampleSize,
+                stratumColumn, sampleSeed);
+    }
+    //@method_def_end
+
+    //@method_def_start: toString
+    /**
+     * キーの文字列表現を得る。
+     *
+     * @return キーの文字列表現
+     */
+    @Override
+    public String toString() {
+        return historyDataFile.getPath()
+                + ": dimension=" + dimension
+                + ": rate=" + predictionIntervalRate
+                + ": error=" + acceptableError
+                + ": segments=" + initialNumberOfSegments
+                + ": " + projection
+                + ": window=" + windowSize
+                + ": decay=" + decay
+                + ": weight=" + weightColumn
+                + ": solver=" + solver
+                + ": robust=" + robustWeight
+                + ": maxIterations=" + robustMaxIterations
+                + ": tolerance=" + robustTolerance
+                + ": sample=" + sampleSize
+                + ": stratum=" + stratumColumn
+                + ": seed=" + sampleSeed;
+    }
+    //@method_def_end
+
+}
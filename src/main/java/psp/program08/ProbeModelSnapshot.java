@@ -0,0 +1,294 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * 回帰モデルの計算結果を記録したスナップショットファイル
+ *
+ * <p>
+ * 履歴データファイルの大きさ、更新日時、及び内容のハッシュ値と、回帰モデルの計算に影響する設定値を
+ * キーとして、十分統計量、多重回帰パラメータ、標準偏差、及び予測区間の計算に使用する積分範囲を記録する。
+ * 次回の実行時にキーが一致すれば、履歴データファイルの読み込みと積分範囲の探索処理を省略できる。
+ * </p>
+ *
+ * <p>
+ * ファイル形式（リトルエンディアン）
+ * </p>
+ * <ol>
+ * <li>マジックナンバー{@code "PSPS"}、版数、次元数、積分範囲の初期分割数、
+ * 列の対応（{@link ColumnProjection#toString()}）のハッシュ値、
+ * 多重回帰パラメータの計算方法（{@link TallSkinnyQR.Solver}の序数）（各4バイト）
+ * <li>予測区間の大きさ、許容誤差（各8バイト）
+ * <li>履歴データファイルの大きさ、更新日時、ハッシュ値（各8バイト）
+ * <li>十分統計量（{@link SufficientStatistics#writeTo(ByteBuffer)}）
+ * <li>多重回帰パラメータ（次元数×8バイト）
+ * <li>標準偏差で用いる総和、標準偏差、積分範囲（各8バイト）
+ * <li>ここまでのCRC32（4バイト）
+ * </ol>
+ *
+ * @author smuraoka
+ */
+public final class ProbeModelSnapshot {
+
+    private static final int MAGIC = 0x53505350; //"PSPS"
+    private static final int VERSION = 4; //ファイル形式の版数
+
+    private final int dimension; //履歴データの次元数
+    private final int initialNumberOfSegments; //積分範囲の初期分割数
+    private final int projectionHash; //列の対応のハッシュ値
+    private final int solver; //多重回帰パラメータの計算方法の序数
+    private final double predictionIntervalRate; //予測区間の大きさの値
+    private final double acceptableError; //許容誤差
+    private final long historySize; //履歴データファイルの大きさ
+    private final long historyModified; //履歴データファイルの更新日時
+    private final long historyHash; //履歴データファイルのハッシュ値
+    private final SufficientStatistics statistics; //十分統計量
+    private final double[] regressionParameters; //多重回帰パラメータ
+    private final double sumForSigma; //標準偏差で用いる総和
+    private final double sigma; //予測区間の計算に使用する標準偏差
+    private final double xForPredictionInterval; //予測区間の計算に使用する積分範囲
+
+    //@method_def_start: ProbeModelSnapshot
+    /**
+     * 記録内容を指定してインスタンスを作成する。
+     */
+    private ProbeModelSnapshot(int dimension, int initialNumberOfSegments,
+            int projectionHash, int solver, double predictionIntervalRate,
+            double acceptableError,
+            long historySize, long historyModified, long historyHash,
+            SufficientStatistics statistics, double[] regressionParameters,
+            double sumForSigma, double sigma, double xForPredictionInterval) {
+        this.dimension = dimension;
+        this.initialNumberOfSegments = initialNumberOfSegments;
+        this.projectionHash = projectionHash;
+        this.solver = solver;
+        this.predictionIntervalRate = predictionIntervalRate;
+        this.acceptableError = acceptableError;
+        this.historySize = historySize;
+        this.historyModified = historyModified;
+        this.historyHash = historyHash;
+        this.statistics = statistics;
+        this.regressionParameters = regressionParameters;
+        this.sumForSigma = sumForSigma;
+        this.sigma = sigma;
+        this.xForPredictionInterval = xForPredictionInterval;
+    }
+    //@method_def_end
+
+    //@method_def_start: write
+    /**
+     * Probe計算用データセットの計算結果をスナップショットファイルに書き込む。
+     * <p>
+     * {@link AtomicFile}で置き換えるため、書き込み途中のファイルが読まれることはない。
+     * </p>
+     *
+     * @param file スナップショットファイル
+     * @param data Probe計算用データセット
+     * @throws IOException 履歴データファイルの読み込み、またはスナップショットファイルの書き込みに失敗した場合
+     */
+    public static void write(File file, ProbeDataSet data) throws IOException {
+        final File history = data.getHistoryDataFile();
+        final int dimension = data.getDimension();
+        final SufficientStatistics statistics = data.getStatistics();
+        final Double[] parameters = data.getRegressionParameters();
+
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                getSerializedSize(dimension)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(dimension);
+        buffer.putInt(data.getInitialNumberOfSegments());
+        buffer.putInt(data.getColumnProjection().hashCode());
+        buffer.putInt(data.getSolver().ordinal());
+        buffer.putDouble(data.getPredictionIntervalRate());
+        buffer.putDouble(data.getAcceptableError());
+        buffer.putLong(history.length());
+        buffer.putLong(history.lastModified());
+        buffer.putLong(ContentHash.of(history));
+        statistics.writeTo(buffer);
+        for (Double parameter : parameters) {
+            buffer.putDouble(parameter);
+        }
+        buffer.putDouble(data.getSumForSigma());
+        buffer.putDouble(data.getSigmaForPredictionInterval());
+        buffer.putDouble(data.getxForPredictionInterval());
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+
+        AtomicFile.write(file, buffer);
+    }
+    //@method_def_end
+
+    //@method_def_start: read
+    /**
+     * スナップショットファイルをメモリマップして読み込む。
+     *
+     * @param file スナップショットファイル
+     * @return スナップショット
+     * @throws IOException ファイルの読み込みに失敗した場合、または形式が正しくない場合
+     */
+    public static ProbeModelSnapshot read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < 16 || size > Integer.MAX_VALUE) {
+                throw new IOException("Illegal format of snapshot file");
+            }
+            final MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Illegal format of snapshot file");
+            }
+            final int dimension = buffer.getInt();
+            if (dimension < 2 || size != getSerializedSize(dimension)) {
+                throw new IOException("Illegal format of snapshot file");
+            }
+            final ByteBuffer body = buffer.duplicate();
+            body.position(0).limit((int) size - Integer.BYTES);
+            final CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt((int) size - Integer.BYTES)) {
+                throw new IOException("Broken snapshot file: " + file);
+            }
+
+            final int segments = buffer.getInt();
+            final int projectionHash = buffer.getInt();
+            final int solver = buffer.getInt();
+            final double rate = buffer.getDouble();
+            final double error = buffer.getDouble();
+            final long historySize = buffer.getLong();
+            final long historyModified = buffer.getLong();
+            final long historyHash = buffer.getLong();
+            final SufficientStatistics statistics
+                    = SufficientStatistics.readFrom(buffer);
+            final double[] parameters = new double[dimension];
+            for (int i = 0; i < dimension; i++) {
+                parameters[i] = buffer.getDouble();
+            }
+            final double sumForSigma = buffer.getDouble();
+            final double sigma = buffer.getDouble();
+            final double x = buffer.getDouble();
+            return new ProbeModelSnapshot(dimension, segments, projectionHash,
+                    solver, rate, error,
+                    historySize, historyModified, historyHash, statistics,
+                    parameters, sumForSigma, sigma, x);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: matches
+    /**
+     * スナップショットがProbe計算用データセットの設定と履歴データファイルに対応しているか判定する。
+     * <p>
+     * 大きさと更新日時が一致した場合に限り、履歴データファイルのハッシュ値を計算して比較する。
+     * </p>
+     *
+     * @param data Probe計算用データセット
+     * @return 対応している場合は{@code true}
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public boolean matches(ProbeDataSet data) throws IOException {
+        final File history = data.getHistoryDataFile();
+        return dimension == data.getDimension()
+                && initialNumberOfSegments == data.getInitialNumberOfSegments()
+                && projectionHash == data.getColumnProjection().hashCode()
+                && solver == data.getSolver().ordinal()
+                && Double.compare(predictionIntervalRate,
+                        data.getPredictionIntervalRate()) == 0
+                && Double.compare(acceptableError,
+                        data.getAcceptableError()) == 0
+                && history.isFile()
+                && historySize == history.length()
+                && historyModified == history.lastModified()
+                && historyHash == ContentHash.of(history);
+    }
+    //@method_def_end
+
+    //@method_def_start: getSerializedSize
+    /**
+     * スナップショットファイルの大きさを得る。
+     *
+     * @param dimension 履歴データの次元数
+     * @return スナップショットファイルの大きさ
+     */
+    private static int getSerializedSize(int dimension) {
+        return 6 * Integer.BYTES + 5 * Double.BYTES
+                + SufficientStatistics.getSerializedSize(dimension)
+                + (dimension + 3) * Double.BYTES + Integer.BYTES;
+    }
+    //@method_def_end
+
+    //@method_def_start: getStatistics
+    /**
+     * 記録された十分統計量を得る。
+     *
+     * @return 十分統計量
+     */
+    public SufficientStatistics getStatistics() {
+        return statistics;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRegressionParameters
+    /**
+     * 記録された多重回帰パラメータの複製を得る。
+     *
+     * @return 多重回帰パラメータ
+     */
+    public double[] getRegressionParameters() {
+        return regressionParameters.clone();
+    }
+    //@method_def_end
+
+    //@method_def_start: getSumForSigma
+    /**
+     * 記録された標準偏差で用いる総和を得る。
+     *
+     * @return 標準偏差で用いる総和
+     */
+    public double getSumForSigma() {
+        return sumForSigma;
+    }
+    //@method_def_end
+
+    //@method_def_start: getSigma
+    /**
+     * 記録された予測区間の計算に使用する標準偏差を得る。
+     *
+     * @return 予測区間の計算に使用する標準偏差
+     */
+    public double getSigma() {
+        return sigma;
+    }
+    //@method_def_end
+
+    //@method_def_start: getxForPredictionInterval
+    /**
+     * 記録された予測区間の計算に使用する積分範囲を得る。
+     *
+     * @return 予測区間の計算に使用する積分範囲
+     */
+    public double getxForPredictionInterval() {
+        return xForPredictionInterval;
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,599 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 履歴データの無作為標本（リザーバサンプリング）
+ *
+ * <p>
+ * 履歴データファイルを1度だけ読み込み、層ごとに一定の件数の行を非復元で無作為に抽出する。
+ * 層を指定しない場合は全ての行が1つの層となる。標本が満たされた後は、次に標本に入る行までの
+ * 行数を乱数で決める方法（Algorithm L）を用いるため、読み飛ばす行は数値に変換しない。
+ * 数値に変換する行数は標本の大きさを{@code k}、行数を{@code N}として約{@code k(1 + ln(N/k))}となる。
+ * </p>
+ *
+ * <p>
+ * 複数のファイルは並列に読み込み、ファイルごとの標本を指定順に合算する。乱数生成器は指定された種から
+ * ファイルの順に分割するため、結果は種とファイルの一覧だけで決まり、スレッド数には依存しない。
+ * 層を指定した場合、各行の重みは層の行数÷層の標本の件数とし、全体の母集団を代表する重み付きの
+ * 十分統計量（{@link #getStatistics()}）を作成する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class ReservoirSample {
+
+    private final int capacity; //層ごとの標本の最大の件数
+    private final int dimension; //履歴データの次元数
+    private final boolean stratified; //層ごとに抽出するか
+    private final LongHashMap<Stratum> strata; //層の値から標本への対応表
+
+    //@method_def_start: ReservoirSample
+    /**
+     * 空の標本を作成する。
+     *
+     * @param capacity 層ごとの標本の最大の件数
+     * @param dimension 履歴データの次元数
+     * @param stratified 層ごとに抽出するか
+     */
+    private ReservoirSample(int capacity, int dimension, boolean stratified) {
+        this.capacity = capacity;
+        this.dimension = dimension;
+        this.stratified = stratified;
+        this.strata = new LongHashMap<>();
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 履歴データファイルを読み込み、無作為標本を作成する。
+     *
+     * @param files 履歴データファイルの一覧
+     * @param projection 説明変数、目的変数の順（層ごとに抽出する場合は最後に層の列を加える）に並べた列と次元との対応
+     * @param stratified 層ごとに抽出するか
+     * @param capacity 層ごとの標本の最大の件数
+     * @param seed 乱数の種
+     * @param threads 同時に読み込むファイルの最大数
+     * @return 無作為標本
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合、または層の値が整数でない場合
+     */
+    public static ReservoirSample of(List<File> files,
+            ColumnProjection projection, boolean stratified, int capacity,
+            long seed, int threads) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        //ファイルの順に乱数生成器を分割する
+        final SplittableRandom root = new SplittableRandom(seed);
+        final SplittableRandom[] randoms = new SplittableRandom[files.size()];
+        for (int f = 0; f < randoms.length; f++) {
+            randoms[f] = root.split();
+        }
+
+        final List<ReservoirSample> samples = new ArrayList<>(files.size());
+        if (files.size() == 1 || threads <= 1) {
+            for (int f = 0; f < files.size(); f++) {
+                samples.add(sample(files.get(f), projection, stratified,
+                        capacity, randoms[f]));
+            }
+        } else {
+            final ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.min(threads, files.size()));
+            try {
+                final List<Future<ReservoirSample>> futures
+                        = new ArrayList<>(files.size());
+                for (int f = 0; f < files.size(); f++) {
+                    final File file = files.get(f);
+                    final SplittableRandom random = randoms[f];
+                    futures.add(executor.submit(() -> sample(file,
+                            projection, stratified, capacity, random)));
+                }
+                for (Future<ReservoirSample> future : futures) {
+                    samples.add(await(future));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        final int dimension
+                = projection.getDimension() - (stratified ? 1 : 0);
+        final ReservoirSample result
+                = new ReservoirSample(capacity, dimension, stratified);
+        for (ReservoirSample sample : samples) {
+            result.merge(sample, root);
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: sample
+    /**
+     * 1つの履歴データファイルを読み込み、無作為標本を作成する。
+     * <p>
+     * 層を指定しないタブ区切りのファイルは、標本に入らない行を数値に変換せずに読み飛ばす。
+     * 列指向のバイナリ形式（{@link ColumnarHistoryFile}）の場合は、標本に入る行だけを各列から参照する。
+     * </p>
+     *
+     * @param file 履歴データファイル
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param stratified 層ごとに抽出するか
+     * @param capacity 層ごとの標本の最大の件数
+     * @param random 乱数生成器
+     * @return 無作為標本
+     * @throws IOException 読み込みに失敗した場合、形式が正しくない場合、または層の値が整数でない場合
+     */
+    private static ReservoirSample sample(File file,
+            ColumnProjection projection, boolean stratified, int capacity,
+            SplittableRandom random) throws IOException {
+        final int dimension
+                = projection.getDimension() - (stratified ? 1 : 0);
+        final ReservoirSample result
+                = new ReservoirSample(capacity, dimension, stratified);
+        final double[] projected = new double[projection.getDimension()];
+        final double[] row = new double[dimension];
+        try {
+            if (!ColumnarHistoryFile.isColumnar(file)) {
+                try (HistoryDataReader in
+                        = new HistoryDataReader(file, projection)) {
+                    if (!stratified) {
+                        final Stratum stratum = result.stratum(0L);
+                        while (true) {
+                            stratum.skip(in.skip(stratum.getGap()));
+                            if (stratum.getGap() > 0 || !in.next(row)) {
+                                break;
+                            }
+                            stratum.offer(row, random);
+                        }
+                    } else {
+                        while (in.next(projected)) {
+                            System.arraycopy(projected, 0, row, 0, dimension);
+                            result.stratum(toStratum(projected[dimension]))
+                                    .offer(row, random);
+                        }
+                    }
+                }
+            } else {
+                final ColumnarHistoryFile columnar
+                        = ColumnarHistoryFile.open(file);
+                final Column[] columns = columnar.getColumns(projection);
+                columnar.verify();
+                try {
+                    final int count = columns[0].size();
+                    final Stratum single = stratified ? null
+                            : result.stratum(0L);
+                    for (int r = 0; r < count; r++) {
+                        if (single != null && single.getGap() > 0) {
+                            final long skipped
+                                    = Math.min(single.getGap(), count - r);
+                            single.skip(skipped);
+                            r += (int) skipped - 1;
+                            continue;
+                        }
+                        for (int i = 0; i < dimension; i++) {
+                            row[i] = columns[i].get(r);
+                        }
+                        final Stratum stratum = single != null ? single
+                                : result.stratum(
+                                        toStratum(columns[dimension].get(r)));
+                        stratum.offer(row, random);
+                    }
+                } finally {
+                    for (Column column : columns) {
+                        column.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + ": " + file, e);
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: toStratum
+    /**
+     * 層の列の値をキーに変換する。
+     *
+     * @param value 層の列の値
+     * @return 層のキー
+     * @throws IOException 値が整数でない場合
+     */
+    private static long toStratum(double value) throws IOException {
+        final long stratum = (long) value;
+        if (stratum != value) {
+            throw new IOException("Illegal format of history data file");
+        }
+        return stratum;
+    }
+    //@method_def_end
+
+    //@method_def_start: stratum
+    /**
+     * 層の標本を得る。まだない場合は空の標本を作成する。
+     *
+     * @param key 層のキー
+     * @return 層の標本
+     */
+    private Stratum stratum(long key) {
+        return strata.computeIfAbsent(key,
+                k -> new Stratum(capacity, dimension));
+    }
+    //@method_def_end
+
+    //@method_def_start: merge
+    /**
+     * 別の行から作成した標本を合算する。
+     * <p>
+     * 同じ層の標本は、2つの層の行を合わせた母集団からの非復元抽出となるように件数を決めて選び直す。
+     * 合算した標本には行を追加しない。
+     * </p>
+     *
+     * @param other 合算する標本（合算後は参照しないこと）
+     * @param random 乱数生成器
+     */
+    private void merge(ReservoirSample other, SplittableRandom random) {
+        for (int i = 0; i < other.strata.size(); i++) {
+            final Stratum stratum = other.strata.getValue(i);
+            final Stratum previous = strata.get(other.strata.getKey(i));
+            if (previous == null) {
+                strata.put(other.strata.getKey(i), stratum);
+            } else {
+                previous.merge(stratum, random);
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: await
+    /**
+     * 読み込みの終了を待って結果を得る。
+     *
+     * @param future 読み込み結果
+     * @return 無作為標本
+     * @throws IOException 読み込み中に入出力エラーが発生した場合
+     */
+    private static ReservoirSample await(Future<ReservoirSample> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while reading history data");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: getStatistics
+    /**
+     * 標本の十分統計量を計算する。
+     * <p>
+     * 層ごとに抽出した場合は、各行を層の行数÷層の標本の件数の重みで加算する。
+     * </p>
+     *
+     * @return 十分統計量
+     */
+    public SufficientStatistics getStatistics() {
+        final SufficientStatistics statistics
+                = new SufficientStatistics(dimension);
+        final double[] row = new double[dimension];
+        for (int s = 0; s < strata.size(); s++) {
+            final Stratum stratum = strata.getValue(s);
+            for (int r = 0; r < stratum.size; r++) {
+                System.arraycopy(stratum.rows, r * dimension, row, 0,
+                        dimension);
+                if (stratified) {
+                    statistics.add(row, getWeight(s));
+                } else {
+                    statistics.add(row);
+                }
+            }
+        }
+        return statistics;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRows
+    /**
+     * 層の標本の行を得る。
+     *
+     * @param stratum 層の順番（最初に現れた順）
+     * @return 行ごとに次元数の要素を並べた配列（複製しないため変更しないこと）
+     */
+    double[] getRows(int stratum) {
+        return strata.getValue(stratum).rows;
+    }
+    //@method_def_end
+
+    //@method_def_start: getSize
+    /**
+     * 層の標本の件数を得る。
+     *
+     * @param stratum 層の順番（最初に現れた順）
+     * @return 標本の件数
+     */
+    public int getSize(int stratum) {
+        return strata.getValue(stratum).size;
+    }
+    //@method_def_end
+
+    //@method_def_start: getPopulation
+    /**
+     * 層の行数を得る。
+     *
+     * @param stratum 層の順番（最初に現れた順）
+     * @return 読み込んだ行数
+     */
+    public long getPopulation(int stratum) {
+        return strata.getValue(stratum).seen;
+    }
+    //@method_def_end
+
+    //@method_def_start: getWeight
+    /**
+     * 層の行の重みを得る。
+     *
+     * @param stratum 層の順番（最初に現れた順）
+     * @return 層ごとに抽出した場合は層の行数÷層の標本の件数、そうでない場合は1
+     */
+    public double getWeight(int stratum) {
+        if (!stratified) {
+            return 1.0;
+        }
+        final Stratum s = strata.getValue(stratum);
+        return (double) s.seen / s.size;
+    }
+    //@method_def_end
+
+    //@method_def_start: getStratum
+    /**
+     * 層の値を得る。
+     *
+     * @param stratum 層の順番（最初に現れた順）
+     * @return 層の列の値（層ごとに抽出しない場合は0）
+     */
+    public long getStratum(int stratum) {
+        return strata.getKey(stratum);
+    }
+    //@method_def_end
+
+    //@method_def_start: getNumberOfStrata
+    /**
+     * 層の数を得る。
+     *
+     * @return 層の数
+     */
+    public int getNumberOfStrata() {
+        return strata.size();
+    }
+    //@method_def_end
+
+    //@method_def_start: getSampleSize
+    /**
+     * 全ての層の標本の件数の合計を得る。
+     *
+     * @return 標本の件数
+     */
+    public int getSampleSize() {
+        int result = 0;
+        for (int s = 0; s < strata.size(); s++) {
+            result += strata.getValue(s).size;
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: getTotalPopulation
+    /**
+     * 読み込んだ全ての行数を得る。
+     *
+     * @return 全ての層の行数の合計
+     */
+    public long getTotalPopulation() {
+        long result = 0;
+        for (int s = 0; s < strata.size(); s++) {
+            result += strata.getValue(s).seen;
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: getDimension
+    /**
+     * 履歴データの次元数を得る。
+     *
+     * @return 履歴データの次元数
+     */
+    public int getDimension() {
+        return dimension;
+    }
+    //@method_def_end
+
+    //@method_def_start: isStratified
+    /**
+     * 層ごとに抽出したか判定する。
+     *
+     * @return 層ごとに抽出した場合は{@code true}
+     */
+    public boolean isStratified() {
+        return stratified;
+    }
+    //@method_def_end
+
+    /**
+     * 1つの層の標本
+     */
+    private static final class Stratum {
+
+        private final int capacity; //標本の最大の件数
+        private final int dimension; //履歴データの次元数
+        private double[] rows; //標本の行（行ごとに次元数の要素を並べる）
+        private int size; //標本の件数
+        private long seen; //読み込んだ行数
+        private long gap; //次に標本に入る行までに読み飛ばす行数
+        private double threshold; //Algorithm Lの閾値
+
+        //@method_def_start: Stratum
+        /**
+         * 空の標本を作成する。
+         */
+        Stratum(int capacity, int dimension) {
+            this.capacity = capacity;
+            this.dimension = dimension;
+            this.rows = new double[Math.min(capacity, 16) * dimension];
+        }
+        //@method_def_end
+
+        //@method_def_start: getGap
+        /**
+         * 次に標本に入る行までに読み飛ばす行数を得る。
+         */
+        long getGap() {
+            return gap;
+        }
+        //@method_def_end
+
+        //@method_def_start: skip
+        /**
+         * 標本に入らない行を読み飛ばしたことを記録する。
+         */
+        void skip(long lines) {
+            seen += lines;
+            gap -= lines;
+        }
+        //@method_def_end
+
+        //@method_def_start: offer
+        /**
+         * 1行を読み込み、標本に入る行の場合は標本の行と置き換える。
+         */
+        void offer(double[] row, SplittableRandom random) {
+            ++seen;
+            if (size < capacity) {
+                if (size * dimension == rows.length) {
+                    rows = Arrays.copyOf(rows, Math.min(capacity,
+                            size * 2) * dimension);
+                }
+                System.arraycopy(row, 0, rows, size * dimension, dimension);
+                if (++size == capacity) {
+                    threshold = Math.exp(Math.log(uniform(random)) / capacity);
+                    gap = nextGap(random);
+                }
+                return;
+            }
+            if (gap > 0) {
+                --gap;
+                return;
+            }
+            System.arraycopy(row, 0, rows,
+                    random.nextInt(capacity) * dimension, dimension);
+            threshold *= Math.exp(Math.log(uniform(random)) / capacity);
+            gap = nextGap(random);
+        }
+        //@method_def_end
+
+        //@method_def_start: nextGap
+        /**
+         * 次に標本に入る行までに読み飛ばす行数を乱数で決める。
+         */
+        private long nextGap(SplittableRandom random) {
+            return (long) Math.floor(Math.log(uniform(random))
+                    / Math.log1p(-threshold));
+        }
+        //@method_def_end
+
+        //@method_def_start: uniform
+        /**
+         * 0を含まない(0, 1]の一様乱数を得る。
+         */
+        private static double uniform(SplittableRandom random) {
+            return 1.0 - random.nextDouble();
+        }
+        //@method_def_end
+
+        //@method_def_start: merge
+        /**
+         * 別の行から作成した同じ層の標本を合算する。
+         * <p>
+         * 合わせた母集団から標本の件数だけ順に非復元抽出した場合に、それぞれの母集団から選ばれる件数
+         * （超幾何分布）を決め、それぞれの標本から無作為にその件数の行を選ぶ。
+         * </p>
+         */
+        void merge(Stratum other, SplittableRandom random) {
+            final int total = (int) Math.min(capacity, seen + other.seen);
+            long remaining = seen;
+            long otherRemaining = other.seen;
+            int count = 0;
+            for (int k = 0; k < total; k++) {
+                if (random.nextDouble() * (remaining + otherRemaining)
+                        < remaining) {
+                    ++count;
+                    --remaining;
+                } else {
+                    --otherRemaining;
+                }
+            }
+            final double[] merged = new double[total * dimension];
+            choose(rows, size, count, merged, 0, random);
+            choose(other.rows, other.size, total - count, merged, count,
+                    random);
+            rows = merged;
+            size = total;
+            seen += other.seen;
+            gap = 0;
+        }
+        //@method_def_end
+
+        //@method_def_start: choose
+        /**
+         * 標本の行から無作為に選んだ行を複製する（部分的なFisher-Yatesシャッフル）。
+         */
+        private void choose(double[] source, int sourceSize, int count,
+                double[] target, int targetOffset, SplittableRandom random) {
+            final int[] order = new int[sourceSize];
+            for (int r = 0; r < sourceSize; r++) {
+                order[r] = r;
+            }
+            for (int k = 0; k < count; k++) {
+                final int j = k + random.nextInt(sourceSize - k);
+                final int swap = order[k];
+                order[k] = order[j];
+                order[j] = swap;
+                System.arraycopy(source, order[k] * dimension, target,
+                        (targetOffset + k) * dimension, dimension);
+            }
+        }
+        //@method_def_end
+
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 容量が固定されたロックを使用しないキュー
+ *
+ * <p>
+ * 複数のスレッドから同時に追加と取り出しができる。各要素の位置に順序番号を持たせ、
+ * 追加と取り出しはそれぞれの位置をCASで確保するだけで完了する。
+ * キューが満杯の場合は{@link #offer(Object)}が{@code false}を返すため、
+ * 呼び出し側で待機させることで後段の処理が追いつくまで前段を止められる。
+ * </p>
+ *
+ * @param <E> 要素の型
+ * @author smuraoka
+ */
+public final class RingBuffer<E> {
+
+    private final int mask; //位置を求めるためのマスク（容量−1）
+    private final AtomicReferenceArray<E> elements; //要素
+    private final AtomicLongArray sequences; //各位置の順序番号
+    private final AtomicLong head = new AtomicLong(); //次に取り出す位置
+    private final AtomicLong tail = new AtomicLong(); //次に追加する位置
+
+    //@method_def_start: RingBuffer
+    /**
+     * 容量を指定してキューを作成する。
+     *
+     * @param capacity 容量（2のべき乗に切り上げる）
+     */
+    public RingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity
+                ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: offer
+    /**
+     * 要素を追加する。
+     *
+     * @param element 追加する要素
+     * @return 追加した場合は{@code true}、キューが満杯の場合は{@code false}
+     */
+    public boolean offer(E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        long position = tail.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: poll
+    /**
+     * 要素を取り出す。
+     *
+     * @return 取り出した要素、キューが空の場合は{@code null}
+     */
+    public E poll() {
+        long position = head.get();
+        while (true) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.lazySet(index, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: capacity
+    /**
+     * キューの容量を得る。
+     *
+     * @return 容量
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,417 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 反復重み付き最小二乗法（IRLS）によるロバスト回帰の結果
+ *
+ * <p>
+ * 残差を尺度で割った値{@code u}に応じて行の重みを決め、重み付きの十分統計量から多重回帰パラメータを
+ * 計算し直すことを繰り返す。記録の誤りなどで大きく外れた行の重みが小さくなるため、
+ * 1つの行が回帰直線全体を引き寄せることがない。
+ * </p>
+ *
+ * <p>
+ * 1回の反復は、各列を1度だけ走査して残差、重み、重み付きの十分統計量を同時に計算する処理と、
+ * 次元数の大きさの連立方程式を解く処理からなる。走査は行の範囲ごとに並列に行い、範囲の順に合算するため、
+ * スレッド数によらず同じ結果になる。尺度には残差の絶対値の中央値を{@code 0.6745}で割った値（MAD）を用いる。
+ * 走査を1回にするため、ある反復の尺度には1つ前の反復で計算した残差の中央値を使用する
+ * （最初の反復では最小二乗法の標準偏差を使用する）。収束した時点では両者は一致する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class RobustFit {
+
+    /**
+     * 行の重みを決める関数
+     */
+    public enum Weight {
+        /**
+         * {@code |u| <= 1.345}の場合は1、それ以外は{@code 1.345 / |u|}
+         */
+        HUBER(1.345),
+        /**
+         * {@code |u| < 4.685}の場合は{@code (1 - (u / 4.685)^2)^2}、それ以外は0
+         */
+        TUKEY(4.685);
+
+        private final double tuning; //調整定数
+
+        //@method_def_start: Weight
+        /**
+         * 調整定数を指定して作成する。
+         */
+        Weight(double tuning) {
+            this.tuning = tuning;
+        }
+        //@method_def_end
+
+        //@method_def_start: apply
+        /**
+         * 尺度で割った残差に対する重みを計算する。
+         *
+         * @param u 尺度で割った残差
+         * @return 重み（0以上1以下）
+         */
+        public double apply(double u) {
+            final double a = Math.abs(u);
+            if (this == HUBER) {
+                return a <= tuning ? 1.0 : tuning / a;
+            }
+            if (a >= tuning) {
+                return 0.0;
+            }
+            final double t = 1.0 - (u / tuning) * (u / tuning);
+            return t * t;
+        }
+        //@method_def_end
+
+        //@method_def_start: getTuning
+        /**
+         * 調整定数を得る。
+         *
+         * @return 調整定数
+         */
+        public double getTuning() {
+            return tuning;
+        }
+        //@method_def_end
+
+    }
+
+    private static final int ROWS_PER_TASK = 4096; //1つのタスクで走査する最大の行数
+    private static final double MAD_CONSISTENCY = 0.6745; //正規分布で中央絶対偏差を標準偏差に換算する定数
+
+    private final Weight weight; //行の重みを決める関数
+    private final SufficientStatistics statistics; //最後の反復の重み付きの十分統計量
+    private final double[] regressionParameters; //多重回帰パラメータ
+    private final double scale; //最後の反復で使用した残差の尺度
+    private final boolean converged; //収束したか
+    private final long[] iterationNanos; //反復ごとの処理時間
+
+    //@method_def_start: RobustFit
+    /**
+     * 計算済みの値を指定して作成する。
+     *
+     * @param weight 行の重みを決める関数
+     * @param statistics 最後の反復の重み付きの十分統計量
+     * @param regressionParameters 多重回帰パラメータ
+     * @param scale 最後の反復で使用した残差の尺度
+     * @param converged 収束したか
+     * @param iterationNanos 反復ごとの処理時間
+     */
+    private RobustFit(Weight weight, SufficientStatistics statistics,
+            double[] regressionParameters, double scale, boolean converged,
+            long[] iterationNanos) {
+        this.weight = weight;
+        this.statistics = statistics;
+        this.regressionParameters = regressionParameters;
+        this.scale = scale;
+        this.converged = converged;
+        this.iterationNanos = iterationNanos;
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 各列の数値データ一覧からロバスト回帰を計算する。
+     * <p>
+     * 最小二乗法の解から始めて、全ての多重回帰パラメータの変化が
+     * {@code tolerance * (|b| + tolerance)}以下になるか、反復回数が{@code maxIterations}に達するまで繰り返す。
+     * </p>
+     *
+     * @param columns 履歴データの各列の数値データ一覧（最後の列を目的変数とする）
+     * @param weight 行の重みを決める関数
+     * @param maxIterations 最大の反復回数
+     * @param tolerance 収束の判定に用いる相対誤差
+     * @param threads スレッド数
+     * @return ロバスト回帰の結果
+     */
+    public static RobustFit of(Column[] columns, Weight weight,
+            int maxIterations, double tolerance, int threads) {
+        if (maxIterations <= 0) {
+            throw new IllegalArgumentException(
+                    "maxIterations=" + maxIterations);
+        }
+        final int dimension = columns.length;
+        final int count = columns[0].size();
+        final double[] absolute = new double[count];
+        final long[] nanos = new long[maxIterations];
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            //最小二乗法の解と標準偏差から始める
+            SufficientStatistics statistics = pool.invoke(
+                    new Pass(columns, null, null, 0.0, absolute, 0, count));
+            double[] b = statistics.solve();
+            double scale = Math.sqrt(statistics.residualSumOfSquares(b)
+                    / (count - dimension));
+            boolean converged = false;
+            int iteration = 0;
+            while (iteration < maxIterations && !converged) {
+                final long start = System.nanoTime();
+                if (!(scale > 0.0)) {
+                    //残差がない場合は重みを変える必要がない
+                    converged = true;
+                    break;
+                }
+                statistics = pool.invoke(new Pass(columns, weight, b, scale,
+                        absolute, 0, count));
+                final double[] next = statistics.solve();
+                converged = true;
+                for (int i = 0; i < dimension; i++) {
+                    if (!(Math.abs(next[i] - b[i])
+                            <= tolerance * (Math.abs(b[i]) + tolerance))) {
+                        converged = false;
+                    }
+                }
+                b = next;
+                scale = select(absolute, count / 2) / MAD_CONSISTENCY;
+                nanos[iteration++] = System.nanoTime() - start;
+            }
+            return new RobustFit(weight, statistics, b, scale, converged,
+                    Arrays.copyOf(nanos, iteration));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: select
+    /**
+     * 配列の{@code k}番目に小さい値を選択する（配列の順序は変更される）。
+     * <p>
+     * 中央の要素を軸とするクイックセレクトであり、計算量の期待値は要素数に比例する。
+     * </p>
+     *
+     * @param values 数値の配列
+     * @param k 順位（0から）
+     * @return {@code k}番目に小さい値
+     */
+    static double select(double[] values, int k) {
+        int left = 0;
+        int right = values.length - 1;
+        while (left < right) {
+            final double pivot = values[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    final double t = values[i];
+                    values[i] = values[j];
+                    values[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                break;
+            }
+        }
+        return values[k];
+    }
+    //@method_def_end
+
+    //@method_def_start: getWeight
+    /**
+     * 行の重みを決める関数を得る。
+     *
+     * @return 行の重みを決める関数
+     */
+    public Weight getWeight() {
+        return weight;
+    }
+    //@method_def_end
+
+    //@method_def_start: getStatistics
+    /**
+     * 最後の反復の重み付きの十分統計量を得る。
+     * <p>
+     * この十分統計量を解くと{@link #getRegressionParameters()}と一致する。
+     * </p>
+     *
+     * @return 重み付きの十分統計量
+     */
+    public SufficientStatistics getStatistics() {
+        return statistics;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRegressionParameters
+    /**
+     * 多重回帰パラメータを得る。
+     *
+     * @return 多重回帰パラメータ
+     */
+    public double[] getRegressionParameters() {
+        return regressionParameters.clone();
+    }
+    //@method_def_end
+
+    //@method_def_start: getScale
+    /**
+     * 残差の尺度（MAD）を得る。
+     *
+     * @return 残差の尺度
+     */
+    public double getScale() {
+        return scale;
+    }
+    //@method_def_end
+
+    //@method_def_start: isConverged
+    /**
+     * 最大の反復回数までに収束したか判定する。
+     *
+     * @return 収束した場合は{@code true}
+     */
+    public boolean isConverged() {
+        return converged;
+    }
+    //@method_def_end
+
+    //@method_def_start: getIterations
+    /**
+     * 反復回数を得る。
+     *
+     * @return 反復回数
+     */
+    public int getIterations() {
+        return iterationNanos.length;
+    }
+    //@method_def_end
+
+    //@method_def_start: getIterationNanos
+    /**
+     * 反復の処理時間（走査、連立方程式の解、尺度の計算の合計）を得る。
+     *
+     * @param iteration 反復の番号（0から）
+     * @return 処理時間（ナノ秒）
+     */
+    public long getIterationNanos(int iteration) {
+        return iterationNanos[iteration];
+    }
+    //@method_def_end
+
+    //@method_def_start: getReport
+    /**
+     * 反復ごとの処理時間と処理速度を得る。
+     *
+     * @return 反復ごとの処理時間と処理速度
+     */
+    public String getReport() {
+        final long rows = statistics.getRowCount();
+        final StringBuilder report = new StringBuilder();
+        long total = 0;
+        for (long nanos : iterationNanos) {
+            total += nanos;
+        }
+        report.append(String.format(
+                "Robust (%s, %d iterations, %s): %.3f s%n", weight,
+                iterationNanos.length,
+                converged ? "converged" : "not converged", total / 1.0e9));
+        for (int i = 0; i < iterationNanos.length; i++) {
+            final double seconds = iterationNanos[i] / 1.0e9;
+            report.append(String.format(
+                    "  iteration %d: %.3f s, %.1f Mrows/s%n", i + 1, seconds,
+                    rows / seconds / 1.0e6));
+        }
+        return report.toString();
+    }
+    //@method_def_end
+
+    /**
+     * 行の範囲を走査して重み付きの十分統計量を計算するタスク
+     */
+    private static final class Pass
+            extends RecursiveTask<SufficientStatistics> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Column[] columns; //履歴データの各列の数値データ一覧
+        private final Weight weight; //行の重みを決める関数（重みなしの場合はnull）
+        private final double[] b; //残差の計算に用いる多重回帰パラメータ
+        private final double scale; //残差の尺度
+        private final double[] absolute; //行ごとの残差の絶対値を格納する配列
+        private final int from; //走査する最初の行
+        private final int to; //走査する最後の行の次
+
+        //@method_def_start: Pass
+        /**
+         * 走査する行の範囲を指定して作成する。
+         */
+        Pass(Column[] columns, Weight weight, double[] b, double scale,
+                double[] absolute, int from, int to) {
+            this.columns = columns;
+            this.weight = weight;
+            this.b = b;
+            this.scale = scale;
+            this.absolute = absolute;
+            this.from = from;
+            this.to = to;
+        }
+        //@method_def_end
+
+        //@method_def_start: compute
+        /**
+         * 行数が上限を超える場合は2つに分割して範囲の順に合算し、そうでない場合は順に走査する。
+         */
+        @Override
+        protected SufficientStatistics compute() {
+            if (to - from > ROWS_PER_TASK) {
+                final int middle = (from + to) >>> 1;
+                final Pass top = new Pass(columns, weight, b, scale, absolute,
+                        from, middle);
+                top.fork();
+                final SufficientStatistics bottom = new Pass(columns, weight,
+                        b, scale, absolute, middle, to).compute();
+                final SufficientStatistics result = top.join();
+                result.merge(bottom);
+                return result;
+            }
+            final int dimension = columns.length;
+            final SufficientStatistics result
+                    = new SufficientStatistics(dimension);
+            final double[] row = new double[dimension];
+            for (int r = from; r < to; r++) {
+                for (int i = 0; i < dimension; i++) {
+                    row[i] = columns[i].get(r);
+                }
+                if (weight == null) {
+                    result.add(row);
+                    continue;
+                }
+                double residual = row[dimension - 1] - b[0];
+                for (int i = 1; i < dimension; i++) {
+                    residual -= b[i] * row[i - 1];
+                }
+                absolute[r] = Math.abs(residual);
+                result.add(row, weight.apply(residual / scale));
+            }
+            return result;
+        }
+        //@method_def_end
+
+    }
+
+}
@@ -0,0 +1,340 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 無作為標本による近似の回帰モデルとその誤差
+ *
+ * <p>
+ * {@link ReservoirSample}の標本だけで回帰モデルを計算し、標本を復元抽出したブートストラップ法で
+ * 多重回帰パラメータ、見積値、及び予測区間の幅の標準誤差を求める。層ごとに抽出した標本は層ごとに
+ * 同じ件数を復元抽出し、層の重みで加算する。計算量は標本の件数だけで決まり、履歴データの行数には依存しない。
+ * </p>
+ *
+ * <p>
+ * 予測区間の積分範囲は自由度だけで決まり、各標本の自由度は元の標本と同じであるため、
+ * 元の標本で1度だけ数値積分した値を全ての標本で使用する。標本ごとの乱数生成器は指定された種から
+ * 標本の順に分割するため、結果はスレッド数に依存しない。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class SampledFit {
+
+    private static final int THRESHOLD = 16; //1つのタスクで計算する標本数の上限
+    private static final int MAX_ATTEMPTS = 100; //グラム行列が正則でない標本を抽出し直す回数の上限
+
+    private final ReservoirSample sample; //無作為標本
+    private final ProbeModel model; //標本による回帰モデル
+    private final int resamples; //ブートストラップ法の標本数
+    private final double[] standardErrors; //多重回帰パラメータの標準誤差
+    private final double estimateError; //見積値の標準誤差
+    private final double intervalError; //予測区間の幅の標準誤差
+
+    //@method_def_start: SampledFit
+    /**
+     * 計算済みの値を指定して作成する。
+     *
+     * @param sample 無作為標本
+     * @param model 標本による回帰モデル
+     * @param resamples ブートストラップ法の標本数
+     * @param standardErrors 多重回帰パラメータの標準誤差
+     * @param estimateError 見積値の標準誤差
+     * @param intervalError 予測区間の幅の標準誤差
+     */
+    private SampledFit(ReservoirSample sample, ProbeModel model,
+            int resamples, double[] standardErrors, double estimateError,
+            double intervalError) {
+        this.sample = sample;
+        this.model = model;
+        this.resamples = resamples;
+        this.standardErrors = standardErrors;
+        this.estimateError = estimateError;
+        this.intervalError = intervalError;
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 無作為標本から回帰モデルを計算し、ブートストラップ法で誤差を求める。
+     *
+     * @param sample 無作為標本
+     * @param proxySizes 見積プロキシ規模
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差（百分率）
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     * @param exactLeverage 予測区間で説明変数間の共分散を考慮するか
+     * @param resamples ブートストラップ法の標本数
+     * @param seed 乱数の種
+     * @param threads スレッド数
+     * @return 計算結果
+     * @throws IllegalArgumentException 見積プロキシ規模の数が次元数と一致しない場合、または標本が少なすぎる場合
+     */
+    public static SampledFit of(ReservoirSample sample, double[] proxySizes,
+            double predictionIntervalRate, double acceptableError,
+            int initialNumberOfSegments, boolean exactLeverage,
+            int resamples, long seed, int threads) {
+        final int dimension = sample.getDimension();
+        if (proxySizes.length != dimension - 1) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "proxySizes=" + proxySizes.length
+                    + ": dimension=" + dimension);
+        }
+        if (resamples <= 0) {
+            throw new IllegalArgumentException("resamples=" + resamples);
+        }
+        final ProbeModel model = ProbeModel.fit(sample.getStatistics(),
+                predictionIntervalRate, acceptableError,
+                initialNumberOfSegments);
+        final double x = model.getxForPredictionInterval();
+
+        //標本の順に乱数生成器を分割する
+        final SplittableRandom root = new SplittableRandom(seed);
+        final SplittableRandom[] randoms = new SplittableRandom[resamples];
+        for (int b = 0; b < resamples; b++) {
+            randoms[b] = root.split();
+        }
+
+        final double[] parameters = new double[resamples * dimension];
+        final double[] estimates = new double[resamples];
+        final double[] intervals = new double[resamples];
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(new Resample(sample, proxySizes,
+                    predictionIntervalRate, x, exactLeverage, randoms,
+                    parameters, estimates, intervals, 0, resamples));
+        } finally {
+            pool.shutdownNow();
+        }
+
+        final double[] standardErrors = new double[dimension];
+        final double[] values = new double[resamples];
+        for (int i = 0; i < dimension; i++) {
+            for (int b = 0; b < resamples; b++) {
+                values[b] = parameters[b * dimension + i];
+            }
+            standardErrors[i] = standardDeviation(values);
+        }
+        return new SampledFit(sample, model, resamples, standardErrors,
+                standardDeviation(estimates), standardDeviation(intervals));
+    }
+    //@method_def_end
+
+    //@method_def_start: standardDeviation
+    /**
+     * 標本ごとの値の標準偏差を計算する。
+     *
+     * @param values 標本ごとの値
+     * @return 標準偏差、標本数が2未満の場合は0
+     */
+    private static double standardDeviation(double[] values) {
+        if (values.length < 2) {
+            return 0.0;
+        }
+        double sum = 0.0;
+        for (double value : values) {
+            sum += value;
+        }
+        final double mean = sum / values.length;
+        double sumSquared = 0.0;
+        for (double value : values) {
+            final double delta = value - mean;
+            sumSquared += delta * delta;
+        }
+        return Math.sqrt(sumSquared / (values.length - 1));
+    }
+    //@method_def_end
+
+    //@method_def_start: getSample
+    /**
+     * 無作為標本を得る。
+     *
+     * @return 無作為標本
+     */
+    public ReservoirSample getSample() {
+        return sample;
+    }
+    //@method_def_end
+
+    //@method_def_start: getModel
+    /**
+     * 標本による回帰モデルを得る。
+     *
+     * @return 回帰モデル
+     */
+    public ProbeModel getModel() {
+        return model;
+    }
+    //@method_def_end
+
+    //@method_def_start: getResamples
+    /**
+     * ブートストラップ法の標本数を得る。
+     *
+     * @return 標本数
+     */
+    public int getResamples() {
+        return resamples;
+    }
+    //@method_def_end
+
+    //@method_def_start: getStandardError
+    /**
+     * 多重回帰パラメータの標準誤差（標本ごとのパラメータの標準偏差）を得る。
+     *
+     * @param index パラメータの位置（0は定数項）
+     * @return 標準誤差
+     */
+    public double getStandardError(int index) {
+        return standardErrors[index];
+    }
+    //@method_def_end
+
+    //@method_def_start: getEstimateError
+    /**
+     * 見積値の標準誤差を得る。
+     *
+     * @return 標本ごとの見積値の標準偏差
+     */
+    public double getEstimateError() {
+        return estimateError;
+    }
+    //@method_def_end
+
+    //@method_def_start: getIntervalError
+    /**
+     * 予測区間の幅（見積値から上限までの値）の標準誤差を得る。
+     *
+     * @return 標本ごとの予測区間の幅の標準偏差
+     */
+    public double getIntervalError() {
+        return intervalError;
+    }
+    //@method_def_end
+
+    /**
+     * 標本の範囲を分割して計算するタスク
+     */
+    private static final class Resample extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ReservoirSample sample; //無作為標本
+        private final double[] proxySizes; //見積プロキシ規模
+        private final double predictionIntervalRate; //予測区間の大きさの値
+        private final double x; //予測区間の計算に使用する積分範囲
+        private final boolean exactLeverage; //予測区間で説明変数間の共分散を考慮するか
+        private final SplittableRandom[] randoms; //標本ごとの乱数生成器
+        private final double[] parameters; //標本ごとの多重回帰パラメータ
+        private final double[] estimates; //標本ごとの見積値
+        private final double[] intervals; //標本ごとの予測区間の幅
+        private final int from; //計算する最初の標本
+        private final int to; //計算する最後の標本の次
+
+        //@method_def_start: Resample
+        /**
+         * 計算する標本の範囲を指定して作成する。
+         */
+        Resample(ReservoirSample sample, double[] proxySizes,
+                double predictionIntervalRate, double x,
+                boolean exactLeverage, SplittableRandom[] randoms,
+                double[] parameters, double[] estimates, double[] intervals,
+                int from, int to) {
+            this.sample = sample;
+            this.proxySizes = proxySizes;
+            this.predictionIntervalRate = predictionIntervalRate;
+            this.x = x;
+            this.exactLeverage = exactLeverage;
+            this.randoms = randoms;
+            this.parameters = parameters;
+            this.estimates = estimates;
+            this.intervals = intervals;
+            this.from = from;
+            this.to = to;
+        }
+        //@method_def_end
+
+        //@method_def_start: compute
+        /**
+         * 標本数が上限を超える場合は2つに分割し、そうでない場合は順に計算する。
+         */
+        @Override
+        protected void compute() {
+            if (to - from > THRESHOLD) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Resample(sample, proxySizes,
+                        predictionIntervalRate, x, exactLeverage, randoms,
+                        parameters, estimates, intervals, from, middle),
+                        new Resample(sample, proxySizes,
+                                predictionIntervalRate, x, exactLeverage,
+                                randoms, parameters, estimates, intervals,
+                                middle, to));
+                return;
+            }
+            final int dimension = sample.getDimension();
+            final double[] row = new double[dimension];
+            for (int b = from; b < to; b++) {
+                final ProbeModel resampled = fit(randoms[b], row);
+                System.arraycopy(resampled.getRegressionParameters(), 0,
+                        parameters, b * dimension, dimension);
+                estimates[b] = resampled.estimate(proxySizes);
+                intervals[b] = exactLeverage
+                        ? resampled.exactPredictionInterval(proxySizes)
+                        : resampled.predictionInterval(proxySizes);
+            }
+        }
+        //@method_def_end
+
+        //@method_def_start: fit
+        /**
+         * 層ごとに標本の行を復元抽出して回帰モデルを計算する。
+         * <p>
+         * グラム行列が正定値にならない標本（同じ行ばかりが抽出された場合など）は抽出し直す。
+         * </p>
+         */
+        private ProbeModel fit(SplittableRandom random, double[] row) {
+            final int dimension = sample.getDimension();
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+                final SufficientStatistics statistics
+                        = new SufficientStatistics(dimension);
+                for (int s = 0; s < sample.getNumberOfStrata(); s++) {
+                    final double[] rows = sample.getRows(s);
+                    final int size = sample.getSize(s);
+                    final double weight = sample.getWeight(s);
+                    for (int k = 0; k < size; k++) {
+                        System.arraycopy(rows,
+                                random.nextInt(size) * dimension, row, 0,
+                                dimension);
+                        if (sample.isStratified()) {
+                            statistics.add(row, weight);
+                        } else {
+                            statistics.add(row);
+                        }
+                    }
+                }
+                try {
+                    Cholesky.decompose(statistics.getGram());
+                    return ProbeModel.fit(statistics, predictionIntervalRate,
+                            degreeOfFreedom -> x);
+                } catch (IllegalArgumentException e) {
+                    //正定値でない場合は抽出し直す
+                }
+            }
+            throw new IllegalStateException(
+                    "resample is singular: attempts=" + MAX_ATTEMPTS);
+        }
+        //@method_def_end
+
+    }
+
+}
@@ -0,0 +1,259 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 直近の一定件数の履歴データだけで回帰モデルを計算する。
+ *
+ * <p>
+ * 容量が固定されたリングバッファに行を保持し、十分統計量を行の追加と同時に更新する。
+ * 容量を超えた場合は最も古い行を十分統計量から取り除く（{@link SufficientStatistics#remove(double[])}）。
+ * 追加と削除の計算量は次元数の2乗に比例し、保持している件数には依存しない。
+ * 回帰モデルは要求された時に十分統計量から計算し、次に行が追加されるまで再利用する。
+ * </p>
+ *
+ * <p>
+ * 加算と減算を繰り返すと丸め誤差が蓄積するため、一定回数の削除ごとに保持している行から
+ * 十分統計量を計算し直す。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class SlidingWindowFit {
+
+    private final int capacity; //保持する最大の行数
+    private final int dimension; //履歴データの次元数
+    private final int recomputeInterval; //十分統計量を計算し直すまでの削除の回数
+    private final double[] rows; //保持している行（行ごとに次元数の要素を並べる）
+    private final double[] evicted; //取り除く行の作業領域
+    private final double predictionIntervalRate; //予測区間の大きさの値
+    private final double acceptableError; //許容誤差
+    private final int initialNumberOfSegments; //積分範囲の初期分割数
+    private SufficientStatistics statistics; //保持している行の十分統計量
+    private int head; //最も古い行の位置
+    private int size; //保持している行数
+    private int evictionsSinceRecompute; //前回計算し直してからの削除の回数
+    private long recomputeCount; //十分統計量を計算し直した回数
+    private ProbeModel model; //計算済みの回帰モデル（行が追加されたらnull）
+
+    //@method_def_start: SlidingWindowFit
+    /**
+     * 保持する行数と回帰モデルの計算条件を指定して作成する。
+     * <p>
+     * 保持する行数と同じ回数の削除ごとに十分統計量を計算し直す。
+     * </p>
+     *
+     * @param capacity 保持する最大の行数
+     * @param dimension 履歴データの次元数
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差（百分率）
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     */
+    public SlidingWindowFit(int capacity, int dimension,
+            double predictionIntervalRate, double acceptableError,
+            int initialNumberOfSegments) {
+        this(capacity, dimension, capacity, predictionIntervalRate,
+                acceptableError, initialNumberOfSegments);
+    }
+    //@method_def_end
+
+    //@method_def_start: SlidingWindowFit_int_int_int_double_double_int
+    /**
+     * 十分統計量を計算し直す間隔を指定して作成する。
+     *
+     * @param capacity 保持する最大の行数
+     * @param dimension 履歴データの次元数
+     * @param recomputeInterval 十分統計量を計算し直すまでの削除の回数
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差（百分率）
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     */
+    public SlidingWindowFit(int capacity, int dimension, int recomputeInterval,
+            double predictionIntervalRate, double acceptableError,
+            int initialNumberOfSegments) {
+        if (capacity <= dimension) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        if (recomputeInterval <= 0) {
+            throw new IllegalArgumentException(
+                    "recomputeInterval=" + recomputeInterval);
+        }
+        this.capacity = capacity;
+        this.dimension = dimension;
+        this.recomputeInterval = recomputeInterval;
+        this.rows = new double[capacity * dimension];
+        this.evicted = new double[dimension];
+        this.predictionIntervalRate = predictionIntervalRate;
+        this.acceptableError = acceptableError;
+        this.initialNumberOfSegments = initialNumberOfSegments;
+        this.statistics = new SufficientStatistics(dimension);
+    }
+    //@method_def_end
+
+    //@method_def_start: add
+    /**
+     * 最新の行を追加する。保持している行数が容量に達している場合は最も古い行を取り除く。
+     *
+     * @param row 説明変数と目的変数を並べた履歴データ
+     */
+    public void add(double[] row) {
+        if (row.length != dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "row=" + row.length + ": dimension=" + dimension);
+        }
+        final int slot;
+        if (size == capacity) {
+            slot = head;
+            System.arraycopy(rows, slot * dimension, evicted, 0, dimension);
+            statistics.remove(evicted);
+            head = (head + 1) % capacity;
+            ++evictionsSinceRecompute;
+        } else {
+            slot = (head + size) % capacity;
+            ++size;
+        }
+        System.arraycopy(row, 0, rows, slot * dimension, dimension);
+        statistics.add(row);
+        if (evictionsSinceRecompute >= recomputeInterval) {
+            recompute();
+        }
+        model = null;
+    }
+    //@method_def_end
+
+    //@method_def_start: addAll
+    /**
+     * 履歴データファイルの行を順に追加する。
+     * <p>
+     * 列指向のバイナリ形式（{@link ColumnarHistoryFile}）の場合はメモリマップした各列から、
+     * それ以外の場合はタブ区切りの形式として1行ずつ追加する。
+     * </p>
+     *
+     * @param files 履歴データファイルの一覧（古いものから順に並べる）
+     * @param projection 履歴データファイルの列と次元との対応
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public void addAll(List<File> files, ColumnProjection projection)
+            throws IOException {
+        final double[] row = new double[dimension];
+        for (File file : files) {
+            if (!ColumnarHistoryFile.isColumnar(file)) {
+                try (HistoryDataReader in
+                        = new HistoryDataReader(file, projection)) {
+                    while (in.next(row)) {
+                        add(row);
+                    }
+                }
+            } else {
+                final ColumnarHistoryFile columnar
+                        = ColumnarHistoryFile.open(file);
+                final Column[] columns = columnar.getColumns(projection);
+                columnar.verify();
+                try {
+                    final int count = columns[0].size();
+                    for (int r = 0; r < count; r++) {
+                        for (int i = 0; i < dimension; i++) {
+                            row[i] = columns[i].get(r);
+                        }
+                        add(row);
+                    }
+                } finally {
+                    for (Column column : columns) {
+                        column.close();
+                    }
+                }
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: recompute
+    /**
+     * 保持している行から十分統計量を計算し直す。
+     */
+    public void recompute() {
+        final SufficientStatistics exact = new SufficientStatistics(dimension);
+        final double[] row = new double[dimension];
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(rows, ((head + i) % capacity) * dimension,
+                    row, 0, dimension);
+            exact.add(row);
+        }
+        statistics = exact;
+        evictionsSinceRecompute = 0;
+        ++recomputeCount;
+        model = null;
+    }
+    //@method_def_end
+
+    //@method_def_start: getModel
+    /**
+     * 保持している行から計算した回帰モデルを得る。
+     *
+     * @return 回帰モデル
+     * @throws IllegalArgumentException 保持している行数が次元数以下の場合
+     */
+    public ProbeModel getModel() {
+        if (model == null) {
+            model = ProbeModel.fit(statistics, predictionIntervalRate,
+                    acceptableError, initialNumberOfSegments);
+        }
+        return model;
+    }
+    //@method_def_end
+
+    //@method_def_start: getStatistics
+    /**
+     * 保持している行の十分統計量の複製を得る。
+     *
+     * @return 十分統計量
+     */
+    public SufficientStatistics getStatistics() {
+        return statistics.copy();
+    }
+    //@method_def_end
+
+    //@method_def_start: getCapacity
+    /**
+     * 保持する最大の行数を得る。
+     *
+     * @return 保持する最大の行数
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    //@method_def_end
+
+    //@method_def_start: size
+    /**
+     * 保持している行数を得る。
+     *
+     * @return 保持している行数
+     */
+    public int size() {
+        return size;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRecomputeCount
+    /**
+     * 十分統計量を計算し直した回数を得る。
+     *
+     * @return 計算し直した回数
+     */
+    public long getRecomputeCount() {
+        return recomputeCount;
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,109 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * 履歴データを保持せずに回帰モデルを計算する。
+ *
+ * <p>
+ * 履歴データファイルを一定の行数ずつ読み込み、読み込んだ行を{@link SufficientStatistics}に
+ * 加算した後に破棄する。使用するメモリは読み込み単位の行数だけで決まり、履歴データの件数には依存しない。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class StreamingFit {
+
+    /**
+     * 既定の読み込み単位の行数
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    //@method_def_start: StreamingFit
+    /**
+     * インスタンスは作成しない。
+     */
+    private StreamingFit() {
+    }
+    //@method_def_end
+
+    //@method_def_start: accumulate
+    /**
+     * 履歴データファイルを読み込み、十分統計量を計算する。
+     *
+     * @param file 履歴データファイル
+     * @param dimension 履歴データの次元数
+     * @param chunkSize 読み込み単位の行数
+     * @return 十分統計量
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public static SufficientStatistics accumulate(File file, int dimension,
+            int chunkSize) throws IOException {
+        return accumulate(file, ColumnProjection.identity(dimension), chunkSize);
+    }
+    //@method_def_end
+
+    //@method_def_start: accumulate_File_ColumnProjection_int
+    /**
+     * 列の対応を指定して履歴データファイルを読み込み、十分統計量を計算する。
+     *
+     * @param file 履歴データファイル
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param chunkSize 読み込み単位の行数
+     * @return 十分統計量
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public static SufficientStatistics accumulate(File file,
+            ColumnProjection projection, int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize=" + chunkSize);
+        }
+        final int dimension = projection.getDimension();
+        final SufficientStatistics statistics
+                = new SufficientStatistics(dimension);
+        final double[][] chunk = new double[chunkSize][dimension];
+        try (HistoryDataReader in = new HistoryDataReader(file, projection)) {
+            int count = in.read(chunk);
+            while (count > 0) {
+                for (int i = 0; i < count; i++) {
+                    statistics.add(chunk[i]);
+                }
+                count = in.read(chunk);
+            }
+        }
+        return statistics;
+    }
+    //@method_def_end
+
+    //@method_def_start: fit
+    /**
+     * 履歴データファイルを読み込み、回帰モデルを計算する。
+     *
+     * @param file 履歴データファイル
+     * @param dimension 履歴データの次元数
+     * @param chunkSize 読み込み単位の行数
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差（百分率）
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     * @return 回帰モデル
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public static ProbeModel fit(File file, int dimension, int chunkSize,
+            double predictionIntervalRate, double acceptableError,
+            int initialNumberOfSegments) throws IOException {
+        return ProbeModel.fit(accumulate(file, dimension, chunkSize),
+                predictionIntervalRate, acceptableError,
+                initialNumberOfSegments);
+    }
+    //@method_def_end
+
+}
@@ -0,0 +1,532 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 説明変数の全ての組み合わせ（空集合を除く{@code 2^d - 1}通り）の回帰モデルを比較する。
+ *
+ * <p>
+ * 全ての説明変数を含むグラム行列を1度だけ計算し、各組み合わせの回帰モデルはその部分行列から求める。
+ * 組み合わせは説明変数を番号順に1つずつ加える深さ優先で列挙し、親の組み合わせのコレスキー分解を
+ * 1行追加して子の分解とする（{@link Cholesky#extend(double[], double)}）。
+ * 残差平方和も前進代入した右辺ベクトルから増分で求めるため、履歴データを読み直す必要はない。
+ * 部分木はフォーク・ジョインプールで並列に計算する。
+ * </p>
+ *
+ * <p>
+ * 予測残差平方和（PRESS）を求める場合は、各列の数値データ一覧を1度だけ走査し、
+ * 1行ごとに全ての組み合わせのてこ比と残差を計算する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class SubsetSelection {
+
+    /**
+     * 組み合わせを順位付けする基準
+     */
+    public enum Criterion {
+        /**
+         * 自由度調整済み決定係数（大きい順）
+         */
+        ADJUSTED_R_SQUARED,
+        /**
+         * 赤池情報量規準（小さい順）
+         */
+        AIC,
+        /**
+         * 予測残差平方和（小さい順）
+         */
+        PRESS
+    }
+
+    private static final int MAX_PREDICTORS = 20; //列挙できる説明変数の最大数
+    private static final int SEQUENTIAL_DEPTH = 4; //残りの説明変数がこの数以下の部分木は並列化しない
+    private static final int ROWS_PER_TASK = 4096; //PRESSを計算する1つのタスクの行数
+
+    private final List<Subset> subsets; //列挙した組み合わせ（列挙順）
+
+    //@method_def_start: SubsetSelection
+    /**
+     * 列挙した組み合わせを指定して作成する。
+     *
+     * @param subsets 列挙した組み合わせ
+     */
+    private SubsetSelection(List<Subset> subsets) {
+        this.subsets = Collections.unmodifiableList(subsets);
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 十分統計量から全ての組み合わせの回帰モデルを計算する。
+     * <p>
+     * 説明変数が他の説明変数と線形従属になる組み合わせ（とそれを含む組み合わせ）は除く。
+     * 予測残差平方和はNaNとなる。
+     * </p>
+     *
+     * @param statistics 全ての説明変数を含む十分統計量
+     * @param threads スレッド数
+     * @return 組み合わせの比較結果
+     */
+    public static SubsetSelection of(SufficientStatistics statistics,
+            int threads) {
+        final int predictors = statistics.getDimension() - 1;
+        if (predictors < 1 || predictors > MAX_PREDICTORS) {
+            throw new IllegalArgumentException("predictors=" + predictors);
+        }
+        final double count = statistics.getCount();
+        final double[] forward
+                = {statistics.getCrossProduct(0) / Math.sqrt(count)};
+        final Node root = new Node(new int[]{0},
+                Cholesky.decompose(new double[][]{{count}}), forward);
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            return new SubsetSelection(
+                    pool.invoke(new Search(statistics, root)));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: of_SufficientStatistics_ColumnArray_int
+    /**
+     * 十分統計量から全ての組み合わせの回帰モデルを計算し、予測残差平方和も求める。
+     *
+     * @param statistics 全ての説明変数を含む十分統計量
+     * @param columns 履歴データの各列の数値データ一覧（最後の列を目的変数とする）
+     * @param threads スレッド数
+     * @return 組み合わせの比較結果
+     */
+    public static SubsetSelection of(SufficientStatistics statistics,
+            Column[] columns, int threads) {
+        if (columns.length != statistics.getDimension()) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "columns=" + columns.length
+                    + ": dimension=" + statistics.getDimension());
+        }
+        final List<Subset> subsets = of(statistics, threads).subsets;
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        final double[] press;
+        try {
+            press = pool.invoke(new Press(subsets, columns,
+                    0, columns[0].size()));
+        } finally {
+            pool.shutdownNow();
+        }
+        final List<Subset> result = new ArrayList<>(subsets.size());
+        for (int s = 0; s < subsets.size(); s++) {
+            result.add(subsets.get(s).withPress(press[s]));
+        }
+        return new SubsetSelection(result);
+    }
+    //@method_def_end
+
+    //@method_def_start: rank
+    /**
+     * 組み合わせを基準の良い順に並べる。
+     *
+     * @param criterion 順位付けの基準
+     * @return 並べ替えた組み合わせ
+     */
+    public List<Subset> rank(Criterion criterion) {
+        final Comparator<Subset> order;
+        switch (criterion) {
+            case ADJUSTED_R_SQUARED:
+                order = Comparator.comparingDouble(
+                        Subset::getAdjustedRSquared).reversed();
+                break;
+            case AIC:
+                order = Comparator.comparingDouble(Subset::getAic);
+                break;
+            default:
+                order = Comparator.comparingDouble(Subset::getPress);
+                break;
+        }
+        final List<Subset> result = new ArrayList<>(subsets);
+        result.sort(order);
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: getSubsets
+    /**
+     * 列挙した組み合わせを列挙順に得る。
+     *
+     * @return 組み合わせの一覧
+     */
+    public List<Subset> getSubsets() {
+        return subsets;
+    }
+    //@method_def_end
+
+    /**
+     * 1つの組み合わせの回帰モデル
+     */
+    public static final class Subset {
+
+        private final int[] predictors; //説明変数の位置（0から始まる）
+        private final double[] parameters; //多重回帰パラメータ（先頭は定数項）
+        private final Cholesky cholesky; //グラム行列の部分行列の分解
+        private final double residualSumOfSquares; //残差平方和
+        private final double adjustedRSquared; //自由度調整済み決定係数
+        private final double aic; //赤池情報量規準
+        private final double press; //予測残差平方和（計算していない場合はNaN）
+
+        //@method_def_start: Subset
+        /**
+         * 計算済みの値を指定して作成する。
+         */
+        private Subset(int[] predictors, double[] parameters,
+                Cholesky cholesky, double residualSumOfSquares,
+                double adjustedRSquared, double aic, double press) {
+            this.predictors = predictors;
+            this.parameters = parameters;
+            this.cholesky = cholesky;
+            this.residualSumOfSquares = residualSumOfSquares;
+            this.adjustedRSquared = adjustedRSquared;
+            this.aic = aic;
+            this.press = press;
+        }
+        //@method_def_end
+
+        //@method_def_start: withPress
+        /**
+         * 予測残差平方和を設定した複製を作成する。
+         *
+         * @param value 予測残差平方和
+         * @return 複製
+         */
+        private Subset withPress(double value) {
+            return new Subset(predictors, parameters, cholesky,
+                    residualSumOfSquares, adjustedRSquared, aic, value);
+        }
+        //@method_def_end
+
+        //@method_def_start: getPredictors
+        /**
+         * 説明変数の位置の複製を得る。
+         *
+         * @return 説明変数の位置（0から始まる、昇順）
+         */
+        public int[] getPredictors() {
+            return predictors.clone();
+        }
+        //@method_def_end
+
+        //@method_def_start: getParameters
+        /**
+         * 多重回帰パラメータの複製を得る。
+         *
+         * @return 多重回帰パラメータ（先頭は定数項、以降は説明変数の順）
+         */
+        public double[] getParameters() {
+            return parameters.clone();
+        }
+        //@method_def_end
+
+        //@method_def_start: getResidualSumOfSquares
+        /**
+         * 残差平方和を得る。
+         *
+         * @return 残差平方和
+         */
+        public double getResidualSumOfSquares() {
+            return residualSumOfSquares;
+        }
+        //@method_def_end
+
+        //@method_def_start: getAdjustedRSquared
+        /**
+         * 自由度調整済み決定係数を得る。
+         *
+         * @return {@code 1 - (RSS / (n - k)) / (SST / (n - 1))}
+         */
+        public double getAdjustedRSquared() {
+            return adjustedRSquared;
+        }
+        //@method_def_end
+
+        //@method_def_start: getAic
+        /**
+         * 赤池情報量規準を得る。
+         *
+         * @return {@code n ln(RSS / n) + 2k}
+         */
+        public double getAic() {
+            return aic;
+        }
+        //@method_def_end
+
+        //@method_def_start: getPress
+        /**
+         * 予測残差平方和を得る。
+         *
+         * @return 予測残差平方和、計算していない場合はNaN
+         */
+        public double getPress() {
+            return press;
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 列挙の途中の組み合わせ（定数項を含むグラム行列上の位置、分解、前進代入した右辺）
+     */
+    private static final class Node {
+
+        private final int[] indexes; //グラム行列上の位置（先頭は定数項の0）
+        private final Cholesky cholesky; //部分行列の分解
+        private final double[] forward; //L c = Σ a zの解c
+
+        //@method_def_start: Node
+        /**
+         * 値を指定して作成する。
+         */
+        Node(int[] indexes, Cholesky cholesky, double[] forward) {
+            this.indexes = indexes;
+            this.cholesky = cholesky;
+            this.forward = forward;
+        }
+        //@method_def_end
+
+        //@method_def_start: extend
+        /**
+         * 説明変数を1つ加えた組み合わせを作成する。
+         *
+         * @param statistics 十分統計量
+         * @param index 加える説明変数のグラム行列上の位置
+         * @return 組み合わせ、線形従属になる場合は{@code null}
+         */
+        Node extend(SufficientStatistics statistics, int index) {
+            final int k = indexes.length;
+            final double[] column = new double[k];
+            for (int i = 0; i < k; i++) {
+                column[i] = statistics.getGram(indexes[i], index);
+            }
+            final Cholesky extended;
+            try {
+                extended = cholesky.extend(column,
+                        statistics.getGram(index, index));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            final int[] nextIndexes = Arrays.copyOf(indexes, k + 1);
+            nextIndexes[k] = index;
+            final double[] nextForward = Arrays.copyOf(forward, k + 1);
+            double sum = statistics.getCrossProduct(index);
+            for (int i = 0; i < k; i++) {
+                sum -= extended.getLower(k, i) * forward[i];
+            }
+            nextForward[k] = sum / extended.getLower(k, k);
+            return new Node(nextIndexes, extended, nextForward);
+        }
+        //@method_def_end
+
+        //@method_def_start: toSubset
+        /**
+         * 組み合わせの回帰モデルを作成する。
+         *
+         * @param statistics 十分統計量
+         * @return 回帰モデル
+         */
+        Subset toSubset(SufficientStatistics statistics) {
+            final int k = indexes.length;
+            final double count = statistics.getCount();
+            //RSS = z'z - c'c
+            double rss = statistics.getSumSquaredTarget();
+            for (double value : forward) {
+                rss -= value * value;
+            }
+            rss = Math.max(rss, 0.0);
+            final double sumZ = statistics.getCrossProduct(0);
+            final double sst
+                    = statistics.getSumSquaredTarget() - (sumZ * sumZ / count);
+            final double adjusted
+                    = 1.0 - (rss / (count - k)) / (sst / (count - 1));
+            final double aic = count * Math.log(rss / count) + 2.0 * k;
+
+            //後退代入 L' b = c
+            final double[] b = new double[k];
+            for (int i = k - 1; i >= 0; i--) {
+                double sum = forward[i];
+                for (int j = i + 1; j < k; j++) {
+                    sum -= cholesky.getLower(j, i) * b[j];
+                }
+                b[i] = sum / cholesky.getLower(i, i);
+            }
+            final int[] predictors = new int[k - 1];
+            for (int i = 1; i < k; i++) {
+                predictors[i - 1] = indexes[i] - 1;
+            }
+            return new Subset(predictors, b, cholesky, rss, adjusted, aic,
+                    Double.NaN);
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 組み合わせの部分木を列挙するタスク
+     */
+    private static final class Search extends RecursiveTask<List<Subset>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SufficientStatistics statistics; //十分統計量
+        private final Node node; //部分木の根
+
+        //@method_def_start: Search
+        /**
+         * 部分木の根を指定して作成する。
+         */
+        Search(SufficientStatistics statistics, Node node) {
+            this.statistics = statistics;
+            this.node = node;
+        }
+        //@method_def_end
+
+        //@method_def_start: isLarge
+        /**
+         * 別のタスクに分割するか判定する。
+         *
+         * @return 残りの説明変数が{@code SEQUENTIAL_DEPTH}より多い場合は{@code true}
+         */
+        boolean isLarge() {
+            final int last = node.indexes[node.indexes.length - 1];
+            return statistics.getDimension() - 1 - last > SEQUENTIAL_DEPTH;
+        }
+        //@method_def_end
+
+        //@method_def_start: compute
+        /**
+         * 根に説明変数を1つずつ加えた子を列挙し、子の部分木の結果を順に連結する。
+         * <p>
+         * 残りの説明変数が多い部分木だけを別のタスクに分割する。
+         * </p>
+         */
+        @Override
+        protected List<Subset> compute() {
+            final int dimension = statistics.getDimension();
+            final int last = node.indexes[node.indexes.length - 1];
+            final List<Subset> result = new ArrayList<>();
+            if (node.indexes.length > 1) {
+                result.add(node.toSubset(statistics));
+            }
+            final List<Search> children = new ArrayList<>();
+            for (int index = last + 1; index < dimension; index++) {
+                final Node child = node.extend(statistics, index);
+                if (child == null) {
+                    continue;
+                }
+                final Search task = new Search(statistics, child);
+                if (task.isLarge()) {
+                    task.fork();
+                }
+                children.add(task);
+            }
+            for (Search task : children) {
+                result.addAll(task.isLarge() ? task.join() : task.compute());
+            }
+            return result;
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * 行の範囲を分割して全ての組み合わせの予測残差平方和を計算するタスク
+     */
+    private static final class Press extends RecursiveTask<double[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Subset> subsets; //組み合わせの一覧
+        private final Column[] columns; //履歴データの各列の数値データ一覧
+        private final int from; //最初の行
+        private final int to; //最後の行の次
+
+        //@method_def_start: Press
+        /**
+         * 行の範囲を指定して作成する。
+         */
+        Press(List<Subset> subsets, Column[] columns, int from, int to) {
+            this.subsets = subsets;
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+        //@method_def_end
+
+        //@method_def_start: compute
+        /**
+         * 行数が多い場合は2つに分割し、そうでない場合は1行ごとに全ての組み合わせを計算する。
+         */
+        @Override
+        protected double[] compute() {
+            if (to - from > ROWS_PER_TASK) {
+                final int middle = (from + to) >>> 1;
+                final Press left = new Press(subsets, columns, from, middle);
+                left.fork();
+                final double[] right
+                        = new Press(subsets, columns, middle, to).compute();
+                final double[] result = left.join();
+                for (int s = 0; s < result.length; s++) {
+                    result[s] += right[s];
+                }
+                return result;
+            }
+            final int dimension = columns.length;
+            final double[] result = new double[subsets.size()];
+            final double[] row = new double[dimension];
+            //組み合わせの大きさごとの作業領域
+            final double[][] designs = new double[dimension + 1][];
+            final double[][] works = new double[dimension + 1][];
+            for (int k = 1; k <= dimension; k++) {
+                designs[k] = new double[k];
+                works[k] = new double[k];
+            }
+            for (int r = from; r < to; r++) {
+                for (int i = 0; i < dimension; i++) {
+                    row[i] = columns[i].get(r);
+                }
+                final double z = row[dimension - 1];
+                for (int s = 0; s < result.length; s++) {
+                    final Subset subset = subsets.get(s);
+                    final int k = subset.parameters.length;
+                    final double[] a = designs[k];
+                    a[0] = 1.0;
+                    double fitted = subset.parameters[0];
+                    for (int i = 1; i < k; i++) {
+                        a[i] = row[subset.predictors[i - 1]];
+                        fitted += subset.parameters[i] * a[i];
+                    }
+                    final double leverage
+                            = subset.cholesky.inverseQuadraticForm(a, works[k]);
+                    final double residual = (z - fitted) / (1.0 - leverage);
+                    result[s] += residual * residual;
+                }
+            }
+            return result;
+        }
+        //@method_def_end
+
+    }
+
+}
@@ -0,0 +1,603 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 多重回帰分析の十分統計量
+ *
+ * <p>
+ * 履歴データの各行を{@code (x1, ..., xp, z)}とし、{@code a = (1, x1, ..., xp)}としたとき、
+ * 行列{@code Σ a a'}（以降、グラム行列）、ベクトル{@code Σ a z}、及び{@code Σ z^2}を保持する。
+ * グラム行列の{@code [0][0]}要素は履歴データの個数、{@code [0][i]}要素は説明変数の総和となる。
+ * 多重回帰パラメータ、平均値、偏差平方和、及び残差平方和はこれらの値だけから計算できる。
+ * </p>
+ *
+ * <p>
+ * 行ごとに重み{@code w}を指定した場合は、各値を{@code w}倍して加算する（重み付き最小二乗法）。
+ * このときグラム行列の{@code [0][0]}要素は重みの総和となるため、行数と重みの2乗の総和を別に保持し、
+ * 有効サンプルサイズ{@code (Σ w)^2 / Σ w^2}の計算に使用する。重みを指定しない場合は全ての重みが1となり、
+ * 有効サンプルサイズは行数と一致する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public class SufficientStatistics {
+
+    private final int dimension; //履歴データの次元数（説明変数の数＋1）
+    private final double[][] gram; //グラム行列（上三角部分のみ更新する）
+    private final double[] crossProducts; //Σ a z
+    private double sumSquaredTarget; //Σ z^2
+    private double sumSquaredWeights; //Σ w^2
+    private long rowCount; //加算した行数
+
+    //@method_def_start: SufficientStatistics_int
+    /**
+     * 履歴データの次元数を指定して、空の十分統計量を作成する。
+     *
+     * @param dimension 履歴データの次元数
+     */
+    public SufficientStatistics(int dimension) {
+        if (dimension < 2) {
+            throw new IllegalArgumentException("dimension=" + dimension);
+        }
+        this.dimension = dimension;
+        this.gram = new double[dimension][dimension];
+        this.crossProducts = new double[dimension];
+        this.sumSquaredTarget = 0.0;
+    }
+    //@method_def_end
+
+    //@method_def_start: SufficientStatistics_doubleArrayArray_doubleArray_double
+    /**
+     * 計算済みの値を指定して十分統計量を作成する。
+     * <p>
+     * 重みのない履歴データから計算した値として扱う。
+     * </p>
+     *
+     * @param gram グラム行列
+     * @param crossProducts Σ a z
+     * @param sumSquaredTarget Σ z^2
+     */
+    public SufficientStatistics(double[][] gram, double[] crossProducts,
+            double sumSquaredTarget) {
+        this(gram, crossProducts, sumSquaredTarget, gram[0][0],
+                (long) gram[0][0]);
+    }
+    //@method_def_end
+
+    //@method_def_start: SufficientStatistics_doubleArrayArray_doubleArray_double_double_long
+    /**
+     * 重みの2乗の総和と行数を含めて、計算済みの値を指定して十分統計量を作成する。
+     *
+     * @param gram グラム行列
+     * @param crossProducts Σ a z
+     * @param sumSquaredTarget Σ z^2
+     * @param sumSquaredWeights Σ w^2
+     * @param rowCount 加算した行数
+     */
+    public SufficientStatistics(double[][] gram, double[] crossProducts,
+            double sumSquaredTarget, double sumSquaredWeights, long rowCount) {
+        this(crossProducts.length);
+        for (int i = 0; i < dimension; i++) {
+            if (gram[i].length != dimension) {
+                throw new IllegalArgumentException(
+                        "Number of element not match: row=" + i);
+            }
+            System.arraycopy(gram[i], 0, this.gram[i], 0, dimension);
+        }
+        System.arraycopy(crossProducts, 0, this.crossProducts, 0, dimension);
+        this.sumSquaredTarget = sumSquaredTarget;
+        this.sumSquaredWeights = sumSquaredWeights;
+        this.rowCount = rowCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: copy
+    /**
+     * 十分統計量の複製を作成する。
+     *
+     * @return 複製
+     */
+    public SufficientStatistics copy() {
+        return new SufficientStatistics(gram, crossProducts, sumSquaredTarget,
+                sumSquaredWeights, rowCount);
+    }
+    //@method_def_end
+
+    //@method_def_start: add
+    /**
+     * 履歴データを1行追加する。
+     *
+     * @param row 説明変数と目的変数を並べた履歴データ
+     */
+    public void add(double[] row) {
+        add(row, 1.0);
+    }
+    //@method_def_end
+
+    //@method_def_start: add_doubleArray_double
+    /**
+     * 重みを指定して履歴データを1行追加する。
+     * <p>
+     * 計算量は次元数の2乗に比例する。
+     * </p>
+     *
+     * @param row 説明変数と目的変数を並べた履歴データ
+     * @param weight 行の重み（0以上）
+     */
+    public void add(double[] row, double weight) {
+        if (row.length != dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "row=" + row.length + ": dimension=" + dimension);
+        }
+        if (!(weight >= 0.0) || Double.isInfinite(weight)) {
+            throw new IllegalArgumentException("weight=" + weight);
+        }
+        final double z = row[dimension - 1];
+        final double wz = weight * z;
+        gram[0][0] += weight;
+        crossProducts[0] += wz;
+        for (int i = 1; i < dimension; i++) {
+            final double ai = row[i - 1];
+            final double wai = weight * ai;
+            gram[0][i] += wai;
+            for (int j = i; j < dimension; j++) {
+                gram[i][j] += wai * row[j - 1];
+            }
+            crossProducts[i] += wai * z;
+        }
+        sumSquaredTarget += wz * z;
+        sumSquaredWeights += weight * weight;
+        ++rowCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: addRepeated
+    /**
+     * 同じ履歴データを{@code count}行追加する。
+     * <p>
+     * 重みのない行を{@code count}回追加した場合と同じ十分統計量になる（丸め誤差を除く）。
+     * {@link #add(double[], double)}に回数を重みとして指定した場合と異なり、
+     * 有効サンプルサイズは追加した行数と一致する。計算量は次元数の2乗に比例し、回数には依存しない。
+     * </p>
+     *
+     * @param row 説明変数と目的変数を並べた履歴データ
+     * @param count 行数（0以上）
+     */
+    public void addRepeated(double[] row, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count=" + count);
+        }
+        add(row, count);
+        //重みcountの1行ではなく重み1のcount行として数え直す
+        sumSquaredWeights += count - (double) count * count;
+        rowCount += count - 1;
+    }
+    //@method_def_end
+
+    //@method_def_start: scale
+    /**
+     * 加算済みの全ての行の重みを{@code factor}倍する。
+     * <p>
+     * 新しい行を追加する前に呼び出すと、古い行ほど重みが指数的に小さくなる（指数減衰）。
+     * 計算量は次元数の2乗に比例する。
+     * </p>
+     *
+     * @param factor 重みに掛ける値（0以上）
+     */
+    public void scale(double factor) {
+        if (!(factor >= 0.0) || Double.isInfinite(factor)) {
+            throw new IllegalArgumentException("factor=" + factor);
+        }
+        for (int i = 0; i < dimension; i++) {
+            for (int j = i; j < dimension; j++) {
+                gram[i][j] *= factor;
+            }
+            crossProducts[i] *= factor;
+        }
+        sumSquaredTarget *= factor;
+        sumSquaredWeights *= factor * factor;
+    }
+    //@method_def_end
+
+    //@method_def_start: remove
+    /**
+     * 追加済みの履歴データを1行取り除く。
+     * <p>
+     * {@link #add(double[])}と逆の操作で、計算量は次元数の2乗に比例する。
+     * 加算と減算を繰り返すと丸め誤差が蓄積するため、必要に応じて残っている行から計算し直すこと。
+     * </p>
+     *
+     * @param row 取り除く履歴データ（重みを指定せずに追加した値と同じもの）
+     */
+    public void remove(double[] row) {
+        if (row.length != dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "row=" + row.length + ": dimension=" + dimension);
+        }
+        final double z = row[dimension - 1];
+        gram[0][0] -= 1.0;
+        crossProducts[0] -= z;
+        for (int i = 1; i < dimension; i++) {
+            final double ai = row[i - 1];
+            gram[0][i] -= ai;
+            for (int j = i; j < dimension; j++) {
+                gram[i][j] -= ai * row[j - 1];
+            }
+            crossProducts[i] -= ai * z;
+        }
+        sumSquaredTarget -= z * z;
+        sumSquaredWeights -= 1.0;
+        --rowCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: merge
+    /**
+     * 他の十分統計量を合算する。
+     *
+     * @param other 合算する十分統計量
+     */
+    public void merge(SufficientStatistics other) {
+        if (other.dimension != dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "dimension=" + dimension + ": other=" + other.dimension);
+        }
+        for (int i = 0; i < dimension; i++) {
+            for (int j = i; j < dimension; j++) {
+                gram[i][j] += other.gram[i][j];
+            }
+            crossProducts[i] += other.crossProducts[i];
+        }
+        sumSquaredTarget += other.sumSquaredTarget;
+        sumSquaredWeights += other.sumSquaredWeights;
+        rowCount += other.rowCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: solve
+    /**
+     * 正規方程式を解いて多重回帰パラメータを計算する。
+     *
+     * @return 多重回帰パラメータ
+     */
+    public double[] solve() {
+        final Double[] solution
+                = PSPMath.resolveEquation(getGram(), getCrossProducts());
+        final double[] b = new double[solution.length];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = solution[i];
+        }
+        return b;
+    }
+    //@method_def_end
+
+    //@method_def_start: estimateConditionNumber
+    /**
+     * 定数項と説明変数の列を並べた行列{@code A}の条件数を、グラム行列から推定する。
+     * <p>
+     * 列の大きさの違いによる見かけの悪条件を除くため、グラム行列を対角要素が1になるように換算してから
+     * コレスキー分解し、1ノルムでの条件数の平方根を返す。{@code A'A}の条件数は{@code A}の条件数の
+     * 2乗であるため、この値が大きい場合は正規方程式の解の精度が大きく低下する。
+     * </p>
+     *
+     * @return 条件数の推定値、正定値でない場合は正の無限大
+     */
+    public double estimateConditionNumber() {
+        final double[] scale = new double[dimension];
+        for (int i = 0; i < dimension; i++) {
+            if (!(gram[i][i] > 0.0)) {
+                return Double.POSITIVE_INFINITY;
+            }
+            scale[i] = 1.0 / Math.sqrt(gram[i][i]);
+        }
+        final double[][] scaled = new double[dimension][dimension];
+        for (int i = 0; i < dimension; i++) {
+            for (int j = 0; j < dimension; j++) {
+                scaled[i][j] = getGram(i, j) * scale[i] * scale[j];
+            }
+        }
+        final Cholesky factor;
+        try {
+            factor = Cholesky.decompose(scaled);
+        } catch (IllegalArgumentException e) {
+            return Double.POSITIVE_INFINITY;
+        }
+        //逆行列の列ごとの絶対値の和の最大値
+        double norm = 0.0;
+        double inverseNorm = 0.0;
+        final double[] unit = new double[dimension];
+        for (int j = 0; j < dimension; j++) {
+            unit[j] = 1.0;
+            final double[] column = factor.solve(unit);
+            unit[j] = 0.0;
+            double sum = 0.0;
+            double inverseSum = 0.0;
+            for (int i = 0; i < dimension; i++) {
+                sum += Math.abs(scaled[i][j]);
+                inverseSum += Math.abs(column[i]);
+            }
+            norm = Math.max(norm, sum);
+            inverseNorm = Math.max(inverseNorm, inverseSum);
+        }
+        return Math.sqrt(norm * inverseNorm);
+    }
+    //@method_def_end
+
+    //@method_def_start: residualSumOfSquares
+    /**
+     * 多重回帰パラメータに対する残差平方和を計算する。
+     * <p>
+     * Σ(z - b'a)^2 = Σz^2 - 2b'(Σ a z) + b'(Σ a a')b
+     * </p>
+     *
+     * @param b 多重回帰パラメータ
+     * @return 残差平方和
+     */
+    public double residualSumOfSquares(double[] b) {
+        double sum = sumSquaredTarget;
+        for (int i = 0; i < dimension; i++) {
+            sum -= 2.0 * b[i] * crossProducts[i];
+            for (int j = 0; j < dimension; j++) {
+                sum += b[i] * getGram(i, j) * b[j];
+            }
+        }
+        return Math.max(sum, 0.0);
+    }
+    //@method_def_end
+
+    //@method_def_start: getMean
+    /**
+     * 説明変数の平均値を計算する。
+     *
+     * @param index 説明変数の位置（0から始まる）
+     * @return 説明変数の平均値
+     */
+    public double getMean(int index) {
+        if (getCount() == 0) {
+            throw new IllegalArgumentException("number of data is 0");
+        }
+        return gram[0][index + 1] / getCount();
+    }
+    //@method_def_end
+
+    //@method_def_start: getSumSquaredDeviation
+    /**
+     * 説明変数の偏差平方和を計算する。
+     *
+     * @param index 説明変数の位置（0から始まる）
+     * @return 説明変数の偏差平方和
+     */
+    public double getSumSquaredDeviation(int index) {
+        final double sum = gram[0][index + 1];
+        final double ssd
+                = gram[index + 1][index + 1] - (sum * sum / getCount());
+        return Math.max(ssd, 0.0);
+    }
+    //@method_def_end
+
+    //@method_def_start: getSumCrossDeviation
+    /**
+     * 2つの説明変数の偏差積和を計算する。
+     * <p>
+     * {@code i == j}の場合は偏差平方和となる。
+     * </p>
+     *
+     * @param i 説明変数の位置（0から始まる）
+     * @param j 説明変数の位置（0から始まる）
+     * @return 偏差積和Σ(a_i - mean_i)(a_j - mean_j)
+     */
+    public double getSumCrossDeviation(int i, int j) {
+        if (i == j) {
+            return getSumSquaredDeviation(i);
+        }
+        return getGram(i + 1, j + 1)
+                - (gram[0][i + 1] * gram[0][j + 1] / getCount());
+    }
+    //@method_def_end
+
+    //@method_def_start: getDimension
+    /**
+     * 履歴データの次元数を得る。
+     *
+     * @return 履歴データの次元数
+     */
+    public int getDimension() {
+        return dimension;
+    }
+    //@method_def_end
+
+    //@method_def_start: getCount
+    /**
+     * 重みの総和を得る。重みを指定していない場合は履歴データの個数と一致する。
+     *
+     * @return 重みの総和
+     */
+    public double getCount() {
+        return gram[0][0];
+    }
+    //@method_def_end
+
+    //@method_def_start: getRowCount
+    /**
+     * 加算した行数を得る。
+     *
+     * @return 加算した行数
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: getSumSquaredWeights
+    /**
+     * 重みの2乗の総和を得る。
+     *
+     * @return Σ w^2
+     */
+    public double getSumSquaredWeights() {
+        return sumSquaredWeights;
+    }
+    //@method_def_end
+
+    //@method_def_start: getEffectiveCount
+    /**
+     * 有効サンプルサイズ{@code (Σ w)^2 / Σ w^2}を得る。
+     * <p>
+     * 重みを指定していない場合は履歴データの個数と一致する。
+     * 標準偏差と予測区間は、履歴データの個数の代わりにこの値を用いて計算する。
+     * </p>
+     *
+     * @return 有効サンプルサイズ
+     */
+    public double getEffectiveCount() {
+        if (sumSquaredWeights <= 0.0) {
+            return 0.0;
+        }
+        return gram[0][0] * gram[0][0] / sumSquaredWeights;
+    }
+    //@method_def_end
+
+    //@method_def_start: getGram_int_int
+    /**
+     * グラム行列の要素を得る。
+     *
+     * @param i 行
+     * @param j 列
+     * @return グラム行列の要素
+     */
+    public double getGram(int i, int j) {
+        return i <= j ? gram[i][j] : gram[j][i];
+    }
+    //@method_def_end
+
+    //@method_def_start: getGram
+    /**
+     * グラム行列の複製を得る。
+     *
+     * @return グラム行列
+     */
+    public double[][] getGram() {
+        final double[][] result = new double[dimension][dimension];
+        for (int i = 0; i < dimension; i++) {
+            for (int j = 0; j < dimension; j++) {
+                result[i][j] = getGram(i, j);
+            }
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: getCrossProduct
+    /**
+     * Σ a zの要素を得る。
+     *
+     * @param i 位置
+     * @return Σ a zの要素
+     */
+    public double getCrossProduct(int i) {
+        return crossProducts[i];
+    }
+    //@method_def_end
+
+    //@method_def_start: getCrossProducts
+    /**
+     * Σ a zの複製を得る。
+     *
+     * @return Σ a z
+     */
+    public double[] getCrossProducts() {
+        return crossProducts.clone();
+    }
+    //@method_def_end
+
+    //@method_def_start: getSumSquaredTarget
+    /**
+     * Σ z^2を得る。
+     *
+     * @return Σ z^2
+     */
+    public double getSumSquaredTarget() {
+        return sumSquaredTarget;
+    }
+    //@method_def_end
+
+    //@method_def_start: getSerializedSize
+    /**
+     * バイト列に変換した場合の大きさを得る。
+     *
+     * @param dimension 履歴データの次元数
+     * @return バイト列の大きさ
+     */
+    public static int getSerializedSize(int dimension) {
+        final int triangle = dimension * (dimension + 1) / 2;
+        return Integer.BYTES + Double.BYTES * (triangle + dimension + 2)
+                + Long.BYTES;
+    }
+    //@method_def_end
+
+    //@method_def_start: writeTo
+    /**
+     * 十分統計量をバイト列として書き込む。
+     * <p>
+     * 次元数、グラム行列の上三角部分、Σ a z、Σ z^2、Σ w^2、行数の順に書き込む。
+     * バイト順は{@code buffer}の設定に従う。
+     * </p>
+     *
+     * @param buffer 書き込み先
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(dimension);
+        for (int i = 0; i < dimension; i++) {
+            for (int j = i; j < dimension; j++) {
+                buffer.putDouble(gram[i][j]);
+            }
+        }
+        for (int i = 0; i < dimension; i++) {
+            buffer.putDouble(crossProducts[i]);
+        }
+        buffer.putDouble(sumSquaredTarget);
+        buffer.putDouble(sumSquaredWeights);
+        buffer.putLong(rowCount);
+    }
+    //@method_def_end
+
+    //@method_def_start: readFrom
+    /**
+     * {@link #writeTo(ByteBuffer)}で書き込まれたバイト列から十分統計量を読み込む。
+     *
+     * @param buffer 読み込み元
+     * @return 十分統計量
+     */
+    public static SufficientStatistics readFrom(ByteBuffer buffer) {
+        final int dimension = buffer.getInt();
+        if (dimension < 2 || buffer.remaining()
+                < getSerializedSize(dimension) - Integer.BYTES) {
+            throw new IllegalArgumentException(
+                    "Illegal format of statistics: dimension=" + dimension);
+        }
+        final SufficientStatistics result = new SufficientStatistics(dimension);
+        for (int i = 0; i < dimension; i++) {
+            for (int j = i; j < dimension; j++) {
+                result.gram[i][j] = buffer.getDouble();
+            }
+        }
+        for (int i = 0; i < dimension; i++) {
+            result.crossProducts[i] = buffer.getDouble();
+        }
+        result.sumSquaredTarget = buffer.getDouble();
+        result.sumSquaredWeights = buffer.getDouble();
+        result.rowCount = buffer.getLong();
+        return result;
+    }
+    //@method_def_end
+
+}
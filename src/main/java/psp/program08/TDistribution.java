@@ -53,18 +53,17 @@ public class TDistribution implements Function {
      */
     public double getCoefficient() {
         if (coefficient == null) {
-            //分子を計算
+            //ガンマ関数の比（自由度が大きい場合に桁あふれしないよう対数の差で計算する）
             final double temp11 = (getDegreeOfFreedom() + 1.0) / 2.0;
-            final double temp12 = PSPMath.gamma(temp11);
+            final double temp12 = PSPMath.lnGamma(temp11)
+                    - PSPMath.lnGamma(getDegreeOfFreedom() / 2.0);
 
             //分母を計算
             final double temp21 = getDegreeOfFreedom() * Math.PI;
             final double temp22 = Math.pow(temp21, 0.5);
-            final double temp23 = PSPMath.gamma(getDegreeOfFreedom() / 2.0);
-            final double temp24 = temp22 * temp23;
 
             //係数を設定
-            coefficient = temp12 / temp24;
+            coefficient = Math.exp(temp12) / temp22;
 
         }
         return coefficient;
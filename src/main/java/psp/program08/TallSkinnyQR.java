@@ -0,0 +1,546 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 縦長の行列のQR分解（Tall-Skinny QR）による最小二乗法
+ *
+ * <p>
+ * 定数項の列、説明変数の列、目的変数の列を並べた行列{@code [A z]}をハウスホルダー変換で
+ * 上三角行列{@code R}に変換する。{@code R}の左上の部分から{@code R b = Q'z}を後退代入で解き、
+ * 右下の要素の2乗を残差平方和とする。正規方程式のようにグラム行列を作らないため、
+ * 条件数が2乗されず、説明変数がほぼ線形従属な履歴データでも精度を保てる。
+ * </p>
+ *
+ * <p>
+ * 行を一定の行数のブロックに分けてブロックごとに{@code R}を求め、2つずつ縦に並べて分解し直す
+ * 木構造で1つの{@code R}にまとめる（TSQR）。木の形は行数だけで決まるため、スレッド数によらず
+ * 同じ結果になる。ブロックの{@code R}は次元数の2乗の大きさしかないため、
+ * 十分統計量と同様にファイルごとに計算して合算できる。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class TallSkinnyQR {
+
+    /**
+     * 多重回帰パラメータの計算方法
+     */
+    public enum Solver {
+        /**
+         * 正規方程式（グラム行列）を解く
+         */
+        NORMAL,
+        /**
+         * 常にQR分解を使用する
+         */
+        QR,
+        /**
+         * 正規方程式の条件数の推定値が{@link #CONDITION_LIMIT}を超える場合だけQR分解を使用する
+         */
+        AUTO
+    }
+
+    /**
+     * 正規方程式の代わりにQR分解を使用する条件数の推定値
+     * <p>
+     * 正規方程式の解の相対誤差は条件数の2乗と丸め誤差の積に比例するため、
+     * 条件数が{@code 1e5}を超えると有効桁数が6桁を下回る。
+     * </p>
+     */
+    public static final double CONDITION_LIMIT = 1e5;
+
+    private static final int BLOCK_ROWS = 1024; //1つのブロックの行数
+    private static final double EPSILON = 1e-13; //線形従属と判断する対角要素の相対的な大きさ
+
+    private final int dimension; //履歴データの次元数（説明変数の数＋1）
+    private double[][] upper; //上三角行列R（次元数＋1の正方行列）
+    private final double[][] block; //分解していない行（列ごと）
+    private int blockRows; //分解していない行の数
+    private long rowCount; //加算した行数
+
+    //@method_def_start: TallSkinnyQR
+    /**
+     * 次元数を指定して、行を含まない状態で作成する。
+     *
+     * @param dimension 履歴データの次元数（説明変数の数＋1）
+     */
+    public TallSkinnyQR(int dimension) {
+        this.dimension = dimension;
+        this.upper = new double[dimension + 1][dimension + 1];
+        this.block = new double[dimension + 1][BLOCK_ROWS];
+        this.blockRows = 0;
+        this.rowCount = 0;
+    }
+    //@method_def_end
+
+    //@method_def_start: of
+    /**
+     * 各列の数値データ一覧を分解する。
+     * <p>
+     * ブロックを葉とする二分木を{@code threads}個までのスレッドで並列に計算する。
+     * </p>
+     *
+     * @param columns 履歴データの各列の数値データ一覧（最後の列を目的変数とする）
+     * @param threads スレッド数
+     * @return 分解の結果
+     */
+    public static TallSkinnyQR of(Column[] columns, int threads) {
+        final TallSkinnyQR result = new TallSkinnyQR(columns.length);
+        final int count = columns[0].size();
+        for (Column column : columns) {
+            if (column.size() != count) {
+                throw new IllegalArgumentException(
+                        "Number of element not match: column="
+                        + column.size() + ": rows=" + count);
+            }
+        }
+        if (count == 0) {
+            return result;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            result.upper = pool.invoke(new Reduce(columns, 0, count));
+        } finally {
+            pool.shutdownNow();
+        }
+        result.rowCount = count;
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: of_List_ColumnProjection_int
+    /**
+     * 履歴データファイルを読み込んで分解する。
+     * <p>
+     * ファイルごとに別々のスレッドで分解し、ファイルの指定順に合算する。
+     * </p>
+     *
+     * @param files 履歴データファイルの一覧
+     * @param projection 履歴データファイルの列と次元との対応
+     * @param threads 同時に読み込むファイルの最大数
+     * @return 分解の結果
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public static TallSkinnyQR of(List<File> files,
+            ColumnProjection projection, int threads) throws IOException {
+        final TallSkinnyQR result
+                = new TallSkinnyQR(projection.getDimension());
+        if (files.size() == 1 || threads <= 1) {
+            for (File file : files) {
+                result.merge(of(file, projection));
+            }
+            return result;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(threads, files.size()));
+        try {
+            final List<Future<TallSkinnyQR>> futures
+                    = new ArrayList<>(files.size());
+            for (File file : files) {
+                futures.add(executor.submit(() -> of(file, projection)));
+            }
+            for (Future<TallSkinnyQR> future : futures) {
+                result.merge(await(future));
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: of_File_ColumnProjection
+    /**
+     * 1つの履歴データファイルを読み込んで分解する。
+     *
+     * @param file 履歴データファイル
+     * @param projection 履歴データファイルの列と次元との対応
+     * @return 分解の結果
+     * @throws IOException 読み込みに失敗した場合、または形式が正しくない場合
+     */
+    private static TallSkinnyQR of(File file, ColumnProjection projection)
+            throws IOException {
+        try {
+            if (ColumnarHistoryFile.isColumnar(file)) {
+                final ColumnarHistoryFile columnar
+                        = ColumnarHistoryFile.open(file);
+                final Column[] columns = columnar.getColumns(projection);
+                columnar.verify();
+                try {
+                    return of(columns, 1);
+                } finally {
+                    for (Column column : columns) {
+                        column.close();
+                    }
+                }
+            }
+            final TallSkinnyQR result
+                    = new TallSkinnyQR(projection.getDimension());
+            final double[] row = new double[projection.getDimension()];
+            try (HistoryDataReader in
+                    = new HistoryDataReader(file, projection)) {
+                while (in.next(row)) {
+                    result.add(row);
+                }
+            }
+            return result;
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + ": " + file, e);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: await
+    /**
+     * 分解の終了を待って結果を得る。
+     *
+     * @param future 分解の結果
+     * @return 分解の結果
+     * @throws IOException 読み込み中に入出力エラーが発生した場合
+     */
+    private static TallSkinnyQR await(Future<TallSkinnyQR> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "interrupted while reading history data");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: add
+    /**
+     * 履歴データを1行追加する。
+     * <p>
+     * ブロックの行数に達するまでは行を保持するだけで、達した時点でブロックを分解して
+     * それまでの{@code R}と合算する。
+     * </p>
+     *
+     * @param row 説明変数と目的変数を並べた履歴データ
+     */
+    public void add(double[] row) {
+        if (row.length != dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "row=" + row.length + ": dimension=" + dimension);
+        }
+        block[0][blockRows] = 1.0;
+        for (int i = 0; i < dimension; i++) {
+            block[i + 1][blockRows] = row[i];
+        }
+        ++blockRows;
+        ++rowCount;
+        if (blockRows == BLOCK_ROWS) {
+            flush();
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: flush
+    /**
+     * 保持している行を分解して{@code R}に合算する。
+     */
+    private void flush() {
+        if (blockRows > 0) {
+            upper = combine(upper, triangularize(block, blockRows));
+            blockRows = 0;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: merge
+    /**
+     * 別の分解の結果を合算する。
+     * <p>
+     * 合算した結果は、2つの行列を縦に連結した行列の分解と（直交変換の違いを除いて）一致する。
+     * </p>
+     *
+     * @param other 合算する分解の結果
+     */
+    public void merge(TallSkinnyQR other) {
+        if (other.dimension != dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "other=" + other.dimension + ": dimension=" + dimension);
+        }
+        flush();
+        other.flush();
+        upper = combine(upper, other.upper);
+        rowCount += other.rowCount;
+    }
+    //@method_def_end
+
+    //@method_def_start: triangularize
+    /**
+     * ハウスホルダー変換で行列を上三角行列に変換する。
+     * <p>
+     * {@code k}列目の対角要素より下を0にする鏡映{@code I - 2vv'/v'v}を、{@code k}列目以降の列に順に適用する。
+     * 計算量は行数と列数の2乗の積に比例する。
+     * </p>
+     *
+     * @param columns 列ごとの行列の要素（内容は書き換えられる）
+     * @param rows 行数
+     * @return 上三角行列（列数の正方行列、行数が列数より少ない場合は残りの行を0とする）
+     */
+    static double[][] triangularize(double[][] columns, int rows) {
+        final int width = columns.length;
+        for (int k = 0; k < width && k < rows; k++) {
+            final double[] v = columns[k];
+            double norm = 0.0;
+            for (int r = k; r < rows; r++) {
+                norm += v[r] * v[r];
+            }
+            norm = Math.sqrt(norm);
+            if (norm == 0.0) {
+                continue;
+            }
+            //打ち消し合わないよう、対角要素と逆の符号を選ぶ
+            final double alpha = v[k] > 0 ? -norm : norm;
+            final double vv = 2.0 * norm * (norm + Math.abs(v[k]));
+            v[k] -= alpha;
+            for (int j = k + 1; j < width; j++) {
+                final double[] c = columns[j];
+                double dot = 0.0;
+                for (int r = k; r < rows; r++) {
+                    dot += v[r] * c[r];
+                }
+                final double s = 2.0 * dot / vv;
+                for (int r = k; r < rows; r++) {
+                    c[r] -= s * v[r];
+                }
+            }
+            v[k] = alpha;
+        }
+        final double[][] result = new double[width][width];
+        for (int i = 0; i < width && i < rows; i++) {
+            for (int j = i; j < width; j++) {
+                result[i][j] = columns[j][i];
+            }
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: combine
+    /**
+     * 2つの上三角行列を縦に並べた行列を分解し直す。
+     *
+     * @param top 上の行列
+     * @param bottom 下の行列
+     * @return 分解した上三角行列
+     */
+    static double[][] combine(double[][] top, double[][] bottom) {
+        final int width = top.length;
+        final double[][] stacked = new double[width][2 * width];
+        for (int j = 0; j < width; j++) {
+            for (int i = 0; i <= j; i++) {
+                stacked[j][i] = top[i][j];
+                stacked[j][width + i] = bottom[i][j];
+            }
+        }
+        return triangularize(stacked, 2 * width);
+    }
+    //@method_def_end
+
+    //@method_def_start: solve
+    /**
+     * 多重回帰パラメータを計算する。
+     *
+     * @return 多重回帰パラメータ
+     * @throws IllegalArgumentException 説明変数が線形従属の場合
+     */
+    public double[] solve() {
+        flush();
+        double max = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            max = Math.max(max, Math.abs(upper[i][i]));
+        }
+        final double[] b = new double[dimension];
+        for (int i = dimension - 1; i >= 0; i--) {
+            if (!(Math.abs(upper[i][i]) > EPSILON * max)) {
+                throw new IllegalArgumentException(
+                        "Matrix is not full rank: " + i);
+            }
+            double sum = upper[i][dimension];
+            for (int k = i + 1; k < dimension; k++) {
+                sum -= upper[i][k] * b[k];
+            }
+            b[i] = sum / upper[i][i];
+        }
+        return b;
+    }
+    //@method_def_end
+
+    //@method_def_start: getResidualSumOfSquares
+    /**
+     * 最小二乗解の残差平方和を得る。
+     * <p>
+     * 上三角行列の右下の要素の2乗であり、多重回帰パラメータを代入して計算し直すより桁落ちが少ない。
+     * </p>
+     *
+     * @return 残差平方和
+     */
+    public double getResidualSumOfSquares() {
+        flush();
+        return upper[dimension][dimension] * upper[dimension][dimension];
+    }
+    //@method_def_end
+
+    //@method_def_start: getConditionNumber
+    /**
+     * 定数項と説明変数の列を並べた行列{@code A}の条件数を推定する。
+     * <p>
+     * {@code A = QR}より{@code A}と{@code R}の条件数は等しいため、{@code R}の逆行列を後退代入で求め、
+     * 1ノルムでの条件数{@code ||R|| ||R^-1||}を計算する。2ノルムでの条件数とは次元数倍以内の差となる。
+     * </p>
+     *
+     * @return 条件数の推定値、線形従属の場合は正の無限大
+     */
+    public double getConditionNumber() {
+        flush();
+        final double[][] inverse = new double[dimension][dimension];
+        for (int j = 0; j < dimension; j++) {
+            //R x = e_jを解く
+            for (int i = j; i >= 0; i--) {
+                double sum = i == j ? 1.0 : 0.0;
+                for (int k = i + 1; k <= j; k++) {
+                    sum -= upper[i][k] * inverse[k][j];
+                }
+                inverse[i][j] = sum / upper[i][i];
+            }
+        }
+        final double result
+                = norm1(upper, dimension) * norm1(inverse, dimension);
+        return Double.isNaN(result) ? Double.POSITIVE_INFINITY : result;
+    }
+    //@method_def_end
+
+    //@method_def_start: norm1
+    /**
+     * 正方行列の左上の部分の1ノルム（列ごとの絶対値の和の最大値）を計算する。
+     *
+     * @param matrix 行列
+     * @param size 部分の大きさ
+     * @return 1ノルム
+     */
+    private static double norm1(double[][] matrix, int size) {
+        double result = 0.0;
+        for (int j = 0; j < size; j++) {
+            double sum = 0.0;
+            for (int i = 0; i < size; i++) {
+                sum += Math.abs(matrix[i][j]);
+            }
+            result = Math.max(result, sum);
+        }
+        return result;
+    }
+    //@method_def_end
+
+    //@method_def_start: getDimension
+    /**
+     * 履歴データの次元数を得る。
+     *
+     * @return 履歴データの次元数
+     */
+    public int getDimension() {
+        return dimension;
+    }
+    //@method_def_end
+
+    //@method_def_start: getRowCount
+    /**
+     * 加算した行数を得る。
+     *
+     * @return 加算した行数
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+    //@method_def_end
+
+    /**
+     * 行の範囲を分解するタスク
+     */
+    private static final class Reduce extends RecursiveTask<double[][]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Column[] columns; //履歴データの各列の数値データ一覧
+        private final int from; //分解する最初の行
+        private final int to; //分解する最後の行の次
+
+        //@method_def_start: Reduce
+        /**
+         * 分解する行の範囲を指定して作成する。
+         */
+        Reduce(Column[] columns, int from, int to) {
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+        //@method_def_end
+
+        //@method_def_start: compute
+        /**
+         * 行数がブロックの行数を超える場合は2つに分割してそれぞれの{@code R}を合算し、
+         * そうでない場合はブロックを分解する。
+         */
+        @Override
+        protected double[][] compute() {
+            if (to - from > BLOCK_ROWS) {
+                final int middle = (from + to) >>> 1;
+                final Reduce top = new Reduce(columns, from, middle);
+                top.fork();
+                final double[][] bottom
+                        = new Reduce(columns, middle, to).compute();
+                return combine(top.join(), bottom);
+            }
+            final int rows = to - from;
+            final double[][] block = new double[columns.length + 1][rows];
+            for (int r = 0; r < rows; r++) {
+                block[0][r] = 1.0;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                final Column column = columns[i];
+                final double[] values = block[i + 1];
+                for (int r = 0; r < rows; r++) {
+                    values[r] = column.get(from + r);
+                }
+            }
+            return triangularize(block, rows);
+        }
+        //@method_def_end
+
+    }
+
+}
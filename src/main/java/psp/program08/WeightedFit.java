@@ -0,0 +1,179 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 古い履歴データほど重みを小さくした重み付き最小二乗法で回帰モデルを計算する。
+ *
+ * <p>
+ * 行ごとの重みと、行を追加するたびに既存の重みに掛ける減衰率を指定できる。
+ * 減衰率{@code λ}の場合、{@code k}行前に追加した行の重みは{@code λ^k}倍になる。
+ * 十分統計量は行を追加するたびに更新し（計算量は次元数の2乗に比例する）、
+ * 既に読み込んだ行を読み直すことはない。
+ * </p>
+ *
+ * <p>
+ * 標準偏差と予測区間は、履歴データの個数の代わりに有効サンプルサイズ
+ * （{@link SufficientStatistics#getEffectiveCount()}）を用いて計算する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class WeightedFit {
+
+    private final int dimension; //履歴データの次元数
+    private final double decay; //行を追加するたびに既存の重みに掛ける値
+    private final SufficientStatistics statistics; //重み付きの十分統計量
+
+    //@method_def_start: WeightedFit
+    /**
+     * 減衰率を指定して作成する。
+     *
+     * @param dimension 履歴データの次元数
+     * @param decay 減衰率（0より大きく1以下、1の場合は減衰しない）
+     */
+    public WeightedFit(int dimension, double decay) {
+        if (!(decay > 0.0 && decay <= 1.0)) {
+            throw new IllegalArgumentException("decay=" + decay);
+        }
+        this.dimension = dimension;
+        this.decay = decay;
+        this.statistics = new SufficientStatistics(dimension);
+    }
+    //@method_def_end
+
+    //@method_def_start: add
+    /**
+     * 最新の行を重み1で追加する。
+     *
+     * @param row 説明変数と目的変数を並べた履歴データ
+     */
+    public void add(double[] row) {
+        add(row, 1.0);
+    }
+    //@method_def_end
+
+    //@method_def_start: add_doubleArray_double
+    /**
+     * 最新の行を重みを指定して追加する。既存の行の重みには減衰率を掛ける。
+     *
+     * @param row 説明変数と目的変数を並べた履歴データ
+     * @param weight 行の重み（0以上）
+     */
+    public void add(double[] row, double weight) {
+        if (decay < 1.0) {
+            statistics.scale(decay);
+        }
+        statistics.add(row, weight);
+    }
+    //@method_def_end
+
+    //@method_def_start: addAll
+    /**
+     * 履歴データファイルの行を順に追加する。
+     * <p>
+     * 重みの列を使用する場合、{@code projection}には次元数より1つ多い列を指定し、
+     * 最後の列を重みとする。
+     * 列指向のバイナリ形式（{@link ColumnarHistoryFile}）の場合はメモリマップした各列から、
+     * それ以外の場合はタブ区切りの形式として1行ずつ追加する。
+     * </p>
+     *
+     * @param files 履歴データファイルの一覧（古いものから順に並べる）
+     * @param projection 履歴データファイルの列と次元（及び重み）との対応
+     * @throws IOException 履歴データファイルの読み込みに失敗した場合
+     */
+    public void addAll(List<File> files, ColumnProjection projection)
+            throws IOException {
+        final boolean weighted = projection.getDimension() == dimension + 1;
+        if (!weighted && projection.getDimension() != dimension) {
+            throw new IllegalArgumentException("Number of element not match: "
+                    + "columns=" + projection.getDimension()
+                    + ": dimension=" + dimension);
+        }
+        final double[] values = new double[projection.getDimension()];
+        final double[] row = weighted ? new double[dimension] : values;
+        for (File file : files) {
+            if (!ColumnarHistoryFile.isColumnar(file)) {
+                try (HistoryDataReader in
+                        = new HistoryDataReader(file, projection)) {
+                    while (in.next(values)) {
+                        if (weighted) {
+                            System.arraycopy(values, 0, row, 0, dimension);
+                            add(row, values[dimension]);
+                        } else {
+                            add(row);
+                        }
+                    }
+                }
+            } else {
+                final ColumnarHistoryFile columnar
+                        = ColumnarHistoryFile.open(file);
+                final Column[] columns = columnar.getColumns(projection);
+                columnar.verify();
+                try {
+                    final int count = columns[0].size();
+                    for (int r = 0; r < count; r++) {
+                        for (int i = 0; i < dimension; i++) {
+                            row[i] = columns[i].get(r);
+                        }
+                        add(row, weighted ? columns[dimension].get(r) : 1.0);
+                    }
+                } finally {
+                    for (Column column : columns) {
+                        column.close();
+                    }
+                }
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: getModel
+    /**
+     * 追加した行から回帰モデルを計算する。
+     *
+     * @param predictionIntervalRate 予測区間の大きさの値
+     * @param acceptableError 許容誤差（百分率）
+     * @param initialNumberOfSegments 積分範囲の初期分割数
+     * @return 回帰モデル
+     */
+    public ProbeModel getModel(double predictionIntervalRate,
+            double acceptableError, int initialNumberOfSegments) {
+        return ProbeModel.fit(statistics, predictionIntervalRate,
+                acceptableError, initialNumberOfSegments);
+    }
+    //@method_def_end
+
+    //@method_def_start: getStatistics
+    /**
+     * 重み付きの十分統計量の複製を得る。
+     *
+     * @return 十分統計量
+     */
+    public SufficientStatistics getStatistics() {
+        return statistics.copy();
+    }
+    //@method_def_end
+
+    //@method_def_start: getDecay
+    /**
+     * 減衰率を得る。
+     *
+     * @return 減衰率
+     */
+    public double getDecay() {
+        return decay;
+    }
+    //@method_def_end
+
+}
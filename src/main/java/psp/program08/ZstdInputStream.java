@@ -0,0 +1,1245 @@
+/*
+SUMMARY
+Program: PSP Program 08
+Name: Satoshi Muraoka
+Date: 2017/01/24
+Description: 「追加」、「再利用」、「修正」規模と履歴データで多重回帰分析を行い、
+             見積値とその70%予測区間を計算する。
+ */
+package psp.program08;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Zstandard形式（RFC 8878）のファイルを展開しながら読み込むストリーム
+ *
+ * <p>
+ * JDKに展開処理がないため、フレーム、ブロック、リテラル（ハフマン符号）、シーケンス（FSE）の
+ * 復号をこのクラスで行う。ブロックは同じフレームの前のブロックの内容とエントロピー符号の表を参照するため、
+ * 呼び出し元のスレッドで1ブロックずつ順に展開する。展開した内容はウィンドウの大きさ分だけ保持し、
+ * 一時ファイルには書き出さない。
+ * </p>
+ *
+ * <p>
+ * 複数のフレームを連結したファイルとスキップ可能なフレームに対応する。
+ * 辞書を使用するフレームには対応せず、例外を送出する。
+ * コンテンツのチェックサムが記録されている場合はフレームの終わりで検査する。
+ * </p>
+ *
+ * @author smuraoka
+ */
+public final class ZstdInputStream extends InputStream {
+
+    private static final int MAGIC = 0xFD2FB528; //フレームのマジックナンバー
+    private static final int SKIPPABLE_MAGIC = 0x184D2A50; //スキップ可能なフレーム（下位4ビットは任意）
+    private static final int MAX_WINDOW_LOG = 27; //対応するウィンドウの大きさの上限（2の累乗）
+    private static final int MAX_BLOCK_SIZE = 1 << 17; //ブロックの大きさの上限
+    private static final int MAX_LITERAL_LENGTH_CODE = 35; //リテラル長の符号の最大値
+    private static final int MAX_MATCH_LENGTH_CODE = 52; //一致長の符号の最大値
+    private static final int MAX_OFFSET_CODE = 31; //オフセットの符号の最大値
+
+    //リテラル長の符号ごとの基準値と追加ビット数
+    private static final int[] LITERAL_LENGTH_BASE = {
+        0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15,
+        16, 18, 20, 22, 24, 28, 32, 40, 48, 64, 128, 256, 512, 1024, 2048,
+        4096, 8192, 16384, 32768, 65536
+    };
+    private static final int[] LITERAL_LENGTH_BITS = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8, 9, 10, 11,
+        12, 13, 14, 15, 16
+    };
+    //一致長の符号ごとの基準値と追加ビット数
+    private static final int[] MATCH_LENGTH_BASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18,
+        19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32, 33, 34,
+        35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 131, 259, 515, 1027,
+        2051, 4099, 8195, 16387, 32771, 65539
+    };
+    private static final int[] MATCH_LENGTH_BITS = {
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+        1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10,
+        11, 12, 13, 14, 15, 16
+    };
+    //既定の分布で作成したFSEの復号表
+    private static final FseTable DEFAULT_LITERAL_LENGTHS = FseTable.of(
+            new int[]{
+                4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1,
+                2, 2, 2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1,
+                -1, -1, -1, -1
+            }, 6);
+    private static final FseTable DEFAULT_MATCH_LENGTHS = FseTable.of(
+            new int[]{
+                1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+                1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1,
+                -1, -1, -1, -1, -1
+            }, 6);
+    private static final FseTable DEFAULT_OFFSETS = FseTable.of(
+            new int[]{
+                1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1,
+                1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1
+            }, 5);
+
+    private final InputStream in; //圧縮されたデータ
+    private final byte[] block = new byte[MAX_BLOCK_SIZE]; //圧縮されたブロック
+    private final byte[] literals = new byte[MAX_BLOCK_SIZE]; //ブロックのリテラル
+    private final int[] repeatOffsets = new int[3]; //直近に使用したオフセット
+    private byte[] window = new byte[0]; //展開した内容（一致の参照に必要な直近の内容を含む）
+    private int position; //展開した内容の読み込み位置
+    private int end; //展開した内容の末尾
+    private int frameStart; //展開した内容のうち、現在のフレームの先頭の位置
+    private boolean inFrame; //フレームの途中か
+    private int windowSize; //フレームのウィンドウの大きさ
+    private int blockMaximumSize; //フレームのブロックの大きさの上限
+    private long contentSize; //フレームの展開後の大きさ（記録されていない場合は-1）
+    private long frameDecoded; //フレームの展開済みのバイト数
+    private XxHash64 checksum; //コンテンツのチェックサム（記録されていない場合はnull）
+    private HuffmanTable huffman; //直前のブロックのハフマン符号の表
+    private FseTable literalLengths; //直前のブロックのリテラル長の復号表
+    private FseTable offsets; //直前のブロックのオフセットの復号表
+    private FseTable matchLengths; //直前のブロックの一致長の復号表
+    private int blockPosition; //圧縮されたブロックの読み込み位置
+    private int literalCount; //ブロックのリテラルのバイト数
+
+    //@method_def_start: ZstdInputStream
+    /**
+     * 圧縮されたデータを指定して作成する。
+     *
+     * @param in 圧縮されたデータ
+     */
+    public ZstdInputStream(InputStream in) {
+        this.in = in;
+    }
+    //@method_def_end
+
+    //@method_def_start: read
+    /**
+     * 展開した内容を1バイト読み込む。
+     *
+     * @return 読み込んだ値、終端に達した場合は{@code -1}
+     * @throws IOException 読み込み、または展開に失敗した場合
+     */
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return window[position++] & 0xFF;
+    }
+    //@method_def_end
+
+    //@method_def_start: read_byteArray_int_int
+    /**
+     * 展開した内容を配列に読み込む。
+     *
+     * @param buffer 読み込み先
+     * @param offset 読み込み先の開始位置
+     * @param length 読み込む最大のバイト数
+     * @return 読み込んだバイト数、終端に達した場合は{@code -1}
+     * @throws IOException 読み込み、または展開に失敗した場合
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int count = Math.min(length, end - position);
+        System.arraycopy(window, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+    //@method_def_end
+
+    //@method_def_start: close
+    /**
+     * 圧縮されたデータのストリームを閉じる。
+     *
+     * @throws IOException 閉じる処理に失敗した場合
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+    //@method_def_end
+
+    //@method_def_start: fill
+    /**
+     * 展開した内容を読み終えていれば、次のブロックを展開する。
+     *
+     * @return 読み込める内容がある場合は{@code true}
+     */
+    private boolean fill() throws IOException {
+        while (position == end) {
+            if (!inFrame && !readFrameHeader()) {
+                return false;
+            }
+            try {
+                readBlock();
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Broken zstd data", e);
+            }
+        }
+        return true;
+    }
+    //@method_def_end
+
+    //@method_def_start: readFrameHeader
+    /**
+     * 次のフレームのヘッダを読み込む。スキップ可能なフレームは読み飛ばす。
+     *
+     * @return フレームがある場合は{@code true}、終端に達した場合は{@code false}
+     */
+    private boolean readFrameHeader() throws IOException {
+        int magic;
+        while (true) {
+            final int first = in.read();
+            if (first < 0) {
+                return false;
+            }
+            magic = first | (int) readLittleEndian(3) << 8;
+            if ((magic & 0xFFFFFFF0) != SKIPPABLE_MAGIC) {
+                break;
+            }
+            skipFully(readLittleEndian(4));
+        }
+        if (magic != MAGIC) {
+            throw new IOException("Illegal zstd frame");
+        }
+        final int descriptor = readUnsignedByte();
+        final int contentSizeFlag = descriptor >>> 6;
+        final boolean singleSegment = (descriptor & 0x20) != 0;
+        if ((descriptor & 0x08) != 0) {
+            throw new IOException("Illegal zstd frame");
+        }
+        long size = 0;
+        if (!singleSegment) {
+            final int windowDescriptor = readUnsignedByte();
+            final long base = 1L << (10 + (windowDescriptor >>> 3));
+            size = base + (base >>> 3) * (windowDescriptor & 7);
+        }
+        final int dictionaryIdSize = (descriptor & 3) == 3 ? 4 : descriptor & 3;
+        if (readLittleEndian(dictionaryIdSize) != 0) {
+            throw new IOException("Unsupported zstd dictionary");
+        }
+        switch (contentSizeFlag) {
+            case 0:
+                contentSize = singleSegment ? readLittleEndian(1) : -1;
+                break;
+            case 1:
+                contentSize = readLittleEndian(2) + 256;
+                break;
+            case 2:
+                contentSize = readLittleEndian(4);
+                break;
+            default:
+                contentSize = readLittleEndian(8);
+                break;
+        }
+        if (singleSegment) {
+            size = contentSize;
+        }
+        if (size < 0 || size > 1L << MAX_WINDOW_LOG) {
+            throw new IOException("Unsupported zstd window size: " + size);
+        }
+        windowSize = (int) size;
+        blockMaximumSize = Math.min(windowSize, MAX_BLOCK_SIZE);
+        checksum = (descriptor & 0x04) != 0 ? new XxHash64() : null;
+        repeatOffsets[0] = 1;
+        repeatOffsets[1] = 4;
+        repeatOffsets[2] = 8;
+        huffman = null;
+        literalLengths = null;
+        offsets = null;
+        matchLengths = null;
+        frameStart = end;
+        frameDecoded = 0;
+        inFrame = true;
+        return true;
+    }
+    //@method_def_end
+
+    //@method_def_start: readBlock
+    /**
+     * ブロックを1つ読み込んで展開し、最後のブロックであればフレームを終える。
+     */
+    private void readBlock() throws IOException {
+        final int header = (int) readLittleEndian(3);
+        final boolean last = (header & 1) != 0;
+        final int type = (header >>> 1) & 3;
+        final int size = header >>> 3;
+        if (size > blockMaximumSize) {
+            throw new IOException("Broken zstd data");
+        }
+        reserve(blockMaximumSize);
+        final int from = end;
+        switch (type) {
+            case 0:
+                readFully(window, end, size);
+                end += size;
+                break;
+            case 1:
+                Arrays.fill(window, end, end + size, (byte) readUnsignedByte());
+                end += size;
+                break;
+            case 2:
+                readFully(block, 0, size);
+                decodeCompressedBlock(size);
+                break;
+            default:
+                throw new IOException("Broken zstd data");
+        }
+        frameDecoded += end - from;
+        if (checksum != null) {
+            checksum.update(window, from, end - from);
+        }
+        if (last) {
+            if (contentSize >= 0 && frameDecoded != contentSize) {
+                throw new IOException("Broken zstd data");
+            }
+            if (checksum != null
+                    && (int) readLittleEndian(4) != (int) checksum.getValue()) {
+                throw new IOException("Broken zstd data: checksum");
+            }
+            inFrame = false;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: reserve
+    /**
+     * 展開した内容の末尾に指定したバイト数を書き込める領域を確保する。
+     * <p>
+     * 一致の参照に必要な直近の内容（最大でウィンドウの大きさ）だけを先頭に移す。
+     * 移す回数を減らすため、領域の大きさはウィンドウの大きさの2倍まで拡張する。
+     * </p>
+     */
+    private void reserve(int length) {
+        if (end + length <= window.length) {
+            return;
+        }
+        final int keep = (int) Math.min(end - frameStart,
+                Math.min(windowSize, frameDecoded));
+        System.arraycopy(window, end - keep, window, 0, keep);
+        frameStart = Math.max(0, frameStart - (end - keep));
+        position = keep;
+        end = keep;
+        if (keep + length > window.length) {
+            window = Arrays.copyOf(window, Math.max(keep + length,
+                    Math.min(window.length * 2, windowSize * 2 + length)));
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: decodeCompressedBlock
+    /**
+     * 圧縮されたブロックのリテラルとシーケンスを復号し、展開した内容に追加する。
+     *
+     * @param size 圧縮されたブロックの大きさ
+     */
+    private void decodeCompressedBlock(int size) throws IOException {
+        blockPosition = 0;
+        decodeLiterals(size);
+        if (blockPosition >= size) {
+            throw new IOException("Broken zstd data");
+        }
+        final int first = block[blockPosition++] & 0xFF;
+        int count;
+        if (first < 128) {
+            count = first;
+        } else if (first < 255) {
+            count = ((first - 128) << 8) + (block[blockPosition++] & 0xFF);
+        } else {
+            count = (block[blockPosition] & 0xFF)
+                    + ((block[blockPosition + 1] & 0xFF) << 8) + 0x7F00;
+            blockPosition += 2;
+        }
+        int literal = 0;
+        if (count > 0) {
+            final int modes = block[blockPosition++] & 0xFF;
+            if ((modes & 3) != 0) {
+                throw new IOException("Broken zstd data");
+            }
+            literalLengths = selectTable(modes >>> 6, literalLengths,
+                    DEFAULT_LITERAL_LENGTHS, 9, MAX_LITERAL_LENGTH_CODE, size);
+            offsets = selectTable((modes >>> 4) & 3, offsets,
+                    DEFAULT_OFFSETS, 8, MAX_OFFSET_CODE, size);
+            matchLengths = selectTable((modes >>> 2) & 3, matchLengths,
+                    DEFAULT_MATCH_LENGTHS, 9, MAX_MATCH_LENGTH_CODE, size);
+            literal = executeSequences(count, size);
+        } else if (blockPosition != size) {
+            throw new IOException("Broken zstd data");
+        }
+        copyLiterals(literal, literalCount - literal);
+    }
+    //@method_def_end
+
+    //@method_def_start: decodeLiterals
+    /**
+     * ブロックのリテラルを復号する。
+     *
+     * @param size 圧縮されたブロックの大きさ
+     */
+    private void decodeLiterals(int size) throws IOException {
+        final int b0 = block[0] & 0xFF;
+        final int type = b0 & 3;
+        final int format = (b0 >>> 2) & 3;
+        if (type < 2) {
+            //圧縮されていない、または同じ値の繰り返し
+            switch (format) {
+                case 1:
+                    literalCount = (b0 >>> 4) + ((block[1] & 0xFF) << 4);
+                    blockPosition = 2;
+                    break;
+                case 3:
+                    literalCount = (b0 >>> 4) + ((block[1] & 0xFF) << 4)
+                            + ((block[2] & 0xFF) << 12);
+                    blockPosition = 3;
+                    break;
+                default:
+                    literalCount = b0 >>> 3;
+                    blockPosition = 1;
+                    break;
+            }
+            if (literalCount > blockMaximumSize) {
+                throw new IOException("Broken zstd data");
+            }
+            if (type == 0) {
+                System.arraycopy(block, blockPosition, literals, 0,
+                        literalCount);
+                blockPosition += literalCount;
+            } else {
+                Arrays.fill(literals, 0, literalCount, block[blockPosition++]);
+            }
+            if (blockPosition > size) {
+                throw new IOException("Broken zstd data");
+            }
+            return;
+        }
+
+        //ハフマン符号
+        final int compressedSize;
+        switch (format) {
+            case 0:
+            case 1: {
+                final int header = (int) littleEndian(block, 0, 3);
+                literalCount = (header >>> 4) & 0x3FF;
+                compressedSize = header >>> 14;
+                blockPosition = 3;
+                break;
+            }
+            case 2: {
+                final int header = (int) littleEndian(block, 0, 4);
+                literalCount = (header >>> 4) & 0x3FFF;
+                compressedSize = header >>> 18;
+                blockPosition = 4;
+                break;
+            }
+            default: {
+                final long header = littleEndian(block, 0, 5);
+                literalCount = (int) (header >>> 4) & 0x3FFFF;
+                compressedSize = (int) (header >>> 22);
+                blockPosition = 5;
+                break;
+            }
+        }
+        final int limit = blockPosition + compressedSize;
+        if (literalCount > blockMaximumSize || limit > size) {
+            throw new IOException("Broken zstd data");
+        }
+        if (type == 2) {
+            blockPosition = readHuffmanTable(blockPosition, limit);
+        } else if (huffman == null) {
+            throw new IOException("Broken zstd data");
+        }
+        if (format == 0) {
+            huffman.decode(block, blockPosition, limit, literals, 0,
+                    literalCount);
+        } else {
+            //4つのストリーム
+            final int sizes = blockPosition + 6;
+            final int size1 = (int) littleEndian(block, blockPosition, 2);
+            final int size2 = (int) littleEndian(block, blockPosition + 2, 2);
+            final int size3 = (int) littleEndian(block, blockPosition + 4, 2);
+            final int segment = (literalCount + 3) / 4;
+            final int lastSegment = literalCount - 3 * segment;
+            final int start2 = sizes + size1;
+            final int start3 = start2 + size2;
+            final int start4 = start3 + size3;
+            if (lastSegment < 0 || start4 >= limit) {
+                throw new IOException("Broken zstd data");
+            }
+            huffman.decode(block, sizes, start2, literals, 0, segment);
+            huffman.decode(block, start2, start3, literals, segment, segment);
+            huffman.decode(block, start3, start4, literals, 2 * segment,
+                    segment);
+            huffman.decode(block, start4, limit, literals, 3 * segment,
+                    lastSegment);
+        }
+        blockPosition = limit;
+    }
+    //@method_def_end
+
+    //@method_def_start: readHuffmanTable
+    /**
+     * ハフマン符号の表の記述を読み込む。
+     *
+     * @param from 記述の開始位置
+     * @param limit リテラルの領域の終わり
+     * @return 記述の次の位置
+     */
+    private int readHuffmanTable(int from, int limit) throws IOException {
+        final int header = block[from] & 0xFF;
+        final int[] weights = new int[256];
+        int count;
+        int next;
+        if (header >= 128) {
+            //4ビットずつ並べた重み
+            count = header - 127;
+            next = from + 1 + (count + 1) / 2;
+            if (next > limit) {
+                throw new IOException("Broken zstd data");
+            }
+            for (int i = 0; i < count; i++) {
+                final int value = block[from + 1 + i / 2] & 0xFF;
+                weights[i] = i % 2 == 0 ? value >>> 4 : value & 0xF;
+            }
+        } else {
+            //FSEで圧縮された重み（2つの状態を交互に使用する）
+            next = from + 1 + header;
+            if (next > limit) {
+                throw new IOException("Broken zstd data");
+            }
+            blockPosition = from + 1;
+            final FseTable table = readFseTable(6, 255, next);
+            final BackwardBits bits = new BackwardBits(block, blockPosition,
+                    next);
+            int state1 = bits.read(table.accuracyLog);
+            int state2 = bits.read(table.accuracyLog);
+            count = 0;
+            while (true) {
+                if (count > 253) {
+                    throw new IOException("Broken zstd data");
+                }
+                weights[count++] = table.symbol(state1);
+                state1 = table.next(state1, bits);
+                if (bits.isOverflowed()) {
+                    weights[count++] = table.symbol(state2);
+                    break;
+                }
+                weights[count++] = table.symbol(state2);
+                state2 = table.next(state2, bits);
+                if (bits.isOverflowed()) {
+                    weights[count++] = table.symbol(state1);
+                    break;
+                }
+            }
+        }
+        huffman = HuffmanTable.of(weights, count);
+        return next;
+    }
+    //@method_def_end
+
+    //@method_def_start: selectTable
+    /**
+     * シーケンスの記号の圧縮方法に従って復号表を得る。
+     *
+     * @param mode 圧縮方法
+     * @param previous 直前のブロックの復号表
+     * @param predefined 既定の分布の復号表
+     * @param maxAccuracyLog 精度の上限
+     * @param maxSymbol 記号の最大値
+     * @param limit 圧縮されたブロックの大きさ
+     * @return 復号表
+     */
+    private FseTable selectTable(int mode, FseTable previous,
+            FseTable predefined, int maxAccuracyLog, int maxSymbol, int limit)
+            throws IOException {
+        switch (mode) {
+            case 0:
+                return predefined;
+            case 1: {
+                final int symbol = block[blockPosition++] & 0xFF;
+                if (symbol > maxSymbol) {
+                    throw new IOException("Broken zstd data");
+                }
+                return FseTable.rle(symbol);
+            }
+            case 2:
+                return readFseTable(maxAccuracyLog, maxSymbol, limit);
+            default:
+                if (previous == null) {
+                    throw new IOException("Broken zstd data");
+                }
+                return previous;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: readFseTable
+    /**
+     * 圧縮されたブロックの読み込み位置からFSEの分布を読み込み、復号表を作成する。
+     *
+     * @param maxAccuracyLog 精度の上限
+     * @param maxSymbol 記号の最大値
+     * @param limit 分布を読み込める範囲の終わり
+     * @return 復号表
+     */
+    private FseTable readFseTable(int maxAccuracyLog, int maxSymbol,
+            int limit) throws IOException {
+        long bit = (long) blockPosition * 8;
+        final long bitLimit = (long) limit * 8;
+        final int accuracyLog = 5 + (int) bits(bit, 4, bitLimit);
+        bit += 4;
+        if (accuracyLog > maxAccuracyLog) {
+            throw new IOException("Broken zstd data");
+        }
+        final int[] frequencies = new int[maxSymbol + 1];
+        int remaining = 1 << accuracyLog;
+        int symbol = 0;
+        while (remaining > 0) {
+            if (symbol > maxSymbol) {
+                throw new IOException("Broken zstd data");
+            }
+            final int width = highestBit(remaining + 1) + 1;
+            int value = (int) bits(bit, width, bitLimit);
+            final int lowerMask = (1 << (width - 1)) - 1;
+            final int threshold = (1 << width) - 1 - (remaining + 1);
+            if ((value & lowerMask) < threshold) {
+                value &= lowerMask;
+                bit += width - 1;
+            } else {
+                if (value > lowerMask) {
+                    value -= threshold;
+                }
+                bit += width;
+            }
+            final int probability = value - 1;
+            remaining -= Math.abs(probability);
+            frequencies[symbol++] = probability;
+            if (probability == 0) {
+                //0が続く個数（3の場合はさらに続く）
+                int repeat;
+                do {
+                    repeat = (int) bits(bit, 2, bitLimit);
+                    bit += 2;
+                    symbol += repeat;
+                } while (repeat == 3);
+            }
+        }
+        if (remaining != 0 || symbol > maxSymbol + 1) {
+            throw new IOException("Broken zstd data");
+        }
+        blockPosition = (int) ((bit + 7) >>> 3);
+        return FseTable.of(Arrays.copyOf(frequencies, symbol), accuracyLog);
+    }
+    //@method_def_end
+
+    //@method_def_start: bits
+    /**
+     * 圧縮されたブロックの指定したビット位置から、前方向に指定したビット数を読み込む。
+     */
+    private long bits(long bit, int count, long bitLimit) throws IOException {
+        if (bit + count > bitLimit) {
+            throw new IOException("Broken zstd data");
+        }
+        final int from = (int) (bit >>> 3);
+        final int shift = (int) (bit & 7);
+        final int bytes = (shift + count + 7) >>> 3;
+        return (littleEndian(block, from, bytes) >>> shift)
+                & ((1L << count) - 1);
+    }
+    //@method_def_end
+
+    //@method_def_start: executeSequences
+    /**
+     * シーケンスを復号し、リテラルのコピーと一致のコピーを順に実行する。
+     *
+     * @param count シーケンスの数
+     * @param size 圧縮されたブロックの大きさ
+     * @return 使用したリテラルのバイト数
+     */
+    private int executeSequences(int count, int size) throws IOException {
+        final FseTable ll = literalLengths;
+        final FseTable of = offsets;
+        final FseTable ml = matchLengths;
+        final BackwardBits bits = new BackwardBits(block, blockPosition, size);
+        int llState = bits.read(ll.accuracyLog);
+        int ofState = bits.read(of.accuracyLog);
+        int mlState = bits.read(ml.accuracyLog);
+        final int limit = end + blockMaximumSize;
+        int literal = 0;
+        for (int i = 0; i < count; i++) {
+            final int ofCode = of.symbol(ofState);
+            final int llCode = ll.symbol(llState);
+            final int mlCode = ml.symbol(mlState);
+            if (ofCode > MAX_OFFSET_CODE || llCode > MAX_LITERAL_LENGTH_CODE
+                    || mlCode > MAX_MATCH_LENGTH_CODE) {
+                throw new IOException("Broken zstd data");
+            }
+            final long offsetValue = (1L << ofCode) + bits.read(ofCode);
+            final int matchLength = MATCH_LENGTH_BASE[mlCode]
+                    + bits.read(MATCH_LENGTH_BITS[mlCode]);
+            final int literalLength = LITERAL_LENGTH_BASE[llCode]
+                    + bits.read(LITERAL_LENGTH_BITS[llCode]);
+            if (i < count - 1) {
+                llState = ll.next(llState, bits);
+                mlState = ml.next(mlState, bits);
+                ofState = of.next(ofState, bits);
+            }
+            final long offset = offset(offsetValue, literalLength);
+
+            if (literal + literalLength > literalCount
+                    || (long) end + literalLength + matchLength > limit) {
+                throw new IOException("Broken zstd data");
+            }
+            copyLiterals(literal, literalLength);
+            literal += literalLength;
+            if (offset > end - frameStart || offset > windowSize) {
+                throw new IOException("Broken zstd data");
+            }
+            final int from = end - (int) offset;
+            if (offset >= matchLength) {
+                System.arraycopy(window, from, window, end, matchLength);
+            } else {
+                //重なる範囲は1バイトずつコピーして繰り返しを再現する
+                for (int k = 0; k < matchLength; k++) {
+                    window[end + k] = window[from + k];
+                }
+            }
+            end += matchLength;
+        }
+        if (bits.remaining() != 0) {
+            throw new IOException("Broken zstd data");
+        }
+        return literal;
+    }
+    //@method_def_end
+
+    //@method_def_start: offset
+    /**
+     * オフセットの値から一致の位置までの距離を求め、直近に使用したオフセットを更新する。
+     *
+     * @param offsetValue オフセットの値（1から3は直近に使用したオフセットを表す）
+     * @param literalLength リテラル長
+     * @return 一致の位置までの距離
+     */
+    private long offset(long offsetValue, int literalLength)
+            throws IOException {
+        if (offsetValue > 3) {
+            final long offset = offsetValue - 3;
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Broken zstd data");
+            }
+            repeatOffsets[2] = repeatOffsets[1];
+            repeatOffsets[1] = repeatOffsets[0];
+            repeatOffsets[0] = (int) offset;
+            return offset;
+        }
+        //リテラル長が0の場合は1つずらして参照する
+        final int index = (int) offsetValue - 1 + (literalLength == 0 ? 1 : 0);
+        if (index == 0) {
+            return repeatOffsets[0];
+        }
+        final int offset = index < 3 ? repeatOffsets[index]
+                : repeatOffsets[0] - 1;
+        if (offset <= 0) {
+            throw new IOException("Broken zstd data");
+        }
+        if (index > 1) {
+            repeatOffsets[2] = repeatOffsets[1];
+        }
+        repeatOffsets[1] = repeatOffsets[0];
+        repeatOffsets[0] = offset;
+        return offset;
+    }
+    //@method_def_end
+
+    //@method_def_start: copyLiterals
+    /**
+     * リテラルを展開した内容の末尾にコピーする。
+     */
+    private void copyLiterals(int from, int length) throws IOException {
+        if (end + length > window.length) {
+            throw new IOException("Broken zstd data");
+        }
+        System.arraycopy(literals, from, window, end, length);
+        end += length;
+    }
+    //@method_def_end
+
+    //@method_def_start: readUnsignedByte
+    /**
+     * 圧縮されたデータを1バイト読み込む。
+     */
+    private int readUnsignedByte() throws IOException {
+        final int value = in.read();
+        if (value < 0) {
+            throw new EOFException("Unexpected end of zstd data");
+        }
+        return value;
+    }
+    //@method_def_end
+
+    //@method_def_start: readLittleEndian
+    /**
+     * 圧縮されたデータからリトルエンディアンの整数を読み込む。
+     */
+    private long readLittleEndian(int bytes) throws IOException {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value |= (long) readUnsignedByte() << (8 * i);
+        }
+        return value;
+    }
+    //@method_def_end
+
+    //@method_def_start: readFully
+    /**
+     * 圧縮されたデータを指定したバイト数だけ読み込む。
+     */
+    private void readFully(byte[] buffer, int offset, int length)
+            throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int n = in.read(buffer, offset + read, length - read);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of zstd data");
+            }
+            read += n;
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: skipFully
+    /**
+     * 圧縮されたデータを指定したバイト数だけ読み飛ばす。
+     */
+    private void skipFully(long length) throws IOException {
+        long skipped = 0;
+        while (skipped < length) {
+            final long n = in.skip(length - skipped);
+            if (n <= 0) {
+                readUnsignedByte();
+                ++skipped;
+            } else {
+                skipped += n;
+            }
+        }
+    }
+    //@method_def_end
+
+    //@method_def_start: littleEndian
+    /**
+     * 配列の指定した位置からリトルエンディアンの整数（最大8バイト）を得る。
+     */
+    private static long littleEndian(byte[] data, int from, int bytes) {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value |= (long) (data[from + i] & 0xFF) << (8 * i);
+        }
+        return value;
+    }
+    //@method_def_end
+
+    //@method_def_start: highestBit
+    /**
+     * 最上位の1のビットの位置を得る。
+     */
+    private static int highestBit(int value) {
+        return 31 - Integer.numberOfLeadingZeros(value);
+    }
+    //@method_def_end
+
+    /**
+     * 末尾から先頭に向かって読み込むビット列
+     */
+    private static final class BackwardBits {
+
+        private final byte[] data; //ビット列を含む配列
+        private final int start; //ビット列の先頭の位置
+        private long offset; //まだ読み込んでいないビット数（負の場合は先頭を超えて読み込んだビット数）
+
+        //@method_def_start: BackwardBits
+        /**
+         * 配列の範囲を指定して作成する。末尾のバイトの最上位の1のビットは終端の印として読み飛ばす。
+         */
+        BackwardBits(byte[] data, int start, int end) throws IOException {
+            if (end <= start || data[end - 1] == 0) {
+                throw new IOException("Broken zstd data");
+            }
+            this.data = data;
+            this.start = start;
+            this.offset = (long) (end - start) * 8
+                    - (8 - highestBit(data[end - 1] & 0xFF));
+        }
+        //@method_def_end
+
+        //@method_def_start: read
+        /**
+         * 指定したビット数（最大32ビット）を読み込む。先頭を超えた部分は0とみなす。
+         */
+        int read(int count) {
+            if (count == 0) {
+                return 0;
+            }
+            offset -= count;
+            long from = offset;
+            int width = count;
+            int shift = 0;
+            if (from < 0) {
+                width += (int) from;
+                shift = (int) -from;
+                from = 0;
+                if (width <= 0) {
+                    return 0;
+                }
+            }
+            final int bit = (int) (from & 7);
+            final long value = littleEndian(data, start + (int) (from >>> 3),
+                    (bit + width + 7) >>> 3) >>> bit;
+            return (int) ((value & ((1L << width) - 1)) << shift);
+        }
+        //@method_def_end
+
+        //@method_def_start: isOverflowed
+        /**
+         * 先頭を超えて読み込んだか判定する。
+         */
+        boolean isOverflowed() {
+            return offset < 0;
+        }
+        //@method_def_end
+
+        //@method_def_start: remaining
+        /**
+         * まだ読み込んでいないビット数を得る。
+         */
+        long remaining() {
+            return offset;
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * FSE（有限状態エントロピー符号）の復号表
+     */
+    private static final class FseTable {
+
+        private final int accuracyLog; //精度（状態の数の2を底とする対数）
+        private final byte[] symbols; //状態ごとの記号
+        private final byte[] bits; //状態ごとの次の状態を決めるビット数
+        private final int[] base; //状態ごとの次の状態の基準値
+
+        //@method_def_start: FseTable
+        /**
+         * 復号表の内容を指定して作成する。
+         */
+        private FseTable(int accuracyLog, byte[] symbols, byte[] bits,
+                int[] base) {
+            this.accuracyLog = accuracyLog;
+            this.symbols = symbols;
+            this.bits = bits;
+            this.base = base;
+        }
+        //@method_def_end
+
+        //@method_def_start: of
+        /**
+         * 正規化した出現頻度から復号表を作成する。頻度-1は「1未満」を表す。
+         */
+        static FseTable of(int[] frequencies, int accuracyLog) {
+            final int size = 1 << accuracyLog;
+            final byte[] symbols = new byte[size];
+            final byte[] bits = new byte[size];
+            final int[] base = new int[size];
+            final int[] next = new int[frequencies.length];
+            //「1未満」の記号は末尾から1つずつ割り当てる
+            int high = size;
+            for (int s = 0; s < frequencies.length; s++) {
+                if (frequencies[s] == -1) {
+                    symbols[--high] = (byte) s;
+                    next[s] = 1;
+                }
+            }
+            //残りの記号は一定の間隔で分散して割り当てる
+            final int step = (size >>> 1) + (size >>> 3) + 3;
+            final int mask = size - 1;
+            int position = 0;
+            for (int s = 0; s < frequencies.length; s++) {
+                if (frequencies[s] <= 0) {
+                    continue;
+                }
+                next[s] = frequencies[s];
+                for (int i = 0; i < frequencies[s]; i++) {
+                    symbols[position] = (byte) s;
+                    do {
+                        position = (position + step) & mask;
+                    } while (position >= high);
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                final int state = next[symbols[i] & 0xFF]++;
+                bits[i] = (byte) (accuracyLog - highestBit(state));
+                base[i] = (state << bits[i]) - size;
+            }
+            return new FseTable(accuracyLog, symbols, bits, base);
+        }
+        //@method_def_end
+
+        //@method_def_start: rle
+        /**
+         * 常に同じ記号を表す復号表を作成する。
+         */
+        static FseTable rle(int symbol) {
+            return new FseTable(0, new byte[]{(byte) symbol}, new byte[1],
+                    new int[1]);
+        }
+        //@method_def_end
+
+        //@method_def_start: symbol
+        /**
+         * 状態が表す記号を得る。
+         */
+        int symbol(int state) {
+            return symbols[state] & 0xFF;
+        }
+        //@method_def_end
+
+        //@method_def_start: next
+        /**
+         * ビット列を読み込んで次の状態を得る。
+         */
+        int next(int state, BackwardBits in) {
+            return base[state] + in.read(bits[state]);
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * リテラルのハフマン符号の復号表
+     */
+    private static final class HuffmanTable {
+
+        private static final int MAX_BITS = 11; //符号長の上限
+
+        private final int maxBits; //最長の符号長
+        private final byte[] symbols; //状態ごとの記号
+        private final byte[] bits; //状態ごとの符号長
+
+        //@method_def_start: HuffmanTable
+        /**
+         * 復号表の内容を指定して作成する。
+         */
+        private HuffmanTable(int maxBits, byte[] symbols, byte[] bits) {
+            this.maxBits = maxBits;
+            this.symbols = symbols;
+            this.bits = bits;
+        }
+        //@method_def_end
+
+        //@method_def_start: of
+        /**
+         * 記号ごとの重みから復号表を作成する。最後の記号の重みは残りの確率から求める。
+         */
+        static HuffmanTable of(int[] weights, int count) throws IOException {
+            int total = 0;
+            for (int i = 0; i < count; i++) {
+                if (weights[i] > MAX_BITS) {
+                    throw new IOException("Broken zstd data");
+                }
+                total += weights[i] > 0 ? 1 << (weights[i] - 1) : 0;
+            }
+            if (total == 0) {
+                throw new IOException("Broken zstd data");
+            }
+            final int maxBits = highestBit(total) + 1;
+            final int leftover = (1 << maxBits) - total;
+            if (maxBits > MAX_BITS || (leftover & (leftover - 1)) != 0) {
+                throw new IOException("Broken zstd data");
+            }
+            final int symbolCount = count + 1;
+            final int[] lengths = new int[symbolCount];
+            final int[] rankCount = new int[maxBits + 2];
+            for (int s = 0; s < symbolCount; s++) {
+                final int weight = s < count ? weights[s]
+                        : highestBit(leftover) + 1;
+                lengths[s] = weight > 0 ? maxBits + 1 - weight : 0;
+                rankCount[lengths[s]]++;
+            }
+            //長い符号から順に表の先頭から割り当てる
+            final int size = 1 << maxBits;
+            final byte[] symbols = new byte[size];
+            final byte[] bits = new byte[size];
+            final int[] rankStart = new int[maxBits + 1];
+            int position = 0;
+            for (int length = maxBits; length >= 1; length--) {
+                rankStart[length] = position;
+                position += rankCount[length] << (maxBits - length);
+            }
+            for (int s = 0; s < symbolCount; s++) {
+                final int length = lengths[s];
+                if (length == 0) {
+                    continue;
+                }
+                final int range = 1 << (maxBits - length);
+                Arrays.fill(symbols, rankStart[length],
+                        rankStart[length] + range, (byte) s);
+                Arrays.fill(bits, rankStart[length],
+                        rankStart[length] + range, (byte) length);
+                rankStart[length] += range;
+            }
+            return new HuffmanTable(maxBits, symbols, bits);
+        }
+        //@method_def_end
+
+        //@method_def_start: decode
+        /**
+         * 1つのストリームを復号する。ストリームはちょうど使い切らなければならない。
+         */
+        void decode(byte[] source, int from, int to, byte[] target,
+                int offset, int count) throws IOException {
+            final BackwardBits in = new BackwardBits(source, from, to);
+            final int mask = (1 << maxBits) - 1;
+            int state = in.read(maxBits);
+            for (int i = 0; i < count; i++) {
+                target[offset + i] = symbols[state];
+                final int length = bits[state];
+                state = ((state << length) + in.read(length)) & mask;
+            }
+            if (in.remaining() != -maxBits) {
+                throw new IOException("Broken zstd data");
+            }
+        }
+        //@method_def_end
+
+    }
+
+    /**
+     * コンテンツのチェックサムに使用するXXH64（シードは0）
+     */
+    private static final class XxHash64 {
+
+        private static final long PRIME1 = 0x9E3779B185EBCA87L;
+        private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long PRIME3 = 0x165667B19E3779F9L;
+        private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+        private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+        private final byte[] stripe = new byte[32]; //32バイトに満たない未処理の入力
+        private int buffered; //未処理の入力のバイト数
+        private long length; //入力の総バイト数
+        private long v1 = PRIME1 + PRIME2; //4つの累積値
+        private long v2 = PRIME2;
+        private long v3 = 0;
+        private long v4 = -PRIME1;
+
+        //@method_def_start: update
+        /**
+         * 入力を追加する。
+         */
+        void update(byte[] data, int offset, int count) {
+            length += count;
+            int position = offset;
+            final int end = offset + count;
+            if (buffered > 0) {
+                final int n = Math.min(32 - buffered, count);
+                System.arraycopy(data, position, stripe, buffered, n);
+                buffered += n;
+                position += n;
+                if (buffered < 32) {
+                    return;
+                }
+                process(stripe, 0);
+                buffered = 0;
+            }
+            for (; position + 32 <= end; position += 32) {
+                process(data, position);
+            }
+            System.arraycopy(data, position, stripe, 0, end - position);
+            buffered = end - position;
+        }
+        //@method_def_end
+
+        //@method_def_start: process
+        /**
+         * 32バイトを4つの累積値に加える。
+         */
+        private void process(byte[] data, int offset) {
+            v1 = round(v1, littleEndian(data, offset, 8));
+            v2 = round(v2, littleEndian(data, offset + 8, 8));
+            v3 = round(v3, littleEndian(data, offset + 16, 8));
+            v4 = round(v4, littleEndian(data, offset + 24, 8));
+        }
+        //@method_def_end
+
+        //@method_def_start: getValue
+        /**
+         * ハッシュ値を得る。
+         */
+        long getValue() {
+            long hash;
+            if (length >= 32) {
+                hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                        + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                hash = merge(hash, v1);
+                hash = merge(hash, v2);
+                hash = merge(hash, v3);
+                hash = merge(hash, v4);
+            } else {
+                hash = PRIME5;
+            }
+            hash += length;
+            int position = 0;
+            for (; position + 8 <= buffered; position += 8) {
+                hash ^= round(0, littleEndian(stripe, position, 8));
+                hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            }
+            if (position + 4 <= buffered) {
+                hash ^= littleEndian(stripe, position, 4) * PRIME1;
+                hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+                position += 4;
+            }
+            for (; position < buffered; position++) {
+                hash ^= (stripe[position] & 0xFF) * PRIME5;
+                hash = Long.rotateLeft(hash, 11) * PRIME1;
+            }
+            hash ^= hash >>> 33;
+            hash *= PRIME2;
+            hash ^= hash >>> 29;
+            hash *= PRIME3;
+            hash ^= hash >>> 32;
+            return hash;
+        }
+        //@method_def_end
+
+        //@method_def_start: round
+        /**
+         * 累積値に8バイトを加える。
+         */
+        private static long round(long accumulator, long input) {
+            return Long.rotateLeft(accumulator + input * PRIME2, 31) * PRIME1;
+        }
+        //@method_def_end
+
+        //@method_def_start: merge
+        /**
+         * 累積値をハッシュ値に合わせる。
+         */
+        private static long merge(long hash, long accumulator) {
+            return (hash ^ round(0, accumulator)) * PRIME1 + PRIME4;
+        }
+        //@method_def_end
+
+    }
+
+}
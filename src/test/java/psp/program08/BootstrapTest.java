@@ -0,0 +1,124 @@
+package psp.program08;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class BootstrapTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resultDependsOnlyOnSeed() {
+        final double[][] rows = rows(new Random(41L), 400);
+        for (Bootstrap.Method method : Bootstrap.Method.values()) {
+            final Bootstrap serial = Bootstrap.of(columns(rows),
+                    statistics(rows), PROXY_SIZES, method, 300, 7L, 0.7, 1);
+            final Bootstrap parallel = Bootstrap.of(columns(rows),
+                    statistics(rows), PROXY_SIZES, method, 300, 7L, 0.7, 4);
+            assertThat(parallel.getLowerPredictionInterval(),
+                    is(serial.getLowerPredictionInterval()));
+            assertThat(parallel.getUpperPredictionInterval(),
+                    is(serial.getUpperPredictionInterval()));
+            for (int i = 0; i < 4; i++) {
+                assertThat(parallel.getStandardError(i),
+                        is(serial.getStandardError(i)));
+            }
+            final Bootstrap other = Bootstrap.of(columns(rows),
+                    statistics(rows), PROXY_SIZES, method, 300, 8L, 0.7, 4);
+            assertThat(other.getLowerPredictionInterval(),
+                    not(is(serial.getLowerPredictionInterval())));
+        }
+    }
+
+    @Test
+    public void residualBootstrapMatchesNormalTheory() throws IOException {
+        final double[][] rows = rows(new Random(41L), 400);
+        final ProbeDataSet data
+                = new ProbeDataSet(config(write(folder.newFile(), rows)));
+        final Bootstrap bootstrap = Bootstrap.of(columns(rows),
+                statistics(rows), PROXY_SIZES, Bootstrap.Method.RESIDUAL,
+                2000, 41L, 0.7, 2);
+
+        //正規分布を仮定した予測区間とほぼ同じ幅になる
+        assertThat(bootstrap.getEstimate(),
+                closeTo(data.getImprovedEstimation(), 1.0E-6));
+        final double width = bootstrap.getUpperPredictionInterval()
+                - bootstrap.getLowerPredictionInterval();
+        assertThat(width, closeTo(2.0 * data.getPredictionInterval(),
+                0.15 * data.getPredictionInterval()));
+        assertThat(bootstrap.getLowerPredictionInterval(),
+                lessThan(bootstrap.getEstimate()));
+        assertThat(bootstrap.getUpperPredictionInterval(),
+                greaterThan(bootstrap.getEstimate()));
+    }
+
+    @Test
+    public void skewedResidualsGiveAsymmetricInterval() {
+        final Random random = new Random(41L);
+        final double[][] rows = rows(random, 500);
+        for (double[] row : rows) {
+            //右に裾の長い誤差を加える
+            row[3] += -10.0 * Math.log(random.nextDouble()) - 10.0;
+        }
+        final Bootstrap bootstrap = Bootstrap.of(columns(rows),
+                statistics(rows), PROXY_SIZES, Bootstrap.Method.PAIRS,
+                1000, 41L, 0.9, 2);
+        final double below = bootstrap.getEstimate()
+                - bootstrap.getLowerPredictionInterval();
+        final double above = bootstrap.getUpperPredictionInterval()
+                - bootstrap.getEstimate();
+        assertThat(above, greaterThan(below));
+    }
+
+    @Test
+    public void dataSetReadsBootstrapOptions() throws IOException {
+        final double[][] rows = rows(new Random(41L), 200);
+        final Properties config = config(write(folder.newFile(), rows));
+        assertThat(new ProbeDataSet(config).getBootstrap(), nullValue());
+        config.setProperty("psp.program8.bootstrap", "pairs");
+        config.setProperty("psp.program8.bootstrap.resamples", "50");
+        config.setProperty("psp.program8.bootstrap.seed", "3");
+        final Bootstrap actual = new ProbeDataSet(config).getBootstrap();
+        final Bootstrap expected = Bootstrap.of(columns(rows),
+                statistics(rows), PROXY_SIZES, Bootstrap.Method.PAIRS,
+                50, 3L, 0.7, 1);
+        assertThat(actual.getResamples(), is(50));
+        assertThat(actual.getLowerPredictionInterval(),
+                closeTo(expected.getLowerPredictionInterval(), 1.0E-6));
+        assertThat(actual.getUpperPredictionInterval(),
+                closeTo(expected.getUpperPredictionInterval(), 1.0E-6));
+    }
+
+    private static SufficientStatistics statistics(double[][] rows) {
+        final SufficientStatistics statistics = new SufficientStatistics(4);
+        for (double[] row : rows) {
+            statistics.add(row);
+        }
+        return statistics;
+    }
+
+    private static Column[] columns(double[][] rows) {
+        final Column[] columns = new Column[4];
+        for (int i = 0; i < columns.length; i++) {
+            final double[] values = new double[rows.length];
+            for (int r = 0; r < rows.length; r++) {
+                values[r] = rows[r][i];
+            }
+            columns[i] = new ArrayColumn(values);
+        }
+        return columns;
+    }
+
+}
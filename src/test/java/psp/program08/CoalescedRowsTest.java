@@ -0,0 +1,144 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class CoalescedRowsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void duplicatesAreCounted() {
+        final CoalescedRows rows = new CoalescedRows(4);
+        final SufficientStatistics expected = new SufficientStatistics(4);
+        final double[][] templates = templates(new Random(50L), 7);
+        for (int r = 0; r < 1000; r++) {
+            final double[] row = templates[r % templates.length];
+            rows.add(row);
+            expected.add(row);
+        }
+        //0.0と-0.0は別の行として扱う
+        rows.add(new double[]{0.0, 1.0, 2.0, 3.0});
+        rows.add(new double[]{-0.0, 1.0, 2.0, 3.0});
+        expected.add(new double[]{0.0, 1.0, 2.0, 3.0});
+        expected.add(new double[]{-0.0, 1.0, 2.0, 3.0});
+
+        assertThat(rows.size(), is(9));
+        assertThat(rows.getTotalCount(), is(1002L));
+        assertThat(rows.getCount(0), is(143L));
+        final double[] first = new double[4];
+        rows.getRow(0, first);
+        assertThat(Arrays.toString(first), is(Arrays.toString(templates[0])));
+
+        final SufficientStatistics actual = rows.getStatistics();
+        assertThat(actual.getRowCount(), is(1002L));
+        assertThat(actual.getEffectiveCount(), closeTo(1002.0, 1.0E-9));
+        final double[] b = actual.solve();
+        final double[] e = expected.solve();
+        for (int i = 0; i < 4; i++) {
+            assertThat(b[i], closeTo(e[i], 1.0E-9 * (1.0 + Math.abs(e[i]))));
+        }
+        assertThat(actual.residualSumOfSquares(b),
+                closeTo(expected.residualSumOfSquares(e), 1.0E-6));
+    }
+
+    @Test
+    public void repeatedRowMatchesUnweightedRows() {
+        final double[] row = {130, 163, 12, 15.5};
+        final SufficientStatistics repeated = new SufficientStatistics(4);
+        final SufficientStatistics added = new SufficientStatistics(4);
+        repeated.addRepeated(row, 5);
+        repeated.addRepeated(row, 0);
+        for (int k = 0; k < 5; k++) {
+            added.add(row);
+        }
+        assertThat(repeated.getRowCount(), is(added.getRowCount()));
+        assertThat(repeated.getSumSquaredWeights(),
+                is(added.getSumSquaredWeights()));
+        assertThat(repeated.getCount(), is(added.getCount()));
+        assertThat(repeated.getGram(1, 2), is(added.getGram(1, 2)));
+    }
+
+    @Test
+    public void dataSetCoalescesRows() throws IOException {
+        final double[][] templates = templates(new Random(50L), 40);
+        final Random random = new Random(51L);
+        final File first = write(folder.newFile(),
+                pick(templates, random, 3000));
+        final File second = write(folder.newFile(),
+                pick(templates, random, 2000));
+        final Properties config = config(first);
+        final ProbeDataSet expected = new ProbeDataSet(config);
+        config.setProperty("psp.program8.historyDataFile.coalesce", "true");
+        final ProbeDataSet actual = new ProbeDataSet(config);
+        assertThat(actual.getNumberOfHistoryData(),
+                is(expected.getNumberOfHistoryData()));
+        assertThat(actual.getCoalescedRows().size(), is(40));
+        assertThat(actual.getImprovedEstimation(),
+                closeTo(expected.getImprovedEstimation(), 1.0E-9));
+        assertThat(actual.getPredictionInterval(),
+                closeTo(expected.getPredictionInterval(), 1.0E-9));
+        assertThat(new ProbeDataSet(config(first)).getCoalescedRows(),
+                nullValue());
+
+        //ファイルを並列に読み込んでも行の順番は変わらない
+        final CoalescedRows sequential = CoalescedRows.of(
+                Arrays.asList(first, second), ColumnProjection.identity(4), 1);
+        final CoalescedRows parallel = CoalescedRows.of(
+                Arrays.asList(first, second), ColumnProjection.identity(4), 2);
+        assertThat(parallel.getTotalCount(), is(5000L));
+        final double[] a = new double[4];
+        final double[] b = new double[4];
+        for (int i = 0; i < sequential.size(); i++) {
+            sequential.getRow(i, a);
+            parallel.getRow(i, b);
+            assertThat(Arrays.toString(b), is(Arrays.toString(a)));
+            assertThat(parallel.getCount(i), is(sequential.getCount(i)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowIsRejected() throws IOException {
+        new ProbeDataSet(config(write(folder.newFile(),
+                pick(templates(new Random(50L), 5), new Random(51L), 100)),
+                "psp.program8.historyDataFile.coalesce", "true",
+                "psp.program8.window", "50"));
+    }
+
+    private static double[][] pick(double[][] templates, Random random,
+            int count) {
+        final double[][] rows = new double[count][];
+        for (int r = 0; r < count; r++) {
+            rows[r] = templates[random.nextInt(templates.length)];
+        }
+        return rows;
+    }
+
+    private static double[][] templates(Random random, int count) {
+        final double[][] templates = new double[count][];
+        for (int i = 0; i < count; i++) {
+            final double w = 50 + random.nextInt(900);
+            final double x = random.nextInt(3000);
+            final double y = random.nextInt(200);
+            final double z = 0.5 + 0.08 * w + 0.009 * x + 0.15 * y
+                    + Math.round(random.nextGaussian() * 50.0) / 10.0;
+            templates[i] = new double[]{w, x, y, z};
+        }
+        return templates;
+    }
+
+}
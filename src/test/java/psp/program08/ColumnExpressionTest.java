@@ -0,0 +1,82 @@
+package psp.program08;
+
+import org.junit.Test;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class ColumnExpressionTest {
+
+    private static final double[] W = {130, 650, 99, 150, 128, 302};
+    private static final double[] X = {163, 3000, 1200, 1600, 1400, 1900};
+
+    @Test
+    public void viewsAreEvaluatedElementWise() {
+        final Column w = new ArrayColumn(W);
+        final Column x = new ArrayColumn(X);
+        final Column product = ColumnExpression.product(w, x);
+        final Column quotient = ColumnExpression.divide(w, x);
+        final Column ln = ColumnExpression.ln(w);
+        final Column difference = ColumnExpression.subtract(w, 100.0);
+        assertThat(product.size(), is(W.length));
+        for (int i = 0; i < W.length; i++) {
+            assertThat(product.get(i), is(W[i] * X[i]));
+            assertThat(quotient.get(i), is(W[i] / X[i]));
+            assertThat(ln.get(i), is(Math.log(W[i])));
+            assertThat(difference.get(i), is(W[i] - 100.0));
+        }
+    }
+
+    @Test
+    public void chainedViewsReduceInOneLoop() {
+        final Column w = new ArrayColumn(W);
+        final Column x = new ArrayColumn(X);
+        final double meanX = PSPMath.mean(x);
+        double expected = 0.0;
+        for (int i = 0; i < W.length; i++) {
+            expected += Math.log(W[i]) * (X[i] - meanX);
+        }
+        assertThat(PSPMath.sum(ColumnExpression.product(
+                ColumnExpression.ln(w), ColumnExpression.deviation(x))),
+                closeTo(expected, 1.0E-9));
+        //偏差の総和は0、偏差の2乗の総和は偏差平方和と一致する
+        final Column deviation = ColumnExpression.deviation(x);
+        assertThat(PSPMath.sum(deviation), closeTo(0.0, 1.0E-9));
+        assertThat(PSPMath.sum(ColumnExpression.product(deviation, deviation)),
+                closeTo(PSPMath.sumSquaredDeviation(x, meanX), 1.0E-6));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeMismatchIsRejected() {
+        ColumnExpression.product(new ArrayColumn(W),
+                new ArrayColumn(new double[]{1.0}));
+    }
+
+    @Test
+    public void linkedListKeepsOrder() {
+        final LinkedList w = ColumnExpression.toLinkedList(new ArrayColumn(W));
+        final LinkedList x = ColumnExpression.toLinkedList(new ArrayColumn(X));
+        assertThat(w.getCount(), is(W.length));
+        assertThat(w.getHeadNode().getValue(), is(W[0]));
+
+        //結果を別の演算に渡しても要素の対応が崩れない
+        final LinkedList product = PSPMath.product(PSPMath.divide(w, x), x);
+        final LinkedList ln = PSPMath.ln(w);
+        final Column productColumn = ColumnExpression.of(product);
+        final Column lnColumn = ColumnExpression.of(ln);
+        for (int i = 0; i < W.length; i++) {
+            assertThat(productColumn.get(i), closeTo(W[i], 1.0E-9));
+            assertThat(lnColumn.get(i), is(Math.log(W[i])));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void linkedListCountMismatchIsRejected() {
+        PSPMath.divide(ColumnExpression.toLinkedList(new ArrayColumn(W)),
+                new LinkedList());
+    }
+
+}
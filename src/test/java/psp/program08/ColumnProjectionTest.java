@@ -0,0 +1,100 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class ColumnProjectionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void parseIndexesAndNames() throws IOException {
+        final ColumnProjection indexes = ColumnProjection.parse("4, 1,7,2", false, 4);
+        assertThat(indexes.isIdentity(), is(false));
+        assertThat(indexes.hasHeader(), is(false));
+        assertThat(indexes.getFieldCount(), is(8));
+        assertThat(indexes.getTarget(7), is(2));
+        assertThat(indexes.getTarget(0), is(-1));
+
+        final ColumnProjection names = ColumnProjection.parse("b,3,a", false, 3);
+        assertThat(names.hasHeader(), is(true));
+        assertThat(names.isResolved(), is(false));
+        final ColumnProjection resolved = names.resolve("id\ta\tb\tc");
+        assertThat(resolved.getIndex(0), is(2));
+        assertThat(resolved.getIndex(1), is(3));
+        assertThat(resolved.getIndex(2), is(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void missingNameIsRejected() throws IOException {
+        ColumnProjection.parse("a,b", false, 2).resolve("a\tc");
+    }
+
+    @Test
+    public void wideHistoryMatchesNarrowHistory() throws IOException {
+        final Random random = new Random(36L);
+        final File narrow = folder.newFile("narrow.txt");
+        final File wide = folder.newFile("wide.txt");
+        try (PrintWriter n = new PrintWriter(narrow, "UTF-8");
+                PrintWriter w = new PrintWriter(wide, "UTF-8")) {
+            w.print("date\tid\tadded\tcomment\treused\tmodified\tpages\thours\tnote\n");
+            for (int i = 0; i < 1500; i++) {
+                final double[] row = row(random);
+                n.print(line(row));
+                w.print("2017-01-" + (i % 28 + 1) + "\tP" + i + "\t" + row[0]
+                        + "\tx y\t" + row[1] + "\t" + row[2] + "\t"
+                        + random.nextInt(40) + "\t" + row[3] + "\tdone\n");
+            }
+        }
+
+        final ProbeDataSet expected = new ProbeDataSet(options(narrow, null));
+        for (String columns : new String[]{
+            "added,reused,modified,hours", "added,4,modified,7"}) {
+            for (String mode : new String[]{null, "streaming", "pipeline"}) {
+                final Properties config = options(wide, columns);
+                if (mode != null) {
+                    config.setProperty("psp.program8." + mode, "true");
+                }
+                final ProbeDataSet actual = new ProbeDataSet(config);
+                assertThat(actual.getNumberOfHistoryData(),
+                        is(expected.getNumberOfHistoryData()));
+                assertThat(actual.getImprovedEstimation(),
+                        closeTo(expected.getImprovedEstimation(), 1.0E-9));
+                assertThat(actual.getPredictionInterval(),
+                        closeTo(expected.getPredictionInterval(), 1.0E-9));
+            }
+        }
+
+        final File columnar = folder.newFile("history.bin");
+        ColumnarHistoryFile.convert(narrow, columnar,
+                new String[]{"added", "reused", "modified", "hours"});
+        final ProbeDataSet binary = new ProbeDataSet(
+                options(columnar, "added,reused,modified,hours"));
+        assertThat(binary.getImprovedEstimation(),
+                closeTo(expected.getImprovedEstimation(), 1.0E-9));
+    }
+
+    private static Properties options(File history, String columns) {
+        final Properties config = columns == null ? config(history)
+                : config(history, "psp.program8.historyDataFile.columns",
+                        columns, "psp.program8.historyDataFile.header", "true");
+        config.setProperty("psp.program8.pipeline.parsers", "2");
+        config.setProperty("psp.program8.pipeline.blockSize", "4096");
+        return config;
+    }
+
+}
@@ -0,0 +1,120 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class ColumnarHistoryFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void convertedFileMatchesTabSeparatedFile() throws IOException {
+        final double[][] rows = rows(new Random(29L), 300);
+        final File source = write(folder.newFile("history.txt"), rows);
+        final File target = new File(folder.getRoot(), "history.bin");
+        assertThat(ColumnarHistoryFile.convert(source, target,
+                ColumnarHistoryFile.defaultNames(4)), is(300L));
+        assertThat(ColumnarHistoryFile.isColumnar(source), is(false));
+        assertThat(ColumnarHistoryFile.isColumnar(target), is(true));
+
+        final ColumnarHistoryFile file = ColumnarHistoryFile.open(target);
+        file.verify();
+        assertThat(file.getRowCount(), is(300L));
+        assertThat(file.getDimension(), is(4));
+        assertThat(Arrays.toString(file.getNames()), is("[w, x, y, z]"));
+        for (int i = 0; i < 4; i++) {
+            final Column column = file.getColumn(i);
+            assertThat(column.size(), is(300));
+            for (int j = 0; j < 300; j++) {
+                assertThat(column.get(j), is(rows[j][i]));
+            }
+        }
+
+        final ProbeDataSet expected = new ProbeDataSet(config(source));
+        final ProbeDataSet actual = new ProbeDataSet(config(target));
+        assertThat(actual.getNumberOfHistoryData(), is(300));
+        assertThat(Arrays.toString(actual.getRegressionParameters()),
+                is(Arrays.toString(expected.getRegressionParameters())));
+        assertThat(actual.getImprovedEstimation(),
+                is(expected.getImprovedEstimation()));
+        assertThat(actual.getPredictionInterval(),
+                is(expected.getPredictionInterval()));
+    }
+
+    @Test
+    public void lastLineWithoutNewlineIsConverted() throws IOException {
+        final double[][] rows = rows(new Random(29L), 10);
+        final String text = text(rows);
+        final File source = folder.newFile("history.txt");
+        Files.write(source.toPath(), text.substring(0, text.length() - 1)
+                .getBytes("UTF-8"));
+        final File target = new File(folder.getRoot(), "history.bin");
+        assertThat(ColumnarHistoryFile.convert(source, target,
+                ColumnarHistoryFile.defaultNames(4)), is(10L));
+        assertThat(ColumnarHistoryFile.open(target).getColumn(3).get(9),
+                is(rows[9][3]));
+    }
+
+    @Test
+    public void brokenColumnIsDetected() throws IOException {
+        final File source = write(
+                folder.newFile("history.txt"), rows(new Random(29L), 300));
+        final File target = new File(folder.getRoot(), "history.bin");
+        ColumnarHistoryFile.convert(source, target,
+                ColumnarHistoryFile.defaultNames(4));
+
+        //3番目の列（y）のデータを1バイトだけ書き換える
+        final long columnSize = 300L * Double.BYTES;
+        final long headerSize = target.length() - 4 * columnSize;
+        try (RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+            final long position = headerSize + 2 * columnSize + 101;
+            out.seek(position);
+            final int value = out.read();
+            out.seek(position);
+            out.write(value ^ 0x01);
+        }
+
+        final ColumnarHistoryFile file = ColumnarHistoryFile.open(target);
+        try {
+            file.verify();
+            throw new AssertionError("IOException expected");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("column=y"));
+        }
+        try {
+            new ProbeDataSet(config(target)).getNumberOfHistoryData();
+            throw new AssertionError("IOException expected");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("Broken"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFileIsRejected() throws IOException {
+        final File source = write(
+                folder.newFile("history.txt"), rows(new Random(29L), 30));
+        final File target = new File(folder.getRoot(), "history.bin");
+        ColumnarHistoryFile.convert(source, target,
+                ColumnarHistoryFile.defaultNames(4));
+        try (RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+            out.setLength(target.length() - Double.BYTES);
+        }
+        ColumnarHistoryFile.open(target);
+    }
+
+}
@@ -0,0 +1,216 @@
+package psp.program08;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class CompressedInputTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void detectFormats() throws IOException {
+        final byte[] text = history(10);
+        assertThat(CompressedInput.detect(store("plain.txt", text)),
+                is(CompressedInput.Format.NONE));
+        assertThat(CompressedInput.detect(store("gzip.gz", gzip(text))),
+                is(CompressedInput.Format.GZIP));
+        assertThat(CompressedInput.detect(store("bgzf.gz", bgzf(text, 100))),
+                is(CompressedInput.Format.BGZF));
+        assertThat(CompressedInput.detect(store("zstd.zst",
+                new byte[]{0x28, (byte) 0xB5, 0x2F, (byte) 0xFD, 0})),
+                is(CompressedInput.Format.ZSTD));
+    }
+
+    @Test
+    public void bgzfInflatesInOrder() throws IOException {
+        final byte[] text = history(5000);
+        final File file = store("history.gz", bgzf(text, 4000));
+        assertThat(Arrays.equals(inflate(file), text), is(true));
+    }
+
+    @Test
+    public void compressedHistoryMatchesPlainHistory() throws IOException {
+        final byte[] text = history(2000);
+        final File plain = store("history.txt", text);
+        final ProbeDataSet expected = new ProbeDataSet(mode(plain, false));
+        for (File file : new File[]{
+            store("history.txt.gz", gzip(text)),
+            store("history.txt.bgz", bgzf(text, 10000))}) {
+            for (boolean pipelined : new boolean[]{false, true}) {
+                final ProbeDataSet actual
+                        = new ProbeDataSet(mode(file, pipelined));
+                assertThat(actual.getNumberOfHistoryData(),
+                        is(expected.getNumberOfHistoryData()));
+                assertThat(actual.getImprovedEstimation(),
+                        closeTo(expected.getImprovedEstimation(), 1.0E-9));
+                assertThat(actual.getPredictionInterval(),
+                        closeTo(expected.getPredictionInterval(), 1.0E-9));
+            }
+        }
+    }
+
+    @Test
+    public void zstdInflatesConcatenatedFrames() throws IOException {
+        //history.txt.zst：history(5000)の先頭150000バイト（レベル3、2ブロック）、
+        //スキップ可能なフレーム、残り（レベル19、展開後の大きさなし）の順に連結し、
+        //どちらのフレームにもチェックサムを記録したもの
+        final File file = store("history.txt.zst", resource("history.txt.zst"));
+        assertThat(Arrays.equals(inflate(file), history(5000)), is(true));
+
+        //repeated.txt.zst：history(50)を200回繰り返したもの（レベル19）
+        final byte[] text = history(50);
+        final byte[] repeated = new byte[text.length * 200];
+        for (int i = 0; i < 200; i++) {
+            System.arraycopy(text, 0, repeated, i * text.length, text.length);
+        }
+        final File other = store("repeated.txt.zst",
+                resource("repeated.txt.zst"));
+        assertThat(Arrays.equals(inflate(other), repeated), is(true));
+    }
+
+    @Test
+    public void zstdHistoryMatchesPlainHistory() throws IOException {
+        final File plain = store("history.txt", history(5000));
+        final File file = store("history.txt.zst", resource("history.txt.zst"));
+        final ProbeDataSet expected = new ProbeDataSet(mode(plain, false));
+        for (boolean pipelined : new boolean[]{false, true}) {
+            final ProbeDataSet actual = new ProbeDataSet(mode(file, pipelined));
+            assertThat(actual.getNumberOfHistoryData(), is(5000));
+            assertThat(actual.getImprovedEstimation(),
+                    closeTo(expected.getImprovedEstimation(), 1.0E-9));
+            assertThat(actual.getPredictionInterval(),
+                    closeTo(expected.getPredictionInterval(), 1.0E-9));
+        }
+    }
+
+    @Test
+    public void brokenZstdIsRejected() throws IOException {
+        final byte[] original = resource("history.txt.zst");
+
+        //チェックサム
+        final byte[] checksum = original.clone();
+        checksum[checksum.length - 1] ^= 0x01;
+        assertBroken(store("checksum.zst", checksum));
+
+        //途中で終わる
+        assertBroken(store("truncated.zst",
+                Arrays.copyOf(original, original.length / 2)));
+
+        //辞書を使用するフレーム
+        assertBroken(store("dictionary.zst", new byte[]{
+            0x28, (byte) 0xB5, 0x2F, (byte) 0xFD, 0x21, 1, 1, 0, 0}));
+    }
+
+    private File store(String name, byte[] content) throws IOException {
+        final File file = folder.newFile(name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        try (InputStream in
+                = CompressedInputTest.class.getResourceAsStream(name)) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] inflate(File file) throws IOException {
+        try (InputStream in = CompressedInput.open(file)) {
+            return readAll(in);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[777];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void assertBroken(File file) throws IOException {
+        try {
+            inflate(file);
+            throw new AssertionError("IOException expected");
+        } catch (IOException e) {
+            //期待どおり
+        }
+    }
+
+    private static byte[] history(int rows) {
+        return text(rows(new Random(35L), rows))
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] bgzf(byte[] content, int blockSize) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int offset = 0; offset <= content.length; offset += blockSize) {
+            //最後は空のブロック（BGZFの終端）
+            final int length = Math.min(blockSize, content.length - offset);
+            final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflater.setInput(content, offset, length);
+            deflater.finish();
+            final byte[] compressed = new byte[length + 1024];
+            final int size = deflater.deflate(compressed);
+            deflater.end();
+            final CRC32 crc = new CRC32();
+            crc.update(content, offset, length);
+            final int total = 18 + size + 8;
+            bytes.write(new byte[]{0x1F, (byte) 0x8B, 8, 4, 0, 0, 0, 0, 0,
+                (byte) 0xFF, 6, 0, 'B', 'C', 2, 0,
+                (byte) (total - 1), (byte) ((total - 1) >> 8)}, 0, 18);
+            bytes.write(compressed, 0, size);
+            writeInt(bytes, (int) crc.getValue());
+            writeInt(bytes, length);
+            if (length == 0) {
+                break;
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        for (int i = 0; i < 4; i++) {
+            out.write(value >>> (8 * i));
+        }
+    }
+
+    private static Properties mode(File history, boolean pipelined) {
+        return config(history,
+                "psp.program8.pipeline", String.valueOf(pipelined),
+                "psp.program8.pipeline.parsers", "2");
+    }
+
+}
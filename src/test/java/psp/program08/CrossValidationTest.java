@@ -0,0 +1,135 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class CrossValidationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesExplicitRefits() {
+        final double[][] rows = rows(new Random(40L), 60);
+        final SufficientStatistics statistics = statistics(rows);
+        final CrossValidation actual
+                = CrossValidation.of(columns(rows), statistics, 1);
+
+        double press = 0.0;
+        double sumAbsolute = 0.0;
+        for (int k = 0; k < rows.length; k++) {
+            //k行目を除いて計算し直す
+            final SufficientStatistics refit = new SufficientStatistics(4);
+            for (int r = 0; r < rows.length; r++) {
+                if (r != k) {
+                    refit.add(rows[r]);
+                }
+            }
+            final double[] b = refit.solve();
+            final double residual = rows[k][3] - (b[0] + b[1] * rows[k][0]
+                    + b[2] * rows[k][1] + b[3] * rows[k][2]);
+            assertThat(actual.getResiduals().get(k),
+                    closeTo(residual, 1.0E-7));
+            press += residual * residual;
+            sumAbsolute += Math.abs(residual);
+        }
+        assertThat(actual.getNumberOfHistoryData(), is(60));
+        assertThat(actual.getPress(), closeTo(press, 1.0E-6));
+        assertThat(actual.getMeanAbsoluteError(),
+                closeTo(sumAbsolute / 60, 1.0E-8));
+        assertThat(actual.getRootMeanSquaredError(),
+                closeTo(Math.sqrt(press / 60), 1.0E-8));
+        assertThat(actual.getMaxLeverage(), greaterThan(4.0 / 60));
+        assertThat(actual.getMaxLeverage(), lessThan(1.0));
+    }
+
+    @Test
+    public void parallelRangesMatchSerial() {
+        final double[][] rows = rows(new Random(40L), 5000);
+        final SufficientStatistics statistics = statistics(rows);
+        final CrossValidation serial
+                = CrossValidation.of(columns(rows), statistics, 1);
+        final CrossValidation parallel
+                = CrossValidation.of(columns(rows), statistics, 4);
+        assertThat(parallel.getPress(), closeTo(serial.getPress(), 1.0E-6));
+        assertThat(parallel.getMaxLeverage(), is(serial.getMaxLeverage()));
+        for (int r = 0; r < rows.length; r++) {
+            assertThat(parallel.getResiduals().get(r),
+                    is(serial.getResiduals().get(r)));
+        }
+    }
+
+    @Test
+    public void filesMatchColumnsInOrder() throws IOException {
+        final double[][] rows = rows(new Random(40L), 300);
+        final File first = write(folder.newFile("first.txt"), rows, 0, 120);
+        final File second
+                = write(folder.newFile("second.txt"), rows, 120, 300);
+        final SufficientStatistics statistics = statistics(rows);
+        final CrossValidation expected
+                = CrossValidation.of(columns(rows), statistics, 1);
+        final CrossValidation actual = CrossValidation.of(
+                Arrays.asList(first, second), ColumnProjection.identity(4),
+                statistics, 2);
+        assertThat(actual.getNumberOfHistoryData(), is(300));
+        assertThat(actual.getPress(), closeTo(expected.getPress(), 1.0E-6));
+        for (int r = 0; r < rows.length; r++) {
+            assertThat(actual.getResiduals().get(r),
+                    closeTo(expected.getResiduals().get(r), 1.0E-9));
+        }
+    }
+
+    @Test
+    public void dataSetUsesSamePathForStreaming() throws IOException {
+        final double[][] rows = rows(new Random(40L), 300);
+        final File history = write(folder.newFile("history.txt"), rows);
+        final ProbeDataSet inMemory = new ProbeDataSet(config(history));
+        final ProbeDataSet streaming = new ProbeDataSet(
+                config(history, "psp.program8.streaming", "true"));
+        assertThat(streaming.getCrossValidation().getPress(),
+                closeTo(inMemory.getCrossValidation().getPress(), 1.0E-6));
+        assertThat(streaming.getCrossValidation().getMeanAbsoluteError(),
+                closeTo(inMemory.getCrossValidation().getMeanAbsoluteError(),
+                        1.0E-9));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void weightedDataSetIsRejected() throws IOException {
+        new ProbeDataSet(config(write(folder.newFile("history.txt"),
+                rows(new Random(40L), 50)), "psp.program8.decay", "0.9"))
+                .getCrossValidation();
+    }
+
+    private static SufficientStatistics statistics(double[][] rows) {
+        final SufficientStatistics statistics = new SufficientStatistics(4);
+        for (double[] row : rows) {
+            statistics.add(row);
+        }
+        return statistics;
+    }
+
+    private static Column[] columns(double[][] rows) {
+        final Column[] columns = new Column[4];
+        for (int i = 0; i < columns.length; i++) {
+            final double[] values = new double[rows.length];
+            for (int r = 0; r < rows.length; r++) {
+                values[r] = rows[r][i];
+            }
+            columns[i] = new ArrayColumn(values);
+        }
+        return columns;
+    }
+
+}
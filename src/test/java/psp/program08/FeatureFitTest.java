@@ -0,0 +1,153 @@
+package psp.program08;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class FeatureFitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void specExpandsRow() {
+        final FeatureSpec spec
+                = FeatureSpec.parse("ln(w), w * x, y^2", " ln( z ) ", 4);
+        assertThat(spec.getDimension(), is(4));
+        assertThat(spec.isLogTarget(), is(true));
+        assertThat(spec.toString(), is("ln(z) ~ ln(w), w*x, y^2"));
+        final double[] row = new double[4];
+        spec.expand(new double[]{Math.E, 2.0, 3.0, Math.E * Math.E}, row);
+        assertThat(row[0], closeTo(1.0, 1.0E-12));
+        assertThat(row[1], closeTo(2.0 * Math.E, 1.0E-12));
+        assertThat(row[2], is(9.0));
+        assertThat(row[3], closeTo(2.0, 1.0E-12));
+        assertThat(spec.inverse(2.0), closeTo(Math.E * Math.E, 1.0E-12));
+
+        final FeatureSpec identity = FeatureSpec.parse(null, null, 4);
+        assertThat(identity.toString(), is("z ~ w, x, y"));
+        assertThat(identity.inverse(2.0), is(2.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVariableIsRejected() {
+        FeatureSpec.parse("w, v", null, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTargetIsRejected() {
+        FeatureSpec.parse("w", "z^2", 4);
+    }
+
+    @Test
+    public void interactionMatchesMaterializedColumns() throws IOException {
+        final double[][] rows = featureRows(new Random(47L), 4000, false);
+        final FeatureSpec spec = FeatureSpec.parse("w, x, y, w*x, w^2", null, 4);
+        final SufficientStatistics expected = new SufficientStatistics(6);
+        for (double[] r : rows) {
+            expected.add(new double[]{r[0], r[1], r[2], r[0] * r[1],
+                r[0] * r[0], r[3]});
+        }
+        final ProbeModel model = ProbeModel.fit(expected, 0.7, 0.00001, 10);
+        final double[] sizes = {650, 3000, 155, 650 * 3000, 650 * 650};
+
+        //ファイルを分けて並列に読み込んでも同じ結果になる
+        final FeatureFit fit = FeatureFit.of(Arrays.asList(
+                write(folder.newFile(), rows, 0, 1500),
+                write(folder.newFile(), rows, 1500, 4000)),
+                ColumnProjection.identity(4), spec, 0.7, 0.00001, 10, 2);
+        assertThat(fit.getModel().getNumberOfHistoryData(), is(4000));
+        assertThat(fit.estimate(PROXY_SIZES),
+                closeTo(model.estimate(sizes), 1.0E-6));
+        assertThat(fit.upperPredictionInterval(PROXY_SIZES) - fit.estimate(
+                PROXY_SIZES), closeTo(model.exactPredictionInterval(sizes),
+                        1.0E-6));
+    }
+
+    @Test
+    public void logTargetIsBackTransformed() throws IOException {
+        final double[][] rows = featureRows(new Random(47L), 4000, true);
+        final FeatureFit fit = FeatureFit.of(
+                Arrays.asList(write(folder.newFile(), rows)),
+                ColumnProjection.identity(4),
+                FeatureSpec.parse("ln(w), x, y", "ln(z)", 4),
+                0.7, 0.00001, 10, 1);
+        final double[] b = fit.getModel().getRegressionParameters();
+        assertThat(b[0], closeTo(0.1, 0.05));
+        assertThat(b[1], closeTo(0.8, 0.01));
+        assertThat(b[2], closeTo(0.0001, 0.00001));
+        assertThat(b[3], closeTo(0.002, 0.0002));
+        final double estimate = fit.estimate(PROXY_SIZES);
+        assertThat(estimate, closeTo(Math.exp(b[0] + b[1] * Math.log(650)
+                + b[2] * 3000 + b[3] * 155), 1.0E-9));
+        //対数の単位で対称な区間は元の単位では上側に広い
+        final double lower = fit.lowerPredictionInterval(PROXY_SIZES);
+        final double upper = fit.upperPredictionInterval(PROXY_SIZES);
+        assertThat(lower, greaterThan(0.0));
+        assertThat(upper - estimate, greaterThan(estimate - lower));
+        assertThat(estimate * estimate, closeTo(lower * upper, 1.0E-6));
+    }
+
+    @Test(expected = IOException.class)
+    public void nonPositiveValueIsRejected() throws IOException {
+        final double[][] rows = featureRows(new Random(47L), 100, true);
+        rows[50][3] = 0.0;
+        FeatureFit.of(Arrays.asList(write(folder.newFile(), rows)),
+                ColumnProjection.identity(4),
+                FeatureSpec.parse(null, "ln(z)", 4), 0.7, 0.00001, 10, 1);
+    }
+
+    @Test
+    public void dataSetReadsFeatures() throws IOException {
+        final double[][] rows = featureRows(new Random(47L), 500, false);
+        final Properties config = config(write(folder.newFile(), rows));
+        assertThat(new ProbeDataSet(config).getFeatureFit(), nullValue());
+        config.setProperty("psp.program8.features", "w, x, y");
+        final ProbeDataSet data = new ProbeDataSet(config);
+        final FeatureFit fit = data.getFeatureFit();
+        assertThat(fit.estimate(PROXY_SIZES),
+                closeTo(data.getImprovedEstimation(), 1.0E-6));
+        for (int i = 0; i < 4; i++) {
+            assertThat(fit.getModel().getRegressionParameters()[i],
+                    closeTo(data.getRegressionParameters()[i], 1.0E-9));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void weightedFitIsRejected() throws IOException {
+        new ProbeDataSet(config(write(folder.newFile(),
+                featureRows(new Random(47L), 100, false)),
+                "psp.program8.target", "ln(z)", "psp.program8.decay", "0.9"))
+                .getFeatureFit();
+    }
+
+    private static double[][] featureRows(Random random, int count,
+            boolean multiplicative) {
+        final double[][] rows = new double[count][];
+        for (int i = 0; i < count; i++) {
+            final double w = 50 + random.nextInt(900);
+            final double x = random.nextInt(3000);
+            final double y = random.nextInt(200);
+            //乗法的なモデルでは誤差も実績時間に比例する
+            final double z = multiplicative
+                    ? Math.exp(0.1 + 0.8 * Math.log(w) + 0.0001 * x
+                            + 0.002 * y + random.nextGaussian() * 0.1)
+                    : 0.5 + 0.08 * w + 0.009 * x + 0.15 * y
+                            + 0.00001 * w * x + random.nextGaussian() * 5.0;
+            rows[i] = new double[]{w, x, y, z};
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,193 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class GroupedFitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mapKeepsInsertionOrder() {
+        final LongHashMap<String> map = new LongHashMap<>();
+        final Random random = new Random(44L);
+        final long[] keys = new long[100000];
+        for (int i = 0; i < keys.length; i++) {
+            //連番、負の値、大きな値を混ぜる
+            keys[i] = i % 3 == 0 ? i : i % 3 == 1 ? -i : random.nextLong();
+            assertThat(map.put(keys[i], String.valueOf(i)), nullValue());
+        }
+        assertThat(map.size(), is(keys.length));
+        for (int i = 0; i < keys.length; i++) {
+            assertThat(map.indexOf(keys[i]), is(i));
+            assertThat(map.getKey(i), is(keys[i]));
+            assertThat(map.get(keys[i]), is(String.valueOf(i)));
+        }
+        assertThat(map.put(keys[5], "x"), is("5"));
+        assertThat(map.computeIfAbsent(keys[5], key -> "y"), is("x"));
+        assertThat(map.size(), is(keys.length));
+        assertThat(map.get(Long.MIN_VALUE), nullValue());
+    }
+
+    @Test
+    public void groupsMatchSeparateFits() throws IOException {
+        final Random random = new Random(44L);
+        final double[][] rows = rows(random, 3000);
+        final long[] groups = new long[rows.length];
+        for (int r = 0; r < rows.length; r++) {
+            groups[r] = 100 + random.nextInt(6);
+            //グループごとに傾きを変える
+            rows[r][3] += (groups[r] - 100) * 0.01 * rows[r][0];
+        }
+        final File history = write(folder.newFile("history.txt"),
+                withGroups(rows, groups));
+        final GroupedFit fit = GroupedFit.of(Arrays.asList(history),
+                projection(), PROXY_SIZES, 0.7, 0.00001, 10, 2);
+        assertThat(fit.size(), is(6));
+        for (int g = 0; g < fit.size(); g++) {
+            final SufficientStatistics statistics = new SufficientStatistics(4);
+            for (int r = 0; r < rows.length; r++) {
+                if (groups[r] == fit.getGroup(g)) {
+                    statistics.add(rows[r]);
+                }
+            }
+            final ProbeModel model
+                    = ProbeModel.fit(statistics, 0.7, 0.00001, 10);
+            assertThat(fit.getNumberOfHistoryData(g),
+                    is(statistics.getRowCount()));
+            assertThat(fit.getEstimate(g),
+                    closeTo(model.estimate(PROXY_SIZES), 1.0E-6));
+            assertThat(fit.getPredictionInterval(g),
+                    closeTo(model.predictionInterval(PROXY_SIZES), 1.0E-6));
+        }
+
+        //ファイルを分けて並列に読み込んでも同じ結果になる
+        final double[][] grouped = withGroups(rows, groups);
+        final GroupedFit split = GroupedFit.of(Arrays.asList(
+                write(folder.newFile("a.txt"), grouped, 0, 1000),
+                write(folder.newFile("b.txt"), grouped, 1000, 3000)),
+                projection(), PROXY_SIZES, 0.7, 0.00001, 10, 2);
+        assertThat(split.size(), is(6));
+        for (int g = 0; g < fit.size(); g++) {
+            assertThat(split.getGroup(g), is(fit.getGroup(g)));
+            assertThat(split.getEstimate(g),
+                    closeTo(fit.getEstimate(g), 1.0E-6));
+        }
+    }
+
+    @Test
+    public void manySmallGroups() throws IOException {
+        final Random random = new Random(44L);
+        final double[][] rows = rows(random, 120000);
+        final long[] groups = new long[rows.length];
+        for (int r = 0; r < rows.length; r++) {
+            groups[r] = r % 20000;
+        }
+        //行数が次元数以下のグループは計算しない
+        groups[0] = -1;
+        final File history = write(folder.newFile("history.txt"),
+                withGroups(rows, groups));
+        final GroupedFit fit = GroupedFit.of(Arrays.asList(history),
+                projection(), PROXY_SIZES, 0.7, 0.00001, 10, 4);
+        assertThat(fit.size(), is(20001));
+        assertThat(fit.getGroup(0), is(-1L));
+        assertThat(fit.getEstimate(0), is(Double.NaN));
+        final int index = fit.indexOf(19999L);
+        assertThat(fit.getNumberOfHistoryData(index), is(6L));
+        assertThat(fit.getPredictionInterval(index), greaterThan(0.0));
+        assertThat(fit.getNumberOfHistoryData(fit.indexOf(0L)), is(5L));
+        assertThat(fit.getPredictionInterval(fit.indexOf(0L)),
+                greaterThan(0.0));
+    }
+
+    @Test
+    public void collinearGroupIsNaN() throws IOException {
+        final double[][] rows = rows(new Random(44L), 308);
+        final long[] groups = new long[rows.length];
+        for (int r = 0; r < rows.length; r++) {
+            groups[r] = r % 3;
+        }
+        //再利用規模と修正規模が常に0のグループは正規方程式が解けない
+        for (int r = 300; r < rows.length; r++) {
+            groups[r] = 9;
+            rows[r][1] = 0;
+            rows[r][2] = 0;
+        }
+        final GroupedFit fit = GroupedFit.of(Arrays.asList(
+                write(folder.newFile(), withGroups(rows, groups))),
+                projection(), PROXY_SIZES, 0.7, 0.00001, 10, 2);
+        assertThat(fit.size(), is(4));
+        final int collinear = fit.indexOf(9L);
+        assertThat(fit.getNumberOfHistoryData(collinear), is(8L));
+        assertThat(fit.getEstimate(collinear), is(Double.NaN));
+        assertThat(fit.getPredictionInterval(collinear), is(Double.NaN));
+        for (long group = 0; group < 3; group++) {
+            assertThat(fit.getPredictionInterval(fit.indexOf(group)),
+                    greaterThan(0.0));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void fractionalGroupIsRejected() throws IOException {
+        final File file = write(folder.newFile("history.txt"),
+                new double[][]{{1, 2, 3, 4, 1.5}});
+        GroupedFit.of(Arrays.asList(file), projection(), PROXY_SIZES,
+                0.7, 0.00001, 10, 1);
+    }
+
+    @Test
+    public void dataSetReadsGroupColumn() throws IOException {
+        final Random random = new Random(44L);
+        final double[][] rows = rows(random, 500);
+        final long[] groups = new long[rows.length];
+        for (int r = 0; r < rows.length; r++) {
+            groups[r] = r % 2;
+        }
+        final File history = write(folder.newFile("history.txt"),
+                withGroups(rows, groups));
+        final Properties config = config(history,
+                "psp.program8.historyDataFile.columns", "0,1,2,3");
+        final ProbeDataSet expected = new ProbeDataSet(config);
+        assertThat(expected.getGroupedFit(), nullValue());
+        config.setProperty("psp.program8.historyDataFile.groupColumn", "4");
+        final ProbeDataSet data = new ProbeDataSet(config);
+        //全体の計算はグループの列の影響を受けない
+        assertThat(data.getNumberOfHistoryData(), is(500));
+        assertThat(data.getImprovedEstimation(),
+                closeTo(expected.getImprovedEstimation(), 1.0E-6));
+        //グループごとの計算は全体の計算で読み込んだ十分統計量を使用する
+        assertThat(history.delete(), is(true));
+        final GroupedFit fit = data.getGroupedFit();
+        assertThat(fit.size(), is(2));
+        assertThat(fit.getNumberOfHistoryData(0)
+                + fit.getNumberOfHistoryData(1), is(500L));
+    }
+
+    private ColumnProjection projection() {
+        return ColumnProjection.parse("0,1,2,3,4", false, 5);
+    }
+
+    private static double[][] withGroups(double[][] rows, long[] groups) {
+        final double[][] grouped = new double[rows.length][];
+        for (int r = 0; r < rows.length; r++) {
+            grouped[r] = Arrays.copyOf(rows[r], rows[r].length + 1);
+            grouped[r][rows[r].length] = groups[r];
+        }
+        return grouped;
+    }
+
+}
@@ -0,0 +1,254 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class HistoryFileFollowerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(37L);
+
+    @Test
+    public void appendedRowsAreFoldedIn() throws IOException {
+        final File file = folder.newFile("history.txt");
+        append(file, history(400));
+        final HistoryFileFollower follower = follower(file, null);
+        assertThat(follower.poll(), is(true));
+        assertFit(follower, file, null);
+        assertThat(follower.poll(), is(false));
+
+        append(file, history(250));
+        assertThat(follower.poll(), is(true));
+        assertThat(follower.getModel().getNumberOfHistoryData(), is(650));
+        assertThat(follower.getOffset(), is(file.length()));
+        assertThat(follower.getRebuildCount(), is(0L));
+        assertFit(follower, file, null);
+    }
+
+    @Test
+    public void partialLineWaitsForNewline() throws IOException {
+        final File file = folder.newFile("history.txt");
+        append(file, history(100));
+        final HistoryFileFollower follower = follower(file, null);
+        follower.poll();
+
+        final String row = history(1);
+        append(file, row.substring(0, 7));
+        assertThat(follower.poll(), is(false));
+        assertThat(follower.getStatistics().getCount(), is(100.0));
+        append(file, row.substring(7));
+        assertThat(follower.poll(), is(true));
+        assertThat(follower.getStatistics().getCount(), is(101.0));
+    }
+
+    @Test
+    public void lastLineIsReadOnceSizeSettles() throws IOException {
+        final File file = folder.newFile("history.txt");
+        append(file, history(100));
+        final HistoryFileFollower follower = follower(file, null);
+        follower.poll();
+
+        //改行で終わっていない行は、大きさが変わらないまま2回確認した時点で読み込む
+        final String row = history(1);
+        append(file, row.substring(0, row.length() - 1));
+        assertThat(follower.poll(), is(false));
+        assertThat(follower.poll(), is(true));
+        assertThat(follower.getStatistics().getCount(), is(101.0));
+        assertFit(follower, file, null);
+        assertThat(follower.poll(), is(false));
+
+        //後から追記された改行は読み飛ばす
+        append(file, "\n" + history(5));
+        assertThat(follower.poll(), is(true));
+        assertThat(follower.getStatistics().getCount(), is(106.0));
+        assertThat(follower.getOffset(), is(file.length()));
+        assertThat(follower.getRebuildCount(), is(0L));
+        assertFit(follower, file, null);
+
+        //数値に変換できない行は、続きが追記されるまで待つ
+        append(file, "1\t2");
+        assertThat(follower.poll(), is(false));
+        assertThat(follower.poll(), is(false));
+        append(file, "\t3\t4\n");
+        assertThat(follower.poll(), is(true));
+        assertThat(follower.getStatistics().getCount(), is(107.0));
+
+        //読み込んだ行に続きが追記された場合は読み込み直す
+        final String next = history(1);
+        append(file, next.substring(0, next.length() - 1));
+        follower.poll();
+        assertThat(follower.poll(), is(true));
+        assertThat(follower.getStatistics().getCount(), is(108.0));
+        append(file, "5\n");
+        assertThat(follower.poll(), is(true));
+        assertThat(follower.getRebuildCount(), is(1L));
+        assertThat(follower.getStatistics().getCount(), is(108.0));
+        assertFit(follower, file, null);
+    }
+
+    @Test
+    public void rewrittenFileIsRebuilt() throws IOException {
+        final File file = folder.newFile("history.txt");
+        append(file, history(300));
+        final HistoryFileFollower follower = follower(file, null);
+        follower.poll();
+
+        //切り詰め
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(0);
+        }
+        append(file, history(120));
+        assertThat(follower.poll(), is(true));
+        assertThat(follower.getRebuildCount(), is(1L));
+        assertFit(follower, file, null);
+
+        //同じ大きさ以上で内容を書き換え
+        Files.write(file.toPath(), (history(120) + history(10))
+                .getBytes(StandardCharsets.US_ASCII));
+        assertThat(follower.poll(), is(true));
+        assertThat(follower.getRebuildCount(), is(2L));
+        assertFit(follower, file, null);
+    }
+
+    @Test
+    public void headerIsReadOnce() throws IOException {
+        final File file = folder.newFile("history.txt");
+        append(file, "w\tx\ty\tz\n" + history(200));
+        final HistoryFileFollower follower = follower(file, "w,x,y,z");
+        follower.poll();
+        append(file, history(50));
+        follower.poll();
+        assertThat(follower.getStatistics().getCount(), is(250.0));
+        assertFit(follower, file, "w,x,y,z");
+    }
+
+    @Test
+    public void directoryWithOneFileIsFollowed() throws IOException {
+        final File directory = folder.newFolder("history");
+        Files.write(new File(directory, "history.txt").toPath(),
+                history(100).getBytes(StandardCharsets.US_ASCII));
+        final HistoryFileFollower follower
+                = HistoryFileFollower.of(new ProbeDataSet(config(directory)));
+        assertThat(follower.poll(), is(true));
+        assertThat(follower.getModel().getNumberOfHistoryData(), is(100));
+
+        //複数のファイルは監視できない
+        Files.write(new File(directory, "more.txt").toPath(),
+                history(100).getBytes(StandardCharsets.US_ASCII));
+        assertRejected(config(directory));
+    }
+
+    @Test
+    public void partialAndWeightedSettingsAreRejected() throws IOException {
+        final File file = folder.newFile("history.txt");
+        append(file, history(100));
+        assertRejected(config(file, "psp.program8.window", "50"));
+        assertRejected(config(file, "psp.program8.sample", "50"));
+        assertRejected(config(file, "psp.program8.decay", "0.99"));
+        assertRejected(config(file, "psp.program8.robust", "huber"));
+        assertRejected(config(file, "psp.program8.historyDataFile.coalesce",
+                "true"));
+        assertRejected(config(file,
+                "psp.program8.historyDataFile.columns", "0,1,2,3",
+                "psp.program8.historyDataFile.weightColumn", "4"));
+    }
+
+    @Test
+    public void watchPublishesAppends() throws Exception {
+        final File file = folder.newFile("history.txt");
+        append(file, history(100));
+        final HistoryFileFollower follower = follower(file, null);
+        final CountDownLatch first = new CountDownLatch(1);
+        final CountDownLatch published = new CountDownLatch(2);
+        follower.addListener(model -> {
+            first.countDown();
+            published.countDown();
+        });
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        final Thread watcher = new Thread(() -> {
+            try {
+                follower.watch(50);
+            } catch (IOException | InterruptedException e) {
+                failure.set(e);
+            }
+        });
+        watcher.start();
+        try {
+            //最初の通知を待ってから追記する
+            assertThat(first.await(10, TimeUnit.SECONDS), is(true));
+            append(file, history(20));
+            assertThat(published.await(10, TimeUnit.SECONDS), is(true));
+        } finally {
+            follower.close();
+            watcher.join(10000);
+        }
+        assertThat(watcher.isAlive(), is(false));
+        assertThat(failure.get(), is(nullValue()));
+        assertThat(follower.getModel().getNumberOfHistoryData(), is(120));
+    }
+
+    private void assertFit(HistoryFileFollower follower, File file,
+            String columns) throws IOException {
+        final ProbeDataSet expected = new ProbeDataSet(options(file, columns));
+        final ProbeModel model = follower.getModel();
+        assertThat(model.getNumberOfHistoryData(),
+                is(expected.getNumberOfHistoryData()));
+        final double[] sizes = expected.getEstimatedProxySizes();
+        assertThat(model.estimate(sizes),
+                closeTo(expected.getImprovedEstimation(), 1.0E-6));
+        assertThat(model.predictionInterval(sizes),
+                closeTo(expected.getPredictionInterval(), 1.0E-6));
+    }
+
+    private static void assertRejected(Properties config) throws IOException {
+        final ProbeDataSet data = new ProbeDataSet(config);
+        assertThat(data.supportsFollowing(), is(false));
+        try {
+            HistoryFileFollower.of(data);
+            throw new AssertionError("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("watch"));
+        }
+    }
+
+    private static void append(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+    }
+
+    private static HistoryFileFollower follower(File file, String columns)
+            throws IOException {
+        return HistoryFileFollower.of(new ProbeDataSet(options(file, columns)));
+    }
+
+    private String history(int count) {
+        return text(rows(random, count));
+    }
+
+    private static Properties options(File history, String columns) {
+        return columns == null ? config(history) : config(history,
+                "psp.program8.historyDataFile.columns", columns);
+    }
+
+}
@@ -0,0 +1,107 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class HistoryFileSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resolveListGlobAndDirectory() throws IOException {
+        final File directory = folder.newFolder("history");
+        final File a = new File(directory, "a.txt");
+        final File b = new File(directory, "b.txt");
+        final File c = new File(directory, "c.dat");
+        for (File file : new File[]{c, b, a}) {
+            assertThat(file.createNewFile(), is(true));
+        }
+
+        assertThat(HistoryFileSet.resolve(directory.getPath()),
+                is(Arrays.asList(a, b, c)));
+        assertThat(HistoryFileSet.resolve(directory.getPath() + "/*.txt"),
+                is(Arrays.asList(a, b)));
+        assertThat(HistoryFileSet.resolve(c.getPath() + ", " + a.getPath()),
+                is(Arrays.asList(c, a)));
+    }
+
+    @Test
+    public void parallelIngestMatchesConcatenatedHistory() throws IOException {
+        final Random random = new Random(33L);
+        final File directory = folder.newFolder("history");
+        final File whole = folder.newFile("whole.txt");
+        try (PrintWriter all = new PrintWriter(whole, "UTF-8")) {
+            for (int s = 0; s < 4; s++) {
+                final File shard = new File(directory, "shard" + s + ".txt");
+                try (PrintWriter out = new PrintWriter(shard, "UTF-8")) {
+                    for (int i = 0; i < 50 + 30 * s; i++) {
+                        final String line = line(row(random));
+                        out.print(line);
+                        all.print(line);
+                    }
+                }
+            }
+        }
+
+        final ProbeDataSet expected = new ProbeDataSet(threaded(whole));
+        final ProbeDataSet actual
+                = new ProbeDataSet(threaded(directory));
+
+        assertThat(actual.getNumberOfHistoryData(),
+                is(expected.getNumberOfHistoryData()));
+        for (int i = 0; i < 4; i++) {
+            assertClose(actual.getRegressionParameters()[i],
+                    expected.getRegressionParameters()[i]);
+        }
+        assertClose(actual.getImprovedEstimation(),
+                expected.getImprovedEstimation());
+        assertClose(actual.getPredictionInterval(),
+                expected.getPredictionInterval());
+        assertThat(actual.getHistoryColumn(3).size(),
+                is(expected.getNumberOfHistoryData()));
+    }
+
+    @Test
+    public void badFileIsReported() throws IOException {
+        final File directory = folder.newFolder("history");
+        try (PrintWriter out = new PrintWriter(
+                new File(directory, "good.txt"), "UTF-8")) {
+            out.print("1\t2\t3\t4\n5\t6\t7\t8\n");
+        }
+        try (PrintWriter out = new PrintWriter(
+                new File(directory, "bad.txt"), "UTF-8")) {
+            out.print("1\t2\t3\n");
+        }
+        try {
+            new ProbeDataSet(threaded(directory)).getNumberOfHistoryData();
+            fail();
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("bad.txt"));
+        }
+    }
+
+    private static void assertClose(double actual, double expected) {
+        assertThat(actual, closeTo(expected, 1.0E-9 * Math.abs(expected)));
+    }
+
+    private static Properties threaded(File history) {
+        return config(history, "psp.program8.historyDataFile.threads", "3");
+    }
+
+}
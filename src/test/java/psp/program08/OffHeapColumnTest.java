@@ -0,0 +1,96 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class OffHeapColumnTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addAndGetAcrossSegments() throws IOException {
+        final File directory = folder.newFolder("columns");
+        final OffHeapColumn column = new OffHeapColumn(directory.toPath());
+        assertThat(column.size(), is(0));
+        //一時ファイルは最初に追加するまで作成しない
+        assertThat(directory.list().length, is(0));
+
+        //最初のセグメントの拡張と、2番目のセグメントとの境界を超える
+        final int count = (1 << 20) + 5;
+        for (int i = 0; i < count; i++) {
+            column.add(i * 0.5);
+        }
+        assertThat(column.size(), is(count));
+        for (int i : new int[]{0, 1023, 1024, 2048, (1 << 20) - 1, 1 << 20,
+            count - 1}) {
+            assertThat(column.get(i), is(i * 0.5));
+        }
+        for (int i = 0; i < count; i += 997) {
+            assertThat(column.get(i), is(i * 0.5));
+        }
+        assertThat(directory.list().length, is(1));
+
+        column.close();
+        assertThat(directory.list().length, is(0));
+        column.close();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getBeyondSizeIsRejected() {
+        final OffHeapColumn column
+                = new OffHeapColumn(folder.getRoot().toPath());
+        try {
+            column.add(1.0);
+            column.get(1);
+        } finally {
+            column.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getAfterCloseIsRejected() {
+        final OffHeapColumn column
+                = new OffHeapColumn(folder.getRoot().toPath());
+        column.add(1.0);
+        column.close();
+        column.get(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addAfterCloseIsRejected() {
+        final OffHeapColumn column
+                = new OffHeapColumn(folder.getRoot().toPath());
+        column.close();
+        column.add(1.0);
+    }
+
+    @Test
+    public void dataSetMatchesHeapColumns() throws IOException {
+        final File history
+                = write(folder.newFile(), rows(new Random(30L), 500));
+        final ProbeDataSet expected = new ProbeDataSet(config(history));
+        try (ProbeDataSet actual = new ProbeDataSet(config(history,
+                "psp.program8.historyDataFile.offHeap", "true"))) {
+            assertThat(actual.getHistoryColumn(3).get(499),
+                    is(expected.getHistoryColumn(3).get(499)));
+            assertThat(actual.getImprovedEstimation(),
+                    closeTo(expected.getImprovedEstimation(), 1.0E-9));
+            //解放した後は履歴データファイルを読み直す
+            actual.close();
+            assertThat(actual.getHistoryColumn(0).size(), is(500));
+        }
+    }
+
+}
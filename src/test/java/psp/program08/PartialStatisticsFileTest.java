@@ -0,0 +1,101 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class PartialStatisticsFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void mergedShardsMatchConcatenatedHistory() throws IOException {
+        final Random random = new Random(32L);
+        final File whole = folder.newFile("whole.txt");
+        final File[] shards = new File[3];
+        final File[] statistics = new File[shards.length];
+        try (PrintWriter all = new PrintWriter(whole, "UTF-8")) {
+            for (int s = 0; s < shards.length; s++) {
+                shards[s] = folder.newFile("shard" + s + ".txt");
+                try (PrintWriter out = new PrintWriter(shards[s], "UTF-8")) {
+                    for (int i = 0; i < 100 * (s + 1); i++) {
+                        final String line = line(row(random));
+                        out.print(line);
+                        all.print(line);
+                    }
+                }
+                statistics[s] = folder.newFile("shard" + s + ".stats");
+                try (ProbeDataSet data
+                        = new ProbeDataSet(config(shards[s]))) {
+                    PartialStatisticsFile.write(
+                            statistics[s], data.getStatistics());
+                }
+            }
+        }
+
+        final ProbeDataSet expected = new ProbeDataSet(config(whole));
+        final ProbeDataSet actual = new ProbeDataSet(config(whole));
+        actual.setStatistics(PartialStatisticsFile.merge(
+                statistics[2], statistics[0], statistics[1]));
+
+        assertThat(actual.getNumberOfHistoryData(),
+                is(expected.getNumberOfHistoryData()));
+        for (int i = 0; i < 4; i++) {
+            assertClose(actual.getRegressionParameters()[i],
+                    expected.getRegressionParameters()[i]);
+        }
+        assertClose(actual.getImprovedEstimation(),
+                expected.getImprovedEstimation());
+        assertClose(actual.getPredictionInterval(),
+                expected.getPredictionInterval());
+    }
+
+    @Test
+    public void shardFileIsWrittenLikeSnapshot() throws IOException {
+        final SufficientStatistics statistics = new SufficientStatistics(4);
+        statistics.add(new double[]{1, 2, 3, 4});
+        final File file = new File(folder.getRoot(), "shard.stats");
+        PartialStatisticsFile.write(file, statistics);
+        //一時ファイルは残らない
+        assertThat(folder.getRoot().list().length, is(1));
+        if (Files.getFileStore(file.toPath()).supportsFileAttributeView(
+                PosixFileAttributeView.class)) {
+            assertThat(PosixFilePermissions.toString(
+                    Files.getPosixFilePermissions(file.toPath())),
+                    is("rw-r--r--"));
+        }
+        assertThat(PartialStatisticsFile.read(file).getRowCount(), is(1L));
+    }
+
+    @Test(expected = IOException.class)
+    public void brokenFileIsRejected() throws IOException {
+        final SufficientStatistics statistics = new SufficientStatistics(4);
+        statistics.add(new double[]{1, 2, 3, 4});
+        final File file = folder.newFile("broken.stats");
+        PartialStatisticsFile.write(file, statistics);
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[12] ^= 1;
+        Files.write(file.toPath(), bytes);
+        PartialStatisticsFile.read(file);
+    }
+
+    private static void assertClose(double actual, double expected) {
+        assertThat(actual, closeTo(expected, 1.0E-9 * Math.abs(expected)));
+    }
+
+}
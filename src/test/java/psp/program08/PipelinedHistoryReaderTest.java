@@ -0,0 +1,100 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class PipelinedHistoryReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void pipelineMatchesSequentialReader() throws IOException {
+        final Random random = new Random(34L);
+        final File history = folder.newFile("history.txt");
+        try (PrintWriter out = new PrintWriter(history, "UTF-8")) {
+            for (int i = 0; i < 3000; i++) {
+                final double w = 50 + random.nextInt(900);
+                final double x = random.nextInt(3000) / 10.0;
+                final double y = random.nextDouble() * 200;
+                final double z = 0.5 + 0.065 * w + 0.009 * x + 0.15 * y
+                        + random.nextGaussian() * 5.0;
+                out.print(w + "\t" + x + "\t" + y + "\t" + z
+                        + (i % 7 == 0 ? "\r\n" : "\n"));
+            }
+            out.print("1e2\t-0.5\t+3\t4.25");
+        }
+
+        final SufficientStatistics expected
+                = StreamingFit.accumulate(history, 4, 100);
+        //行より小さいブロックで、行の繰り越しとブロックの拡張も確認する
+        for (int blockSize : new int[]{16, 1000, 1 << 20}) {
+            final PipelinedHistoryReader reader
+                    = new PipelinedHistoryReader(4, 3, blockSize);
+            final SufficientStatistics actual = reader.accumulate(history);
+
+            assertThat(actual.getCount(), is(expected.getCount()));
+            for (int i = 0; i < 4; i++) {
+                for (int j = i; j < 4; j++) {
+                    assertClose(actual.getGram(i, j), expected.getGram(i, j));
+                }
+                assertClose(actual.getCrossProduct(i),
+                        expected.getCrossProduct(i));
+            }
+            assertClose(actual.getSumSquaredTarget(),
+                    expected.getSumSquaredTarget());
+            assertThat(reader.getReport(), is(notNullValue()));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void illegalFormatIsRejected() throws IOException {
+        final File history = folder.newFile("history.txt");
+        try (PrintWriter out = new PrintWriter(history, "UTF-8")) {
+            out.print("1\t2\t3\t4\n5\t6\t7\n");
+        }
+        new PipelinedHistoryReader(4, 2, 1024).accumulate(history);
+    }
+
+    @Test
+    public void parseDoubleMatchesJdk() {
+        final Random random = new Random(340L);
+        final String[] fixed = {
+            "0", "-0", "+1", "0.1", "31.4", "-.5", "5.", "007.250",
+            "123456789012345", "1234567890123456", "0.000000000000000000000001",
+            "1e3", "NaN", " 2.5"
+        };
+        for (String value : fixed) {
+            assertParsed(value);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertParsed(Double.toString(random.nextDouble() * 1000));
+            assertParsed(random.nextInt(100000) + "." + random.nextInt(1000));
+        }
+    }
+
+    private static void assertParsed(String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        assertThat(value, Double.doubleToLongBits(
+                PipelinedHistoryReader.parseDouble(bytes, 0, bytes.length)),
+                is(Double.doubleToLongBits(Double.parseDouble(value))));
+    }
+
+    private static void assertClose(double actual, double expected) {
+        assertThat(actual, closeTo(expected,
+                1.0E-9 * Math.max(1.0, Math.abs(expected))));
+    }
+
+}
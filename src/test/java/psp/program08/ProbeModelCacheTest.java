@@ -0,0 +1,191 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class ProbeModelCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void contentIsHashedOnlyWhenStampChanges() throws IOException {
+        final File history
+                = write(folder.newFile(), rows(new Random(27L), 200));
+        final Properties config = config(history);
+        final ProbeModelCache cache
+                = new ProbeModelCache(1L << 20, new ProbeModelCoalescer());
+        final ProbeModel first = cache.get(config);
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getHashCount(), is(1L));
+
+        //大きさと更新日時が同じであればハッシュ値を計算しない
+        assertThat(cache.get(config), sameInstance(first));
+        assertThat(cache.get(config), sameInstance(first));
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getHashCount(), is(1L));
+
+        //更新日時だけが変わった場合は内容を確認して同じ回帰モデルを返す
+        assertThat(history.setLastModified(
+                history.lastModified() + 10000L), is(true));
+        assertThat(cache.get(config), sameInstance(first));
+        assertThat(cache.getHashCount(), is(2L));
+        assertThat(cache.get(config), sameInstance(first));
+        assertThat(cache.getHashCount(), is(2L));
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getInvalidationCount(), is(0L));
+    }
+
+    @Test
+    public void changedContentInvalidatesEntry() throws IOException {
+        final File history
+                = write(folder.newFile(), rows(new Random(27L), 200));
+        final Properties config = config(history);
+        final ProbeModelCache cache
+                = new ProbeModelCache(1L << 20, new ProbeModelCoalescer());
+        final ProbeModel first = cache.get(config);
+
+        final long modified = history.lastModified();
+        write(history, rows(new Random(28L), 300));
+        assertThat(history.setLastModified(modified + 10000L), is(true));
+        final ProbeModel second = cache.get(config);
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second.getNumberOfHistoryData(), is(300));
+        assertThat(cache.getInvalidationCount(), is(1L));
+        assertThat(cache.getMissCount(), is(2L));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.get(config), sameInstance(second));
+
+        cache.invalidate(config);
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getCurrentBytes(), is(0L));
+        assertThat(cache.getInvalidationCount(), is(2L));
+    }
+
+    @Test
+    public void solverIsPartOfKey() throws IOException {
+        final File history
+                = write(folder.newFile(), rows(new Random(45L), 200));
+        final ProbeModelCache cache
+                = new ProbeModelCache(1L << 20, new ProbeModelCoalescer());
+        final ProbeModel auto = cache.get(config(history));
+        assertThat(cache.get(config(history, "psp.program8.solver", "auto")),
+                sameInstance(auto));
+        final ProbeModel normal
+                = cache.get(config(history, "psp.program8.solver", "normal"));
+        final ProbeModel qr
+                = cache.get(config(history, "psp.program8.solver", "qr"));
+        assertThat(normal, not(sameInstance(auto)));
+        assertThat(qr, not(sameInstance(normal)));
+        assertThat(cache.getMissCount(), is(3L));
+        assertThat(cache.size(), is(3));
+    }
+
+    @Test
+    public void robustSettingsArePartOfKey() throws IOException {
+        final double[][] rows = rows(new Random(46L), 200);
+        for (int i = 0; i < rows.length; i += 25) {
+            rows[i][3] *= 10;
+        }
+        final File history = write(folder.newFile(), rows);
+        final Properties huber
+                = config(history, "psp.program8.robust", "huber");
+        final ProbeModelCache cache
+                = new ProbeModelCache(1L << 20, new ProbeModelCoalescer());
+        final ProbeModel ordinary = cache.get(config(history));
+        final ProbeModel robust = cache.get(huber);
+        assertThat(robust, not(sameInstance(ordinary)));
+        assertThat(robust.estimate(PROXY_SIZES), closeTo(ProbeModel.of(
+                new ProbeDataSet(huber)).estimate(PROXY_SIZES), 1.0E-9));
+        assertThat(robust.estimate(PROXY_SIZES),
+                not(closeTo(ordinary.estimate(PROXY_SIZES), 1.0E-3)));
+        assertThat(cache.get(config(history)), sameInstance(ordinary));
+        assertThat(cache.get(huber), sameInstance(robust));
+
+        assertThat(cache.get(config(history, "psp.program8.robust", "tukey")),
+                not(sameInstance(robust)));
+        assertThat(cache.get(config(history, "psp.program8.robust", "huber",
+                "psp.program8.robust.maxIterations", "2")),
+                not(sameInstance(robust)));
+        assertThat(cache.get(config(history, "psp.program8.robust", "huber",
+                "psp.program8.robust.tolerance", "0.01")),
+                not(sameInstance(robust)));
+        assertThat(cache.getMissCount(), is(5L));
+        assertThat(cache.size(), is(5));
+    }
+
+    @Test
+    public void sampleSettingsArePartOfKey() throws IOException {
+        final File history
+                = write(folder.newFile(), rows(new Random(49L), 300));
+        final Properties sampled
+                = config(history, "psp.program8.sample", "30");
+        final ProbeModelCache cache
+                = new ProbeModelCache(1L << 20, new ProbeModelCoalescer());
+        final ProbeModel full = cache.get(config(history));
+        final ProbeModel sample = cache.get(sampled);
+        assertThat(sample, not(sameInstance(full)));
+        assertThat(sample.getNumberOfHistoryData(), is(30));
+        assertThat(cache.get(config(history, "psp.program8.sample", "30",
+                "psp.program8.sample.resamples", "10")), sameInstance(sample));
+        assertThat(cache.get(config(history, "psp.program8.sample", "30",
+                "psp.program8.sample.seed", "1")), not(sameInstance(sample)));
+        assertThat(cache.getMissCount(), is(3L));
+
+        assertThat(ProbeModelKey.of(config(history, "psp.program8.sample", "30",
+                "psp.program8.historyDataFile.columns", "0,1,2,3",
+                "psp.program8.sample.stratifyColumn", "4")),
+                not(equalTo(ProbeModelKey.of(config(history,
+                        "psp.program8.sample", "30",
+                        "psp.program8.historyDataFile.columns", "0,1,2,3")))));
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedByBytes() throws IOException {
+        final Properties a = config(
+                write(folder.newFile("a.txt"), rows(new Random(27L), 100)));
+        final Properties b = config(
+                write(folder.newFile("b.txt"), rows(new Random(28L), 100)));
+        final Properties c = config(
+                write(folder.newFile("c.txt"), rows(new Random(29L), 100)));
+        final long bytes = new ProbeModelCoalescer().fit(a).getEstimatedSize();
+        //2つ分と半分の上限
+        final ProbeModelCache cache = new ProbeModelCache(
+                2 * bytes + bytes / 2, new ProbeModelCoalescer());
+
+        final ProbeModel modelA = cache.get(a);
+        cache.get(b);
+        assertThat(cache.getCurrentBytes(), is(2 * bytes));
+        //aを参照し直すと、最も長い間参照されていないのはbになる
+        assertThat(cache.get(a), sameInstance(modelA));
+        cache.get(c);
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getEvictionCount(), is(1L));
+        assertThat(cache.getCurrentBytes(), is(2 * bytes));
+        assertThat(cache.get(a), sameInstance(modelA));
+        assertThat(cache.getMissCount(), is(3L));
+        cache.get(b);
+        assertThat(cache.getMissCount(), is(4L));
+        assertThat(cache.getEvictionCount(), is(2L));
+
+        //上限より大きい回帰モデルは登録しない
+        final ProbeModelCache small
+                = new ProbeModelCache(bytes - 1, new ProbeModelCoalescer());
+        small.get(a);
+        assertThat(small.size(), is(0));
+        assertThat(small.getCurrentBytes(), is(0L));
+    }
+
+}
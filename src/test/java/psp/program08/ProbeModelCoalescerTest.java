@@ -0,0 +1,140 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class ProbeModelCoalescerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void concurrentCallersShareOneFit() throws Exception {
+        final Properties config = config(
+                write(folder.newFile(), rows(new Random(26L), 200)));
+        final BlockingCoalescer coalescer = new BlockingCoalescer();
+        final int callers = 6;
+        final ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            final List<Future<ProbeModel>> futures = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                futures.add(executor.submit(() -> coalescer.fit(config)));
+            }
+            //最初の呼び出しが計算を始め、残りの呼び出しが全て結果を待つまで計算を止めておく
+            assertThat(coalescer.started.await(10, TimeUnit.SECONDS), is(true));
+            awaitCoalesced(coalescer, callers - 1);
+            coalescer.release.countDown();
+
+            final ProbeModel first = futures.get(0).get();
+            for (Future<ProbeModel> future : futures) {
+                assertThat(future.get(), sameInstance(first));
+            }
+            assertThat(coalescer.getExecutedCount(), is(1L));
+            assertThat(coalescer.getCoalescedCount(), is((long) callers - 1));
+            assertThat(first.estimate(PROXY_SIZES), closeTo(ProbeModel.of(
+                    new ProbeDataSet(config)).estimate(PROXY_SIZES), 1.0E-9));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        //終了した計算の結果は保持しない
+        final ProbeModel again = coalescer.fit(config);
+        assertThat(again, notNullValue());
+        assertThat(coalescer.getExecutedCount(), is(2L));
+        assertThat(coalescer.getCoalescedCount(), is((long) callers - 1));
+    }
+
+    @Test
+    public void differentKeysAreNotCoalesced() throws IOException {
+        final File history
+                = write(folder.newFile(), rows(new Random(26L), 200));
+        final ProbeModelCoalescer coalescer = new ProbeModelCoalescer();
+        final ProbeModel seventy = coalescer.fit(config(history));
+        final ProbeModel ninety = coalescer.fit(config(history,
+                "psp.program8.predictionIntervalRate", "0.9"));
+        assertThat(coalescer.getExecutedCount(), is(2L));
+        assertThat(coalescer.getCoalescedCount(), is(0L));
+        assertThat(ninety.predictionInterval(PROXY_SIZES),
+                greaterThan(seventy.predictionInterval(PROXY_SIZES)));
+    }
+
+    @Test
+    public void failureIsSharedWithWaiters() throws Exception {
+        final Properties config = config(folder.getRoot().getPath() + "/none");
+        final BlockingCoalescer coalescer = new BlockingCoalescer();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<ProbeModel> first
+                    = executor.submit(() -> coalescer.fit(config));
+            assertThat(coalescer.started.await(10, TimeUnit.SECONDS), is(true));
+            final Future<ProbeModel> second
+                    = executor.submit(() -> coalescer.fit(config));
+            awaitCoalesced(coalescer, 1);
+            coalescer.release.countDown();
+            assertFailed(first);
+            assertFailed(second);
+            assertThat(coalescer.getExecutedCount(), is(1L));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitCoalesced(ProbeModelCoalescer coalescer,
+            long count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (coalescer.getCoalescedCount() < count) {
+            assertThat(System.nanoTime() < deadline, is(true));
+            Thread.sleep(1);
+        }
+    }
+
+    private static void assertFailed(Future<ProbeModel> future)
+            throws InterruptedException {
+        try {
+            future.get();
+            throw new AssertionError("IOException expected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause() instanceof IOException, is(true));
+        }
+    }
+
+    private static final class BlockingCoalescer extends ProbeModelCoalescer {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        protected ProbeModel compute(Properties config) throws IOException {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            return super.compute(config);
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class ProbeModelSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotRestoresModel() throws IOException {
+        final File history = history();
+        final File snapshot = new File(folder.getRoot(), "history.snap");
+        final ProbeDataSet expected = new ProbeDataSet(config(history));
+        expected.saveSnapshot(snapshot);
+        //一時ファイルは残らない
+        assertThat(folder.getRoot().list().length, is(2));
+        if (Files.getFileStore(snapshot.toPath()).supportsFileAttributeView(
+                PosixFileAttributeView.class)) {
+            assertThat(PosixFilePermissions.toString(
+                    Files.getPosixFilePermissions(snapshot.toPath())),
+                    is("rw-r--r--"));
+        }
+
+        final ProbeDataSet actual = new ProbeDataSet(config(history));
+        assertThat(actual.restoreSnapshot(snapshot), is(true));
+        for (int i = 0; i < 4; i++) {
+            assertThat(actual.getRegressionParameters()[i],
+                    is(expected.getRegressionParameters()[i]));
+        }
+        assertThat(actual.getNumberOfHistoryData(), is(300));
+        assertThat(actual.getImprovedEstimation(),
+                is(expected.getImprovedEstimation()));
+        assertThat(actual.getPredictionInterval(),
+                is(expected.getPredictionInterval()));
+    }
+
+    @Test
+    public void staleHistoryIsRejected() throws IOException {
+        final File history = history();
+        final File snapshot = new File(folder.getRoot(), "history.snap");
+        new ProbeDataSet(config(history)).saveSnapshot(snapshot);
+        final long modified = history.lastModified();
+
+        //更新日時
+        assertThat(history.setLastModified(modified + 10000L), is(true));
+        assertThat(restore(history, snapshot), is(false));
+        assertThat(history.setLastModified(modified), is(true));
+        assertThat(restore(history, snapshot), is(true));
+
+        //大きさと更新日時が同じで内容だけが異なる
+        try (RandomAccessFile out = new RandomAccessFile(history, "rw")) {
+            final int first = out.read();
+            out.seek(0);
+            out.write(first == '9' ? '8' : '9');
+        }
+        assertThat(history.setLastModified(modified), is(true));
+        assertThat(restore(history, snapshot), is(false));
+
+        //大きさ
+        Files.write(history.toPath(), line(rows(new Random(29L), 1)[0])
+                .getBytes("UTF-8"), StandardOpenOption.APPEND);
+        assertThat(history.setLastModified(modified), is(true));
+        assertThat(restore(history, snapshot), is(false));
+    }
+
+    @Test
+    public void changedSettingsAreRejected() throws IOException {
+        final File history = history();
+        final File snapshot = new File(folder.getRoot(), "history.snap");
+        new ProbeDataSet(config(history)).saveSnapshot(snapshot);
+        assertThat(restore(history, snapshot), is(true));
+        assertThat(new ProbeDataSet(config(history,
+                "psp.program8.solver", "normal")).restoreSnapshot(snapshot),
+                is(false));
+        assertThat(new ProbeDataSet(config(history,
+                "psp.program8.predictionIntervalRate", "0.9"))
+                .restoreSnapshot(snapshot), is(false));
+        assertThat(new ProbeDataSet(config(history,
+                "psp.program8.historyDataFile.columns", "0,1,2,3"))
+                .restoreSnapshot(snapshot), is(false));
+    }
+
+    @Test
+    public void brokenSnapshotIsRejected() throws IOException {
+        final File history = history();
+        final File snapshot = new File(folder.getRoot(), "history.snap");
+        new ProbeDataSet(config(history)).saveSnapshot(snapshot);
+        final byte[] original = Files.readAllBytes(snapshot.toPath());
+
+        //版数
+        final byte[] version = original.clone();
+        version[4] = 3;
+        assertBroken(history, snapshot, version);
+
+        //CRC32
+        final byte[] crc = original.clone();
+        crc[original.length / 2] ^= 0x01;
+        assertBroken(history, snapshot, crc);
+
+        //大きさ
+        final byte[] truncated = new byte[original.length - 8];
+        System.arraycopy(original, 0, truncated, 0, truncated.length);
+        assertBroken(history, snapshot, truncated);
+
+        Files.write(snapshot.toPath(), original);
+        assertThat(restore(history, snapshot), is(true));
+    }
+
+    private File history() throws IOException {
+        return write(folder.newFile("history.txt"), rows(new Random(28L), 300));
+    }
+
+    private static boolean restore(File history, File snapshot)
+            throws IOException {
+        return new ProbeDataSet(config(history)).restoreSnapshot(snapshot);
+    }
+
+    private static void assertBroken(File history, File snapshot,
+            byte[] content) throws IOException {
+        Files.write(snapshot.toPath(), content);
+        try {
+            ProbeModelSnapshot.read(snapshot);
+            throw new AssertionError("IOException expected");
+        } catch (IOException e) {
+            //期待どおり
+        }
+        assertThat(restore(history, snapshot), is(false));
+    }
+
+}
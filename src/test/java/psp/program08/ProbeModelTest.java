@@ -0,0 +1,101 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class ProbeModelTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void leverageMatchesFullInverse() {
+        final SufficientStatistics statistics
+                = statistics(rows(new Random(42L), 300));
+        final ProbeModel model = ProbeModel.fit(statistics, 0.7, 0.00001, 10);
+        final Cholesky gram = Cholesky.decompose(statistics.getGram());
+        final Random random = new Random(42L);
+        for (int k = 0; k < 20; k++) {
+            final double[] sizes = {
+                random.nextInt(1000), random.nextInt(4000), random.nextInt(300)
+            };
+            final double[] a = {1.0, sizes[0], sizes[1], sizes[2]};
+            assertThat(model.leverage(sizes), closeTo(
+                    gram.inverseQuadraticForm(a, new double[4]), 1.0E-12));
+        }
+    }
+
+    @Test
+    public void standardErrorsMatchFullInverse() {
+        final SufficientStatistics statistics
+                = statistics(rows(new Random(42L), 300));
+        final ProbeModel model = ProbeModel.fit(statistics, 0.7, 0.00001, 10);
+        final Cholesky gram = Cholesky.decompose(statistics.getGram());
+        for (int i = 0; i < 4; i++) {
+            final double[] unit = new double[4];
+            unit[i] = 1.0;
+            //(X'X)^-1の対角要素
+            final double inverse
+                    = gram.inverseQuadraticForm(unit, new double[4]);
+            assertThat(model.getStandardError(i), closeTo(
+                    model.getSigma() * Math.sqrt(inverse),
+                    1.0E-9 * model.getStandardError(i)));
+        }
+    }
+
+    @Test
+    public void correlatedPredictorsChangeInterval() {
+        final double[][] rows = rows(new Random(42L), 300);
+        for (double[] row : rows) {
+            //再利用規模を追加規模と強く相関させる
+            row[1] = 3.0 * row[0] + row[1] * 0.1;
+        }
+        final ProbeModel model
+                = ProbeModel.fit(statistics(rows), 0.7, 0.00001, 10);
+        final double[] sizes = {650, 300, 155};
+        assertThat(model.exactPredictionInterval(sizes),
+                not(closeTo(model.predictionInterval(sizes), 1.0E-3)));
+        //説明変数の偏差積和を無視すると、従来の予測区間と一致する
+        final ProbeModel diagonal = new ProbeModel(4, 300, 300.0,
+                model.getRegressionParameters(), model.getMeans(),
+                model.getSumSquaredDeviations(), model.getSumForSigma(),
+                model.getSigma(), model.getxForPredictionInterval(), 0.7);
+        assertThat(diagonal.exactPredictionInterval(sizes),
+                closeTo(model.predictionInterval(sizes), 1.0E-9));
+    }
+
+    @Test
+    public void dataSetUsesExactLeverageWhenRequested() throws IOException {
+        final File history
+                = write(folder.newFile(), rows(new Random(42L), 200));
+        final ProbeDataSet diagonal = new ProbeDataSet(config(history));
+        final ProbeDataSet exact = new ProbeDataSet(config(history,
+                "psp.program8.predictionInterval.leverage", "exact"));
+        final ProbeModel model = exact.getModel();
+        assertThat(exact.getPredictionInterval(),
+                closeTo(model.exactPredictionInterval(PROXY_SIZES), 1.0E-9));
+        assertThat(diagonal.getPredictionInterval(),
+                closeTo(model.predictionInterval(PROXY_SIZES), 1.0E-9));
+        assertThat(exact.getModel(), sameInstance(model));
+    }
+
+    private static SufficientStatistics statistics(double[][] rows) {
+        final SufficientStatistics statistics = new SufficientStatistics(4);
+        for (double[] row : rows) {
+            statistics.add(row);
+        }
+        return statistics;
+    }
+
+}
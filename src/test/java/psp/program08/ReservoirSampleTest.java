@@ -0,0 +1,205 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class ReservoirSampleTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everyRowIsEquallyLikely() throws IOException {
+        //wに行番号を入れ、ファイルを分けても各行が選ばれる回数が等しいことを確かめる
+        final double[][] rows = new double[1000][];
+        for (int r = 0; r < rows.length; r++) {
+            rows[r] = new double[]{r, 0, 0, 0};
+        }
+        final File first = write(folder.newFile(), rows, 0, 300);
+        final File second = write(folder.newFile(), rows, 300, 1000);
+        final int[] counts = new int[rows.length];
+        for (long seed = 0; seed < 2000; seed++) {
+            final ReservoirSample sample = ReservoirSample.of(
+                    Arrays.asList(first, second), ColumnProjection.identity(4),
+                    false, 100, seed, 1);
+            assertThat(sample.getSampleSize(), is(100));
+            final double[] sampled = sample.getRows(0);
+            for (int k = 0; k < 100; k++) {
+                ++counts[(int) sampled[k * 4]];
+            }
+        }
+        //期待値200、標準偏差約13.4
+        int first300 = 0;
+        for (int r = 0; r < rows.length; r++) {
+            assertThat((double) counts[r], closeTo(200.0, 70.0));
+            if (r < 300) {
+                first300 += counts[r];
+            }
+        }
+        assertThat((double) first300, closeTo(60000.0, 1500.0));
+    }
+
+    @Test
+    public void resultDoesNotDependOnThreadsOrFormat() throws IOException {
+        final double[][] rows = rows(new Random(49L), 3000);
+        final File a = write(folder.newFile(), rows, 0, 1000);
+        final File b = write(folder.newFile(), rows, 1000, 2000);
+        final File c = write(folder.newFile(), rows, 2000, 3000);
+        final ReservoirSample sequential = ReservoirSample.of(
+                Arrays.asList(a, b, c), ColumnProjection.identity(4),
+                false, 50, 7L, 1);
+        final ReservoirSample parallel = ReservoirSample.of(
+                Arrays.asList(a, b, c), ColumnProjection.identity(4),
+                false, 50, 7L, 3);
+        assertThat(parallel.getTotalPopulation(), is(3000L));
+        assertThat(Arrays.toString(parallel.getRows(0)),
+                is(Arrays.toString(sequential.getRows(0))));
+
+        //列指向のバイナリ形式でも同じ行が選ばれる
+        final File text = write(folder.newFile(), rows, 0, 3000);
+        final File columnar = folder.newFile("history.bin");
+        ColumnarHistoryFile.convert(text, columnar,
+                new String[]{"added", "reused", "modified", "hours"});
+        final ReservoirSample fromText = ReservoirSample.of(
+                Arrays.asList(text), ColumnProjection.identity(4),
+                false, 50, 7L, 1);
+        final ReservoirSample fromColumnar = ReservoirSample.of(
+                Arrays.asList(columnar), ColumnProjection.identity(4),
+                false, 50, 7L, 1);
+        assertThat(Arrays.toString(fromColumnar.getRows(0)),
+                is(Arrays.toString(fromText.getRows(0))));
+    }
+
+    @Test
+    public void smallFileIsKeptWhole() throws IOException {
+        final double[][] rows = rows(new Random(49L), 30);
+        final ReservoirSample sample = ReservoirSample.of(
+                Arrays.asList(write(folder.newFile(), rows, 0, 10),
+                        write(folder.newFile(), rows, 10, 30)),
+                ColumnProjection.identity(4), false, 100, 0L, 2);
+        assertThat(sample.getSampleSize(), is(30));
+        final SufficientStatistics expected = new SufficientStatistics(4);
+        for (double[] row : rows) {
+            expected.add(row);
+        }
+        final SufficientStatistics actual = sample.getStatistics();
+        assertThat(actual.getRowCount(), is(30L));
+        assertThat(actual.getCrossProduct(1),
+                closeTo(expected.getCrossProduct(1), 1.0E-6));
+    }
+
+    @Test
+    public void strataAreWeightedByPopulation() throws IOException {
+        final double[][] rows = grouped(new Random(49L), 550, 2);
+        for (int r = 0; r < rows.length; r++) {
+            rows[r] = Arrays.copyOf(rows[r], 5);
+            rows[r][4] = r < 500 ? 7 : 3;
+        }
+        final ReservoirSample sample = ReservoirSample.of(
+                Arrays.asList(write(folder.newFile(), rows)),
+                ColumnProjection.identity(5), true, 20, 0L, 1);
+        assertThat(sample.getDimension(), is(4));
+        assertThat(sample.getNumberOfStrata(), is(2));
+        assertThat(sample.getStratum(0), is(7L));
+        assertThat(sample.getPopulation(0), is(500L));
+        assertThat(sample.getWeight(0), is(25.0));
+        assertThat(sample.getPopulation(1), is(50L));
+        assertThat(sample.getWeight(1), is(2.5));
+        assertThat(sample.getSampleSize(), is(40));
+        //重みの総和は母集団の行数になる
+        assertThat(sample.getStatistics().getCount(), closeTo(550.0, 1.0E-9));
+    }
+
+    @Test(expected = IOException.class)
+    public void fractionalStratumIsRejected() throws IOException {
+        final double[][] rows = rows(new Random(49L), 10);
+        for (int r = 0; r < rows.length; r++) {
+            rows[r] = Arrays.copyOf(rows[r], 5);
+            rows[r][4] = 0.5;
+        }
+        ReservoirSample.of(Arrays.asList(write(folder.newFile(), rows)),
+                ColumnProjection.identity(5), true, 5, 0L, 1);
+    }
+
+    @Test
+    public void errorShrinksWithSampleSize() throws IOException {
+        final double[][] rows = rows(new Random(49L), 20000);
+        final File history = write(folder.newFile(), rows);
+        final SufficientStatistics total = new SufficientStatistics(4);
+        for (double[] row : rows) {
+            total.add(row);
+        }
+        final double[] expected = total.solve();
+
+        final SampledFit small = SampledFit.of(ReservoirSample.of(
+                Arrays.asList(history), ColumnProjection.identity(4), false,
+                200, 1L, 1), PROXY_SIZES, 0.7, 0.00001, 10, false, 100, 1L, 2);
+        final SampledFit large = SampledFit.of(ReservoirSample.of(
+                Arrays.asList(history), ColumnProjection.identity(4), false,
+                5000, 1L, 1), PROXY_SIZES, 0.7, 0.00001, 10, false, 100, 1L, 2);
+        assertThat(large.getModel().getNumberOfHistoryData(), is(5000));
+        for (int i = 0; i < 4; i++) {
+            assertThat(large.getStandardError(i),
+                    lessThan(small.getStandardError(i)));
+            assertThat(large.getModel().getRegressionParameters()[i],
+                    closeTo(expected[i], 5.0 * large.getStandardError(i)));
+        }
+        assertThat(large.getEstimateError(), lessThan(small.getEstimateError()));
+        assertThat(large.getEstimateError(), greaterThan(0.0));
+
+        //結果はスレッド数に依存しない
+        final SampledFit again = SampledFit.of(ReservoirSample.of(
+                Arrays.asList(history), ColumnProjection.identity(4), false,
+                200, 1L, 1), PROXY_SIZES, 0.7, 0.00001, 10, false, 100, 1L, 1);
+        assertThat(again.getStandardError(1), is(small.getStandardError(1)));
+        assertThat(again.getIntervalError(), is(small.getIntervalError()));
+    }
+
+    @Test
+    public void dataSetFitsSample() throws IOException {
+        final double[][] rows = grouped(new Random(49L), 2000, 4);
+        final Properties config = config(write(folder.newFile(), rows));
+        assertThat(new ProbeDataSet(config).getSampledFit(), nullValue());
+        config.setProperty("psp.program8.sample", "300");
+        config.setProperty("psp.program8.sample.resamples", "50");
+        config.setProperty("psp.program8.sample.stratifyColumn", "4");
+        final ProbeDataSet data = new ProbeDataSet(config);
+        assertThat(data.getNumberOfHistoryData(), is(1200));
+        assertThat(data.supportsSnapshot(), is(false));
+        final SampledFit fit = data.getSampledFit();
+        assertThat(fit.getSample().getNumberOfStrata(), is(4));
+        assertThat(fit.getSample().getTotalPopulation(), is(2000L));
+        assertThat(fit.getModel().estimate(PROXY_SIZES),
+                closeTo(data.getImprovedEstimation(), 1.0E-6));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowIsRejected() throws IOException {
+        new ProbeDataSet(config(write(folder.newFile(),
+                rows(new Random(49L), 100)),
+                "psp.program8.sample", "10", "psp.program8.window", "50"));
+    }
+
+    private static double[][] grouped(Random random, int count, int groups) {
+        final double[][] rows = rows(random, count);
+        for (int i = 0; groups > 1 && i < count; i++) {
+            rows[i] = Arrays.copyOf(rows[i], 5);
+            rows[i][4] = i % groups;
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,142 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class RobustFitTest {
+
+    private static final double[] TRUE_PARAMETERS = {0.5, 0.08, 0.009, 0.15};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void outliersDoNotDistortFit() {
+        final double[][] rows = withOutliers(new Random(46L), 20000, 0.02);
+        final double[] ordinary = statistics(rows).solve();
+        assertThat(Math.abs(ordinary[0] - TRUE_PARAMETERS[0]),
+                greaterThan(1.0));
+        for (RobustFit.Weight weight : RobustFit.Weight.values()) {
+            final RobustFit fit
+                    = RobustFit.of(columns(rows), weight, 50, 1.0E-8, 4);
+            assertThat(fit.isConverged(), is(true));
+            final double[] b = fit.getRegressionParameters();
+            assertThat(b[0], closeTo(TRUE_PARAMETERS[0], 0.5));
+            assertThat(b[1], closeTo(TRUE_PARAMETERS[1], 1.0E-3));
+            assertThat(b[2], closeTo(TRUE_PARAMETERS[2], 1.0E-3));
+            assertThat(b[3], closeTo(TRUE_PARAMETERS[3], 1.0E-2));
+            //誤差の標準偏差は5
+            assertThat(fit.getScale(), closeTo(5.0, 0.5));
+        }
+    }
+
+    @Test
+    public void resultDoesNotDependOnThreads() {
+        final double[][] rows = withOutliers(new Random(46L), 30000, 0.01);
+        final RobustFit serial = RobustFit.of(columns(rows),
+                RobustFit.Weight.TUKEY, 20, 1.0E-8, 1);
+        final RobustFit parallel = RobustFit.of(columns(rows),
+                RobustFit.Weight.TUKEY, 20, 1.0E-8, 4);
+        assertThat(Arrays.toString(parallel.getRegressionParameters()),
+                is(Arrays.toString(serial.getRegressionParameters())));
+        assertThat(parallel.getIterations(), is(serial.getIterations()));
+        assertThat(parallel.getReport(), containsString("iteration 1:"));
+    }
+
+    @Test
+    public void iterationLimitStopsEarly() {
+        final double[][] rows = withOutliers(new Random(46L), 5000, 0.05);
+        final RobustFit fit = RobustFit.of(columns(rows),
+                RobustFit.Weight.HUBER, 2, 1.0E-15, 1);
+        assertThat(fit.getIterations(), is(2));
+        assertThat(fit.isConverged(), is(false));
+        //最後の反復の十分統計量を解くと多重回帰パラメータと一致する
+        assertThat(Arrays.toString(fit.getStatistics().solve()),
+                is(Arrays.toString(fit.getRegressionParameters())));
+    }
+
+    @Test
+    public void selectMatchesSort() {
+        final Random random = new Random(46L);
+        for (int n = 1; n < 200; n += 7) {
+            final double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = random.nextInt(20);
+            }
+            final double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            final int k = random.nextInt(n);
+            assertThat(RobustFit.select(values.clone(), k), is(sorted[k]));
+        }
+    }
+
+    @Test
+    public void dataSetUsesRobustParameters() throws IOException {
+        final double[][] rows = withOutliers(new Random(46L), 2000, 0.02);
+        final File history = write(folder.newFile(), rows);
+        final ProbeDataSet data = new ProbeDataSet(
+                config(history, "psp.program8.robust", "huber"));
+        final RobustFit fit = data.getRobustFit();
+        final double[] expected = fit.getRegressionParameters();
+        for (int i = 0; i < 4; i++) {
+            assertThat(data.getRegressionParameters()[i],
+                    closeTo(expected[i], 1.0E-9));
+        }
+        assertThat(data.isWeighted(), is(true));
+        assertThat(data.getEffectiveNumberOfHistoryData(), lessThan(2000.0));
+        assertThat(new ProbeDataSet(config(history)).getRobustFit(),
+                nullValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void windowIsRejected() throws IOException {
+        new ProbeDataSet(config(write(folder.newFile(),
+                rows(new Random(46L), 10)),
+                "psp.program8.robust", "tukey", "psp.program8.window", "5"));
+    }
+
+    private static SufficientStatistics statistics(double[][] rows) {
+        final SufficientStatistics statistics = new SufficientStatistics(4);
+        for (double[] row : rows) {
+            statistics.add(row);
+        }
+        return statistics;
+    }
+
+    private static Column[] columns(double[][] rows) {
+        final Column[] columns = new Column[4];
+        for (int i = 0; i < columns.length; i++) {
+            final double[] values = new double[rows.length];
+            for (int r = 0; r < rows.length; r++) {
+                values[r] = rows[r][i];
+            }
+            columns[i] = new ArrayColumn(values);
+        }
+        return columns;
+    }
+
+    private static double[][] withOutliers(Random random, int count,
+            double outlierRate) {
+        final double[][] rows = rows(random, count);
+        for (double[] row : rows) {
+            if (random.nextDouble() < outlierRate) {
+                //記録の誤りで実績時間が大きくなった行
+                row[3] += 200.0 + random.nextInt(800);
+            }
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,136 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class SlidingWindowFitTest {
+
+    //後半ほど生産性が上がる
+    private static final double DRIFT = 0.00003;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void removeUndoesAdd() {
+        final double[][] rows = rows(new Random(38L), 50, DRIFT);
+        final SufficientStatistics expected = new SufficientStatistics(4);
+        final SufficientStatistics actual = new SufficientStatistics(4);
+        for (int i = 0; i < rows.length; i++) {
+            actual.add(rows[i]);
+            if (i >= 20) {
+                expected.add(rows[i]);
+            }
+        }
+        for (int i = 0; i < 20; i++) {
+            actual.remove(rows[i]);
+        }
+        assertThat(actual.getCount(), is(30.0));
+        final double[] b = expected.solve();
+        final double[] c = actual.solve();
+        for (int i = 0; i < b.length; i++) {
+            assertThat(c[i], closeTo(b[i], 1.0E-9));
+        }
+    }
+
+    @Test
+    public void windowMatchesLatestRows() {
+        final double[][] rows = rows(new Random(38L), 1000, DRIFT);
+        final SlidingWindowFit window
+                = new SlidingWindowFit(120, 4, 0.7, 0.00001, 10);
+        for (double[] row : rows) {
+            window.add(row);
+        }
+        assertThat(window.size(), is(120));
+        assertThat(window.getRecomputeCount(), is(7L));
+
+        final SufficientStatistics latest = new SufficientStatistics(4);
+        for (int i = rows.length - 120; i < rows.length; i++) {
+            latest.add(rows[i]);
+        }
+        final ProbeModel expected = ProbeModel.fit(latest, 0.7, 0.00001, 10);
+        final ProbeModel actual = window.getModel();
+        assertThat(actual.getNumberOfHistoryData(), is(120));
+        final double[] sizes = {650, 3000, 155};
+        assertThat(actual.estimate(sizes),
+                closeTo(expected.estimate(sizes), 1.0E-6));
+        assertThat(actual.predictionInterval(sizes),
+                closeTo(expected.predictionInterval(sizes), 1.0E-6));
+    }
+
+    @Test
+    public void recomputeBoundsDrift() {
+        //大きな値の行を加算、減算すると小さな値の行の情報が丸め誤差で失われる
+        final Random random = new Random(38L);
+        final SlidingWindowFit drifting
+                = new SlidingWindowFit(10, 4, Integer.MAX_VALUE, 0.7, 0.00001, 10);
+        final SlidingWindowFit window
+                = new SlidingWindowFit(10, 4, 10, 0.7, 0.00001, 10);
+        final SufficientStatistics exact = new SufficientStatistics(4);
+        for (int i = 0; i < 5010; i++) {
+            final double scale = i < 5000 && i % 2 == 0 ? 1.0E7 : 1.0;
+            final double[] row = {
+                scale * random.nextDouble(), scale * random.nextDouble(),
+                scale * random.nextDouble(), scale * random.nextDouble()};
+            drifting.add(row);
+            window.add(row);
+            if (i >= 5000) {
+                exact.add(row);
+            }
+        }
+        assertThat(drifting.getRecomputeCount(), is(0L));
+        assertThat(window.getRecomputeCount(), is(500L));
+        assertThat(window.getStatistics().getSumSquaredTarget(),
+                closeTo(exact.getSumSquaredTarget(), 1.0E-12));
+        assertThat(Math.abs(drifting.getStatistics().getSumSquaredTarget()
+                - exact.getSumSquaredTarget()), greaterThan(1.0E-6));
+    }
+
+    @Test
+    public void dataSetUsesLatestRows() throws IOException {
+        final double[][] rows = rows(new Random(38L), 600, DRIFT);
+        final File all = write(folder.newFile("all.txt"), rows);
+        final File latest = write(folder.newFile("latest.txt"), rows,
+                600 - 200, rows.length);
+
+        final ProbeDataSet actual
+                = new ProbeDataSet(config(all, "psp.program8.window", "200"));
+        final ProbeDataSet expected = new ProbeDataSet(config(latest));
+        assertThat(actual.getNumberOfHistoryData(), is(200));
+        assertThat(actual.getImprovedEstimation(),
+                closeTo(expected.getImprovedEstimation(), 1.0E-6));
+        assertThat(actual.getPredictionInterval(),
+                closeTo(expected.getPredictionInterval(), 1.0E-6));
+    }
+
+    @Test
+    public void columnarFileMatchesTabSeparatedFile() throws IOException {
+        final File text = write(
+                folder.newFile("all.txt"), rows(new Random(38L), 600, DRIFT));
+        final File columnar = new File(folder.getRoot(), "all.bin");
+        ColumnarHistoryFile.convert(text, columnar,
+                ColumnarHistoryFile.defaultNames(4));
+
+        final ProbeDataSet expected
+                = new ProbeDataSet(config(text, "psp.program8.window", "50"));
+        final ProbeDataSet actual = new ProbeDataSet(
+                config(columnar, "psp.program8.window", "50"));
+        assertThat(actual.getNumberOfHistoryData(), is(50));
+        assertThat(actual.getImprovedEstimation(),
+                is(expected.getImprovedEstimation()));
+        assertThat(actual.getPredictionInterval(),
+                is(expected.getPredictionInterval()));
+    }
+
+}
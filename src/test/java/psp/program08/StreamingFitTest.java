@@ -0,0 +1,75 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class StreamingFitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void streamingDataSetMatchesInMemoryDataSet() throws IOException {
+        final File history = write(folder.newFile("history.txt"),
+                rows(new Random(8L), 5000));
+        final ProbeDataSet inMemory = new ProbeDataSet(mode(history, false));
+        final ProbeDataSet streaming = new ProbeDataSet(mode(history, true));
+
+        assertThat(streaming.getNumberOfHistoryData(),
+                is(inMemory.getNumberOfHistoryData()));
+        for (int i = 0; i < 4; i++) {
+            assertClose(streaming.getRegressionParameters()[i],
+                    inMemory.getRegressionParameters()[i]);
+        }
+        assertClose(streaming.getSumForSigma(), inMemory.getSumForSigma());
+        assertClose(streaming.getSigmaForPredictionInterval(),
+                inMemory.getSigmaForPredictionInterval());
+        assertClose(streaming.getImprovedEstimation(),
+                inMemory.getImprovedEstimation());
+        assertClose(streaming.getPredictionInterval(),
+                inMemory.getPredictionInterval());
+    }
+
+    @Test
+    public void streamingModelMatchesInMemoryModel() throws IOException {
+        final File history = write(folder.newFile("history.txt"),
+                rows(new Random(8L), 1000));
+        final ProbeModel expected
+                = ProbeModel.of(new ProbeDataSet(mode(history, false)));
+        final ProbeModel actual
+                = StreamingFit.fit(history, 4, 7, 0.7, 0.00001, 10);
+        final double[] sizes = {650, 3000, 155};
+
+        assertThat(actual.getNumberOfHistoryData(),
+                is(expected.getNumberOfHistoryData()));
+        assertClose(actual.getSigma(), expected.getSigma());
+        assertClose(actual.getxForPredictionInterval(),
+                expected.getxForPredictionInterval());
+        assertClose(actual.estimate(sizes), expected.estimate(sizes));
+        assertClose(actual.predictionInterval(sizes),
+                expected.predictionInterval(sizes));
+    }
+
+    private static void assertClose(double actual, double expected) {
+        assertThat(actual, closeTo(expected, 1.0E-9 * Math.abs(expected)));
+    }
+
+    private static Properties mode(File history, boolean streaming) {
+        return config(history,
+                "psp.program8.streaming", String.valueOf(streaming),
+                "psp.program8.streaming.chunkSize", "7");
+    }
+
+}
@@ -0,0 +1,164 @@
+package psp.program08;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class SubsetSelectionTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void everySubsetMatchesDirectFit() {
+        final double[][] rows = sparseRows(new Random(43L), 500, 6);
+        final SubsetSelection selection
+                = SubsetSelection.of(statistics(rows), columns(rows), 4);
+        assertThat(selection.getSubsets().size(), is(63));
+        for (SubsetSelection.Subset subset : selection.getSubsets()) {
+            //組み合わせの説明変数だけで計算し直す
+            final double[][] projected = project(rows, subset.getPredictors());
+            final SufficientStatistics direct = statistics(projected);
+            final double[] b = direct.solve();
+            final double[] actual = subset.getParameters();
+            for (int i = 0; i < b.length; i++) {
+                assertThat(actual[i],
+                        closeTo(b[i], 1.0E-6 * (1 + Math.abs(b[i]))));
+            }
+            assertThat(subset.getResidualSumOfSquares(), closeTo(
+                    direct.residualSumOfSquares(b), 1.0E-6
+                    * direct.residualSumOfSquares(b)));
+            final CrossValidation validation
+                    = CrossValidation.of(columns(projected), direct, 1);
+            assertThat(subset.getPress(), closeTo(validation.getPress(),
+                    1.0E-6 * validation.getPress()));
+        }
+    }
+
+    @Test
+    public void rankingPrefersTruePredictors() {
+        //説明変数0、2、4だけが目的変数に影響する
+        final double[][] rows = sparseRows(new Random(43L), 2000, 6);
+        final SubsetSelection selection
+                = SubsetSelection.of(statistics(rows), columns(rows), 2);
+        for (SubsetSelection.Criterion criterion
+                : SubsetSelection.Criterion.values()) {
+            final List<SubsetSelection.Subset> ranked
+                    = selection.rank(criterion);
+            final int[] best = ranked.get(0).getPredictors();
+            assertThat(best.length, greaterThanOrEqualTo(3));
+            assertThat(contains(best, 0) && contains(best, 2)
+                    && contains(best, 4), is(true));
+        }
+        final List<SubsetSelection.Subset> byAic
+                = selection.rank(SubsetSelection.Criterion.AIC);
+        assertThat(Arrays.toString(byAic.get(0).getPredictors()),
+                is("[0, 2, 4]"));
+    }
+
+    @Test
+    public void collinearSubsetsAreSkipped() {
+        final double[][] rows = sparseRows(new Random(43L), 200, 3);
+        for (double[] row : rows) {
+            row[2] = row[0] + row[1];
+        }
+        final SubsetSelection selection
+                = SubsetSelection.of(statistics(rows), 1);
+        //{0, 1, 2}だけが線形従属になる
+        assertThat(selection.getSubsets().size(), is(6));
+    }
+
+    @Test
+    public void dataSetReadsCriterion() throws IOException {
+        final Properties config = config(write(folder.newFile("history.txt"),
+                sparseRows(new Random(43L), 300, 3)));
+        assertThat(new ProbeDataSet(config).getSubsetSelection(), nullValue());
+        config.setProperty("psp.program8.subsetSelection", "aic");
+        final ProbeDataSet data = new ProbeDataSet(config);
+        assertThat(data.getSubsetCriterion(),
+                is(SubsetSelection.Criterion.AIC));
+        //深さ優先の列挙順で{0}, {0, 1}, {0, 1, 2}の3番目
+        final SubsetSelection.Subset full = data.getSubsetSelection()
+                .getSubsets().get(2);
+        assertThat(Arrays.toString(full.getPredictors()), is("[0, 1, 2]"));
+        for (int i = 0; i < 4; i++) {
+            assertThat(full.getParameters()[i], closeTo(
+                    data.getRegressionParameters()[i], 1.0E-6));
+        }
+        assertThat(full.getPress(), is(Double.NaN));
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double[][] project(double[][] rows, int[] predictors) {
+        final double[][] result = new double[rows.length][];
+        for (int r = 0; r < rows.length; r++) {
+            final double[] row = new double[predictors.length + 1];
+            for (int i = 0; i < predictors.length; i++) {
+                row[i] = rows[r][predictors[i]];
+            }
+            row[predictors.length] = rows[r][rows[r].length - 1];
+            result[r] = row;
+        }
+        return result;
+    }
+
+    private static SufficientStatistics statistics(double[][] rows) {
+        final SufficientStatistics statistics
+                = new SufficientStatistics(rows[0].length);
+        for (double[] row : rows) {
+            statistics.add(row);
+        }
+        return statistics;
+    }
+
+    private static Column[] columns(double[][] rows) {
+        final Column[] columns = new Column[rows[0].length];
+        for (int i = 0; i < columns.length; i++) {
+            final double[] values = new double[rows.length];
+            for (int r = 0; r < rows.length; r++) {
+                values[r] = rows[r][i];
+            }
+            columns[i] = new ArrayColumn(values);
+        }
+        return columns;
+    }
+
+    private static double[][] sparseRows(Random random, int count,
+            int predictors) {
+        final double[][] rows = new double[count][];
+        for (int r = 0; r < count; r++) {
+            final double[] row = new double[predictors + 1];
+            double z = 3.0 + random.nextGaussian();
+            for (int i = 0; i < predictors; i++) {
+                row[i] = random.nextInt(1000);
+                if (i % 2 == 0) {
+                    z += 0.05 * (i + 1) * row[i];
+                }
+            }
+            row[predictors] = z;
+            rows[r] = row;
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,161 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class TallSkinnyQRTest {
+
+    private static final double[] TRUE_PARAMETERS = {0.5, 0.08, 0.009, 0.15};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesNormalEquations() {
+        final double[][] rows = collinearRows(new Random(45L), 5000, 5.0, 0.0);
+        final SufficientStatistics statistics = statistics(rows);
+        final double[] expected = statistics.solve();
+        final TallSkinnyQR serial = TallSkinnyQR.of(columns(rows), 1);
+        final TallSkinnyQR parallel = TallSkinnyQR.of(columns(rows), 4);
+        final double[] actual = serial.solve();
+        for (int i = 0; i < 4; i++) {
+            assertThat(actual[i], closeTo(expected[i],
+                    1.0E-8 * (1 + Math.abs(expected[i]))));
+            //木の形は行数だけで決まる
+            assertThat(parallel.solve()[i], is(actual[i]));
+        }
+        assertThat(serial.getResidualSumOfSquares(), closeTo(
+                statistics.residualSumOfSquares(expected),
+                1.0E-8 * serial.getResidualSumOfSquares()));
+        assertThat(serial.getRowCount(), is(5000L));
+        assertThat(serial.getConditionNumber(),
+                lessThan(TallSkinnyQR.CONDITION_LIMIT));
+    }
+
+    @Test
+    public void rowsAndMergeMatchColumns() {
+        final double[][] rows = collinearRows(new Random(45L), 3000, 5.0, 0.0);
+        final TallSkinnyQR first = new TallSkinnyQR(4);
+        final TallSkinnyQR second = new TallSkinnyQR(4);
+        for (int r = 0; r < rows.length; r++) {
+            (r < 1234 ? first : second).add(rows[r]);
+        }
+        first.merge(second);
+        final double[] expected = TallSkinnyQR.of(columns(rows), 2).solve();
+        final double[] actual = first.solve();
+        for (int i = 0; i < 4; i++) {
+            assertThat(actual[i], closeTo(expected[i],
+                    1.0E-10 * (1 + Math.abs(expected[i]))));
+        }
+        assertThat(first.getRowCount(), is(3000L));
+    }
+
+    @Test
+    public void illConditionedFitStaysAccurate() {
+        //再利用規模がほぼ追加規模の3倍になる
+        final double[][] rows
+                = collinearRows(new Random(45L), 20000, 1.0E-8, 1.0E-7);
+        final SufficientStatistics statistics = statistics(rows);
+        assertThat(statistics.estimateConditionNumber(),
+                greaterThan(TallSkinnyQR.CONDITION_LIMIT));
+        //正規方程式では条件数が2乗されて精度が失われる
+        assertThat(Math.abs(statistics.solve()[1] - TRUE_PARAMETERS[1]),
+                greaterThan(1.0E-2));
+        final TallSkinnyQR qr = TallSkinnyQR.of(columns(rows), 4);
+        assertThat(qr.getConditionNumber(),
+                greaterThan(TallSkinnyQR.CONDITION_LIMIT));
+        final double[] b = qr.solve();
+        for (int i = 0; i < 4; i++) {
+            assertThat(b[i], closeTo(TRUE_PARAMETERS[i], 1.0E-5));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void collinearColumnsAreRejected() {
+        final double[][] rows = collinearRows(new Random(45L), 100, 1.0, 0.0);
+        for (double[] row : rows) {
+            row[2] = row[0] + row[1];
+        }
+        TallSkinnyQR.of(columns(rows), 1).solve();
+    }
+
+    @Test
+    public void dataSetFallsBackAutomatically() throws IOException {
+        final File ill = write(folder.newFile("ill.txt"),
+                collinearRows(new Random(45L), 5000, 1.0E-8, 1.0E-7));
+        final ProbeDataSet data = new ProbeDataSet(config(ill));
+        assertThat(data.getTallSkinnyQR(), notNullValue());
+        for (int i = 0; i < 4; i++) {
+            assertThat(data.getRegressionParameters()[i],
+                    closeTo(TRUE_PARAMETERS[i], 1.0E-5));
+        }
+
+        //十分統計量だけを計算する場合はファイルを読み直す
+        final ProbeDataSet streamed = new ProbeDataSet(
+                config(ill, "psp.program8.streaming", "true"));
+        for (int i = 0; i < 4; i++) {
+            assertThat(streamed.getRegressionParameters()[i], closeTo(
+                    data.getRegressionParameters()[i], 1.0E-9));
+        }
+        assertThat(streamed.getSumForSigma(),
+                closeTo(data.getSumForSigma(), 1.0E-9));
+
+        final File well = write(folder.newFile("well.txt"),
+                collinearRows(new Random(45L), 500, 5.0, 0.0));
+        assertThat(new ProbeDataSet(config(well)).getTallSkinnyQR(),
+                nullValue());
+        assertThat(new ProbeDataSet(config(well, "psp.program8.solver", "qr"))
+                .getTallSkinnyQR(),
+                notNullValue());
+    }
+
+    private static SufficientStatistics statistics(double[][] rows) {
+        final SufficientStatistics statistics = new SufficientStatistics(4);
+        for (double[] row : rows) {
+            statistics.add(row);
+        }
+        return statistics;
+    }
+
+    private static Column[] columns(double[][] rows) {
+        final Column[] columns = new Column[4];
+        for (int i = 0; i < columns.length; i++) {
+            final double[] values = new double[rows.length];
+            for (int r = 0; r < rows.length; r++) {
+                values[r] = rows[r][i];
+            }
+            columns[i] = new ArrayColumn(values);
+        }
+        return columns;
+    }
+
+    private static double[][] collinearRows(Random random, int count,
+            double noise, double collinear) {
+        final double[][] rows = new double[count][];
+        for (int i = 0; i < count; i++) {
+            final double w = 50 + random.nextInt(900);
+            //collinearが0より大きい場合は追加規模の3倍に相対誤差を加える
+            final double x = collinear > 0.0
+                    ? 3.0 * w * (1.0 + collinear * random.nextGaussian())
+                    : random.nextInt(3000);
+            final double y = random.nextInt(200);
+            final double z = TRUE_PARAMETERS[0] + TRUE_PARAMETERS[1] * w
+                    + TRUE_PARAMETERS[2] * x + TRUE_PARAMETERS[3] * y
+                    + random.nextGaussian() * noise;
+            rows[i] = new double[]{w, x, y, z};
+        }
+        return rows;
+    }
+
+}
@@ -0,0 +1,99 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * テストで使用する履歴データと設定値
+ *
+ * @author smuraoka
+ */
+final class TestHistory {
+
+    static final double[] PROXY_SIZES = {650, 3000, 155};
+
+    private TestHistory() {
+    }
+
+    static double[] row(Random random) {
+        return row(random, 0.08);
+    }
+
+    static double[] row(Random random, double addedRate) {
+        final double w = 50 + random.nextInt(900);
+        final double x = random.nextInt(3000);
+        final double y = random.nextInt(200);
+        final double z = 0.5 + addedRate * w + 0.009 * x + 0.15 * y
+                + random.nextGaussian() * 5.0;
+        return new double[]{w, x, y, z};
+    }
+
+    static double[][] rows(Random random, int count) {
+        return rows(random, count, 0.0);
+    }
+
+    static double[][] rows(Random random, int count, double drift) {
+        final double[][] rows = new double[count][];
+        for (int i = 0; i < count; i++) {
+            //driftが0より大きい場合は後半ほど生産性が上がる
+            rows[i] = row(random, 0.08 - drift * i);
+        }
+        return rows;
+    }
+
+    static String line(double[] row) {
+        final StringBuilder line = new StringBuilder();
+        for (double value : row) {
+            line.append(line.length() == 0 ? "" : "\t").append(value);
+        }
+        return line.append('\n').toString();
+    }
+
+    static String text(double[][] rows) {
+        final StringBuilder text = new StringBuilder();
+        for (double[] row : rows) {
+            text.append(line(row));
+        }
+        return text.toString();
+    }
+
+    static File write(File file, double[][] rows) throws IOException {
+        return write(file, rows, 0, rows.length);
+    }
+
+    static File write(File file, double[][] rows, int from, int to)
+            throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            for (int r = from; r < to; r++) {
+                out.print(line(rows[r]));
+            }
+        }
+        return file;
+    }
+
+    static Properties config(File history, String... properties) {
+        return config(history.getPath(), properties);
+    }
+
+    static Properties config(String history, String... properties) {
+        final Properties config = new Properties();
+        config.setProperty("psp.program8.configurationFile", "test.properties");
+        config.setProperty("psp.program8.addedSize", "650");
+        config.setProperty("psp.program8.resusedSize", "3000");
+        config.setProperty("psp.program8.modifiedSize", "155");
+        config.setProperty("psp.program8.historyDataFile", history);
+        config.setProperty("psp.program8.historyDataFile.dimension", "4");
+        config.setProperty("psp.program8.predictionIntervalRate", "0.7");
+        config.setProperty("psp.program8.initialNumberOfSegment", "10");
+        config.setProperty("psp.program8.acceptableError", "0.00001");
+        //名前と値を交互に指定した設定値を追加する
+        for (int i = 0; i + 1 < properties.length; i += 2) {
+            config.setProperty(properties[i], properties[i + 1]);
+        }
+        return config;
+    }
+
+}
@@ -0,0 +1,185 @@
+package psp.program08;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+import static psp.program08.TestHistory.*;
+
+/**
+ *
+ * @author smuraoka
+ */
+public class WeightedFitTest {
+
+    //後半ほど生産性が上がる
+    private static final double DRIFT = 0.00003;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void decayMatchesExplicitWeights() {
+        final double[][] rows = rows(new Random(39L), 300, DRIFT);
+        final double decay = 0.99;
+        final WeightedFit fit = new WeightedFit(4, decay);
+        final SufficientStatistics explicit = new SufficientStatistics(4);
+        for (int i = 0; i < rows.length; i++) {
+            fit.add(rows[i]);
+            explicit.add(rows[i], Math.pow(decay, rows.length - 1 - i));
+        }
+        final SufficientStatistics actual = fit.getStatistics();
+        assertThat(actual.getRowCount(), is(300L));
+        assertThat(actual.getCount(), closeTo(explicit.getCount(), 1.0E-9));
+        assertThat(actual.getEffectiveCount(),
+                closeTo(explicit.getEffectiveCount(), 1.0E-9));
+        final double[] b = explicit.solve();
+        final double[] c = actual.solve();
+        for (int i = 0; i < b.length; i++) {
+            assertThat(c[i], closeTo(b[i], 1.0E-9));
+        }
+        //減衰させると有効サンプルサイズは行数より小さくなる
+        final double sum = (1 - Math.pow(decay, 300)) / (1 - decay);
+        final double sumSquared
+                = (1 - Math.pow(decay, 600)) / (1 - decay * decay);
+        assertThat(actual.getEffectiveCount(),
+                closeTo(sum * sum / sumSquared, 1.0E-6));
+        assertThat(actual.getEffectiveCount(), lessThan(300.0));
+    }
+
+    @Test
+    public void integerWeightsMatchRepeatedRows() {
+        final double[][] rows = rows(new Random(39L), 200, DRIFT);
+        final SufficientStatistics weighted = new SufficientStatistics(4);
+        final SufficientStatistics repeated = new SufficientStatistics(4);
+        for (int i = 0; i < rows.length; i++) {
+            final int weight = 1 + i % 3;
+            weighted.add(rows[i], weight);
+            for (int k = 0; k < weight; k++) {
+                repeated.add(rows[i]);
+            }
+        }
+        assertThat(weighted.getCount(), is(repeated.getCount()));
+        final double[] b = repeated.solve();
+        final double[] c = weighted.solve();
+        for (int i = 0; i < b.length; i++) {
+            assertThat(c[i], closeTo(b[i], 1.0E-9));
+        }
+        assertThat(weighted.residualSumOfSquares(c),
+                closeTo(repeated.residualSumOfSquares(b), 1.0E-6));
+        //(Σw)^2 / Σw^2
+        assertThat(weighted.getEffectiveCount(),
+                closeTo(399.0 * 399.0 / 929.0, 1.0E-9));
+    }
+
+    @Test
+    public void unitWeightsMatchUnweightedFit() throws IOException {
+        final double[][] rows = rows(new Random(39L), 400, DRIFT);
+        final File plain = write(folder.newFile("plain.txt"), rows);
+        final File weighted
+                = write(folder.newFile("weighted.txt"), withWeight(rows));
+
+        final ProbeDataSet expected = new ProbeDataSet(config(plain));
+        final ProbeDataSet actual = new ProbeDataSet(config(weighted,
+                "psp.program8.historyDataFile.weightColumn", "4"));
+        assertThat(actual.isWeighted(), is(true));
+        assertThat(actual.getNumberOfHistoryData(), is(400));
+        assertThat(actual.getEffectiveNumberOfHistoryData(), is(400.0));
+        assertThat(actual.getImprovedEstimation(),
+                closeTo(expected.getImprovedEstimation(), 1.0E-9));
+        assertThat(actual.getPredictionInterval(),
+                closeTo(expected.getPredictionInterval(), 1.0E-9));
+    }
+
+    @Test
+    public void decayedDataSetUsesEffectiveSampleSize() throws IOException {
+        final double[][] rows = rows(new Random(39L), 400, DRIFT);
+        final ProbeDataSet data = new ProbeDataSet(config(
+                write(folder.newFile("history.txt"), rows),
+                "psp.program8.decay", "0.98"));
+        final WeightedFit fit = new WeightedFit(4, 0.98);
+        for (double[] row : rows) {
+            fit.add(row);
+        }
+        final ProbeModel model = fit.getModel(0.7, 0.00001, 10);
+
+        assertThat(data.getNumberOfHistoryData(), is(400));
+        assertThat(data.getEffectiveNumberOfHistoryData(),
+                closeTo(model.getEffectiveNumberOfHistoryData(), 1.0E-9));
+        assertThat(data.getEffectiveNumberOfHistoryData(), lessThan(100.0));
+        assertThat(data.getImprovedEstimation(),
+                closeTo(model.estimate(data.getEstimatedProxySizes()), 1.0E-9));
+        assertThat(data.getPredictionInterval(), closeTo(
+                model.predictionInterval(data.getEstimatedProxySizes()), 1.0E-9));
+        assertThat(data.supportsSnapshot(), is(false));
+    }
+
+    @Test
+    public void columnarFileMatchesTabSeparatedFile() throws IOException {
+        final double[][] rows = withWeight(rows(new Random(39L), 400, DRIFT));
+        for (int r = 0; r < rows.length; r++) {
+            rows[r][4] = 1 + r % 3;
+        }
+        final File text = write(folder.newFile("history.txt"), rows);
+        final File columnar = new File(folder.getRoot(), "history.bin");
+        ColumnarHistoryFile.convert(text, columnar,
+                ColumnarHistoryFile.defaultNames(5));
+
+        for (String[] options : new String[][]{
+            {"psp.program8.decay", "0.99"},
+            {"psp.program8.historyDataFile.weightColumn", "4"},
+            {"psp.program8.decay", "0.99",
+                "psp.program8.historyDataFile.weightColumn", "4"}}) {
+            final ProbeDataSet expected = new ProbeDataSet(config(text,
+                    withColumns(options)));
+            final ProbeDataSet actual = new ProbeDataSet(config(columnar,
+                    withColumns(options)));
+            assertThat(actual.getNumberOfHistoryData(), is(400));
+            assertThat(actual.getEffectiveNumberOfHistoryData(),
+                    is(expected.getEffectiveNumberOfHistoryData()));
+            assertThat(actual.getImprovedEstimation(),
+                    is(expected.getImprovedEstimation()));
+            assertThat(actual.getPredictionInterval(),
+                    is(expected.getPredictionInterval()));
+        }
+    }
+
+    @Test
+    public void weightsSurviveSerialization() throws IOException {
+        final SufficientStatistics statistics = new SufficientStatistics(4);
+        for (double[] row : rows(new Random(39L), 50, DRIFT)) {
+            statistics.scale(0.9);
+            statistics.add(row, 2.0);
+        }
+        final File file = folder.newFile("partial.bin");
+        PartialStatisticsFile.write(file, statistics);
+        final SufficientStatistics actual = PartialStatisticsFile.read(file);
+        assertThat(actual.getRowCount(), is(50L));
+        assertThat(actual.getSumSquaredWeights(),
+                is(statistics.getSumSquaredWeights()));
+        assertThat(actual.getEffectiveCount(),
+                is(statistics.getEffectiveCount()));
+    }
+
+    private static String[] withColumns(String[] options) {
+        final String[] all = Arrays.copyOf(options, options.length + 2);
+        all[options.length] = "psp.program8.historyDataFile.columns";
+        all[options.length + 1] = "0,1,2,3";
+        return all;
+    }
+
+    private static double[][] withWeight(double[][] rows) {
+        final double[][] weighted = new double[rows.length][];
+        for (int r = 0; r < rows.length; r++) {
+            weighted[r] = Arrays.copyOf(rows[r], rows[r].length + 1);
+            weighted[r][rows[r].length] = 1;
+        }
+        return weighted;
+    }
+
+}